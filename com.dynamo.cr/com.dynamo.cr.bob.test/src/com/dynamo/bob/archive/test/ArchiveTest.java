@@ -27,7 +27,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -221,6 +225,164 @@ public class ArchiveTest {
         }
     }
 
+    private byte[] writeArchive(int maxThreads, List<String> excludedResources) throws IOException, CompileExceptionError {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 16);
+        instance.setMaxThreads(maxThreads);
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        for (int i = 0; i < 200; ++i) {
+            String filename = "file" + i + ".dat";
+            instance.add(FilenameUtils.concat(contentRoot, filename), i % 3 != 0, i % 5 == 0);
+            addEntryToManifest(filename, root);
+        }
+        manifestBuilder.setRoot(root);
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, excludedResources);
+        archiveIndex.close();
+        archiveData.close();
+
+        byte[] index = Files.readAllBytes(outputIndex.toPath());
+        byte[] data = Files.readAllBytes(outputData.toPath());
+        byte[] result = new byte[index.length + data.length];
+        System.arraycopy(index, 0, result, 0, index.length);
+        System.arraycopy(data, 0, result, index.length, data.length);
+        return result;
+    }
+
+    @Test
+    public void testWriteArchiveParallel() throws Exception {
+        Random random = new Random(1234);
+        for (int i = 0; i < 200; ++i) {
+            // mix of compressible and random content of varying size
+            byte[] data = new byte[random.nextInt(8192) + 1];
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            } else {
+                Arrays.fill(data, (byte) i);
+            }
+            createDummyFile(contentRoot, "file" + i + ".dat", data);
+        }
+
+        List<String> excludedResources = new ArrayList<String>();
+        excludedResources.add("/file7.dat");
+        excludedResources.add("/file42.dat");
+
+        byte[] expected = writeArchive(1, excludedResources);
+        assertArrayEquals(expected, writeArchive(4, excludedResources));
+        assertArrayEquals(expected, writeArchive(16, excludedResources));
+    }
+
+    @Test
+    public void testWriteArchiveDeduplicatesPayloads() throws Exception {
+        byte[] shared = new byte[1000];
+        new Random(5678).nextBytes(shared);
+        byte[] unique = new byte[1000];
+        new Random(8765).nextBytes(unique);
+
+        ArchiveBuilder instance = new ArchiveBuilder(contentRoot, manifestBuilder, 4);
+        instance.add(createDummyFile(contentRoot, "a.texturec", shared), true, false);
+        instance.add(createDummyFile(contentRoot, "b.texturec", shared), true, false);
+        instance.add(createDummyFile(contentRoot, "c.texturec", unique), true, false);
+        instance.add(createDummyFile(contentRoot, "d.texturec", shared), true, false);
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        instance.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        assertEquals(2, instance.getDeduplicatedEntryCount());
+        assertTrue(outputData.length() < 3 * 1000);
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(4, entries.size());
+        Set<Integer> offsets = new HashSet<Integer>();
+        for (ArchiveEntry entry : entries) {
+            byte[] content = ar.getEntryContent(entry);
+            assertTrue(Arrays.equals(shared, content) || Arrays.equals(unique, content));
+            offsets.add(entry.getResourceOffset());
+        }
+        assertEquals(2, offsets.size());
+        ar.close();
+    }
+
+    private byte[] writeArchive(File payloadIndex, File previousData) throws IOException, CompileExceptionError {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        instance.setMaxThreads(2);
+        if (payloadIndex != null) {
+            instance.setPayloadCache(payloadIndex, previousData);
+        }
+        for (int i = 0; i < 20; ++i) {
+            instance.add(FilenameUtils.concat(contentRoot, "file" + i + ".dat"), i % 2 == 0, i % 3 == 0);
+        }
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        archiveIndex.close();
+        archiveData.close();
+
+        lastReusedEntryCount = instance.getReusedEntryCount();
+        byte[] index = Files.readAllBytes(outputIndex.toPath());
+        byte[] data = Files.readAllBytes(outputData.toPath());
+        byte[] result = new byte[index.length + data.length];
+        System.arraycopy(index, 0, result, 0, index.length);
+        System.arraycopy(data, 0, result, index.length, data.length);
+        return result;
+    }
+
+    private int lastReusedEntryCount;
+
+    @Test
+    public void testWriteArchiveIncremental() throws Exception {
+        for (int i = 0; i < 20; ++i) {
+            byte[] data = new byte[1000 + i];
+            Arrays.fill(data, (byte) i);
+            createDummyFile(contentRoot, "file" + i + ".dat", data);
+        }
+
+        File payloadIndex = new File(resourcePackDir.toFile(), "game.arcd.payloadcache");
+        File previousData = new File(resourcePackDir.toFile(), "game.arcd");
+
+        // No previous build
+        byte[] full = writeArchive(payloadIndex, previousData);
+        assertEquals(0, lastReusedEntryCount);
+        assertTrue(payloadIndex.exists());
+        FileUtils.copyFile(outputData, previousData);
+
+        // Nothing changed
+        assertArrayEquals(full, writeArchive(payloadIndex, previousData));
+        assertEquals(20, lastReusedEntryCount);
+        FileUtils.copyFile(outputData, previousData);
+
+        // One resource changed
+        createDummyFile(contentRoot, "file3.dat", "changed".getBytes());
+        byte[] incremental = writeArchive(payloadIndex, previousData);
+        assertEquals(19, lastReusedEntryCount);
+        assertArrayEquals(writeArchive(null, null), incremental);
+        FileUtils.copyFile(outputData, previousData);
+
+        // Previous archive data doesn't match the index
+        FileUtils.writeByteArrayToFile(previousData, "garbage".getBytes());
+        assertArrayEquals(incremental, writeArchive(payloadIndex, previousData));
+        assertEquals(0, lastReusedEntryCount);
+    }
+
     @Test
     public void testLoadResourceData() throws Exception {
         byte[] content = "Hello, world".getBytes();
@@ -232,6 +394,25 @@ public class ArchiveTest {
         assertArrayEquals(content, actual);
     }
 
+    @Test
+    public void testWriteResourcePackEmptyResource() throws Exception {
+        String filepath = createDummyFile(contentRoot, "empty.tmp", new byte[0]);
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        ArchiveEntry entry = new ArchiveEntry(contentRoot, filepath);
+        entry.setHexDigest("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+
+        instance.writeResourcePack(entry, resourcePackDir.toString(), new byte[0]);
+
+        byte[] actual = Files.readAllBytes(resourcePackDir.resolve(entry.getHexDigest()));
+        assertEquals(16, actual.length);
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(0, actual[i]);
+        }
+        for (int i = 5; i < 16; ++i) {
+            assertEquals((byte) 0xED, actual[i]);
+        }
+    }
+
     @Test
     public void testCompressResourceData() throws Exception {
         byte[] content = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA".getBytes();
@@ -0,0 +1,172 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.cache.LocalCacheStore;
+
+public class LocalCacheStoreTest {
+
+	private Path cacheDir;
+
+	private LocalCacheStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		cacheDir = Files.createTempDirectory(null);
+		store = new LocalCacheStore(cacheDir.toString());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(cacheDir.toFile());
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+	private long blobsSize() {
+		return FileUtils.sizeOfDirectory(new File(cacheDir.toFile(), "blobs"));
+	}
+
+	// data should be returned as it was put, compressed or not
+	@Test
+	public void testPutAndGet() throws Exception {
+		byte[] compressible = new byte[10000];
+		byte[] incompressible = randomBytes(10000);
+		byte[] empty = new byte[0];
+		store.put("compressible", compressible);
+		store.put("incompressible", incompressible);
+		store.put("empty", empty);
+
+		assertArrayEquals(compressible, store.get("compressible"));
+		assertArrayEquals(incompressible, store.get("incompressible"));
+		assertArrayEquals(empty, store.get("empty"));
+		assertTrue(store.get("missing") == null);
+		assertFalse(store.contains("missing"));
+		assertTrue(blobsSize() < 10000 + 10000 / 2);
+	}
+
+	// identical data stored under different keys should share a blob
+	@Test
+	public void testDeduplication() throws Exception {
+		byte[] data = randomBytes(1000);
+		store.put("key1", data);
+		long size = blobsSize();
+		store.put("key2", data);
+		assertEquals(size, blobsSize());
+		assertArrayEquals(data, store.get("key1"));
+		assertArrayEquals(data, store.get("key2"));
+
+		LocalCacheStore.Stats stats = store.getStats(0);
+		assertEquals(2, stats.keyCount);
+		assertEquals(1, stats.blobCount);
+		assertEquals(1000, stats.dataSize);
+	}
+
+	// hits and misses should be accumulated across builds
+	@Test
+	public void testStats() throws Exception {
+		store.put("key", randomBytes(100));
+		store.get("key");
+		store.get("missing");
+		store.saveStats();
+		store.get("key");
+		store.saveStats();
+
+		LocalCacheStore.Stats stats = new LocalCacheStore(cacheDir.toString()).getStats(0);
+		assertEquals(2, stats.hits);
+		assertEquals(1, stats.misses);
+	}
+
+	// a blob should only be removed when all keys referring to it are evicted
+	@Test
+	public void testGC() throws Exception {
+		byte[] shared = randomBytes(1000);
+		store.put("key1", shared);
+		store.put("key2", randomBytes(1001));
+		store.put("key3", shared);
+		new File(cacheDir.toFile(), "keys/ke/key1").setLastModified(1000000);
+		new File(cacheDir.toFile(), "keys/ke/key2").setLastModified(2000000);
+		new File(cacheDir.toFile(), "keys/ke/key3").setLastModified(3000000);
+
+		LocalCacheStore.Stats stats = store.getStats(1500);
+		assertEquals(2, stats.evictionCandidateCount);
+		store.gc(1500);
+
+		assertFalse(store.contains("key1"));
+		assertFalse(store.contains("key2"));
+		assertArrayEquals(shared, store.get("key3"));
+		assertEquals(1, store.getStats(0).blobCount);
+	}
+
+	// the size recorded in the stats should tell when a gc is needed
+	@Test
+	public void testOverMaxSize() throws Exception {
+		// size is unknown until the first gc
+		store.put("key1", randomBytes(1000));
+		store.saveStats();
+		assertTrue(store.isOverMaxSize(100000));
+		store.gc(100000);
+		assertFalse(store.isOverMaxSize(100000));
+		assertFalse(store.isOverMaxSize(0));
+
+		store.put("key2", randomBytes(1001));
+		store.saveStats();
+		assertFalse(store.isOverMaxSize(100000));
+		assertTrue(store.isOverMaxSize(1500));
+		store.gc(1500);
+		assertFalse(store.isOverMaxSize(1500));
+	}
+
+	// only files from the old cache format should be removed from the root
+	@Test
+	public void testGCLegacyFiles() throws Exception {
+		File legacyKey = new File(cacheDir.toFile(), "1f3870be274f6c49b3e31a0c6728957f");
+		File legacyTmp = new File(cacheDir.toFile(), "1f3870be274f6c49b3e31a0c6728957f.7a3b.tmp");
+		File userFile = new File(cacheDir.toFile(), "notes.txt");
+		FileUtils.writeByteArrayToFile(legacyKey, randomBytes(10));
+		FileUtils.writeByteArrayToFile(legacyTmp, randomBytes(10));
+		FileUtils.writeByteArrayToFile(userFile, randomBytes(10));
+		store.put("key", randomBytes(100));
+		store.saveStats();
+
+		store.gc(0);
+
+		assertFalse(legacyKey.exists());
+		assertFalse(legacyTmp.exists());
+		assertTrue(userFile.exists());
+		assertTrue(new File(cacheDir.toFile(), "stats").exists());
+		assertTrue(store.contains("key"));
+	}
+}
@@ -16,6 +16,7 @@ package com.dynamo.bob.cache.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -32,6 +33,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.fs.DefaultResource;
+import com.dynamo.bob.fs.ContentHashCache;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.Builder;
@@ -164,6 +166,38 @@ public class ResourceCacheKeyTest {
 		assertNotEquals(key1, key2);
 	}
 
+	// are input hashes calculated once and recalculated when the content changes?
+	@Test
+	public void testContentHashCache() throws CompileExceptionError, IOException {
+		IResource input = createResource("someInput");
+		IResource output1 = createResource("someOutput").output();
+		IResource output2 = createResource("someOtherOutput").output();
+		ContentHashCache contentHashCache = fs.getContentHashCache();
+		contentHashCache.clear();
+
+		Task<?> task1 = new DummyBuilder().addInput(input).addOutput(output1).create(null);
+		Task<?> task2 = new DummyBuilder().addInput(input).addOutput(output2).create(null);
+		byte[] signature1 = task1.calculateSignature();
+		task2.calculateSignature();
+		assertEquals(1, contentHashCache.getMisses());
+		assertEquals(1, contentHashCache.getHits());
+
+		// the task signature is only calculated once
+		assertSame(signature1, task1.calculateSignature());
+		assertEquals(1, contentHashCache.getHits());
+
+		// the task signature is reused by the cache key
+		String key1 = ResourceCacheKey.calculate(task1, createEmptyOptions(), output1);
+		assertEquals(1, contentHashCache.getMisses());
+		assertEquals(1, contentHashCache.getHits());
+
+		input.setContent("someOtherInput".getBytes());
+		Task<?> task3 = new DummyBuilder().addInput(input).addOutput(output1).create(null);
+		String key3 = ResourceCacheKey.calculate(task3, createEmptyOptions(), output1);
+		assertEquals(2, contentHashCache.getMisses());
+		assertNotEquals(key1, key3);
+	}
+
 	// are output resource names taken into account and produce different keys?
 	@Test
 	public void testOutputNames() throws CompileExceptionError, IOException {
@@ -24,9 +24,22 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,12 +56,53 @@ import com.dynamo.bob.test.util.MockResource;
 
 public class ResourceCacheTest {
 
+	// In memory stand-in for a remote cache server
+	private static class RemoteCacheHandler extends AbstractHandler {
+		Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+		AtomicInteger requestCount = new AtomicInteger();
+		volatile boolean failUploads = false;
+
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+			requestCount.incrementAndGet();
+			String key = target.substring(target.lastIndexOf('/') + 1);
+			String method = request.getMethod();
+			if (method.equals("PUT") && failUploads) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			else if (method.equals("PUT")) {
+				entries.put(key, IOUtils.toByteArray(request.getInputStream()));
+				response.setStatus(HttpServletResponse.SC_CREATED);
+			}
+			else {
+				byte[] data = entries.get(key);
+				if (data == null) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				}
+				else {
+					response.setStatus(HttpServletResponse.SC_OK);
+					response.setContentLength(data.length);
+					if (method.equals("GET")) {
+						response.getOutputStream().write(data);
+					}
+				}
+			}
+			baseRequest.setHandled(true);
+		}
+	}
+
 	private Path cacheDir;
 
 	private int resourceCount = 0;
 
 	private ResourceCache resourceCache = null;
 
+	private Server httpServer;
+
+	private RemoteCacheHandler remoteCache;
+
+	private String remoteCacheUrl;
+
 	@Before
 	public void setUp() throws Exception {
 		cacheDir = Files.createTempDirectory(null);
@@ -56,7 +110,26 @@ public class ResourceCacheTest {
 	}
 
 	@After
-	public void tearDown() throws IOException {
+	public void tearDown() throws Exception {
+		if (httpServer != null) {
+			httpServer.stop();
+		}
+		FileUtils.deleteDirectory(cacheDir.toFile());
+	}
+
+	private void startRemoteCache() throws Exception {
+		httpServer = new Server();
+		SocketConnector connector = new SocketConnector();
+		connector.setPort(0);
+		httpServer.addConnector(connector);
+		remoteCache = new RemoteCacheHandler();
+		httpServer.setHandler(remoteCache);
+		httpServer.start();
+		remoteCacheUrl = "http://localhost:" + connector.getLocalPort();
+	}
+
+	private String createLocalCacheDir(String name) {
+		return new File(cacheDir.toFile(), name).getAbsolutePath();
 	}
 
 	// nothing should happen if the resource cache is disabled
@@ -81,4 +154,107 @@ public class ResourceCacheTest {
 		assertArrayEquals(data, resourceCache.get(key));
 	}
 
+	// uploads should be done when flushing and be available to other local caches
+	@Test
+	public void testRemoteGetAndPut() throws Exception {
+		startRemoteCache();
+		final byte[] data = "somedata".getBytes();
+
+		resourceCache.init(createLocalCacheDir("first"), remoteCacheUrl);
+		resourceCache.put("somekey", data);
+		resourceCache.flush();
+		assertArrayEquals(data, remoteCache.entries.get("somekey"));
+
+		ResourceCache otherCache = new ResourceCache();
+		otherCache.init(createLocalCacheDir("second"), remoteCacheUrl);
+		int requestCount = remoteCache.requestCount.get();
+		assertTrue(otherCache.contains("somekey"));
+		assertArrayEquals(data, otherCache.get("somekey"));
+		assertFalse(otherCache.contains("missingkey"));
+		assertTrue(otherCache.get("missingkey") == null);
+		otherCache.flush();
+		// a single request for each key
+		assertEquals(requestCount + 2, remoteCache.requestCount.get());
+	}
+
+	// the remote cache should still be usable after a flush, eg when building again
+	@Test
+	public void testRemotePutAfterFlush() throws Exception {
+		startRemoteCache();
+		resourceCache.init(createLocalCacheDir("local"), remoteCacheUrl);
+		resourceCache.put("key1", "data1".getBytes());
+		resourceCache.flush();
+		resourceCache.put("key2", "data2".getBytes());
+		resourceCache.flush();
+		assertArrayEquals("data1".getBytes(), remoteCache.entries.get("key1"));
+		assertArrayEquals("data2".getBytes(), remoteCache.entries.get("key2"));
+	}
+
+	// failed uploads should not fail the flush at the end of the build
+	@Test
+	public void testFailedUpload() throws Exception {
+		startRemoteCache();
+		remoteCache.failUploads = true;
+		resourceCache.init(createLocalCacheDir("local"), remoteCacheUrl);
+		resourceCache.put("key1", "data1".getBytes());
+		resourceCache.flush();
+		assertFalse(remoteCache.entries.containsKey("key1"));
+		assertArrayEquals("data1".getBytes(), resourceCache.get("key1"));
+	}
+
+	// prefetched resources should not be requested again
+	@Test
+	public void testPrefetch() throws Exception {
+		startRemoteCache();
+		remoteCache.entries.put("key1", "data1".getBytes());
+		remoteCache.entries.put("key2", "data2".getBytes());
+
+		resourceCache.init(createLocalCacheDir("local"), remoteCacheUrl);
+		resourceCache.prefetch(Arrays.asList("key1", "key2", "key3"));
+		assertFalse(resourceCache.containsAll(Arrays.asList("key1", "key2", "key3")));
+		assertTrue(resourceCache.containsAll(Arrays.asList("key1", "key2")));
+		assertArrayEquals("data1".getBytes(), resourceCache.get("key1"));
+		assertArrayEquals("data2".getBytes(), resourceCache.get("key2"));
+		assertEquals(3, remoteCache.requestCount.get());
+	}
+
+	// local entries should never be sent to or looked up in the remote cache
+	@Test
+	public void testLocalGetAndPut() throws Exception {
+		startRemoteCache();
+		remoteCache.entries.put("remotekey", "remotedata".getBytes());
+		final byte[] data = "somedata".getBytes();
+
+		resourceCache.init(createLocalCacheDir("local"), remoteCacheUrl);
+		resourceCache.putLocal("somekey", data);
+		assertArrayEquals(data, resourceCache.getLocal("somekey"));
+		assertTrue(resourceCache.getLocal("remotekey") == null);
+		resourceCache.flush();
+		assertFalse(remoteCache.entries.containsKey("somekey"));
+		assertEquals(0, remoteCache.requestCount.get());
+	}
+
+	// the least recently used resources should be removed from the local cache
+	@Test
+	public void testLocalEviction() throws Exception {
+		String localCacheDir = createLocalCacheDir("local");
+		resourceCache.init(localCacheDir, null);
+		// three incompressible 1000 byte blobs, room for one
+		resourceCache.setMaxLocalCacheSize(1500);
+		Random random = new Random(1);
+		for (int i = 1; i <= 3; ++i) {
+			byte[] data = new byte[1000];
+			random.nextBytes(data);
+			resourceCache.put("key" + i, data);
+		}
+		new File(localCacheDir, "keys/ke/key1").setLastModified(1000000);
+		new File(localCacheDir, "keys/ke/key2").setLastModified(3000000);
+		new File(localCacheDir, "keys/ke/key3").setLastModified(2000000);
+		resourceCache.flush();
+
+		assertFalse(resourceCache.contains("key1"));
+		assertTrue(resourceCache.contains("key2"));
+		assertFalse(resourceCache.contains("key3"));
+	}
+
 }
@@ -0,0 +1,131 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.font;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.Shape;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DistanceFieldGeneratorTest {
+
+    private static final double EPSILON = 1e-9;
+
+    // Render with the generator and compare with the distance to every segment for each pixel
+    private void assertRender(DistanceFieldGenerator df, double x0, double y0, double x1, double y1, int width, int height) {
+        double[] output = new double[width * height];
+        df.render(output, x0, y0, x1, y1, width, height);
+
+        double dx = (x1 - x0) / (double)width;
+        for (int y = 0; y < height; ++y) {
+            double py = y0 + y * (y1 - y0) / (double)height;
+            double px = x0;
+            for (int x = 0; x < width; ++x) {
+                assertEquals(Math.sqrt(df.distSqr(px, py)), output[y * width + x], EPSILON);
+                px += dx;
+            }
+        }
+    }
+
+    @Test
+    public void testRandomSegments() {
+        Random random = new Random(4711);
+        for (int n = 0; n < 10; ++n) {
+            DistanceFieldGenerator df = new DistanceFieldGenerator();
+            int count = 1 + random.nextInt(200);
+            for (int i = 0; i < count; ++i) {
+                df.addLine(random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100);
+            }
+            assertRender(df, -20, -20, 120, 120, 67, 93);
+        }
+    }
+
+    @Test
+    public void testGlyphOutline() {
+        Font font = new Font(Font.SERIF, Font.PLAIN, 64);
+        FontRenderContext frc = new FontRenderContext(new AffineTransform(), true, true);
+        for (String s : new String[] {"A", "g", "@", "%"}) {
+            Shape shape = font.createGlyphVector(frc, s).getGlyphOutline(0);
+            PathIterator pi = new FlatteningPathIterator(shape.getPathIterator(new AffineTransform()), 0.1);
+            DistanceFieldGenerator df = new DistanceFieldGenerator();
+            double[] c = new double[6];
+            double lastX = 0, lastY = 0, moveX = 0, moveY = 0;
+            while (!pi.isDone()) {
+                switch (pi.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        lastX = moveX = c[0];
+                        lastY = moveY = c[1];
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        df.addLine(lastX, lastY, c[0], c[1]);
+                        lastX = c[0];
+                        lastY = c[1];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        df.addLine(lastX, lastY, moveX, moveY);
+                        lastX = moveX;
+                        lastY = moveY;
+                        break;
+                    default:
+                        break;
+                }
+                pi.next();
+            }
+
+            // Large padding, as used for outlines and shadows
+            Rectangle2D bounds = shape.getBounds2D();
+            int padding = 32;
+            int width = (int)bounds.getWidth() + padding * 2;
+            int height = (int)bounds.getHeight() + padding * 2;
+            double x0 = bounds.getMinX() - padding;
+            double y0 = bounds.getMinY() - padding;
+            assertRender(df, x0, y0, x0 + width, y0 + height, width, height);
+        }
+    }
+
+    @Test
+    public void testNoSegments() {
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double[] output = new double[4 * 4];
+        df.render(output, 0, 0, 4, 4, 4, 4);
+        for (double d : output) {
+            assertEquals(Math.sqrt(10000000), d, 0);
+        }
+    }
+
+    @Test
+    public void testManySegments() {
+        // More segments than the generator could hold before the buffer was growable
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        int count = 10000;
+        for (int i = 0; i < count; ++i) {
+            double a0 = 2 * Math.PI * i / count;
+            double a1 = 2 * Math.PI * (i + 1) / count;
+            df.addLine(50 + 40 * Math.cos(a0), 50 + 40 * Math.sin(a0), 50 + 40 * Math.cos(a1), 50 + 40 * Math.sin(a1));
+        }
+        assertEquals(count * 5, df.lineSegmentsEnd);
+        assertTrue(df.lineSegments.length >= count * 5);
+        assertRender(df, 0, 0, 100, 100, 50, 50);
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class DefaultResourceTest {
+
+    private File root;
+    private DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("default_resource").toFile();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(root.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        IResource resource = fileSystem.get("build/missing.bin");
+        assertNull(resource.getContent());
+        assertNull(resource.getContentBuffer());
+    }
+
+    @Test
+    public void testContent() throws Exception {
+        for (int size : new int[] { 0, 100, 5 * 1024 * 1024 + 3 }) {
+            byte[] content = randomBytes(size);
+            IResource resource = fileSystem.get("build/dir/content.bin");
+            resource.setContent(content);
+            assertArrayEquals(content, resource.getContent());
+            assertArrayEquals(content, toArray(resource.getContentBuffer()));
+
+            // only the resource itself is left in the directory
+            assertEquals(1, new File(root, "build/dir").list().length);
+        }
+    }
+
+    @Test
+    public void testChannels() throws Exception {
+        byte[] content = randomBytes(200 * 1024);
+        IResource input = fileSystem.get("build/input.bin");
+        input.writeFrom(Channels.newChannel(new ByteArrayInputStream(content)));
+        assertArrayEquals(content, input.getContent());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, input.transferTo(Channels.newChannel(out)));
+        assertArrayEquals(content, out.toByteArray());
+
+        IResource output = fileSystem.get("build/output.bin");
+        output.setContent(input.getContentBuffer());
+        assertArrayEquals(content, output.getContent());
+
+        output.setContent(new ByteArrayInputStream(content, 0, 10));
+        assertEquals(10, output.getContent().length);
+        assertTrue(output.exists());
+    }
+
+    @Test
+    public void testKeepPermissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        IResource resource = fileSystem.get("build/tool");
+        resource.setContent("first".getBytes());
+        Path path = new File(resource.getAbsPath()).toPath();
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwxr-x---");
+        Files.setPosixFilePermissions(path, permissions);
+
+        resource.setContent("second".getBytes());
+        assertArrayEquals("second".getBytes(), resource.getContent());
+        assertEquals(permissions, Files.getPosixFilePermissions(path));
+    }
+}
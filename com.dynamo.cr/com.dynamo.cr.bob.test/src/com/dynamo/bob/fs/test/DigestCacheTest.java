@@ -0,0 +1,122 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class DigestCacheTest {
+
+    private File root;
+    private DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("digest_cache").toFile();
+        fileSystem = createFileSystem();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private DefaultFileSystem createFileSystem() {
+        DefaultFileSystem fs = new DefaultFileSystem();
+        fs.setRootDirectory(root.getAbsolutePath());
+        fs.setBuildDirectory("build");
+        fs.loadCache();
+        return fs;
+    }
+
+    private static byte[] sha1(byte[] content) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(content);
+    }
+
+    private byte[] resourceSha1(DefaultFileSystem fs, String path) throws IOException {
+        // bypass the build scoped cache to hit the digest cache
+        fs.getContentHashCache().clear();
+        return fs.get(path).sha1();
+    }
+
+    @Test
+    public void testSha1() throws Exception {
+        byte[] small = "small content".getBytes();
+        byte[] large = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(large);
+        fileSystem.get("small.txt").setContent(small);
+        fileSystem.get("large.bin").setContent(large);
+
+        assertArrayEquals(sha1(small), resourceSha1(fileSystem, "small.txt"));
+        assertArrayEquals(sha1(large), resourceSha1(fileSystem, "large.bin"));
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        byte[] content = "content".getBytes();
+        IResource resource = fileSystem.get("file.txt");
+        resource.setContent(content);
+        assertArrayEquals(sha1(content), resourceSha1(fileSystem, "file.txt"));
+        fileSystem.saveCache();
+        assertTrue(new File(root, "build/digest_cache").isFile());
+
+        DefaultFileSystem fs = createFileSystem();
+        assertArrayEquals(sha1(content), resourceSha1(fs, "file.txt"));
+        fs.close();
+    }
+
+    @Test
+    public void testChangedSize() throws Exception {
+        File file = new File(root, "file.txt");
+        FileUtils.writeByteArrayToFile(file, "content".getBytes());
+        long mtime = file.lastModified();
+        resourceSha1(fileSystem, "file.txt");
+        fileSystem.saveCache();
+
+        // same modification time but different size
+        byte[] content = "other content".getBytes();
+        FileUtils.writeByteArrayToFile(file, content);
+        file.setLastModified(mtime);
+        DefaultFileSystem fs = createFileSystem();
+        assertArrayEquals(sha1(content), resourceSha1(fs, "file.txt"));
+        fs.close();
+    }
+
+    @Test
+    public void testCorruptCache() throws Exception {
+        new File(root, "build").mkdirs();
+        FileUtils.writeByteArrayToFile(new File(root, "build/digest_cache"), "BOBDIGST garbage".getBytes());
+        DefaultFileSystem fs = createFileSystem();
+        byte[] content = "content".getBytes();
+        fs.get("file.txt").setContent(content);
+        assertArrayEquals(sha1(content), resourceSha1(fs, "file.txt"));
+        fs.close();
+    }
+}
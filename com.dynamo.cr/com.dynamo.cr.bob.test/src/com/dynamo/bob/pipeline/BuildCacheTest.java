@@ -0,0 +1,207 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+
+/**
+ * Tests the build scoped cache with each of the value types the project
+ * caches
+ */
+@RunWith(Parameterized.class)
+public class BuildCacheTest {
+
+    /**
+     * A value type kept in a build cache, together with the code that gets
+     * values of the type through the cache
+     */
+    private static class CachedType<V> {
+        final String extension;
+        final String[] files;
+        final BuildCache.Sizer<V> sizer;
+        final Getter<V> getter;
+
+        /**
+         * @param extension file extension of the resources
+         * @param files two test files that give different values when added to different directories
+         * @param sizer sizer of the values
+         * @param getter gets values through the cache
+         */
+        CachedType(String extension, String[] files, BuildCache.Sizer<V> sizer, Getter<V> getter) {
+            this.extension = extension;
+            this.files = files;
+            this.sizer = sizer;
+            this.getter = getter;
+        }
+
+        @Override
+        public String toString() {
+            return extension;
+        }
+    }
+
+    private interface Getter<V> {
+        /**
+         * @return the value, null or an exception if the resource is broken
+         */
+        V get(BuildCache<Object, V> cache, IResource resource) throws Exception;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> data = new ArrayList<>();
+        data.add(new Object[] { new CachedType<DecodedImage>("png",
+                new String[] { "128_64_rgba.png", "128_64_rgb.png" },
+                DecodedImage::getSize,
+                (cache, resource) -> DecodedImage.get((BuildCache) cache, resource)) });
+        data.add(new Object[] { new CachedType<XMLCOLLADA>("dae",
+                new String[] { "two_bone.dae", "bone_influences.dae" },
+                ColladaUtil::getSize,
+                (cache, resource) -> ColladaUtil.loadDAE(resource, (BuildCache) cache)) });
+        // Model scenes are also keyed on the directory, so the same file in two directories gives two scenes
+        data.add(new Object[] { new CachedType<ModelImporter.Scene>("gltf",
+                new String[] { "bend2bones.gltf", "bend2bones.gltf" },
+                ModelUtil::getSize,
+                (cache, resource) -> ModelUtil.loadScene(resource, null, new ModelImporter.FileDataResolver(new File(".")), (BuildCache) cache)) });
+        return data;
+    }
+
+    private final CachedType<Object> type;
+    private MockFileSystem fileSystem;
+
+    @SuppressWarnings("unchecked")
+    public BuildCacheTest(CachedType<?> type) {
+        this.type = (CachedType<Object>) type;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+    }
+
+    private IResource addFile(String path, String file) throws IOException {
+        byte[] content = IOUtils.toByteArray(getClass().getResourceAsStream(file));
+        return fileSystem.addFile(path, content);
+    }
+
+    private BuildCache<Object, Object> createCache(long maxSize) {
+        return new BuildCache<>(type.extension, maxSize, type.sizer);
+    }
+
+    private Object get(BuildCache<Object, Object> cache, IResource resource) throws Exception {
+        return type.getter.get(cache, resource);
+    }
+
+    @Test
+    public void testSameContentLoadedOnce() throws Exception {
+        BuildCache<Object, Object> cache = createCache(Long.MAX_VALUE);
+        IResource a = addFile("/a." + type.extension, type.files[0]);
+        IResource b = addFile("/b." + type.extension, type.files[0]);
+
+        Object value = get(cache, a);
+        assertNotNull(value);
+        assertSame(value, get(cache, b));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(type.sizer.getSize(value), cache.getSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        IResource a = addFile("/a/a." + type.extension, type.files[0]);
+        IResource b = addFile("/b/b." + type.extension, type.files[1]);
+        long sizeA = type.sizer.getSize(get(createCache(0), a));
+        long sizeB = type.sizer.getSize(get(createCache(0), b));
+        BuildCache<Object, Object> cache = createCache(Math.max(sizeA, sizeB));
+
+        Object value = get(cache, a);
+        get(cache, b);
+        assertEquals(sizeB, cache.getSize());
+        assertNotSame(value, get(cache, a));
+        assertEquals(3, cache.getMisses());
+
+        // Values larger than the cache are not kept
+        cache.setMaxSize(Math.min(sizeA, sizeB) - 1);
+        assertEquals(0, cache.getSize());
+        get(cache, a);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testBrokenResource() throws Exception {
+        BuildCache<Object, Object> cache = createCache(Long.MAX_VALUE);
+        IResource resource = fileSystem.addFile("/broken." + type.extension, "broken".getBytes());
+        for (int i = 0; i < 2; ++i) {
+            Object value = null;
+            try {
+                value = get(cache, resource);
+            } catch (Exception e) {
+                // Expected for types that fail with an exception
+            }
+            assertNull(value);
+        }
+        // Failed loads are not cached
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentGets() throws Exception {
+        BuildCache<Object, Object> cache = createCache(Long.MAX_VALUE);
+        IResource resource = addFile("/a." + type.extension, type.files[0]);
+        int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Callable<Object>> gets = new ArrayList<>();
+            for (int i = 0; i < threadCount; ++i) {
+                gets.add(() -> get(cache, resource));
+            }
+            List<Future<Object>> values = executor.invokeAll(gets);
+            Object value = values.get(0).get();
+            for (Future<Object> other : values) {
+                assertSame(value, other.get());
+            }
+            assertEquals(type.sizer.getSize(value), cache.getSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -37,8 +37,12 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.apache.commons.io.IOUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 import org.junit.Test;
 
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.MurmurHash;
 
@@ -811,6 +815,28 @@ public class ColladaUtilTest {
     /*
      *  Test collada file with a bone animation that includes both translation and rotation.
      */
+    /*
+     * Meshes loaded from a cached scene must be the same as when loaded
+     * directly from the file, also when the scene is used more than once.
+     */
+    @Test
+    public void testCachedSceneMesh() throws Exception {
+        MockFileSystem fileSystem = new MockFileSystem();
+        IResource resource = fileSystem.addFile("/bone_influences.dae", IOUtils.toByteArray(load("bone_influences.dae")));
+        BuildCache<String, XMLCOLLADA> cache = new BuildCache<>("Collada scene", Long.MAX_VALUE, ColladaUtil::getSize);
+
+        Rig.MeshSet.Builder expected = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(load("bone_influences.dae"), expected, true, false);
+
+        for (int i = 0; i < 2; ++i) {
+            Rig.MeshSet.Builder meshSetBuilder = Rig.MeshSet.newBuilder();
+            ColladaUtil.loadMesh(ColladaUtil.loadDAE(resource, cache), meshSetBuilder, true, false);
+            assertEquals(expected.build(), meshSetBuilder.build());
+        }
+        assertEquals(1, cache.getMisses());
+        assertTrue(cache.getSize() > 0);
+    }
+
     @Test
     public void testTranslationRotation() throws Exception {
         Rig.MeshSet.Builder meshSetBuilder = Rig.MeshSet.newBuilder();
@@ -0,0 +1,81 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.bob.textureset.TextureSetGenerator;
+
+public class DecodedImageTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+    }
+
+    private IResource addImage(String path, String image) throws IOException {
+        byte[] content = IOUtils.toByteArray(getClass().getResourceAsStream(image));
+        return fileSystem.addFile(path, content);
+    }
+
+    private BufferedImage readImage(String image) throws IOException {
+        return ImageIO.read(getClass().getResourceAsStream(image));
+    }
+
+    @Test
+    public void testOriginalImageProperties() throws Exception {
+        String[] images = { "128_64_rgba.png", "128_64_rgb.png", "128_64_lum.png", "128_64_luma.png", "128_64_idx.png", "16_bit_texture.png" };
+        for (String name : images) {
+            DecodedImage image = DecodedImage.decode(addImage("/" + name, name));
+            BufferedImage origImage = readImage(name);
+            assertEquals(name, BufferedImage.TYPE_4BYTE_ABGR, image.getImage().getType());
+            assertEquals(name, origImage.getColorModel().getNumComponents(), image.getComponentCount());
+            // Hulls must be the same as if calculated from the original image
+            for (int hullVertexCount : new int[] { 0, 4, 8 }) {
+                assertEquals(name, TextureSetGenerator.buildConvexHull(origImage, hullVertexCount), image.getConvexHull(hullVertexCount));
+            }
+            assertSame(name, image.getConvexHull(8), image.getConvexHull(8));
+        }
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        DecodedImage image = DecodedImage.decode(addImage("/rgba.png", "128_64_rgba.png"));
+        assertEquals(128 * 64 * 4, image.getSize());
+    }
+
+    @Test
+    public void testUnsupportedImage() throws Exception {
+        BuildCache<String, DecodedImage> cache = new BuildCache<>("Decoded image", Long.MAX_VALUE, DecodedImage::getSize);
+        assertNull(DecodedImage.decode(fileSystem.addFile("/broken.png", "not an image".getBytes())));
+        assertNull(DecodedImage.get(cache, fileSystem.get("/missing.png")));
+        assertEquals(0, cache.getMisses());
+    }
+}
@@ -14,12 +14,19 @@
 
 package com.dynamo.bob.pipeline;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
@@ -239,6 +246,41 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
         assertTrue(luaSource.getDelta().size() > 0);
     }
 
+    @Test
+    public void testLuaJITCompilerPool() throws Exception {
+        Bob.initLua();
+        String source = "function foo() print('foo') end";
+
+        // compile with a separate luajit process for reference
+        File inputFile = File.createTempFile("script", ".lua");
+        File outputFile = File.createTempFile("script", ".raw");
+        inputFile.deleteOnExit();
+        outputFile.deleteOnExit();
+        FileUtils.writeByteArrayToFile(inputFile, source.getBytes());
+        ProcessBuilder pb = new ProcessBuilder(Bob.getExe(Platform.getHostPlatform(), "luajit-64"),
+                "-b", "-g", "-F", "/test.script", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+        pb.environment().put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        assertEquals(0, pb.start().waitFor());
+        byte[] expected = FileUtils.readFileToByteArray(outputFile);
+
+        LuaJITCompilerPool pool = new LuaJITCompilerPool(2);
+        try {
+            // the same process is used for consecutive scripts
+            for (int i = 0; i < 3; ++i) {
+                LuaJITCompilerPool.Result result = pool.compile("luajit-64", "/test.script", source.getBytes());
+                assertNull(result.getError());
+                assertArrayEquals(expected, result.getBytecode());
+            }
+
+            LuaJITCompilerPool.Result result = pool.compile("luajit-64", "/error.script", "function foo(".getBytes());
+            assertNull(result.getBytecode());
+            assertTrue(result.getError().startsWith("/error.script:1:"));
+        } finally {
+            pool.shutdown();
+        }
+        assertNull(pool.compile("luajit-64", "/test.script", source.getBytes()));
+    }
+
     @Test
     public void testLuaBytecodeDeltaCalculation() throws Exception {
         LuaBuilder builder = new LuaBuilder() {};
@@ -0,0 +1,148 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.dynamo.bob.pipeline.LuaScanner.Property;
+
+/**
+ * Differential tests of the LuaFastScanner and the ANTLR based LuaScanner
+ */
+public class LuaFastScannerTest {
+
+    private static final String[] VALID_FILES = {
+        "test_scanner.lua",
+        "test_props.lua",
+        "test_props_bool.lua",
+        "test_props_hash.lua",
+        "test_props_material.lua",
+        "test_props_number.lua",
+        "test_props_url.lua",
+    };
+
+    // files with syntax errors, handled by the ANTLR parser only
+    private static final String[] INVALID_FILES = {
+        "test_props_quat.lua",
+        "test_props_vec3.lua",
+        "test_props_vec4.lua",
+    };
+
+    private static final String[] VALID_SNIPPETS = {
+        "local a = require \"a\"; local b = require('b').c; local d = _G.require [[d]]",
+        "require(\"a\", require(\"b\")) require(\"a\") require(x) require \"string\" require{} x.require(\"y\")",
+        "require:foo(\"m\") _G.require:bar('n') local t = { require(\"t1\"); require(\"t2\"), [1] = 2 }",
+        "go.property(\"a\", 1);\ngo.property(\"b\", -2.5e3) ; go.property('c', true)\n;;",
+        "go.property(\"v3\", vmath.vector3(1, -2, 3))\ngo.property(\"v4\", vmath.vector4(2))\ngo.property(\"q\", vmath.quat())",
+        "go.property(\"v3\", vmath.vector3(1, 2))\ngo.property(\"v4\", vmath.vector4(1, x, 3, 4))\ngo.property(\"x\", vmath.matrix4())",
+        "go.property(\"h\", hash(\"a\\\"b\")) go.property(\"g\", _G.hash('g')) go.property(\"i\", hash(x))",
+        "go.property(\"u\", msg.url()) go.property(\"r\", resource.atlas(\"/a.atlas\")) go.property(\"f\", foo(\"f\"))",
+        "go.property(\"a\", x) go.property(\"b\", -x) go.property(\"c\", {}) go.property(\"d\", \"s\") go.property(\"e\", 1, 2)",
+        "go.property() go.property{} go.property(x, 1) go.property(\"a\" .. \"b\", 1) go.property(\"n\", go.property(\"m\", 1))",
+        "go.property(\"multi\",\n  vmath.vector3(1,\n  2, --[[ three ]] 3))\nfunction init(self) return; end",
+        "local function f(...) return function() local x <const> = 1; return x end end\nreturn f",
+        "#!/usr/bin/env lua\nlocal s = [==[ go.property(\"a\", 1) ]==] -- go.property(\"b\", 1)\n--[[ require \"c\" ]]",
+        "for i = 1, 10, 2 do if i then goto continue elseif x then break else end ::continue:: end\nrepeat ; until true",
+        "local x = 0x10 + 1e-3 + .5 + 3. + 0xA.8p1 .. 'a\\z\n  b' .. \"\\u{48}\\x41\\65\"",
+    };
+
+    private static final String[] INVALID_SNIPPETS = {
+        "go.property(\"a\", 1",
+        "local s = \"unterminated",
+        "--[[ unterminated comment",
+        "return 1\nlocal x = 2",
+        "local x = 1 @ 2",
+        "require(nil)",
+        "go.property \"a\"",
+        "go.property(\"hex\", 0x10)",
+        "go.property(\"expr\", 1 + 2)",
+        "go.property(\"v\", vmath.vector3(1, 2, 3, 4))",
+        "local s = \"😀\" go.property(\"a\", 1)",
+    };
+
+    private String getFile(String file) throws IOException {
+        InputStream input = getClass().getResourceAsStream(file);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(1024);
+        IOUtils.copy(input, output);
+        return new String(output.toByteArray());
+    }
+
+    private void assertSameResult(String source) {
+        LuaScanner expected = new LuaScanner();
+        expected.parseFull(source);
+        LuaScanner actual = new LuaScanner();
+        assertTrue(source, actual.parseFast(source));
+
+        assertEquals(source, expected.getParsedLua(), actual.getParsedLua());
+        assertEquals(source, expected.getModules(), actual.getModules());
+        List<Property> expectedProperties = expected.getProperties();
+        List<Property> actualProperties = actual.getProperties();
+        assertEquals(source, expectedProperties.size(), actualProperties.size());
+        for (int i = 0; i < expectedProperties.size(); ++i) {
+            Property e = expectedProperties.get(i);
+            Property a = actualProperties.get(i);
+            assertEquals(source, e.name, a.name);
+            assertEquals(source, e.type, a.type);
+            assertEquals(source, e.value, a.value);
+            assertEquals(source, e.line, a.line);
+            assertEquals(source, e.status, a.status);
+            assertEquals(source, e.isResource, a.isResource);
+        }
+    }
+
+    @Test
+    public void testFiles() throws Exception {
+        for (String file : VALID_FILES) {
+            assertSameResult(getFile(file));
+        }
+        for (String file : INVALID_FILES) {
+            assertFalse(file, new LuaScanner().parseFast(getFile(file)));
+        }
+    }
+
+    @Test
+    public void testSnippets() throws Exception {
+        for (String snippet : VALID_SNIPPETS) {
+            assertSameResult(snippet);
+        }
+        for (String snippet : INVALID_SNIPPETS) {
+            assertFalse(snippet, new LuaScanner().parseFast(snippet));
+        }
+    }
+
+    @Test
+    public void testParseFallback() throws Exception {
+        // the result is the same whether the fast scanner is used or not
+        for (String file : INVALID_FILES) {
+            String source = getFile(file);
+            LuaScanner expected = new LuaScanner();
+            expected.parseFull(source);
+            LuaScanner actual = new LuaScanner();
+            assertEquals(expected.getParsedLua(), actual.parse(source));
+            assertEquals(expected.getProperties().size(), actual.getProperties().size());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.ContentHashCache;
+import com.dynamo.bob.pipeline.LuaScanner.Property;
+
+public class LuaScannerCacheTest {
+
+    private static final String SCRIPT = String.join("\n",
+            "local a = require \"foo.bar\"",
+            "go.property(\"number\", -1.5)",
+            "go.property(\"flag\", true)",
+            "go.property(\"v3\", vmath.vector3(1, 2, 3))",
+            "go.property(\"v4\", vmath.vector4(1, 2, 3, 4))",
+            "go.property(\"rot\", vmath.quat(0, 0, 0.5, 2))",
+            "go.property(\"id\", hash(\"foo\"))",
+            "go.property(\"target\", msg.url())",
+            "go.property(\"mat\", resource.material(\"/a.material\"))",
+            "go.property(\"bad\", 1, 2)",
+            "go.property(1)",
+            "function init(self) print(\"åäö\") end");
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = Files.createTempDirectory("luascanner_cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    private static LuaScanner parse(String script) {
+        LuaScanner scanner = new LuaScanner();
+        scanner.parse(script);
+        return scanner;
+    }
+
+    private static String createKey(String script, String path, String variant, List<?> preprocessors) {
+        return LuaScannerCache.createKey(ContentHashCache.sha1(script.getBytes(StandardCharsets.UTF_8)), path, variant, preprocessors);
+    }
+
+    private static String createKey(String script, String variant) {
+        return createKey(script, "/main/main.script", variant, new ArrayList<Object>());
+    }
+
+    private static void assertSameResult(LuaScanner expected, LuaScanner actual) {
+        assertEquals(expected.getParsedLua(), actual.getParsedLua());
+        assertEquals(expected.getModules(), actual.getModules());
+        List<Property> expectedProperties = expected.getProperties();
+        List<Property> actualProperties = actual.getProperties();
+        assertEquals(expectedProperties.size(), actualProperties.size());
+        for (int i = 0; i < expectedProperties.size(); ++i) {
+            Property e = expectedProperties.get(i);
+            Property a = actualProperties.get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.type, a.type);
+            assertEquals(e.value, a.value);
+            assertEquals(e.line, a.line);
+            assertEquals(e.status, a.status);
+            assertEquals(e.isResource, a.isResource);
+        }
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        LuaScanner scanner = parse(SCRIPT);
+        assertEquals(10, scanner.getProperties().size());
+        assertSameResult(scanner, LuaScannerCache.deserialize(LuaScannerCache.serialize(scanner)));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        String key = createKey(SCRIPT, "debug");
+        assertEquals(key, createKey(SCRIPT, "debug"));
+        assertNotEquals(key, createKey(SCRIPT, "release"));
+        assertNotEquals(key, createKey(SCRIPT + " ", "debug"));
+        assertNotEquals(key, createKey(SCRIPT, "/main/main.script", "debug", Arrays.asList(new Object())));
+
+        // the path only matters when there are preprocessors, since they are passed the path
+        assertEquals(key, createKey(SCRIPT, "/main/other.script", "debug", new ArrayList<Object>()));
+        List<Object> preprocessors = Arrays.asList(new Object());
+        assertNotEquals(createKey(SCRIPT, "/main/main.script", "debug", preprocessors), createKey(SCRIPT, "/main/other.script", "debug", preprocessors));
+
+        // preprocessors are identified by the code they were loaded from
+        assertNotEquals(createKey(SCRIPT, "/main/main.script", "debug", Arrays.asList(new Object())),
+                        createKey(SCRIPT, "/main/main.script", "debug", Arrays.asList(new StringBuilder())));
+        assertNotEquals(0, LuaScannerCache.getPreprocessorDigest(LuaScannerCacheTest.class).length);
+    }
+
+    @Test
+    public void testDiskCache() throws Exception {
+        LuaScanner scanner = parse(SCRIPT);
+        String key = createKey(SCRIPT, "debug");
+
+        LuaScannerCache cache = new LuaScannerCache(cacheDir);
+        assertNull(cache.get(key));
+        cache.put(key, scanner);
+        assertSameResult(scanner, cache.get(key));
+
+        // a later build only has the disk cache
+        LuaScannerCache nextCache = new LuaScannerCache(cacheDir);
+        assertSameResult(scanner, nextCache.get(key));
+        assertEquals(1, nextCache.getHits());
+        assertEquals(0, nextCache.getMisses());
+
+        // corrupt entries are discarded
+        nextCache.clearMemory();
+        File entry = new File(new File(cacheDir, key.substring(0, 2)), key);
+        FileUtils.writeByteArrayToFile(entry, new byte[] { 1, 2, 3 });
+        assertNull(nextCache.get(key));
+        assertTrue(!entry.exists());
+
+        // unused entries are pruned
+        cache.put(key, scanner);
+        entry.setLastModified(System.currentTimeMillis() - 10000);
+        cache.prune(5000);
+        assertTrue(!entry.exists());
+    }
+
+    @Test
+    public void testMemoryLimit() throws Exception {
+        LuaScannerCache cache = new LuaScannerCache(null);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            String script = SCRIPT + "\n-- " + i;
+            String key = createKey(script, "debug");
+            cache.put(key, parse(script));
+            keys.add(key);
+        }
+        long entrySize = cache.getMemorySize() / keys.size();
+
+        cache.setMaxMemorySize(entrySize * 5);
+        assertTrue(cache.getMemorySize() <= entrySize * 5);
+
+        // the most recently used entries are kept
+        assertNull(cache.get(keys.get(0)));
+        assertNotNull(cache.get(keys.get(keys.size() - 1)));
+
+        // each cache has its own memory
+        assertNull(new LuaScannerCache(null).get(keys.get(keys.size() - 1)));
+
+        cache.setMaxMemorySize(0);
+        assertEquals(0, cache.getMemorySize());
+        assertNull(cache.get(keys.get(keys.size() - 1)));
+    }
+}
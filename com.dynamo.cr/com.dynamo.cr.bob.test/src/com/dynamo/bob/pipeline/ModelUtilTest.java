@@ -16,6 +16,8 @@ package com.dynamo.bob.pipeline;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -39,8 +41,10 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.MurmurHash;
 
@@ -480,6 +484,42 @@ public class ModelUtilTest {
         assertTrue(maxZ <=  1.0f);
     }
 
+    /*
+     * External buffers are resolved relative to the model, so the same
+     * content in another directory is a different scene.
+     */
+    @Test
+    public void testCachedSceneKey() throws Exception {
+        MockFileSystem fileSystem = new MockFileSystem();
+        byte[] content = IOUtils.toByteArray(getClass().getResourceAsStream("bend2bones.gltf"));
+        ModelImporter.DataResolver dataResolver = new ModelImporter.FileDataResolver(new File("."));
+        BuildCache<List<Object>, ModelImporter.Scene> cache = new BuildCache<>("Model scene", Long.MAX_VALUE, ModelUtil::getSize);
+
+        ModelImporter.Scene scene = ModelUtil.loadScene(fileSystem.addFile("/models/a.gltf", content), null, dataResolver, cache);
+        assertSame(scene, ModelUtil.loadScene(fileSystem.addFile("/models/b.gltf", content), new ModelImporter.Options(), dataResolver, cache));
+        assertNotSame(scene, ModelUtil.loadScene(fileSystem.addFile("/other/c.gltf", content), null, dataResolver, cache));
+        assertEquals(2, cache.getMisses());
+    }
+
+    /*
+     * Building from a shared scene must give the same result every time,
+     * i.e. loading the models, also with split meshes, must not modify the scene.
+     */
+    @Test
+    public void testSharedSceneOutput() throws Exception {
+        ModelImporter.Scene scene = loadScene("bend2bones.gltf");
+        ModelImporter.Mesh[] meshes = scene.models[0].meshes;
+
+        Rig.MeshSet.Builder expected = Rig.MeshSet.newBuilder();
+        ModelUtil.loadModels(scene, expected);
+        for (int i = 0; i < 2; ++i) {
+            Rig.MeshSet.Builder meshSetBuilder = Rig.MeshSet.newBuilder();
+            ModelUtil.loadModels(scene, meshSetBuilder, true);
+            assertEquals(expected.build(), meshSetBuilder.build());
+            assertSame(meshes, scene.models[0].meshes);
+        }
+    }
+
     /*
      * Tests that an invalid collada file is handled
      */
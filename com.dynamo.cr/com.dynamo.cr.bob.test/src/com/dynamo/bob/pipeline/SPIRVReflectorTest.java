@@ -0,0 +1,97 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dynamo.bob.pipeline.ShaderUtil.SPIRVReflector;
+
+public class SPIRVReflectorTest {
+
+    /*
+     * test/spirv_reflection.spv is compiled with glslc and optimized with spirv-opt -O from:
+     *
+     * #version 140
+     * in vec2 var_texcoord0;
+     * in vec4 var_color;
+     * out vec4 out_fragColor;
+     * uniform sampler2D texture_sampler;
+     * uniform samplerCube cube_sampler;
+     * uniform fs_uniforms { vec4 tint[4]; };
+     * uniform fs_unused { vec4 unused; };
+     * void main() {
+     *     out_fragColor = texture(texture_sampler, var_texcoord0) * tint[2] * var_color + texture(cube_sampler, gl_FragCoord.xyz);
+     * }
+     */
+    private static SPIRVReflector loadReflector() throws IOException {
+        return new SPIRVReflector(Files.readAllBytes(Paths.get("test/spirv_reflection.spv")));
+    }
+
+    private static void assertResource(SPIRVReflector.Resource res, String name, String type, int set, int binding) {
+        assertEquals(name, res.name);
+        assertEquals(type, res.type);
+        assertEquals(set, res.set);
+        assertEquals(binding, res.binding);
+    }
+
+    @Test
+    public void testStageResources() throws IOException {
+        SPIRVReflector reflector = loadReflector();
+
+        // gl_FragCoord is a builtin and not reported
+        List<SPIRVReflector.Resource> inputs = reflector.getInputs();
+        assertEquals(2, inputs.size());
+        assertResource(inputs.get(0), "var_texcoord0", "vec2", 0, 0);
+        assertResource(inputs.get(1), "var_color", "vec4", 0, 1);
+
+        List<SPIRVReflector.Resource> outputs = reflector.getOutputs();
+        assertEquals(1, outputs.size());
+        assertResource(outputs.get(0), "out_fragColor", "vec4", 0, 0);
+    }
+
+    @Test
+    public void testTextures() throws IOException {
+        List<SPIRVReflector.Resource> textures = loadReflector().getTextures();
+        assertEquals(2, textures.size());
+        assertResource(textures.get(0), "texture_sampler", "sampler2D", 0, 0);
+        assertResource(textures.get(1), "cube_sampler", "samplerCube", 0, 1);
+    }
+
+    @Test
+    public void testUniformBlocks() throws IOException {
+        // The unused block is removed by the optimizer
+        List<SPIRVReflector.UniformBlock> ubos = loadReflector().getUniformBlocks();
+        assertEquals(1, ubos.size());
+        assertResource(ubos.get(0), "fs_uniforms", ubos.get(0).type, 0, 2);
+        assertEquals(1, ubos.get(0).uniforms.size());
+
+        SPIRVReflector.Resource tint = ubos.get(0).uniforms.get(0);
+        assertEquals("tint", tint.name);
+        assertEquals("vec4", tint.type);
+        assertEquals(4, tint.elementCount);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidModule() throws IOException {
+        new SPIRVReflector(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 });
+    }
+}
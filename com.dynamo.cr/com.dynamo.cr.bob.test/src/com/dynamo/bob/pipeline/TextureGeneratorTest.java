@@ -27,6 +27,7 @@ import org.junit.Test;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.WorkerPool;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -613,4 +614,59 @@ public class TextureGeneratorTest {
         assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA_16BPP, texture.getAlternatives(1).getFormat());
         assertEquals(128*64*2, texture.getAlternatives(1).getData().toByteArray().length);
     }
+
+    private static PlatformProfile createFastPlatformProfile(int maxTextureSize, TextureFormat... formats) {
+        PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+        platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+        for (TextureFormat format : formats) {
+            TextureFormatAlternative.Builder textureFormatAlt = TextureFormatAlternative.newBuilder();
+            textureFormatAlt.setFormat(format);
+            textureFormatAlt.setCompressionLevel(CompressionLevel.FAST);
+            platformProfile.addFormats(textureFormatAlt.build());
+        }
+        platformProfile.setMipmaps(true);
+        platformProfile.setMaxTextureSize(maxTextureSize);
+        return platformProfile.build();
+    }
+
+    @Test
+    public void testTextureProfilesParallelAlternatives() throws TextureGeneratorException, IOException {
+
+        // Create a texture profile with shared sizes and identical alternatives on different platforms
+        int[] maxTextureSizes = new int[] {0, 32, 0};
+        TextureFormat[] formats = new TextureFormat[] {TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormat.TEXTURE_FORMAT_RGB, TextureFormat.TEXTURE_FORMAT_RGBA_16BPP};
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        textureProfile.setName("Test Profile");
+        for (int maxTextureSize : maxTextureSizes) {
+            textureProfile.addPlatforms(createFastPlatformProfile(maxTextureSize, formats));
+        }
+
+        TextureImage parallel;
+        WorkerPool workerPool = new WorkerPool(4);
+        try {
+            parallel = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), true, EnumSet.of(FlipAxis.FLIP_AXIS_Y), workerPool);
+        } finally {
+            workerPool.shutdown();
+        }
+
+        // Alternatives are kept in profile order, and each alternative matches the alternative
+        // encoded on its own, i.e. without a base level shared with other alternatives
+        assertEquals(9, parallel.getAlternativesCount());
+        for (int i = 0; i < maxTextureSizes.length; ++i) {
+            for (int j = 0; j < formats.length; ++j) {
+                TextureProfile.Builder singleProfile = TextureProfile.newBuilder();
+                singleProfile.setName("Single Format Profile");
+                singleProfile.addPlatforms(createFastPlatformProfile(maxTextureSizes[i], formats[j]));
+                TextureImage single = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), singleProfile.build(), true);
+                assertEquals(1, single.getAlternativesCount());
+                assertEquals(single.getAlternatives(0), parallel.getAlternatives(i * formats.length + j));
+            }
+        }
+        assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA, parallel.getAlternatives(0).getFormat());
+        assertEquals(TextureFormat.TEXTURE_FORMAT_RGB, parallel.getAlternatives(1).getFormat());
+        assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA_16BPP, parallel.getAlternatives(2).getFormat());
+        assertEquals(128, parallel.getAlternatives(0).getWidth());
+        assertEquals(32, parallel.getAlternatives(3).getWidth());
+        assertEquals(16, parallel.getAlternatives(3).getHeight());
+    }
 }
@@ -283,6 +283,42 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    private List<String> buildChains(int maxCpuThreads) throws Exception {
+        MockFileSystem fs = new MockFileSystem();
+        Project p = new Project(fs);
+        p.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        p.setOption("max-cpu-threads", Integer.toString(maxCpuThreads));
+        List<String> inputs = new ArrayList<String>();
+        inputs.add("test.proj");
+        fs.addFile("test.proj", "".getBytes());
+        for (int i = 0; i < 32; ++i) {
+            String name = String.format("test%d.in", i);
+            fs.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+        }
+        fs.addFile("test.dynamic", "1\n2\n3\n".getBytes());
+        inputs.add("test.dynamic");
+        p.setInputs(inputs);
+        List<TaskResult> result = p.build(new NullProgress(), "build");
+        List<String> order = new ArrayList<String>();
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+            order.add(r.getTask().getOutputsString());
+        }
+        order.add(new String(fs.get("test.arc").output().getContent()));
+        p.dispose();
+        return order;
+    }
+
+    @Test
+    public void testParallelBuild() throws Exception {
+        List<String> serial = buildChains(1);
+        assertThat(serial.size(), is(32 + 1 + 1 + 3 + 1));
+        for (int i = 0; i < 4; ++i) {
+            assertThat(buildChains(4), is(serial));
+        }
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
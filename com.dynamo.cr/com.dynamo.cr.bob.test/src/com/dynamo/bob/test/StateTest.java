@@ -0,0 +1,184 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.State;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class StateTest {
+
+    private File root;
+    private DefaultFileSystem fileSystem;
+    private IResource stateResource;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("state").toFile();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(root.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/_BobBuildState_");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private static byte[] signature(int value) {
+        byte[] signature = new byte[State.SIGNATURE_SIZE];
+        Arrays.fill(signature, (byte) value);
+        return signature;
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/build/" + i, signature(i));
+        }
+        state.putSignature("/build/failed", new byte[0]);
+        state.removeSignature("/build/5");
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertEquals(100, state.getPaths().size());
+        assertArrayEquals(signature(7), state.getSignature("/build/7"));
+        assertArrayEquals(new byte[0], state.getSignature("/build/failed"));
+        assertNull(state.getSignature("/build/5"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        State state = State.load(stateResource);
+        for (int n = 0; n < 4; ++n) {
+            for (int i = 0; i < 1000; ++i) {
+                state.putSignature("/build/" + i, signature(i + n));
+            }
+        }
+        state.save(stateResource);
+        long compactedSize = new File(stateResource.getAbsPath()).length();
+
+        State fresh = State.load(fileSystem.get("build/_Fresh_"));
+        for (int i = 0; i < 1000; ++i) {
+            fresh.putSignature("/build/" + i, signature(i + 3));
+        }
+        fresh.save(fileSystem.get("build/_Fresh_"));
+        assertEquals(new File(fileSystem.get("build/_Fresh_").getAbsPath()).length(), compactedSize);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(3 + 3), state.getSignature("/build/3"));
+    }
+
+    @Test
+    public void testAbortedBuild() throws Exception {
+        State state = State.load(stateResource);
+        state.putSignature("/build/a", signature(1));
+        state.save(stateResource);
+
+        // Records are appended while building, no save
+        state = State.load(stateResource);
+        for (int i = 0; i < 1000; ++i) {
+            state.putSignature("/build/" + i, signature(i));
+        }
+        // Incomplete record at the end of the file
+        try (FileOutputStream os = new FileOutputStream(stateResource.getAbsPath(), true)) {
+            os.write(new byte[] { 1, 0, 0 });
+        }
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/build/a"));
+        assertArrayEquals(signature(10), state.getSignature("/build/10"));
+        state.putSignature("/build/b", signature(2));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(2), state.getSignature("/build/b"));
+    }
+
+    @Test
+    public void testRemovedStateFile() throws Exception {
+        State state = State.load(stateResource);
+        state.putSignature("/build/a", signature(1));
+        state.save(stateResource);
+
+        // The build directory is removed after the state is loaded, eg by distclean
+        state = State.load(stateResource);
+        FileUtils.deleteDirectory(new File(root, "build"));
+        state.putSignature("/build/b", signature(2));
+
+        // The state is written to a new file while building, no save
+        State aborted = State.load(stateResource);
+        assertArrayEquals(signature(1), aborted.getSignature("/build/a"));
+        assertArrayEquals(signature(2), aborted.getSignature("/build/b"));
+
+        state.putSignature("/build/c", signature(3));
+        state.save(stateResource);
+        state = State.load(stateResource);
+        assertArrayEquals(signature(3), state.getSignature("/build/c"));
+    }
+
+    /*
+     * The appended log must end up with the same signatures as the state in
+     * memory when several threads update the same paths.
+     */
+    @Test
+    public void testConcurrentPuts() throws Exception {
+        State state = State.load(stateResource);
+        state.save(stateResource);
+        state = State.load(stateResource);
+        final State sharedState = state;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; ++t) {
+            final int value = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; ++i) {
+                    sharedState.putSignature("/build/" + i, signature(value));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Too few records to compact, so the log is reloaded as appended
+        state.save(stateResource);
+        State loaded = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            assertArrayEquals(state.getSignature("/build/" + i), loaded.getSignature("/build/" + i));
+        }
+    }
+}
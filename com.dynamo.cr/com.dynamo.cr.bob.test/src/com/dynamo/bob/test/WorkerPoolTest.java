@@ -0,0 +1,89 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.WorkerPool;
+
+public class WorkerPoolTest {
+
+    private WorkerPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new WorkerPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testResultOrder() {
+        List<Integer> results = pool.map(100, i -> {
+            Thread.yield();
+            return i * 2;
+        });
+        assertEquals(100, results.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i * 2, (int) results.get(i));
+        }
+        assertEquals(0, pool.map(0, i -> i).size());
+    }
+
+    @Test
+    public void testThreadsBoundedByBudget() throws InterruptedException {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        pool.map(20, i -> {
+            threads.add(Thread.currentThread());
+            // keep the items busy so that the helpers get started
+            Thread.sleep(5);
+            return i;
+        });
+        // the calling thread plus one helper thread per permit
+        assertTrue(threads.size() > 1);
+        assertTrue(threads.size() <= 4);
+    }
+
+    @Test
+    public void testFirstErrorIsThrown() {
+        // items are started in order, so the error of the lowest failing item is always thrown
+        try {
+            pool.map(50, i -> {
+                if (i == 10 || i == 20) {
+                    throw new IOException("failed " + i);
+                }
+                return i;
+            });
+            fail("Expected an exception");
+        } catch (IOException e) {
+            assertEquals("failed 10", e.getMessage());
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -45,7 +46,10 @@ import com.dynamo.bob.font.BMFont.ChannelData;
 import com.dynamo.bob.font.BMFont.Char;
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
+import com.dynamo.bob.font.Fontc.GlyphCache;
+import com.dynamo.bob.WorkerPool;
 import com.dynamo.render.proto.Font.FontDesc;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Font.GlyphBank;
 import com.dynamo.render.proto.Font.GlyphBank.Glyph;
@@ -519,4 +523,86 @@ public class FontTest {
         assertTrue(false);
     }
 
+    private static class MemoryGlyphCache implements GlyphCache {
+        Map<Integer, byte[]> glyphs = new HashMap<Integer, byte[]>();
+        int puts = 0;
+
+        @Override
+        public byte[] get(int codePoint) {
+            return glyphs.get(codePoint);
+        }
+
+        @Override
+        public void put(int codePoint, byte[] data) {
+            glyphs.put(codePoint, data);
+            ++puts;
+        }
+    }
+
+    private GlyphBank compileTTF(FontDesc fontDesc, WorkerPool workerPool, GlyphCache glyphCache) throws Exception {
+        Fontc fontc = new Fontc();
+        fontc.setWorkerPool(workerPool);
+        fontc.setGlyphCache(glyphCache);
+        InputStream fontInputStream = getClass().getResourceAsStream(fontDesc.getFont());
+        final String searchPath = FilenameUtils.getBaseName(fontDesc.getFont());
+        fontc.compile(fontInputStream, fontDesc, false, new FontResourceResolver() {
+                @Override
+                public InputStream getResource(String resourceName)
+                        throws FileNotFoundException {
+                    return new FileInputStream(Paths.get(searchPath, resourceName).toString());
+                }
+            });
+        fontInputStream.close();
+        return fontc.getGlyphBank();
+    }
+
+    @Test
+    public void testTTFParallel() throws Exception {
+        FontDesc.Builder builder = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2)
+            .setOutlineAlpha(1)
+            .setShadowAlpha(1)
+            .setShadowBlur(2);
+
+        WorkerPool workerPool = new WorkerPool(4);
+        try {
+            for (FontTextureFormat format : new FontTextureFormat[] { FontTextureFormat.TYPE_BITMAP, FontTextureFormat.TYPE_DISTANCE_FIELD }) {
+                FontDesc fontDesc = builder.setOutputFormat(format).build();
+                GlyphBank expected = compileTTF(fontDesc, null, null);
+                GlyphBank actual = compileTTF(fontDesc, workerPool, null);
+                assertEquals(expected, actual);
+            }
+        } finally {
+            workerPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTTFGlyphCache() throws Exception {
+        FontDesc.Builder builder = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .setExtraCharacters("åäö");
+
+        MemoryGlyphCache glyphCache = new MemoryGlyphCache();
+        GlyphBank glyphBank = compileTTF(builder.build(), null, glyphCache);
+        int glyphCount = glyphCache.puts;
+        assertTrue(glyphCount > 0);
+
+        // Only the added characters are generated
+        FontDesc fontDesc = builder.setExtraCharacters("åäöÅÄÖ").build();
+        glyphBank = compileTTF(fontDesc, null, glyphCache);
+        assertEquals(glyphCount + 3, glyphCache.puts);
+        assertEquals(compileTTF(fontDesc, null, null), glyphBank);
+
+        // The glyph cache key only changes with the glyph parameters
+        assertEquals(Fontc.GlyphDescToHash(builder.setExtraCharacters("").build()), Fontc.GlyphDescToHash(fontDesc));
+        assertFalse(Fontc.GlyphDescToHash(builder.setSize(32).build()) == Fontc.GlyphDescToHash(fontDesc));
+    }
+
 }
@@ -35,13 +35,14 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     // To easier handle walking we want the resources to be sorted by their key.
     protected Map<String, MockResource> resources = new TreeMap<String, MockResource>();
 
-    public MockResource addFile(String path, byte[] content, long lastModified) {
+    public synchronized MockResource addFile(String path, byte[] content, long lastModified) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
             path = path.substring(1);
         MockResource resource = new MockResource(this, path, content, lastModified);
         resources.put(path, resource);
+        contentHashCache.invalidate(resource);
         return resource;
     }
 
@@ -49,7 +50,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
         return addFile(path, content, System.currentTimeMillis());
     }
 
-    public MockResource addDirectory(String path) {
+    public synchronized MockResource addDirectory(String path) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -60,7 +61,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     }
 
     @Override
-    public IResource get(String path) {
+    public synchronized IResource get(String path) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -47,6 +47,7 @@ public class MockResource extends AbstractResource<MockFileSystem> {
     @Override
     public void setContent(byte[] content) {
         this.content = Arrays.copyOf(content, content.length);
+        contentChanged();
     }
 
     @Override
@@ -57,6 +58,7 @@ public class MockResource extends AbstractResource<MockFileSystem> {
     @Override
     public void remove() {
         content = null;
+        contentChanged();
     }
 
     @Override
@@ -21,6 +21,8 @@ import java.awt.image.BufferedImage;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -28,6 +30,7 @@ import org.junit.Test;
 
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.PathSettings;
+import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
@@ -179,4 +182,41 @@ public class TextureUtilTest {
         assertEquals("match4", TextureUtil.getTextureProfileByPath(texProfiles, "a/b/c.bin" ).getName());
     }
 
+    private static PlatformProfile createPlatformProfile(PlatformProfile.OS os) {
+        return PlatformProfile.newBuilder().setOs(os).setMipmaps(false).build();
+    }
+
+    @Test
+    public void testFilterTextureProfilesByPlatform() {
+        PathSettings p1 = PathSettings.newBuilder().setProfile("profile").setPath("**").build();
+        TextureProfiles texProfiles = TextureProfiles.newBuilder()
+                .addPathSettings(p1)
+                .addProfiles(TextureProfile.newBuilder().setName("profile")
+                        .addPlatforms(createPlatformProfile(PlatformProfile.OS.OS_ID_GENERIC))
+                        .addPlatforms(createPlatformProfile(PlatformProfile.OS.OS_ID_ANDROID))
+                        .addPlatforms(createPlatformProfile(PlatformProfile.OS.OS_ID_IOS))
+                        .addPlatforms(createPlatformProfile(PlatformProfile.OS.OS_ID_WEB))
+                        .build())
+                .build();
+
+        // No target platform, only the generic entries are kept
+        TextureProfiles filtered = TextureUtil.filterTextureProfiles(texProfiles, new ArrayList<String>());
+        assertEquals(1, filtered.getPathSettingsCount());
+        assertEquals(1, filtered.getProfiles(0).getPlatformsCount());
+        assertEquals(PlatformProfile.OS.OS_ID_GENERIC, filtered.getProfiles(0).getPlatforms(0).getOs());
+
+        filtered = TextureUtil.filterTextureProfiles(texProfiles, Arrays.asList("armv7-android", "arm64-android"));
+        assertEquals(2, filtered.getProfiles(0).getPlatformsCount());
+        assertEquals(PlatformProfile.OS.OS_ID_GENERIC, filtered.getProfiles(0).getPlatforms(0).getOs());
+        assertEquals(PlatformProfile.OS.OS_ID_ANDROID, filtered.getProfiles(0).getPlatforms(1).getOs());
+
+        filtered = TextureUtil.filterTextureProfiles(texProfiles, Arrays.asList("js-web", "wasm-web"));
+        assertEquals(2, filtered.getProfiles(0).getPlatformsCount());
+        assertEquals(PlatformProfile.OS.OS_ID_WEB, filtered.getProfiles(0).getPlatforms(1).getOs());
+
+        filtered = TextureUtil.filterTextureProfiles(texProfiles, Arrays.asList("x86_64-win32"));
+        assertEquals(1, filtered.getProfiles(0).getPlatformsCount());
+        assertEquals("profile", TextureUtil.getTextureProfileByPath(filtered, "a/b.png").getName());
+    }
+
 }
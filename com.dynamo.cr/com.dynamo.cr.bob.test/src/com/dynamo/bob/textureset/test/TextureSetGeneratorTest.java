@@ -27,11 +27,14 @@ import java.util.List;
 
 import org.junit.Test;
 
+import com.dynamo.bob.pipeline.AtlasUtil;
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
+import com.dynamo.bob.textureset.TextureSetLayout.Grid;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSet;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSetAnimation;
 import com.dynamo.gamesys.proto.Tile.Playback;
@@ -268,6 +271,56 @@ public class TextureSetGeneratorTest {
     private static int getFrameIndex(TextureSet textureSet, String id, int frame) {
         return textureSet.getFrameIndices(getAnim(textureSet, id).getStart() + frame);
     }
+
+    @Test
+    public void testMappedAnimIteratorDuplicateIds() {
+        List<String> ids = Arrays.asList("a", "b", "a", "c");
+        List<AtlasUtil.MappedAnimDesc> animations = new ArrayList<AtlasUtil.MappedAnimDesc>();
+        animations.add(new AtlasUtil.MappedAnimDesc("anim", Arrays.asList("c", "a", "missing", "b")));
+
+        AtlasUtil.MappedAnimIterator iterator = new AtlasUtil.MappedAnimIterator(animations, ids);
+        iterator.nextAnim();
+        assertThat(iterator.nextFrameIndex(), is(3));
+        assertThat(iterator.nextFrameIndex(), is(0));
+        assertThat(iterator.nextFrameIndex(), is(-1));
+        assertThat(iterator.nextFrameIndex(), is(1));
+        assertEquals(null, iterator.nextFrameIndex());
+    }
+
+    @Test
+    public void testLargeAtlasFrameIndices() {
+        final int imageCount = 10000;
+        List<Rect> rects = new ArrayList<Rect>();
+        List<String> ids = new ArrayList<String>();
+        List<String> allFrames = new ArrayList<String>();
+        List<AtlasUtil.MappedAnimDesc> animations = new ArrayList<AtlasUtil.MappedAnimDesc>();
+        for (int i = 0; i < imageCount; ++i) {
+            String id = "image" + i;
+            rects.add(new Rect(id, i, 4, 4));
+            ids.add(id);
+            allFrames.add(0, id);
+            animations.add(new AtlasUtil.MappedAnimDesc(id, Arrays.asList(id)));
+        }
+        animations.add(new AtlasUtil.MappedAnimDesc("all", allFrames));
+
+        AtlasUtil.MappedAnimIterator iterator = new AtlasUtil.MappedAnimIterator(animations, ids);
+        TextureSetResult result = TextureSetGenerator.calculateLayout(rects, null, 0, iterator, 0, 0, 0, false, true, new Grid(100, 100), 0, 0);
+        TextureSet textureSet = result.builder.setTexture("").build();
+
+        int frameCount = imageCount * 3;
+        assertThat(textureSet.getAnimationsCount(), is(imageCount + 1));
+        assertThat(textureSet.getFrameIndicesCount(), is(frameCount));
+        assertThat(textureSet.getTexCoords().size(), is(frameCount * 8 * 4));
+        assertThat(textureSet.getTexDims().size(), is(frameCount * 2 * 4));
+        assertThat(result.uvTransforms.size(), is(frameCount));
+        for (int i = 0; i < imageCount; ++i) {
+            TextureSetAnimation anim = textureSet.getAnimations(i);
+            assertThat(anim.getStart(), is(imageCount + i));
+            assertThat(textureSet.getFrameIndices(anim.getStart()), is(i));
+            assertThat(textureSet.getFrameIndices(2 * imageCount + i), is(imageCount - 1 - i));
+        }
+    }
+
     private static int getIndexCount(TextureSet textureSet, String id, int frame) {
         return textureSet.getGeometries(getFrameIndex(textureSet, id, frame)).getIndicesCount();
     }
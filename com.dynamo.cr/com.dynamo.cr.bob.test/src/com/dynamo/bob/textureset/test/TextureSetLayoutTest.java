@@ -22,11 +22,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.dynamo.bob.WorkerPool;
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
 import com.dynamo.bob.textureset.TextureSetLayout;
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
@@ -317,6 +322,151 @@ public class TextureSetLayoutTest {
         }
     }
 
+    private static List<Rect> randomRects(String prefix, int count, long seed) {
+        Random random = new Random(seed);
+        List<Rect> rectangles = new ArrayList<Rect>();
+        for (int i = 0; i < count; ++i) {
+            rectangles.add(new Rect(prefix + i, i, 1 + random.nextInt(64), 1 + random.nextInt(64)));
+        }
+        return rectangles;
+    }
+
+    private static void assertSameLayouts(List<Layout> expected, List<Layout> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Layout e = expected.get(i);
+            Layout a = actual.get(i);
+            assertEquals(e.getWidth(), a.getWidth());
+            assertEquals(e.getHeight(), a.getHeight());
+            assertEquals(e.getRectangles().size(), a.getRectangles().size());
+            for (int j = 0; j < e.getRectangles().size(); ++j) {
+                Rect er = e.getRectangles().get(j);
+                Rect ar = a.getRectangles().get(j);
+                assertEquals(er.index, ar.index);
+                assertEquals(er.x, ar.x);
+                assertEquals(er.y, ar.y);
+                assertEquals(er.width, ar.width);
+                assertEquals(er.height, ar.height);
+                assertEquals(er.rotated, ar.rotated);
+            }
+        }
+    }
+
+    private static class MemoryLayoutCache implements MaxRectsLayoutStrategy.LayoutCache {
+        final Map<String, byte[]> layouts = new HashMap<String, byte[]>();
+        int hits;
+
+        @Override
+        public byte[] get(String key) {
+            byte[] data = layouts.get(key);
+            if (data != null) {
+                ++hits;
+            }
+            return data;
+        }
+
+        @Override
+        public void put(String key, byte[] data) {
+            layouts.put(key, data);
+        }
+    }
+
+    @Test
+    public void testCachedLayout() {
+        MemoryLayoutCache cache = new MemoryLayoutCache();
+        List<Layout> expected = packedLayout(2, randomRects("a", 200, 1234));
+        List<Layout> first = TextureSetLayout.packedLayout(2, randomRects("a", 200, 1234), true, 0, 0, null, cache);
+        assertSameLayouts(expected, first);
+        assertEquals(0, cache.hits);
+
+        // Same sizes but different ids, the cached layout must use the new ids
+        List<Layout> second = TextureSetLayout.packedLayout(2, randomRects("b", 200, 1234), true, 0, 0, null, cache);
+        assertTrue(cache.hits > 0);
+        assertSameLayouts(first, second);
+        for (Layout layout : second) {
+            for (Rect r : layout.getRectangles()) {
+                assertThat(r.id, is("b" + r.index));
+            }
+        }
+
+        // Broken cache data is ignored
+        for (String key : cache.layouts.keySet()) {
+            cache.layouts.put(key, new byte[] { 0, 0, 0, 1 });
+        }
+        assertSameLayouts(expected, TextureSetLayout.packedLayout(2, randomRects("a", 200, 1234), true, 0, 0, null, cache));
+    }
+
+    @Test
+    public void testParallelLayout() {
+        WorkerPool pool = new WorkerPool(4);
+        try {
+            for (int seed = 0; seed < 10; ++seed) {
+                List<Layout> expected = packedLayoutPaged(1, randomRects("", 150, seed), 256, 256);
+                List<Layout> actual = TextureSetLayout.packedLayout(1, randomRects("", 150, seed), true, 256, 256, pool, null);
+                assertSameLayouts(expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<Layout> layoutWithReference(List<Rect> rects, int margin, boolean rotation, int maxPageSize) {
+        ReferenceMaxRectsLayoutStrategy.Settings settings = new ReferenceMaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = maxPageSize;
+        settings.maxPageHeight = maxPageSize;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = margin;
+        settings.paddingY = margin;
+        settings.rotation = rotation;
+        return new ReferenceMaxRectsLayoutStrategy(settings).createLayout(rects);
+    }
+
+    private static List<Layout> layout(List<Rect> rects, int margin, boolean rotation, int maxPageSize) {
+        MaxRectsLayoutStrategy.Settings settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = maxPageSize;
+        settings.maxPageHeight = maxPageSize;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = margin;
+        settings.paddingY = margin;
+        settings.rotation = rotation;
+        return new MaxRectsLayoutStrategy(settings).createLayout(rects);
+    }
+
+    /*
+     * The packer must give the same layouts as before contact point scoring and
+     * pruning were sped up
+     */
+    @Test
+    public void testSameLayoutAsReference() {
+        List<List<Rect>> fixtures = new ArrayList<List<Rect>>();
+        fixtures.add(Arrays.asList(rect("0", 0, 16, 16), rect("1", 1, 8, 8), rect("2", 2, 8, 8), rect("3", 3, 8, 8),
+                                   rect("4", 4, 8, 8), rect("5", 5, 8, 8), rect("6", 6, 8, 8)));
+        fixtures.add(Arrays.asList(rect("0", 0, 32, 12), rect("1", 1, 16, 2), rect("2", 2, 16, 2)));
+        fixtures.add(Arrays.asList(rect("0", 0, 15, 15), rect("1", 1, 15, 15), rect("2", 2, 15, 15), rect("3", 3, 15, 15)));
+        fixtures.add(Arrays.asList(rect("0", 0, 1000, 800), rect("1", 1, 800, 1000), rect("2", 2, 1000, 100), rect("3", 3, 800, 100)));
+        fixtures.add(createSampleRectangles(1));
+        fixtures.add(createSampleRectangles(4));
+        for (int seed = 0; seed < 10; ++seed) {
+            fixtures.add(randomRects("", 50 + seed * 20, seed));
+        }
+        for (List<Rect> rects : fixtures) {
+            int maxLength = 0;
+            for (Rect rect : rects) {
+                maxLength = Math.max(maxLength, Math.max(rect.width, rect.height));
+            }
+            for (int margin = 0; margin <= 2; margin += 2) {
+                for (boolean rotation : new boolean[] { false, true }) {
+                    // A small page size that gives several pages, and one that fits all rects
+                    for (int maxPageSize : new int[] { Math.max(256, 2 * maxLength), 4096 }) {
+                        assertSameLayouts(layoutWithReference(rects, margin, rotation, maxPageSize), layout(rects, margin, rotation, maxPageSize));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void testLargeLayout() {
         List<Rect> rectangles
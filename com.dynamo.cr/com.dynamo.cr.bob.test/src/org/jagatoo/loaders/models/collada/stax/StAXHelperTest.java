@@ -0,0 +1,176 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Random;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+public class StAXHelperTest {
+
+    private static XMLStreamReader createReader(String xml, String element) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty("javax.xml.stream.isCoalescing", false);
+        XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+        while (reader.next() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals(element)) {
+        }
+        return reader;
+    }
+
+    private static float parseFloat(String s) {
+        return StAXHelper.parseFloat(s.toCharArray(), 0, s.length());
+    }
+
+    private static void assertParseFloat(String s) {
+        float expected;
+        try {
+            expected = Float.parseFloat(s);
+        } catch (NumberFormatException e) {
+            expected = 0.0f;
+        }
+        assertEquals(s, Float.floatToRawIntBits(expected), Float.floatToRawIntBits(parseFloat(s)));
+    }
+
+    @Test
+    public void testParseFloat() throws Exception {
+        String[] values = { "0", "-0", "0.0", "-0.0", "1", "+1", "-1", "1.", ".5", "-.5", "0.1", "1e10", "1E-10", "1.5e+3",
+                "3.4028235e38", "3.4028236e38", "1e39", "1.4e-45", "1e-46", "0.000000000000000000000000001",
+                "123456789012345678901234567890", "0.12345678901234567890", "16777217", "0.3333333333333333",
+                "NaN", "-Infinity", "1.0f", "-1.#IND00", "-1.#QNAN", "", "-", ".", "e5", "1e", "1e+", "1.2.3", "0x1p3" };
+        for (String s : values) {
+            assertParseFloat(s);
+        }
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; ++i) {
+            double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+            assertParseFloat(Double.toString(d));
+            assertParseFloat(Float.toString((float) d));
+            assertParseFloat(String.format("%.6f", d));
+            assertParseFloat(String.format("%.9e", d));
+        }
+        // Values halfway between two floats
+        for (int i = 0; i < 10000; ++i) {
+            float f = random.nextFloat() * 1000.0f;
+            BigDecimal halfway = new BigDecimal(f).add(new BigDecimal(Math.nextUp(f))).divide(new BigDecimal(2));
+            assertParseFloat(halfway.toString());
+        }
+    }
+
+    @Test
+    public void testParseInt() throws Exception {
+        String[] values = { "0", "-0", "+7", "-7", "123456789", "-123456789", "2147483647", "-2147483648" };
+        for (String s : values) {
+            assertEquals(s, Integer.parseInt(s), StAXHelper.parseInt(s.toCharArray(), 0, s.length()));
+        }
+        String[] invalid = { "", "-", "1.0", "2147483648", "1a" };
+        for (String s : invalid) {
+            try {
+                StAXHelper.parseInt(s.toCharArray(), 0, s.length());
+                fail(s);
+            } catch (NumberFormatException e) {
+            }
+        }
+    }
+
+    /*
+     * Large arrays are reported as several character events, with values
+     * split between events.
+     */
+    @Test
+    public void testLargeFloatArray() throws Exception {
+        Random random = new Random(2);
+        StringBuilder text = new StringBuilder();
+        int count = 100000;
+        for (int i = 0; i < count; ++i) {
+            text.append((random.nextDouble() - 0.5) * 1000.0);
+            text.append(i % 7 == 6 ? "\n\t" : " ");
+        }
+        XMLStreamReader reader = createReader("<float_array id=\"a\" count=\"" + count + "\">" + text + "</float_array>", "float_array");
+        XMLFloatArray array = new XMLFloatArray();
+        array.parse(reader);
+        assertEquals(count, array.floats.length);
+        assertArrayEquals(XMLFloatArray.toArray(text.toString()), array.floats, 0.0f);
+
+        // Wrong count attribute
+        reader = createReader("<float_array id=\"a\" count=\"2\">" + text + "</float_array>", "float_array");
+        array = new XMLFloatArray();
+        array.parse(reader);
+        assertArrayEquals(XMLFloatArray.toArray(text.toString()), array.floats, 0.0f);
+    }
+
+    @Test
+    public void testLargeIntArray() throws Exception {
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            text.append(random.nextInt());
+            text.append(' ');
+        }
+        XMLStreamReader reader = createReader("<int_array>" + text + "</int_array>", "int_array");
+        XMLIntArray array = new XMLIntArray();
+        array.parse(reader, "int_array");
+        assertArrayEquals(XMLIntArray.toArray(text.toString()), array.ints);
+    }
+
+    @Test
+    public void testPolylist() throws Exception {
+        String xml = "<polylist count=\"2\">"
+                + "<input semantic=\"VERTEX\" source=\"#v\" offset=\"0\"/>"
+                + "<input semantic=\"NORMAL\" source=\"#n\" offset=\"1\"/>"
+                + "<vcount>4 3</vcount>"
+                + "<p>0 0 1 1 2 2 3 3 4 4 5 5 6 6</p>"
+                + "</polylist>";
+        XMLTriangles triangles = new XMLTriangles();
+        triangles.parse(createReader(xml, "polylist"), true);
+        assertEquals(3, triangles.count);
+        assertArrayEquals(new int[] { 0, 0, 1, 1, 2, 2, 0, 0, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6 }, triangles.p);
+
+        xml = "<triangles count=\"1\">"
+                + "<input semantic=\"VERTEX\" source=\"#v\" offset=\"0\"/>"
+                + "<p>2 1 0</p>"
+                + "</triangles>";
+        triangles = new XMLTriangles();
+        triangles.parse(createReader(xml, "triangles"), false);
+        assertArrayEquals(new int[] { 2, 1, 0 }, triangles.p);
+    }
+
+    @Test
+    public void testParseText() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            text.append("bone").append(i).append(' ');
+        }
+        XMLStreamReader reader = createReader("<Name_array count=\"10000\">" + text + "&amp;</Name_array>", "Name_array");
+        XMLNameArray array = new XMLNameArray();
+        array.parse(reader);
+        assertEquals(10001, array.names.length);
+        assertEquals("&", array.names[10000]);
+
+        reader = createReader("<a><b>x &lt; y</b></a>", "b");
+        assertEquals("x < y", StAXHelper.parseText(reader));
+    }
+}
@@ -61,6 +61,7 @@ import com.dynamo.bob.logging.LogHelper;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.TimeProfiler;
+import com.dynamo.bob.cache.LocalCacheStore;
 import com.dynamo.bob.cache.ResourceCacheKey;
 import com.dynamo.bob.pipeline.ExtenderUtil;
 
@@ -479,6 +480,7 @@ public class Bob {
         addOption(options, null, "use-uncompressed-lua-source", false, "Use uncompressed and unencrypted Lua source code instead of byte code", true);
         addOption(options, null, "use-lua-bytecode-delta", false, "Use byte code delta compression when building for multiple architectures", true);
         addOption(options, null, "archive-resource-padding", true, "The alignment of the resources in the game archive. Default is 4", true);
+        addOption(options, null, "archive-incremental", false, "Reuse the compressed and encrypted resources of the previous archive build for resources that have not changed", false);
 
         addOption(options, "l", "liveupdate", true, "Yes if liveupdate content should be published", true);
 
@@ -490,7 +492,8 @@ public class Bob {
 
         addOption(options, null, "build-artifacts", true, "If left out, will default to build the engine. Choices: 'engine', 'plugins'. Comma separated list.", false);
 
-        addOption(options, null, "resource-cache-local", true, "Path to local resource cache.", false);
+        addOption(options, null, "resource-cache-local", true, "Path to local resource cache. Use the 'cache stats' and 'cache gc' commands to inspect and clean it.", false);
+        addOption(options, null, "resource-cache-local-max-size", true, "Maximum size of the local resource cache in megabytes. The least recently used resources are removed at the end of the build. Default is no limit.", false);
         addOption(options, null, "resource-cache-remote", true, "URL to remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-user", true, "Username to authenticate access to the remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-pass", true, "Password/token to authenticate access to the remote resource cache.", false);
@@ -499,6 +502,8 @@ public class Bob {
         addOption(options, null, "manifest-public-key", true, "Public key to use when signing manifest and archive.", false);
 
         addOption(options, null, "max-cpu-threads", true, "Max count of threads that bob.jar can use", false);
+        addOption(options, null, "lua-scanner-cache-max-memory", true, "Maximum size in megabytes of parsed Lua scripts kept in memory between builds. Default is 32, or less when the JVM has less than 1 GB of memory", false);
+        addOption(options, null, "build-cache-max-memory", true, "Maximum size in megabytes of decoded images, parsed models and other intermediate data kept in memory during a build. Default is a quarter of the JVM max memory", false);
 
         // debug options
         addOption(options, null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip", false);
@@ -620,6 +625,31 @@ public class Bob {
         TimeProfiler.stop();
     }
 
+    // bob cache stats|gc
+    private static void runCacheCommand(CommandLine cmd, String[] commands) throws IOException {
+        String localCacheDir = cmd.getOptionValue("resource-cache-local");
+        if (localCacheDir == null) {
+            System.out.println("The cache command requires the --resource-cache-local option");
+            System.exit(1);
+            return;
+        }
+        String subCommand = commands.length > 1 ? commands[1] : "stats";
+        long maxSize = 0;
+        if (cmd.hasOption("resource-cache-local-max-size")) {
+            maxSize = Long.parseLong(cmd.getOptionValue("resource-cache-local-max-size")) * 1024 * 1024;
+        }
+        LocalCacheStore store = new LocalCacheStore(localCacheDir);
+        if (subCommand.equals("stats")) {
+            store.getStats(maxSize).print(System.out);
+        } else if (subCommand.equals("gc")) {
+            LocalCacheStore.Stats stats = store.gc(maxSize);
+            System.out.println(String.format("Removed %d keys and %d bytes of blobs", stats.evictionCandidateCount, stats.evictionCandidateSize + stats.unreferencedBlobSize));
+        } else {
+            System.out.println(String.format("Unknown cache command '%s', expected 'stats' or 'gc'", subCommand));
+            System.exit(1);
+        }
+    }
+
     private static void validateChoices(String optionName, String value, List<String> validChoices) {
         if (!validChoices.contains(value)) {
             System.out.printf("%s option must be one of: ", optionName);
@@ -720,6 +750,12 @@ public class Bob {
             commands = new String[] { "build" };
         }
 
+        if (commands[0].equals("cache")) {
+            runCacheCommand(cmd, commands);
+            System.exit(0);
+            return;
+        }
+
         boolean shouldResolveLibs = false;
         for (String command : commands) {
             if (command.equals("resolve")) {
@@ -41,6 +41,6 @@ public abstract class CopyBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         IResource in = task.getInputs().get(0);
         IResource out = task.getOutputs().get(0);
-        out.setContent(in.getContent());
+        out.setContent(in.getContentBuffer());
     }
 }
@@ -59,7 +59,7 @@ public class CopyCustomResourcesBuilder extends Builder<Void> {
         final List<IResource> inputs = task.getInputs();
         final int n = inputs.size();
         for (int i = 0; i < n; i++) {
-            outputs.get(i).setContent(inputs.get(i).getContent());
+            outputs.get(i).setContent(inputs.get(i).getContentBuffer());
         }
     }
 }
@@ -43,6 +43,7 @@ import java.util.Enumeration;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,6 +64,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.codec.binary.Base64;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 
 import com.defold.extender.client.ExtenderClient;
 import com.defold.extender.client.ExtenderClientException;
@@ -80,12 +82,21 @@ import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.bundle.IBundler;
 import com.dynamo.bob.bundle.BundlerParams;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
+import com.dynamo.bob.fs.ContentHashCache;
+import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
+import com.dynamo.bob.pipeline.BuildCache;
+import com.dynamo.bob.pipeline.ColladaUtil;
+import com.dynamo.bob.pipeline.DecodedImage;
 import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.pipeline.IShaderCompiler;
+import com.dynamo.bob.pipeline.LuaJITCompilerPool;
+import com.dynamo.bob.pipeline.LuaScannerCache;
+import com.dynamo.bob.pipeline.ModelImporter;
+import com.dynamo.bob.pipeline.ModelUtil;
 import com.dynamo.bob.pipeline.ShaderCompilers;
 import com.dynamo.bob.pipeline.TextureGenerator;
 import com.dynamo.bob.logging.Logger;
@@ -121,6 +132,12 @@ public class Project {
 
     private ExecutorService executor = Executors.newCachedThreadPool();
     private ResourceCache resourceCache = new ResourceCache();
+    private LuaJITCompilerPool luajitCompilerPool = null;
+    private WorkerPool workerPool = null;
+    private Map<String, BuildCache<?, ?>> buildCaches = new HashMap<>();
+    private LuaScannerCache luaScannerCache = null;
+    private static final String LUA_SCANNER_CACHE_DIR = "luascanner_cache";
+    private static final long LUA_SCANNER_CACHE_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
     private IFileSystem fileSystem;
     private Map<String, Class<? extends Builder<?>>> extToBuilder = new HashMap<String, Class<? extends Builder<?>>>();
     private Map<String, String> inextToOutext = new HashMap<>();
@@ -175,9 +192,135 @@ public class Project {
     }
 
     public void dispose() {
+        shutdownLuaJITCompilerPool();
+        shutdownWorkerPool();
+        clearBuildCaches();
+        resourceCache.close();
         this.fileSystem.close();
     }
 
+    /**
+     * Get the pool of LuaJIT compile server processes shared by all Lua
+     * builders. The pool is created on first use and shut down at the end
+     * of the build.
+     * @return the compiler pool
+     */
+    public synchronized LuaJITCompilerPool getLuaJITCompilerPool() {
+        if (luajitCompilerPool == null) {
+            luajitCompilerPool = new LuaJITCompilerPool(getMaxCpuThreads());
+        }
+        return luajitCompilerPool;
+    }
+
+    /**
+     * Get the resource cache of the project. Builders can use it to cache
+     * intermediate data between builds. It is only enabled when the local
+     * resource cache is configured.
+     * @return the resource cache
+     */
+    public ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Get the pool used by builders to run work within a task in parallel.
+     * The pool shares the CPU budget of the build with the threads building
+     * tasks. It is created on first use and shut down at the end of the build.
+     * @return the worker pool
+     */
+    public synchronized WorkerPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = new WorkerPool(getMaxCpuThreads());
+        }
+        return workerPool;
+    }
+
+    private synchronized void shutdownWorkerPool() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+    }
+
+    /**
+     * Get a build scoped cache, creating it on first use. The caches are
+     * cleared at the end of the build.
+     * @param name name of the cache
+     * @param budgetShare share of the build cache memory budget the cache may use
+     * @param sizer estimates the size of the cached values
+     * @return the cache
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <K, V> BuildCache<K, V> getBuildCache(String name, double budgetShare, BuildCache.Sizer<V> sizer) {
+        BuildCache<K, V> cache = (BuildCache<K, V>) buildCaches.get(name);
+        if (cache == null) {
+            cache = new BuildCache<>(name, (long) (getBuildCacheMaxSize() * budgetShare), sizer);
+            buildCaches.put(name, cache);
+        }
+        return cache;
+    }
+
+    private synchronized void clearBuildCaches() {
+        for (BuildCache<?, ?> cache : buildCaches.values()) {
+            logger.fine("%s cache: %d hits, %d misses", cache.getName(), cache.getHits(), cache.getMisses());
+            cache.clear();
+        }
+        buildCaches.clear();
+    }
+
+    /**
+     * Get the cache of decoded images shared by the texture, atlas and tile
+     * source builders
+     * @return the decoded image cache
+     * @see DecodedImage#get(BuildCache, IResource)
+     */
+    public BuildCache<String, DecodedImage> getDecodedImageCache() {
+        return getBuildCache("Decoded image", 0.5, DecodedImage::getSize);
+    }
+
+    /**
+     * Get the cache of parsed Collada scenes shared by the mesh set and
+     * animation set builders
+     * @return the Collada scene cache
+     * @see ColladaUtil#loadDAE(IResource, BuildCache)
+     */
+    public BuildCache<String, XMLCOLLADA> getColladaSceneCache() {
+        return getBuildCache("Collada scene", 0.25, ColladaUtil::getSize);
+    }
+
+    /**
+     * Get the cache of scenes loaded by the ModelImporter, shared by the mesh
+     * set and animation set builders
+     * @return the model scene cache
+     * @see ModelUtil#loadScene(IResource, ModelImporter.Options, ModelImporter.DataResolver, BuildCache)
+     */
+    public BuildCache<List<Object>, ModelImporter.Scene> getModelSceneCache() {
+        return getBuildCache("Model scene", 0.25, ModelUtil::getSize);
+    }
+
+    /**
+     * Get the cache of Lua scanner results. Results are kept in memory and,
+     * when building from disk, in the build directory
+     * @return the cache
+     */
+    public synchronized LuaScannerCache getLuaScannerCache() {
+        if (luaScannerCache == null) {
+            File directory = null;
+            if (fileSystem instanceof DefaultFileSystem) {
+                directory = new File(FilenameUtils.concat(FilenameUtils.concat(rootDirectory, buildDirectory), LUA_SCANNER_CACHE_DIR));
+            }
+            luaScannerCache = new LuaScannerCache(directory);
+        }
+        return luaScannerCache;
+    }
+
+    private synchronized void shutdownLuaJITCompilerPool() {
+        if (luajitCompilerPool != null) {
+            luajitCompilerPool.shutdown();
+            luajitCompilerPool = null;
+        }
+    }
+
     public String getRootDirectory() {
         return rootDirectory;
     }
@@ -218,6 +361,40 @@ public class Project {
         return option("resource-cache-remote", null);
     }
 
+    public long getLocalResourceCacheMaxSize() {
+        // in megabytes, 0 means no limit
+        String maxSizeOpt = option("resource-cache-local-max-size", null);
+        if (maxSizeOpt == null) {
+            return 0;
+        }
+        return Long.parseLong(maxSizeOpt) * 1024 * 1024;
+    }
+
+    // Memory available to the build, used to scale the default sizes of the in-memory caches
+    private static long getMaxMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long maxMemory = runtime.maxMemory();
+        return maxMemory != Long.MAX_VALUE ? maxMemory : runtime.totalMemory();
+    }
+
+    public long getLuaScannerCacheMaxMemorySize() {
+        // in megabytes
+        String maxSizeOpt = option("lua-scanner-cache-max-memory", null);
+        if (maxSizeOpt == null) {
+            return Math.min(LuaScannerCache.DEFAULT_MAX_MEMORY_SIZE, getMaxMemory() / 32);
+        }
+        return Long.parseLong(maxSizeOpt) * 1024 * 1024;
+    }
+
+    public long getBuildCacheMaxSize() {
+        // in megabytes
+        String maxSizeOpt = option("build-cache-max-memory", null);
+        if (maxSizeOpt == null) {
+            return getMaxMemory() / 4;
+        }
+        return Long.parseLong(maxSizeOpt) * 1024 * 1024;
+    }
+
     public String getRemoteResourceCacheUser() {
         return option("resource-cache-remote-user", getSystemEnv("DM_BOB_RESOURCE_CACHE_REMOTE_USER"));
     }
@@ -452,7 +629,7 @@ public class Project {
      * @return task
      * @throws CompileExceptionError
      */
-    public Task<?> createTask(IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
+    public synchronized Task<?> createTask(IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         // It's possible to build the same resource using different builders
         String key = inputResource.getPath()+" "+builderClass;
         Task<?> task = tasks.get(key);
@@ -720,7 +897,10 @@ public class Project {
         } catch (Throwable e) {
             throw new CompileExceptionError(null, 0, e.getMessage(), e);
         } finally {
-            TimeProfiler.createReport(true);
+            shutdownLuaJITCompilerPool();
+            shutdownWorkerPool();
+            clearBuildCaches();
+                    TimeProfiler.createReport(true);
         }
     }
 
@@ -1308,6 +1488,8 @@ public class Project {
         m.beginTask("Building...", tasks.size());
         TimeProfiler.start("Build tasks");
         TimeProfiler.addData("TasksCount", tasks.size());
+        // tasks built on worker threads are profiled under this scope
+        TimeProfiler.shareCurrentScope();
 
         BundleHelper.throwIfCanceled(monitor);
         List<TaskResult> result = runTasks(m);
@@ -1377,7 +1559,10 @@ public class Project {
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws Throwable, IOException, CompileExceptionError, MultipleCompileException {
         resourceCache.init(getLocalResourceCacheDirectory(), getRemoteResourceCacheDirectory());
         resourceCache.setRemoteAuthentication(getRemoteResourceCacheUser(), getRemoteResourceCachePass());
+        resourceCache.setMaxLocalCacheSize(getLocalResourceCacheMaxSize());
         fileSystem.loadCache();
+        fileSystem.getContentHashCache().clear();
+        getLuaScannerCache().setMaxMemorySize(getLuaScannerCacheMaxMemorySize());
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "_BobBuildState_"));
         state = State.load(stateResource);
 
@@ -1467,18 +1652,19 @@ public class Project {
         monitor.done();
         state.save(stateResource);
         fileSystem.saveCache();
+        resourceCache.flush();
+        ContentHashCache contentHashCache = fileSystem.getContentHashCache();
+        logger.fine("Content hash cache: %d hits, %d misses", contentHashCache.getHits(), contentHashCache.getMisses());
+        if (luaScannerCache != null) {
+            luaScannerCache.prune(LUA_SCANNER_CACHE_MAX_AGE);
+            logger.fine("Lua scanner cache: %d hits, %d misses", luaScannerCache.getHits(), luaScannerCache.getMisses());
+        }
         return result;
     }
 
 
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     private List<TaskResult> runTasks(IProgress monitor) throws IOException {
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
-
         // the set of all output files generated
         // in this or previous session
         Set<IResource> completedOutputs = new HashSet<>();
@@ -1488,10 +1674,10 @@ public class Project {
         List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
         // set of *all* possible output files
         Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : this.getTasks()) {
+        for (Task<?> task : buildTasks) {
             allOutputs.addAll(task.getOutputs());
         }
-        tasks.clear();
+        clearTasks();
 
         TextureGenerator.maxThreads = getMaxCpuThreads();
 
@@ -1501,180 +1687,217 @@ public class Project {
             outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
         }
 
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < buildTasks.size()) {
-            for (Task<?> task : buildTasks) {
-                BundleHelper.throwIfCanceled(monitor);
-
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
-                    continue;
-                }
+        // Tasks already checked when prefetching their outputs
+        final Map<Task<?>, Boolean> upToDateTasks = new IdentityHashMap<>();
+        TaskScheduler scheduler = new TaskScheduler(new TaskScheduler.TaskHandler() {
+            @Override
+            public boolean isUpToDate(Task<?> task) throws IOException {
+                Boolean upToDate = upToDateTasks.remove(task);
+                return upToDate != null ? upToDate : isTaskUpToDate(task);
+            }
 
-                final List<IResource> outputResources = task.getOutputs();
+            @Override
+            public TaskResult build(Task<?> task) {
+                return buildTask(task);
+            }
+        }, getMaxCpuThreads(), getWorkerPool());
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : outputResources) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
-                }
+        while (!buildTasks.isEmpty()) {
+            prefetchCachedOutputs(buildTasks, allOutputs, upToDateTasks);
+            result.addAll(scheduler.run(buildTasks, completedOutputs, monitor));
+            if (scheduler.hasFailed()) {
+                break;
+            }
+            // Tasks created while building are run in an additional round
+            // TODO: do we really need this?
+            // It seems like we never create new tasks during building process
+            buildTasks = new ArrayList<>(this.getTasks());
+            for (Task<?> task : buildTasks) {
+                allOutputs.addAll(task.getOutputs());
+            }
+            clearTasks();
+        }
+        return result;
+    }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                TimeProfiler.start("compare signatures");
-                TimeProfiler.addData("color", "#FFC0CB");
-                TimeProfiler.addData("main input", String.valueOf(task.input(0)));
-                byte[] taskSignature = task.calculateSignature();
-                boolean allSigsEquals = true;
-                for (IResource r : outputResources) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    if (!Arrays.equals(s, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
-                    }
+    /**
+     * Start downloading the cached outputs of tasks that need to be built from
+     * the remote resource cache. Only tasks that don't depend on outputs of
+     * other tasks are included, since the inputs of other tasks are not known
+     * until they have been built.
+     * @param tasks tasks to prefetch outputs for
+     * @param allOutputs outputs of all tasks in the build
+     * @param upToDateTasks receives the result of the up to date check of the
+     * included tasks, which doesn't change until the task is built
+     */
+    private void prefetchCachedOutputs(List<Task<?>> tasks, Set<IResource> allOutputs, Map<Task<?>, Boolean> upToDateTasks) throws IOException {
+        if (!resourceCache.isRemoteCacheEnabled()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for (Task<?> task : tasks) {
+            if (!task.isCacheable() || !Collections.disjoint(task.getInputs(), allOutputs)) {
+                continue;
+            }
+            boolean upToDate = isTaskUpToDate(task);
+            upToDateTasks.put(task, upToDate);
+            if (upToDate) {
+                continue;
+            }
+            for (IResource r : task.getOutputs()) {
+                if (r.isCacheable()) {
+                    keys.add(ResourceCacheKey.calculate(task, options, r));
                 }
-                TimeProfiler.stop();
+            }
+        }
+        resourceCache.prefetch(keys);
+    }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+    /**
+     * Check if all outputs of a task exist and have the same signature as
+     * the current task signature.
+     * @param task task to check
+     * @return true if the task doesn't need to be built
+     */
+    private boolean isTaskUpToDate(Task<?> task) throws IOException {
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(outputResources);
-                    }
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        TimeProfiler.start("compare signatures");
+        TimeProfiler.addData("color", "#FFC0CB");
+        TimeProfiler.addData("main input", String.valueOf(task.input(0)));
+        byte[] taskSignature = task.calculateSignature();
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
+        TimeProfiler.stop();
 
-                    monitor.worked(1);
-                    continue;
-                }
+        return allOutputExists && allSigsEquals;
+    }
 
-                TimeProfiler.start(task.getName());
-                TimeProfiler.addData("output", task.getOutputsString());
-                TimeProfiler.addData("type", "buildTask");
-
-                completedTasks.add(task);
-
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
-                try {
-                    if (task.isCacheable() && resourceCache.isCacheEnabled()) {
-                        // check if all output resources exist in the resource cache
-                        boolean allResourcesCached = true;
-                        for (IResource r : outputResources) {
-                            final String key = ResourceCacheKey.calculate(task, options, r);
-                            outputResourceToCacheKey.put(r, key);
-                            if (!r.isCacheable()) {
-                                allResourcesCached = false;
-                            }
-                            else if (!resourceCache.contains(key)) {
-                                allResourcesCached = false;
-                            }
-                        }
+    /**
+     * Builders may write their outputs without going through the resource,
+     * e.g. when running external tools, so drop any hashes calculated before.
+     */
+    private void invalidateContentHashes(List<IResource> resources) {
+        ContentHashCache contentHashCache = fileSystem.getContentHashCache();
+        for (IResource r : resources) {
+            contentHashCache.invalidate(r);
+        }
+    }
 
-                        // all resources exist in the cache
-                        // copy them to the output
-                        if (allResourcesCached) {
-                            TimeProfiler.addData("takenFromCache", true);
-                            for (IResource r : outputResources) {
-                                r.setContent(resourceCache.get(outputResourceToCacheKey.get(r)));
-                            }
-                        }
-                        // build task and cache output
-                        else {
-                            builder.build(task);
-                            for (IResource r : outputResources) {
-                                state.putSignature(r.getAbsPath(), taskSignature);
-                                if (r.isCacheable()) {
-                                    resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
-                                }
-                            }
-                        }
-                    }
-                    else {
-                        builder.build(task);
-                        for (IResource r : outputResources) {
-                            state.putSignature(r.getAbsPath(), taskSignature);
-                        }
+    /**
+     * Build a task, or copy its outputs from the resource cache. May be called
+     * concurrently for tasks that don't depend on each other.
+     * @param task task to build. The task signature must have been calculated
+     * @return result of the build
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskResult buildTask(Task<?> task) {
+        final List<IResource> outputResources = task.getOutputs();
+        final byte[] taskSignature = task.getSignature();
+
+        TimeProfiler.start(task.getName());
+        TimeProfiler.addData("output", task.getOutputsString());
+        TimeProfiler.addData("type", "buildTask");
+
+        TaskResult taskResult = new TaskResult(task);
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
+        try {
+            if (task.isCacheable() && resourceCache.isCacheEnabled()) {
+                // check if all output resources exist in the resource cache
+                boolean allResourcesCached = true;
+                for (IResource r : outputResources) {
+                    final String key = ResourceCacheKey.calculate(task, options, r);
+                    outputResourceToCacheKey.put(r, key);
+                    if (!r.isCacheable()) {
+                        allResourcesCached = false;
                     }
-                    monitor.worked(1);
+                }
+                if (allResourcesCached) {
+                    allResourcesCached = resourceCache.containsAll(outputResourceToCacheKey.values());
+                }
 
+                // all resources exist in the cache
+                // copy them to the output
+                if (allResourcesCached) {
+                    TimeProfiler.addData("takenFromCache", true);
                     for (IResource r : outputResources) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
-                        }
+                        r.setContent(resourceCache.get(outputResourceToCacheKey.get(r)));
                     }
-                    completedOutputs.addAll(outputResources);
-                    TimeProfiler.stop();
-
-                } catch (CompileExceptionError e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
-
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
+                // build task and cache output
+                else {
+                    builder.build(task);
+                    invalidateContentHashes(outputResources);
                     for (IResource r : outputResources) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
+                        state.putSignature(r.getAbsPath(), taskSignature);
+                        if (r.isCacheable()) {
+                            resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
+                        }
                     }
                 }
             }
-            if (taskFailed) {
-                break;
+            else {
+                builder.build(task);
+                invalidateContentHashes(outputResources);
+                for (IResource r : outputResources) {
+                    state.putSignature(r.getAbsPath(), taskSignature);
+                }
             }
-            // set of *all* possible output files
-            // TODO: do we really need this?
-            // It seems like we never create new tasks during building process
-            for (Task<?> task : this.getTasks()) {
-                allOutputs.addAll(task.getOutputs());
+
+            for (IResource r : outputResources) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
+                }
+            }
+            TimeProfiler.stop();
+
+        } catch (CompileExceptionError e) {
+            TimeProfiler.stop();
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            TimeProfiler.stop();
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : outputResources) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
             }
-            buildTasks.addAll(this.getTasks());
-            tasks.clear();
         }
-        return result;
+        return taskResult;
     }
 
     /**
@@ -1698,7 +1921,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
@@ -2090,7 +2313,11 @@ run:
         }, result);
     }
 
-    public List<Task<?>> getTasks() {
+    private synchronized void clearTasks() {
+        this.tasks.clear();
+    }
+
+    public synchronized List<Task<?>> getTasks() {
         return Collections.unmodifiableList(new ArrayList(this.tasks.values()));
     }
 
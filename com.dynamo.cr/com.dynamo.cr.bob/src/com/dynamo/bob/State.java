@@ -3,10 +3,10 @@
 // Copyright 2009-2014 Ragnar Svensson, Christian Murray
 // Licensed under the Defold License version 1.0 (the "License"); you may not use
 // this file except in compliance with the License.
-// 
+//
 // You may obtain a copy of the License, together with FAQs at
 // https://www.defold.com/license
-// 
+//
 // Unless required by applicable law or agreed to in writing, software distributed
 // under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
 // CONDITIONS OF ANY KIND, either express or implied. See the License for the
@@ -16,26 +16,330 @@ package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.IResource;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ *
+ * The state is stored as a log of signature records. For state stored on
+ * disk new records are appended to the file while building, which means
+ * that signatures of already built tasks survive if the build is aborted.
+ * The log is compacted on save once it contains more stale records than
+ * live ones. The state is not parsed until it is first accessed and large
+ * state files are memory mapped, except on Windows where a mapped file can't
+ * be replaced or deleted until the mapping is collected.
+ *
+ * The state is safe to update from multiple threads. State files written
+ * with Java serialization by older versions are read and converted.
  * @author Christian Murray
  *
  */
 public class State implements Serializable {
 
     private static final long serialVersionUID = -275410118302470802L + 1;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+
+    /**
+     * Size of a signature, ie a sha1-checksum
+     */
+    public static final int SIGNATURE_SIZE = 20;
+
+    private static final byte[] MAGIC = { 'B', 'O', 'B', 'S', 'T', 'A', 'T', 'E' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+
+    private static final byte OP_PUT = 1;    // path followed by a signature
+    private static final byte OP_CLEAR = 2;  // path with an empty signature, ie failed task
+    private static final byte OP_REMOVE = 3; // path only
+
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final boolean MAP_ENABLED = !System.getProperty("os.name").toLowerCase().contains("win");
+
+    private static final byte[] EMPTY_SIGNATURE = new byte[0];
+
+    // Field name and type are kept to be able to read states serialized by older versions
+    private Map<String, byte[]> signatures = new ConcurrentHashMap<String, byte[]>();
+
+    // Unparsed content, parsed on first access
+    private transient volatile ByteBuffer content;
+    // Backing file when the state is stored on disk, otherwise null
+    private transient File file;
+    private transient FileChannel channel;
+    private transient ByteBuffer writeBuffer;
+    // End of the last complete record in the backing file
+    private transient long validEnd;
+    // Number of records in the log, including stale records
+    private transient int recordCount;
+    // The backing file must be rewritten before appending, eg when it has an old format
+    private transient boolean rewrite;
+
+    private State() {
+    }
+
+    private void ensureLoaded() {
+        if (content != null) {
+            load();
+        }
+    }
+
+    private synchronized void load() {
+        ByteBuffer buffer = content;
+        if (buffer == null) {
+            return;
+        }
+        if (!buffer.hasRemaining()) {
+            rewrite = true;
+        } else if (isLegacyFormat(buffer)) {
+            loadLegacy(buffer);
+            rewrite = true;
+        } else if (hasHeader(buffer)) {
+            buffer.position(HEADER_SIZE);
+            validEnd = parseRecords(buffer);
+        } else {
+            System.err.println("Unable to load state");
+            rewrite = true;
+        }
+        content = null;
+    }
+
+    private static boolean isLegacyFormat(ByteBuffer buffer) {
+        // java.io.ObjectStreamConstants.STREAM_MAGIC
+        return buffer.remaining() >= 2 && (buffer.get(0) & 0xff) == 0xac && (buffer.get(1) & 0xff) == 0xed;
+    }
+
+    private static boolean hasHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return buffer.getInt(MAGIC.length) == VERSION;
+    }
+
+    private void loadLegacy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try {
+            ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            State legacy = (State) is.readObject();
+            signatures.putAll(legacy.signatures);
+            recordCount = signatures.size();
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parse records until the end of the buffer or the first incomplete record
+     * @return position after the last complete record
+     */
+    private long parseRecords(ByteBuffer buffer) {
+        long end = buffer.position();
+        try {
+            while (buffer.hasRemaining()) {
+                byte op = buffer.get();
+                int pathLength = buffer.getInt();
+                if (pathLength < 0 || pathLength > buffer.remaining()) {
+                    break;
+                }
+                byte[] pathBytes = new byte[pathLength];
+                buffer.get(pathBytes);
+                String path = new String(pathBytes, StandardCharsets.UTF_8).intern();
+                if (op == OP_PUT) {
+                    byte[] signature = new byte[SIGNATURE_SIZE];
+                    buffer.get(signature);
+                    signatures.put(path, signature);
+                } else if (op == OP_CLEAR) {
+                    signatures.put(path, EMPTY_SIGNATURE);
+                } else if (op == OP_REMOVE) {
+                    signatures.remove(path);
+                } else {
+                    break;
+                }
+                ++recordCount;
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // Incomplete record at the end, eg from an aborted build
+        }
+        return end;
+    }
+
+    private static int recordSize(byte[] pathBytes, byte[] signature) {
+        return 1 + 4 + pathBytes.length + (signature != null && signature.length == SIGNATURE_SIZE ? SIGNATURE_SIZE : 0);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, byte[] pathBytes, byte[] signature) {
+        if (signature == null) {
+            buffer.put(OP_REMOVE);
+        } else if (signature.length == 0) {
+            buffer.put(OP_CLEAR);
+        } else {
+            buffer.put(OP_PUT);
+        }
+        buffer.putInt(pathBytes.length);
+        buffer.put(pathBytes);
+        if (signature != null && signature.length != 0) {
+            buffer.put(signature);
+        }
+    }
+
+    private static void checkSignature(byte[] signature) {
+        if (signature.length != 0 && signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid signature size %d, expected %d", signature.length, SIGNATURE_SIZE));
+        }
+    }
+
+    /**
+     * Append a record to the backing file, if any
+     * @param path path of record
+     * @param signature signature, empty signature or null for a removed path
+     */
+    private synchronized void append(String path, byte[] signature) {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (rewrite) {
+                // The rewritten file already includes this record
+                compact();
+                return;
+            } else if (channel == null) {
+                if (!file.isFile()) {
+                    // Eg removed by distclean, write all records to a new file
+                    compact();
+                    return;
+                }
+                openForAppend();
+            }
+            byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+            int size = recordSize(pathBytes, signature);
+            if (writeBuffer.remaining() < size) {
+                flushBuffer();
+            }
+            if (writeBuffer.capacity() < size) {
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                writeRecord(buffer, pathBytes, signature);
+                buffer.flip();
+                writeFully(buffer);
+            } else {
+                writeRecord(writeBuffer, pathBytes, signature);
+            }
+            ++recordCount;
+        } catch (IOException e) {
+            // The state is still valid in memory and is written in full on save
+            System.err.println("Unable to write state: " + e.getMessage());
+            closeChannel();
+            file = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            validEnd += channel.write(buffer, validEnd);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (channel == null || writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Encode all signatures as a compacted log, including the header
+     */
+    private ByteBuffer encode() {
+        List<byte[]> paths = new ArrayList<>(signatures.size());
+        List<byte[]> values = new ArrayList<>(signatures.size());
+        int size = HEADER_SIZE;
+        for (Map.Entry<String, byte[]> entry : signatures.entrySet()) {
+            byte[] pathBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            paths.add(pathBytes);
+            values.add(entry.getValue());
+            size += recordSize(pathBytes, entry.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        for (int i = 0; i < paths.size(); ++i) {
+            writeRecord(buffer, paths.get(i), values.get(i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Rewrite the backing file with only the live records and reopen it for appending
+     */
+    private void compact() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        ByteBuffer buffer = encode();
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        closeChannel();
+        recordCount = signatures.size();
+        validEnd = buffer.limit();
+        rewrite = false;
+        openForAppend();
+    }
+
+    /**
+     * Open the backing file for appending after the last complete record
+     */
+    private void openForAppend() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop any incomplete record at the end
+        channel.truncate(validEnd);
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        }
+        writeBuffer.clear();
+    }
 
     /**
      * Get signature for path
@@ -43,16 +347,28 @@ public class State implements Serializable {
      * @return signature or null of no mapping exists
      */
     public byte[] getSignature(String path) {
+        ensureLoaded();
         return signatures.get(path);
     }
 
     /**
      * Add signature
      * @param path path to set sha1 for
-     * @param signature signature to set
+     * @param signature signature to set, a sha1-checksum or an empty signature
      */
     public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+        ensureLoaded();
+        checkSignature(signature);
+        byte[] value = signature.length == 0 ? EMPTY_SIGNATURE : Arrays.copyOf(signature, signature.length);
+        // Paths are shared with the resources and tasks using them
+        path = path.intern();
+        // The log must be appended in the same order as the map is updated
+        synchronized (this) {
+            byte[] previous = signatures.put(path, value);
+            if (!Arrays.equals(previous, value)) {
+                append(path, value);
+            }
+        }
     }
 
     /**
@@ -60,7 +376,12 @@ public class State implements Serializable {
      * @param path path to set sha1 for
      */
     public void removeSignature(String path) {
-        signatures.remove(path);
+        ensureLoaded();
+        synchronized (this) {
+            if (signatures.remove(path) != null) {
+                append(path, null);
+            }
+        }
     }
 
     /**
@@ -68,42 +389,94 @@ public class State implements Serializable {
      * @return list of all registered paths
      */
     public List<String> getPaths() {
+        ensureLoaded();
         return new ArrayList<>(signatures.keySet());
     }
 
     /**
-     * Load state from resource
+     * Load state from resource. States on disk are read, or memory mapped when large,
+     * and appended to while building.
      * @param resource state resource
      * @return {@link State}
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
+        State state = new State();
+        if (resource instanceof DefaultResource) {
+            state.file = new File(resource.getAbsPath());
+            if (!state.file.isFile()) {
+                state.rewrite = true;
                 return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
             }
+            try (FileChannel channel = FileChannel.open(state.file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                header.flip();
+                // Only map large states in the current format. The file is not
+                // replaced while mapped unless it needs to be compacted.
+                if (MAP_ENABLED && size >= MAP_THRESHOLD && hasHeader(header)) {
+                    state.content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } else {
+                    state.content = ByteBuffer.allocate((int) size);
+                    readFully(channel, state.content, 0);
+                    state.content.flip();
+                }
+            }
+            state.validEnd = state.content.limit();
+            return state;
+        }
+
+        byte[] content = resource.getContent();
+        if (content != null) {
+            state.content = ByteBuffer.wrap(content);
+        }
+        return state;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
         }
     }
 
     /**
-     * Save state
+     * Save state. For a state loaded from disk any buffered records are
+     * written and the file is compacted if it contains too many stale records.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
+    public synchronized void save(IResource resource) throws IOException {
+        ensureLoaded();
+        if (file != null && file.getAbsolutePath().equals(new File(resource.getAbsPath()).getAbsolutePath())) {
+            if (channel == null && !rewrite) {
+                // Nothing has been appended
+                return;
+            }
+            if (rewrite) {
+                compact();
+            } else {
+                flushBuffer();
+                if (recordCount > Math.max(MIN_COMPACT_RECORDS, 2 * signatures.size())) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        // Eg the file is locked by another process. All records are written, compact next time.
+                        System.err.println("Unable to compact state: " + e.getMessage());
+                    }
+                }
+            }
+            closeChannel();
+            return;
+        }
+
+        ByteBuffer buffer = encode();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(buffer.remaining());
+        bos.write(buffer.array(), 0, buffer.remaining());
         resource.setContent(bos.toByteArray());
     }
 
@@ -204,9 +204,26 @@ public class Task<T> {
         return digest;
     }
 
+    /**
+     * Calculate the signature of the task from its inputs, extra cache keys and
+     * builder. The signature is only calculated once, so it must not be
+     * calculated before the inputs are final, ie before the tasks producing
+     * them have been built.
+     * @return signature
+     */
     public byte[] calculateSignature() throws IOException {
-        MessageDigest digest = calculateSignatureDigest();
-        signature = digest.digest();
+        if (signature == null) {
+            MessageDigest digest = calculateSignatureDigest();
+            signature = digest.digest();
+        }
+        return signature;
+    }
+
+    /**
+     * Get the signature calculated by calculateSignature()
+     * @return signature or null if it hasn't been calculated
+     */
+    public byte[] getSignature() {
         return signature;
     }
 
@@ -0,0 +1,319 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dynamo.bob.bundle.BundleHelper;
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Runs a set of tasks in dependency order. The dependency graph is created once
+ * from the task inputs and outputs and tasks are dispatched to a bounded pool of
+ * worker threads as soon as all tasks producing their inputs have completed.
+ *
+ * The scheduler mimics the order of the previous serial build loop, which made
+ * repeated passes over the task list: every task is assigned the pass in which
+ * the serial loop would have run it, ready tasks are dispatched in (pass, index)
+ * order and results are returned in that order. After a failed task no tasks
+ * from later passes are started, and after an unexpected error (abort) no new
+ * tasks are started at all.
+ */
+class TaskScheduler {
+
+    /**
+     * Callbacks used by the scheduler to check and build a task
+     */
+    interface TaskHandler {
+        /**
+         * Check if a task is up to date and doesn't need to be built. Always
+         * called from the scheduling thread.
+         * @param task task to check
+         * @return true if the task doesn't need to be built
+         */
+        boolean isUpToDate(Task<?> task) throws IOException;
+
+        /**
+         * Build a task. Called from a worker thread when running with more
+         * than one thread.
+         * @param task task to build
+         * @return result of the build
+         */
+        TaskResult build(Task<?> task);
+    }
+
+    private final TaskHandler handler;
+    private final int maxThreads;
+    private final WorkerPool workerPool;
+    private boolean failed = false;
+    private boolean aborted = false;
+
+    /**
+     * Create a scheduler
+     * @param handler callbacks used to check and build tasks
+     * @param maxThreads maximum number of tasks built at the same time
+     * @param workerPool pool used by the tasks for parallel work, may be null. A
+     * permit of the pool is held while building a task
+     */
+    TaskScheduler(TaskHandler handler, int maxThreads, WorkerPool workerPool) {
+        this.handler = handler;
+        this.maxThreads = Math.max(1, maxThreads);
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * True if any task failed in a previous call to run()
+     */
+    boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Run a list of tasks.
+     * @param tasks tasks to run, in the order the serial build would visit them
+     * @param completedOutputs outputs that are already completed. Updated with the outputs of all completed tasks
+     * @param monitor progress monitor
+     * @return results of all tasks that were built
+     */
+    List<TaskResult> run(List<Task<?>> tasks, Set<IResource> completedOutputs, IProgress monitor) throws IOException {
+        final int count = tasks.size();
+
+        // output -> index of the producing task
+        Map<IResource, Integer> producers = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            for (IResource output : tasks.get(i).getOutputs()) {
+                producers.put(output, i);
+            }
+        }
+
+        // edges from producer to consumer
+        int[] pendingDeps = new int[count];
+        List<List<Integer>> dependents = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < count; ++i) {
+            boolean[] seen = null;
+            for (IResource input : tasks.get(i).getInputs()) {
+                Integer producer = producers.get(input);
+                if (producer == null || producer == i || completedOutputs.contains(input)) {
+                    continue;
+                }
+                if (seen == null) {
+                    seen = new boolean[count];
+                }
+                if (!seen[producer]) {
+                    seen[producer] = true;
+                    dependents.get(producer).add(i);
+                    pendingDeps[i]++;
+                }
+            }
+        }
+
+        final int[] pass = calculatePasses(pendingDeps, dependents);
+        Comparator<Integer> serialOrder = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (pass[a] != pass[b]) {
+                    return Integer.compare(pass[a], pass[b]);
+                }
+                return Integer.compare(a, b);
+            }
+        };
+
+        PriorityQueue<Integer> ready = new PriorityQueue<>(Math.max(1, count), serialOrder);
+        for (int i = 0; i < count; ++i) {
+            if (pendingDeps[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        TaskResult[] results = new TaskResult[count];
+        int failedPass = Integer.MAX_VALUE;
+
+        ExecutorService executor = null;
+        CompletionService<Integer> completionService = null;
+        if (maxThreads > 1) {
+            executor = Executors.newFixedThreadPool(maxThreads, new WorkerThreadFactory());
+            completionService = new ExecutorCompletionService<>(executor);
+        }
+
+        try {
+            int inFlight = 0;
+            int builtIndex = -1;
+            while (true) {
+                while (!ready.isEmpty() && inFlight < maxThreads && !aborted) {
+                    BundleHelper.throwIfCanceled(monitor);
+                    final int index = ready.poll();
+                    if (pass[index] > failedPass) {
+                        // the serial build never reaches tasks from later passes after a failure
+                        continue;
+                    }
+                    final Task<?> task = tasks.get(index);
+                    if (handler.isUpToDate(task)) {
+                        monitor.worked(1);
+                        completeTask(index, tasks, dependents, pendingDeps, ready, completedOutputs);
+                        continue;
+                    }
+                    if (completionService == null) {
+                        // single threaded, build on the calling thread
+                        results[index] = buildTask(task);
+                        builtIndex = index;
+                    } else {
+                        completionService.submit(() -> {
+                            results[index] = buildTask(task);
+                            return index;
+                        });
+                    }
+                    inFlight++;
+                }
+
+                if (inFlight == 0) {
+                    break;
+                }
+
+                int index = completionService == null ? builtIndex : takeCompleted(completionService);
+                inFlight--;
+                monitor.worked(1);
+
+                TaskResult result = results[index];
+                if (result.isOk()) {
+                    completeTask(index, tasks, dependents, pendingDeps, ready, completedOutputs);
+                } else {
+                    failed = true;
+                    failedPass = Math.min(failedPass, pass[index]);
+                    if (result.getException() != null) {
+                        aborted = true;
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // tasks from later passes may already have been running when a task failed
+        List<Integer> built = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            if (results[i] != null && (pass[i] <= failedPass || !results[i].isOk())) {
+                built.add(i);
+            }
+        }
+        built.sort(serialOrder);
+        List<TaskResult> result = new ArrayList<>(built.size());
+        for (int i : built) {
+            result.add(results[i]);
+        }
+        return result;
+    }
+
+    private TaskResult buildTask(Task<?> task) {
+        if (workerPool == null) {
+            return handler.build(task);
+        }
+        workerPool.acquire();
+        try {
+            return handler.build(task);
+        } finally {
+            workerPool.release();
+        }
+    }
+
+    private static int takeCompleted(CompletionService<Integer> completionService) throws IOException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for build task", e);
+        } catch (ExecutionException e) {
+            // TaskHandler.build() reports errors in the TaskResult
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void completeTask(int index, List<Task<?>> tasks, List<List<Integer>> dependents, int[] pendingDeps, PriorityQueue<Integer> ready, Set<IResource> completedOutputs) {
+        completedOutputs.addAll(tasks.get(index).getOutputs());
+        for (int dependent : dependents.get(index)) {
+            if (--pendingDeps[dependent] == 0) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    /**
+     * Calculate in which pass over the task list the serial build loop would
+     * run each task. A task runs in the same pass as a dependency that comes
+     * before it in the list, and in the next pass if the dependency comes after it.
+     */
+    private static int[] calculatePasses(int[] pendingDeps, List<List<Integer>> dependents) {
+        int count = pendingDeps.length;
+        int[] pass = new int[count];
+        int[] remaining = Arrays.copyOf(pendingDeps, count);
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < count; ++i) {
+            if (remaining[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int producer = queue[head++];
+            for (int dependent : dependents.get(producer)) {
+                int p = pass[producer] + (producer > dependent ? 1 : 0);
+                if (p > pass[dependent]) {
+                    pass[dependent] = p;
+                }
+                if (--remaining[dependent] == 0) {
+                    queue[tail++] = dependent;
+                }
+            }
+        }
+        return pass;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bob-task-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work items of a single build task in parallel, bounded by a CPU
+ * budget shared by the whole build.
+ *
+ * Threads building tasks hold a permit of the budget while building, and
+ * helper threads are only started for permits that are free. When many tasks
+ * are built at the same time there are no free permits and the items are
+ * processed by the calling thread only, while a single long running task can
+ * use all otherwise idle threads. The calling thread always takes part in the
+ * work, so the work completes even when no permits are free.
+ */
+public class WorkerPool {
+
+    /**
+     * A work item
+     */
+    public interface Work<T, E extends Exception> {
+        /**
+         * Process a work item. Called from the calling thread or a helper thread.
+         * @param index index of the item
+         * @return result of the item
+         */
+        T run(int index) throws E;
+    }
+
+    private final Semaphore budget;
+    private final ExecutorService executor;
+
+    /**
+     * Create a worker pool
+     * @param maxThreads maximum number of threads busy with building tasks and work items
+     */
+    public WorkerPool(int maxThreads) {
+        this.budget = new Semaphore(Math.max(1, maxThreads));
+        this.executor = Executors.newCachedThreadPool(new WorkerThreadFactory());
+    }
+
+    /**
+     * Acquire a permit for a thread building a task
+     */
+    void acquire() {
+        budget.acquireUninterruptibly();
+    }
+
+    /**
+     * Release a permit acquired with acquire()
+     */
+    void release() {
+        budget.release();
+    }
+
+    /**
+     * Process a number of work items, using free permits of the budget for
+     * helper threads. If items fail, the exception of the failed item with the
+     * lowest index is thrown, i.e. the same exception as when processing the
+     * items in order, and no more items are started.
+     * @param count number of work items
+     * @param work work to do for each item
+     * @return results of the items, in item order
+     */
+    public <T, E extends Exception> List<T> map(int count, Work<T, E> work) throws E {
+        Object[] results = new Object[count];
+        Throwable[] errors = new Throwable[count];
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<Future<?>> helpers = new ArrayList<>();
+        while (helpers.size() < count - 1 && budget.tryAcquire()) {
+            try {
+                helpers.add(executor.submit(() -> {
+                    try {
+                        runItems(count, work, results, errors, next, stop);
+                    } finally {
+                        budget.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // shut down, process the remaining items on the calling thread
+                budget.release();
+                break;
+            }
+        }
+        runItems(count, work, results, errors, next, stop);
+        awaitHelpers(helpers, stop);
+
+        for (Throwable error : errors) {
+            if (error != null) {
+                WorkerPool.<E>throwError(error);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return list;
+    }
+
+    private static <T, E extends Exception> void runItems(int count, Work<T, E> work, Object[] results, Throwable[] errors, AtomicInteger next, AtomicBoolean stop) {
+        while (!stop.get()) {
+            int index = next.getAndIncrement();
+            if (index >= count) {
+                return;
+            }
+            try {
+                results[index] = work.run(index);
+            } catch (Throwable e) {
+                // items are claimed in order, so all items before this one are already started
+                errors[index] = e;
+                stop.set(true);
+            }
+        }
+    }
+
+    private static void awaitHelpers(List<Future<?>> helpers, AtomicBoolean stop) {
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // helpers finish their current item before stopping
+                    interrupted = true;
+                    stop.set(true);
+                } catch (ExecutionException e) {
+                    // runItems() stores all errors
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> void throwError(Throwable error) throws E {
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        // checked exceptions can only be thrown by Work.run()
+        throw (E) error;
+    }
+
+    /**
+     * Stop the helper threads once they are idle
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bob-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
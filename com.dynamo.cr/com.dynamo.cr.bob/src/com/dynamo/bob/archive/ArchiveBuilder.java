@@ -22,21 +22,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.ContentHashCache;
 import com.dynamo.bob.pipeline.ResourceNode;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
@@ -65,6 +78,13 @@ public class ArchiveBuilder {
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
     private int resourcePadding = 4;
     private boolean forceCompression = false; // for building unit tests to create test content
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+    private int deduplicatedEntryCount = 0;
+    private int reusedEntryCount = 0;
+    private File payloadIndexFile = null;
+    private File previousArchiveDataFile = null;
+    private ArchivePayloadCache previousPayloads = null;
+    private long deduplicatedSize = 0;
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding) {
         this.root = new File(root).getAbsolutePath();
@@ -125,6 +145,53 @@ public class ArchiveBuilder {
         return forceCompression;
     }
 
+    /**
+     * Number of entries that share their payload with another entry, from the last call to write()
+     */
+    public int getDeduplicatedEntryCount() {
+        return deduplicatedEntryCount;
+    }
+
+    /**
+     * Number of payload bytes not written to the archive data thanks to shared payloads
+     */
+    public long getDeduplicatedSize() {
+        return deduplicatedSize;
+    }
+
+    /**
+     * Number of entries whose payload was reused from the previous build, from the last call to write()
+     */
+    public int getReusedEntryCount() {
+        return reusedEntryCount;
+    }
+
+    /**
+     * Build the archive incrementally. Unchanged resources reuse their payload
+     * from the previous archive data instead of being compressed and encrypted
+     * again. The written archive is identical to a full build.
+     * @param payloadIndexFile sidecar index describing the payloads of the previous archive data. Updated by write()
+     * @param previousArchiveDataFile archive data written by the previous build. Must not be the file being written
+     */
+    public void setPayloadCache(File payloadIndexFile, File previousArchiveDataFile) {
+        this.payloadIndexFile = payloadIndexFile;
+        this.previousArchiveDataFile = previousArchiveDataFile;
+    }
+
+    // Everything except the resource content that affects the payloads
+    private String getPayloadSettings() throws CompileExceptionError {
+        return String.format("hash=%s;encryption=%s;force-compression=%b",
+                manifestBuilder.getResourceHashAlgorithm(), ResourceEncryption.getName(), forceCompression);
+    }
+
+    /**
+     * Set the number of threads used to compress, encrypt and hash entries
+     * @param maxThreads number of threads, 1 to do everything on the calling thread
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
     public boolean shouldUseCompressedResourceData(byte[] original, byte[] compressed) {
         if (this.getForceCompression())
             return true;
@@ -138,22 +205,200 @@ public class ArchiveBuilder {
     }
 
     public void writeResourcePack(ArchiveEntry entry, String directory, byte[] buffer) throws IOException {
-        FileOutputStream outputStream = null;
+        File fhandle = new File(directory, entry.getHexDigest());
+        if (!fhandle.exists()) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(entry.getSize()); // 4 bytes
+            header.put((byte)entry.getFlags()); // 1 byte
+            while (header.hasRemaining()) {
+                header.put((byte)0xED); // 11 bytes padding
+            }
+            header.flip();
+            // header and payload in a single gathering write
+            ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(buffer) };
+            try (FileChannel channel = FileChannel.open(fhandle.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find an entry already written to the archive data with a payload identical
+     * to the one of the given entry. The payload bytes are compared as well, since
+     * the resource hash algorithm is configurable and may be a weak one.
+     */
+    private static ArchiveEntry findWrittenPayload(Map<String, ArchiveEntry> writtenPayloads, ArchiveEntry entry, byte[] buffer, RandomAccessFile archiveData) throws IOException {
+        ArchiveEntry written = writtenPayloads.get(entry.getHexDigest());
+        if (written == null
+                || written.getSize() != entry.getSize()
+                || written.getCompressedSize() != entry.getCompressedSize()
+                || written.getFlags() != entry.getFlags()) {
+            return null;
+        }
+
+        long end = archiveData.getFilePointer();
+        byte[] writtenBuffer = new byte[buffer.length];
+        archiveData.seek(written.getResourceOffset());
+        archiveData.readFully(writtenBuffer);
+        archiveData.seek(end);
+        return Arrays.equals(buffer, writtenBuffer) ? written : null;
+    }
+
+    private static class PreparedEntry {
+        ArchiveEntry entry;
+        byte[] buffer;
+        byte[] hashDigest;
+        int resourceEntryFlags;
+        // Only set when building incrementally
+        byte[] sourceDigest;
+        boolean requestCompress;
+        int requestFlags;
+        boolean reused;
+    }
+
+    /**
+     * Load, compress, encrypt and hash an entry. Only touches the entry
+     * itself, so it is safe to prepare several entries at once.
+     */
+    private PreparedEntry prepareEntry(ArchiveEntry entry) throws IOException, CompileExceptionError {
+        byte[] buffer = this.loadResourceData(entry.getFilename());
+
+        PreparedEntry prepared = new PreparedEntry();
+        prepared.entry = entry;
+        prepared.requestCompress = entry.isCompressed();
+        prepared.requestFlags = entry.getFlags();
+
+        if (previousPayloads != null) {
+            prepared.sourceDigest = ContentHashCache.sha1(buffer);
+            if (reusePreviousPayload(prepared)) {
+                return prepared;
+            }
+        }
+
+        int resourceEntryFlags = 0;
+
+        if (entry.isCompressed()) {
+            // Compress data
+            byte[] compressed = this.compressResourceData(buffer);
+            if (this.shouldUseCompressedResourceData(buffer, compressed)) {
+                // Note, when forced, the compressed size may be larger than the original size (For unit tests)
+                buffer = compressed;
+                entry.setCompressedSize(compressed.length);
+                entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
+                resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+            } else {
+                entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
+            }
+        }
+
+        // we need to do this last or the compression won't work as well
+        if (entry.isEncrypted()) {
+            buffer = this.encryptResourceData(buffer);
+            resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+        }
+
+        // Calculate hash digest values for resource
+        prepared.hashDigest = hashResourceData(buffer);
+        setEntryHash(entry, prepared.hashDigest);
+
+        prepared.buffer = buffer;
+        prepared.resourceEntryFlags = resourceEntryFlags;
+        return prepared;
+    }
+
+    /**
+     * Use the payload from the previous archive build, if the resource content
+     * and settings are unchanged and the payload is still intact
+     */
+    private boolean reusePreviousPayload(PreparedEntry prepared) throws IOException {
+        ArchiveEntry entry = prepared.entry;
+        String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
+        ArchivePayloadCache.Payload payload = previousPayloads.get(normalisedPath, prepared.sourceDigest, prepared.requestCompress, prepared.requestFlags);
+        if (payload == null) {
+            return false;
+        }
+
+        byte[] buffer = previousPayloads.read(payload);
+        byte[] hashDigest = hashResourceData(buffer);
+        if (!Arrays.equals(hashDigest, payload.hash)) {
+            return false;
+        }
+
+        entry.setCompressedSize(payload.compressedSize);
+        entry.setFlags(payload.flags);
+        setEntryHash(entry, hashDigest);
+
+        int resourceEntryFlags = 0;
+        if ((payload.flags & ArchiveEntry.FLAG_COMPRESSED) != 0) {
+            resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+        }
+        if ((payload.flags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
+            resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+        }
+
+        prepared.buffer = buffer;
+        prepared.hashDigest = hashDigest;
+        prepared.resourceEntryFlags = resourceEntryFlags;
+        prepared.reused = true;
+        return true;
+    }
+
+    private byte[] hashResourceData(byte[] buffer) throws IOException {
         try {
-            File fhandle = new File(directory, entry.getHexDigest());
-            if (!fhandle.exists()) {
-                byte[] padding = new byte[11];
-                byte[] size_bytes = ByteBuffer.allocate(4).putInt(entry.getSize()).array();
-                Arrays.fill(padding, (byte)0xED);
-                outputStream = new FileOutputStream(fhandle);
-                outputStream.write(size_bytes); // 4 bytes
-                outputStream.write((byte)entry.getFlags()); // 1 byte
-                outputStream.write(padding); // 11 bytes
-                outputStream.write(buffer);
+            return ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+    }
 
+    private static void setEntryHash(ArchiveEntry entry, byte[] hashDigest) {
+        entry.setHash(new byte[HASH_MAX_LENGTH]);
+        System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
+
+        // Store association between hexdigest and original filename in a lookup table
+        entry.setHexDigest(ManifestBuilder.CryptographicOperations.hexdigest(hashDigest));
+    }
+
+    private Future<PreparedEntry> submitPrepareEntry(ExecutorService executor, final ArchiveEntry entry) {
+        Callable<PreparedEntry> callable = () -> prepareEntry(entry);
+        if (executor != null) {
+            return executor.submit(callable);
+        }
+        // single threaded, prepare the entry right away
+        FutureTask<PreparedEntry> task = new FutureTask<>(callable);
+        task.run();
+        return task;
+    }
+
+    private static PreparedEntry await(Future<PreparedEntry> future) throws IOException, CompileExceptionError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-        } finally {
-            IOUtils.closeQuietly(outputStream);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "archive-builder-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
@@ -207,64 +452,91 @@ public class ArchiveBuilder {
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-
-            byte[] buffer = this.loadResourceData(entry.getFilename());
-
-            int resourceEntryFlags = 0;
+        // Bundled entries by hex digest, used to share identical payloads
+        Map<String, ArchiveEntry> writtenPayloads = new HashMap<>();
+        deduplicatedEntryCount = 0;
+        deduplicatedSize = 0;
+
+        // Payloads from the previous build, when building incrementally
+        reusedEntryCount = 0;
+        String payloadSettings = null;
+        Map<String, ArchivePayloadCache.Payload> nextPayloads = null;
+        if (payloadIndexFile != null) {
+            payloadSettings = getPayloadSettings();
+            previousPayloads = ArchivePayloadCache.load(payloadIndexFile, previousArchiveDataFile, payloadSettings);
+            nextPayloads = new HashMap<>();
+        }
 
-            if (entry.isCompressed()) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    // Note, when forced, the compressed size may be larger than the original size (For unit tests)
-                    buffer = compressed;
-                    entry.setCompressedSize(compressed.length);
-                    entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
-                    resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+        // Entries are loaded, compressed, encrypted and hashed in parallel, a
+        // bounded number of entries ahead of the writer. The writer appends them
+        // in the same order as when done serially, so the output is identical.
+        ExecutorService executor = null;
+        if (maxThreads > 1) {
+            executor = Executors.newFixedThreadPool(maxThreads, new WorkerThreadFactory());
+        }
+        try {
+            final int window = maxThreads * 2;
+            ArrayDeque<Future<PreparedEntry>> pending = new ArrayDeque<>(window);
+            int next = entries.size() - 1;
+
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                // entries are only removed at or above i, so next is still valid
+                while (next >= 0 && pending.size() < window) {
+                    pending.add(submitPrepareEntry(executor, entries.get(next)));
+                    --next;
+                }
+                PreparedEntry prepared = await(pending.poll());
+                ArchiveEntry entry = prepared.entry;
+                byte[] buffer = prepared.buffer;
+                int resourceEntryFlags = prepared.resourceEntryFlags;
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
+
+                // Write resource to resource pack or data archive
+                if (this.excludeResource(normalisedPath, excludedResources)) {
+                    this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
+                    entries.remove(i);
+                    excludedEntries.add(entry);
+                    resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
                 } else {
-                    entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
+                    if (prepared.reused) {
+                        ++reusedEntryCount;
+                    }
+                    ArchiveEntry duplicate = findWrittenPayload(writtenPayloads, entry, buffer, archiveData);
+                    if (duplicate != null) {
+                        // identical payload already in the archive, share it
+                        entry.setResourceOffset(duplicate.getResourceOffset());
+                        ++deduplicatedEntryCount;
+                        deduplicatedSize += buffer.length;
+                    } else {
+                        alignBuffer(archiveData, this.resourcePadding);
+                        entry.setResourceOffset((int) archiveData.getFilePointer());
+                        archiveData.write(buffer, 0, buffer.length);
+                        writtenPayloads.put(entry.getHexDigest(), entry);
+                    }
+                    resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
+
+                    if (nextPayloads != null) {
+                        nextPayloads.put(normalisedPath, new ArchivePayloadCache.Payload(prepared.sourceDigest, prepared.requestCompress, prepared.requestFlags,
+                                entry.getResourceOffset(), buffer.length, entry.getCompressedSize(), entry.getFlags(), prepared.hashDigest));
+                    }
                 }
-            }
 
-            // we need to do this last or the compression won't work as well
-            if (entry.isEncrypted()) {
-                buffer = this.encryptResourceData(buffer);
-                resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+                manifestBuilder.addResourceEntry(normalisedPath, buffer, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
             }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
-
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.setHash(new byte[HASH_MAX_LENGTH]);
-                System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-
-            // Store association between hexdigest and original filename in a lookup table
-            entry.setHexDigest(hexDigest);
-
-            // Write resource to resource pack or data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
-                entries.remove(i);
-                excludedEntries.add(entry);
-                resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
-            } else {
-                alignBuffer(archiveData, this.resourcePadding);
-                entry.setResourceOffset((int) archiveData.getFilePointer());
-                archiveData.write(buffer, 0, buffer.length);
-                resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
+            if (previousPayloads != null) {
+                previousPayloads.close();
+                previousPayloads = null;
             }
+        }
 
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
+        if (nextPayloads != null) {
+            ArchivePayloadCache.save(payloadIndexFile, archiveData.length(), payloadSettings, nextPayloads);
         }
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
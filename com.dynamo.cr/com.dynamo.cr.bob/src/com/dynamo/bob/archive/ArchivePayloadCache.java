@@ -0,0 +1,234 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Sidecar index of the payloads written to a previous archive data file. It is
+ * used to build an archive incrementally: resources whose content and archive
+ * settings have not changed since the previous build reuse their compressed
+ * and encrypted payload from the previous archive data instead of being
+ * processed again.
+ *
+ * The previous archive data file is only read from. Reused payloads are
+ * verified against their hash before being used.
+ */
+public class ArchivePayloadCache implements Closeable {
+
+    private static Logger logger = Logger.getLogger(ArchivePayloadCache.class.getName());
+
+    private static final String MAGIC = "BOBARCP";
+    private static final int VERSION = 1;
+
+    /**
+     * A payload written to the archive data
+     */
+    public static class Payload {
+        // Source content and archive settings
+        byte[] sourceDigest;
+        boolean compress;
+        int requestFlags;
+        // The payload in the archive data
+        int offset;
+        int length;
+        int compressedSize;
+        int flags;
+        byte[] hash;
+
+        public Payload(byte[] sourceDigest, boolean compress, int requestFlags, int offset, int length, int compressedSize, int flags, byte[] hash) {
+            this.sourceDigest = sourceDigest;
+            this.compress = compress;
+            this.requestFlags = requestFlags;
+            this.offset = offset;
+            this.length = length;
+            this.compressedSize = compressedSize;
+            this.flags = flags;
+            this.hash = hash;
+        }
+
+        boolean matches(byte[] sourceDigest, boolean compress, int requestFlags) {
+            return this.compress == compress
+                && this.requestFlags == requestFlags
+                && Arrays.equals(this.sourceDigest, sourceDigest);
+        }
+    }
+
+    private final Map<String, Payload> payloads;
+    private FileChannel data;
+
+    private ArchivePayloadCache(Map<String, Payload> payloads, FileChannel data) {
+        this.payloads = payloads;
+        this.data = data;
+    }
+
+    /**
+     * Load the index of a previous archive build
+     * @param indexFile sidecar index file
+     * @param dataFile archive data written by the previous build
+     * @param settings archive settings that affect the payloads. The index is discarded if they differ from the previous build
+     * @return the loaded cache, or an empty cache if there is no usable previous build
+     */
+    public static ArchivePayloadCache load(File indexFile, File dataFile, String settings) {
+        Map<String, Payload> payloads = new HashMap<>();
+        if (!indexFile.isFile() || !dataFile.isFile()) {
+            return new ArchivePayloadCache(payloads, null);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION || !settings.equals(in.readUTF())) {
+                return new ArchivePayloadCache(payloads, null);
+            }
+            long dataLength = in.readLong();
+            if (dataLength != dataFile.length()) {
+                // the archive data was changed or removed since the index was written
+                return new ArchivePayloadCache(payloads, null);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String path = in.readUTF();
+                byte[] sourceDigest = new byte[in.readUnsignedByte()];
+                in.readFully(sourceDigest);
+                boolean compress = in.readBoolean();
+                int requestFlags = in.readInt();
+                int offset = in.readInt();
+                int length = in.readInt();
+                int compressedSize = in.readInt();
+                int flags = in.readInt();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                if (offset < 0 || length < 0 || (long) offset + length > dataLength) {
+                    continue;
+                }
+                payloads.put(path, new Payload(sourceDigest, compress, requestFlags, offset, length, compressedSize, flags, hash));
+            }
+            FileChannel data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+            return new ArchivePayloadCache(payloads, data);
+        } catch (EOFException e) {
+            logger.warning("Archive payload index %s is truncated, ignoring it", indexFile);
+        } catch (IOException e) {
+            logger.warning("Unable to read archive payload index %s: %s", indexFile, e.getMessage());
+        }
+        return new ArchivePayloadCache(new HashMap<>(), null);
+    }
+
+    /**
+     * Write the index of the payloads of an archive build
+     * @param indexFile sidecar index file
+     * @param dataLength length of the archive data the payloads were written to
+     * @param settings archive settings that affect the payloads
+     * @param payloads payloads by relative resource path
+     */
+    public static void save(File indexFile, long dataLength, String settings, Map<String, Payload> payloads) throws IOException {
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeUTF(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(settings);
+                out.writeLong(dataLength);
+                out.writeInt(payloads.size());
+                for (Map.Entry<String, Payload> entry : payloads.entrySet()) {
+                    Payload p = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeByte(p.sourceDigest.length);
+                    out.write(p.sourceDigest);
+                    out.writeBoolean(p.compress);
+                    out.writeInt(p.requestFlags);
+                    out.writeInt(p.offset);
+                    out.writeInt(p.length);
+                    out.writeInt(p.compressedSize);
+                    out.writeInt(p.flags);
+                    out.writeByte(p.hash.length);
+                    out.write(p.hash);
+                }
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Get the payload previously written for a resource, if the resource
+     * content and archive settings are unchanged
+     * @param path relative resource path
+     * @param sourceDigest SHA1 of the resource content
+     * @param compress if the resource should be compressed
+     * @param requestFlags archive entry flags before the payload is created
+     * @return the payload or null
+     */
+    public Payload get(String path, byte[] sourceDigest, boolean compress, int requestFlags) {
+        if (data == null) {
+            return null;
+        }
+        Payload payload = payloads.get(path);
+        if (payload == null || !payload.matches(sourceDigest, compress, requestFlags)) {
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Read a payload from the previous archive data. Safe to call from
+     * several threads at once.
+     */
+    public byte[] read(Payload payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length);
+        long position = payload.offset;
+        while (buffer.hasRemaining()) {
+            int n = data.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of archive data");
+            }
+            position += n;
+        }
+        return buffer.array();
+    }
+
+    public int size() {
+        return data == null ? 0 : payloads.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+    }
+}
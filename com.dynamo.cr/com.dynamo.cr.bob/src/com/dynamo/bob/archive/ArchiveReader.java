@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
@@ -137,6 +139,30 @@ public class ArchiveReader {
             e.setCompressedSize(archiveIndexFile.readInt());
             e.setFlags(archiveIndexFile.readInt());
         }
+
+        verifySharedPayloads();
+    }
+
+    /**
+     * Entries with identical payloads may share the same resource offset in
+     * the archive data. Make sure that such entries really describe the same
+     * payload.
+     */
+    private void verifySharedPayloads() throws IOException {
+        Map<Integer, ArchiveEntry> entriesByOffset = new HashMap<Integer, ArchiveEntry>();
+        for (ArchiveEntry e : entries) {
+            ArchiveEntry other = entriesByOffset.putIfAbsent(e.getResourceOffset(), e);
+            if (other == null) {
+                continue;
+            }
+            if (other.getSize() != e.getSize()
+                    || other.getCompressedSize() != e.getCompressedSize()
+                    || other.getFlags() != e.getFlags()
+                    || !matchHash(other.getHash(), e.getHash(), this.hashLength)) {
+                throw new IOException(String.format("Archive entries '%s' and '%s' share resource offset %d but have different content",
+                        other.getFilename(), e.getFilename(), e.getResourceOffset()));
+            }
+        }
     }
 
     public List<ArchiveEntry> getEntries() {
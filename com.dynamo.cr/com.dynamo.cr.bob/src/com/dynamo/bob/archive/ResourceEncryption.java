@@ -37,6 +37,16 @@ public class ResourceEncryption {
 
 	private static DefaultResourceEncryption defaultEncryption = new DefaultResourceEncryption();
 
+	/**
+	 * Get the name of the encryption in use. Payloads encrypted with a
+	 * different encryption cannot be reused.
+	 * @return Class name of the custom encryption plugin or "default"
+	 */
+	public static String getName() throws CompileExceptionError {
+		ResourceEncryptionPlugin encryptionPlugin = PluginScanner.getOrCreatePlugin("com.dynamo.bob.archive", ResourceEncryptionPlugin.class);
+		return encryptionPlugin == null ? "default" : encryptionPlugin.getClass().getName();
+	}
+
 	/**
 	 * Encrypt a resource
 	 * @param resource Bytes of resource data to encrypt
@@ -46,11 +56,15 @@ public class ResourceEncryption {
 		try {
 			ResourceEncryptionPlugin encryptionPlugin = PluginScanner.getOrCreatePlugin("com.dynamo.bob.archive", ResourceEncryptionPlugin.class);
 				
-			// default or custom encryption
-			encryptionPlugin = encryptionPlugin == null ? defaultEncryption : encryptionPlugin;
+			// default encryption is thread safe
+			if (encryptionPlugin == null) {
+				return defaultEncryption.encrypt(resource);
+			}
 
-			// do the encryption
-			return encryptionPlugin.encrypt(resource);
+			// custom encryption, which is not required to be thread safe
+			synchronized (encryptionPlugin) {
+				return encryptionPlugin.encrypt(resource);
+			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
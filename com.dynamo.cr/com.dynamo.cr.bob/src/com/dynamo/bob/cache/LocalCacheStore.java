@@ -0,0 +1,503 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Content addressed store used by the local resource cache.
+ *
+ * A cache key maps to the sha1 of the cached data, and the data is stored
+ * once per unique content as an LZ4 compressed blob. Identical outputs
+ * cached under different keys, e.g. when built with different options,
+ * share the same blob. The layout of the cache directory is:
+ *
+ *   keys/ab/abcd...   sha1 hex digest of the data cached for key abcd...
+ *   blobs/12/1234...  blob with sha1 1234...
+ *   tmp/              files being written
+ *   stats             accumulated hit and miss counts and size of all blobs
+ *
+ * All files are written to the tmp directory and moved into place. The
+ * modification time of a key file is updated when it is read and is used
+ * to find the least recently used keys.
+ */
+public class LocalCacheStore {
+
+	private static final byte[] BLOB_MAGIC = "BOBC".getBytes(StandardCharsets.US_ASCII);
+	private static final int BLOB_HEADER_SIZE = 4 + 1 + 4;
+	private static final byte COMPRESSION_NONE = 0;
+	private static final byte COMPRESSION_LZ4 = 1;
+
+	// Unreferenced blobs younger than this may belong to a key that is being written
+	private static final long GC_GRACE_PERIOD_MS = 60 * 60 * 1000;
+
+	// Files from the old format, one per key in the root, and their temporary files
+	private static final Pattern LEGACY_FILE_PATTERN = Pattern.compile("[0-9a-f]{1,40}(\\.[0-9a-f]{1,16}\\.tmp)?");
+
+	private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+	private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+	private final File root;
+	private final File keysDir;
+	private final File blobsDir;
+	private final File tmpDir;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong addedSize = new AtomicLong();
+
+	public LocalCacheStore(String directory) {
+		this.root = new File(directory);
+		this.keysDir = new File(root, "keys");
+		this.blobsDir = new File(root, "blobs");
+		this.tmpDir = new File(root, "tmp");
+	}
+
+	private static File shardedFile(File dir, String name) {
+		String shard = name.length() >= 2 ? name.substring(0, 2) : "_";
+		return new File(new File(dir, shard), name);
+	}
+
+	private File keyFile(String key) {
+		return shardedFile(keysDir, key);
+	}
+
+	private File blobFile(String hash) {
+		return shardedFile(blobsDir, hash);
+	}
+
+	private static String sha1(byte[] data) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		return String.format("%040x", new BigInteger(1, digest.digest(data)));
+	}
+
+	/**
+	 * Create a new file in the tmp directory, to be moved into place with moveIntoPlace()
+	 */
+	File createTempFile() throws IOException {
+		tmpDir.mkdirs();
+		return new File(tmpDir, Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+	}
+
+	private void writeAtomically(File file, byte[] data) throws IOException {
+		File tmp = createTempFile();
+		try {
+			Files.write(tmp.toPath(), data);
+			moveIntoPlace(tmp, file);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void moveIntoPlace(File tmp, File file) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static byte[] encodeBlob(byte[] data) {
+		byte[] blob = new byte[BLOB_HEADER_SIZE + compressor.maxCompressedLength(data.length)];
+		int payloadSize = compressor.compress(data, 0, data.length, blob, BLOB_HEADER_SIZE);
+		byte compression = COMPRESSION_LZ4;
+		if (payloadSize >= data.length) {
+			// incompressible, store as is
+			System.arraycopy(data, 0, blob, BLOB_HEADER_SIZE, data.length);
+			payloadSize = data.length;
+			compression = COMPRESSION_NONE;
+		}
+		ByteBuffer.wrap(blob).put(BLOB_MAGIC).put(compression).putInt(data.length);
+		return Arrays.copyOf(blob, BLOB_HEADER_SIZE + payloadSize);
+	}
+
+	private static byte[] decodeBlob(byte[] blob) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(blob);
+		byte[] magic = new byte[BLOB_MAGIC.length];
+		if (blob.length < BLOB_HEADER_SIZE) {
+			throw new IOException("Truncated cache blob");
+		}
+		buffer.get(magic);
+		if (!Arrays.equals(magic, BLOB_MAGIC)) {
+			throw new IOException("Invalid cache blob");
+		}
+		byte compression = buffer.get();
+		int length = buffer.getInt();
+		if (compression == COMPRESSION_NONE) {
+			return Arrays.copyOfRange(blob, BLOB_HEADER_SIZE, BLOB_HEADER_SIZE + length);
+		}
+		byte[] data = new byte[length];
+		decompressor.decompress(blob, BLOB_HEADER_SIZE, data, 0, length);
+		return data;
+	}
+
+	private String readKey(File keyFile) {
+		try {
+			String hash = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.US_ASCII).trim();
+			return hash.isEmpty() ? null : hash;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check if the store contains data for a key
+	 * @param key cache key
+	 * @return true if the data exists
+	 */
+	public boolean contains(String key) {
+		String hash = readKey(keyFile(key));
+		return hash != null && blobFile(hash).exists();
+	}
+
+	/**
+	 * Put data in the store. The data is only written if no other key
+	 * already refers to the same content.
+	 * @param key cache key
+	 * @param data data to store
+	 */
+	public void put(String key, byte[] data) throws IOException {
+		String hash = sha1(data);
+		File blob = blobFile(hash);
+		if (!blob.exists()) {
+			byte[] encoded = encodeBlob(data);
+			writeAtomically(blob, encoded);
+			addedSize.addAndGet(encoded.length);
+		} else {
+			// keep the shared blob from being collected as unreferenced
+			blob.setLastModified(System.currentTimeMillis());
+		}
+		writeAtomically(keyFile(key), hash.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Get data from the store and mark the key as recently used
+	 * @param key cache key
+	 * @return data or null if the key doesn't exist in the store
+	 */
+	public byte[] get(String key) throws IOException {
+		File keyFile = keyFile(key);
+		String hash = readKey(keyFile);
+		if (hash == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		byte[] blob;
+		try {
+			blob = Files.readAllBytes(blobFile(hash).toPath());
+		} catch (IOException e) {
+			// the blob has been collected
+			keyFile.delete();
+			misses.incrementAndGet();
+			return null;
+		}
+		keyFile.setLastModified(System.currentTimeMillis());
+		hits.incrementAndGet();
+		return decodeBlob(blob);
+	}
+
+	/**
+	 * Record a cache miss for a key that was looked up but not found
+	 */
+	public void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	private File statsFile() {
+		return new File(root, "stats");
+	}
+
+	private Properties readStats() {
+		Properties stats = new Properties();
+		try {
+			stats.load(new StringReader(new String(Files.readAllBytes(statsFile().toPath()), StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			// no stats yet
+		}
+		return stats;
+	}
+
+	private static long getLong(Properties properties, String name, long defaultValue) {
+		try {
+			return Long.parseLong(properties.getProperty(name, Long.toString(defaultValue)));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static long getLong(Properties properties, String name) {
+		return getLong(properties, name, 0);
+	}
+
+	// size is -1 if it is not known, e.g. before the first garbage collection
+	private void writeStats(long hits, long misses, long size) throws IOException {
+		root.mkdirs();
+		StringBuilder sb = new StringBuilder();
+		sb.append("hits=").append(hits).append("\n");
+		sb.append("misses=").append(misses).append("\n");
+		if (size >= 0) {
+			sb.append("size=").append(size).append("\n");
+		}
+		writeAtomically(statsFile(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Add the hits, misses and size of blobs written since the last call to
+	 * the accumulated stats
+	 */
+	public void saveStats() throws IOException {
+		long newHits = hits.getAndSet(0);
+		long newMisses = misses.getAndSet(0);
+		long newSize = addedSize.getAndSet(0);
+		if (newHits == 0 && newMisses == 0 && newSize == 0) {
+			return;
+		}
+		Properties stats = readStats();
+		long size = getLong(stats, "size", -1);
+		writeStats(getLong(stats, "hits") + newHits, getLong(stats, "misses") + newMisses, size >= 0 ? size + newSize : -1);
+	}
+
+	/**
+	 * Check if the size of all blobs, as recorded in the stats, exceeds a
+	 * maximum size. This is cheap compared to gc() since the store isn't
+	 * walked. The recorded size is updated by saveStats() and gc().
+	 * @param maxSize maximum size of all blobs in bytes, or 0 for no limit
+	 * @return true if the store is over the maximum size, or if its size isn't known
+	 */
+	public boolean isOverMaxSize(long maxSize) {
+		if (maxSize <= 0) {
+			return false;
+		}
+		long size = getLong(readStats(), "size", -1);
+		return size < 0 || size > maxSize;
+	}
+
+	private static List<File> listShardedFiles(File dir) {
+		List<File> files = new ArrayList<File>();
+		File[] shards = dir.listFiles(File::isDirectory);
+		if (shards != null) {
+			for (File shard : shards) {
+				File[] shardFiles = shard.listFiles(File::isFile);
+				if (shardFiles != null) {
+					files.addAll(Arrays.asList(shardFiles));
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Summary of the contents of the store
+	 */
+	public static class Stats {
+		public int keyCount;
+		public int blobCount;
+		public long blobSize;
+		public long dataSize;
+		public long hits;
+		public long misses;
+		public int evictionCandidateCount;
+		public long evictionCandidateSize;
+		public int unreferencedBlobCount;
+		public long unreferencedBlobSize;
+
+		public void print(PrintStream out) {
+			long lookups = hits + misses;
+			out.println(String.format("Keys:                %d", keyCount));
+			out.println(String.format("Blobs:               %d (%d bytes, %d bytes uncompressed)", blobCount, blobSize, dataSize));
+			out.println(String.format("Hit ratio:           %d of %d (%.1f%%)", hits, lookups, lookups > 0 ? 100.0 * hits / lookups : 0.0));
+			out.println(String.format("Eviction candidates: %d keys (%d bytes)", evictionCandidateCount, evictionCandidateSize));
+			out.println(String.format("Unreferenced blobs:  %d (%d bytes)", unreferencedBlobCount, unreferencedBlobSize));
+		}
+	}
+
+	private static class KeyEntry {
+		File file;
+		String hash;
+		long lastUsed;
+	}
+
+	private List<KeyEntry> readKeys() {
+		List<KeyEntry> keys = new ArrayList<KeyEntry>();
+		for (File file : listShardedFiles(keysDir)) {
+			KeyEntry entry = new KeyEntry();
+			entry.file = file;
+			entry.hash = readKey(file);
+			entry.lastUsed = file.lastModified();
+			keys.add(entry);
+		}
+		keys.sort(Comparator.comparingLong(e -> e.lastUsed));
+		return keys;
+	}
+
+	private Map<String, File> readBlobs() {
+		Map<String, File> blobs = new HashMap<String, File>();
+		for (File file : listShardedFiles(blobsDir)) {
+			blobs.put(file.getName(), file);
+		}
+		return blobs;
+	}
+
+	/**
+	 * Walk the store and find which keys and blobs would be removed to fit
+	 * within a maximum size
+	 * @param maxSize maximum size of all blobs in bytes, or 0 for no limit
+	 * @param remove true to remove the keys and blobs
+	 */
+	private Stats collect(long maxSize, boolean remove) throws IOException {
+		Stats stats = new Stats();
+		Properties savedStats = readStats();
+		stats.hits = getLong(savedStats, "hits");
+		stats.misses = getLong(savedStats, "misses");
+
+		List<KeyEntry> keys = readKeys();
+		Map<String, File> blobs = readBlobs();
+		Map<String, Integer> refCounts = new HashMap<String, Integer>();
+		for (KeyEntry key : keys) {
+			if (key.hash != null && blobs.containsKey(key.hash)) {
+				refCounts.merge(key.hash, 1, Integer::sum);
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		long referencedSize = 0;
+		long removedSize = 0;
+		for (Map.Entry<String, File> blob : blobs.entrySet()) {
+			File file = blob.getValue();
+			long length = file.length();
+			stats.blobCount++;
+			stats.blobSize += length;
+			stats.dataSize += readDataSize(file);
+			if (refCounts.containsKey(blob.getKey())) {
+				referencedSize += length;
+			} else if (now - file.lastModified() > GC_GRACE_PERIOD_MS) {
+				stats.unreferencedBlobCount++;
+				stats.unreferencedBlobSize += length;
+				if (remove && file.delete()) {
+					removedSize += length;
+				}
+			}
+		}
+		stats.keyCount = keys.size();
+
+		// least recently used keys first
+		for (KeyEntry key : keys) {
+			boolean dangling = key.hash == null || !blobs.containsKey(key.hash);
+			if (!dangling && (maxSize <= 0 || referencedSize <= maxSize)) {
+				continue;
+			}
+			stats.evictionCandidateCount++;
+			if (remove) {
+				key.file.delete();
+			}
+			if (dangling) {
+				continue;
+			}
+			int refCount = refCounts.merge(key.hash, -1, Integer::sum);
+			if (refCount == 0) {
+				File blob = blobs.get(key.hash);
+				long length = blob.length();
+				referencedSize -= length;
+				stats.evictionCandidateSize += length;
+				if (remove && blob.delete()) {
+					removedSize += length;
+				}
+			}
+		}
+		if (remove) {
+			// the walk gives the exact size, replacing the accumulated size
+			writeStats(stats.hits, stats.misses, stats.blobSize - removedSize);
+		}
+		return stats;
+	}
+
+	private static long readDataSize(File blob) {
+		byte[] header = new byte[BLOB_HEADER_SIZE];
+		try (FileInputStream is = new FileInputStream(blob)) {
+			if (is.read(header) != BLOB_HEADER_SIZE) {
+				return 0;
+			}
+		} catch (IOException e) {
+			return 0;
+		}
+		return ByteBuffer.wrap(header, BLOB_MAGIC.length + 1, 4).getInt();
+	}
+
+	/**
+	 * Get stats for the store, including what a garbage collection with the
+	 * specified maximum size would remove
+	 * @param maxSize maximum size of all blobs in bytes, or 0 for no limit
+	 * @return stats
+	 */
+	public Stats getStats(long maxSize) throws IOException {
+		return collect(maxSize, false);
+	}
+
+	/**
+	 * Remove unreferenced blobs, and the least recently used keys until the
+	 * store fits within a maximum size. Also removes files left behind by an
+	 * older cache format and interrupted writes. Walks the whole store, use
+	 * isOverMaxSize() to check if a collection is needed.
+	 * @param maxSize maximum size of all blobs in bytes, or 0 for no limit
+	 * @return stats from before the collection
+	 */
+	public Stats gc(long maxSize) throws IOException {
+		Stats stats = collect(maxSize, true);
+		long now = System.currentTimeMillis();
+		File[] tmpFiles = tmpDir.listFiles();
+		if (tmpFiles != null) {
+			for (File file : tmpFiles) {
+				if (now - file.lastModified() > GC_GRACE_PERIOD_MS) {
+					file.delete();
+				}
+			}
+		}
+		// entries from the old format, with one raw file per key in the root
+		File[] legacyFiles = root.listFiles(f -> f.isFile() && LEGACY_FILE_PATTERN.matcher(f.getName()).matches());
+		if (legacyFiles != null) {
+			for (File file : legacyFiles) {
+				file.delete();
+			}
+		}
+		return stats;
+	}
+}
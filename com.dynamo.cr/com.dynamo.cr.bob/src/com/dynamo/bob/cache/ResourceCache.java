@@ -19,14 +19,39 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dynamo.bob.util.HttpUtil;
 import com.dynamo.bob.logging.Logger;
 
+/**
+ * Cache of build outputs, stored in a local content addressed store (see
+ * LocalCacheStore) and optionally in a remote cache on a HTTP server.
+ *
+ * Remote requests are made from a pool of background threads. The remote
+ * cache is a plain HTTP server without a batch query, so lookups of several
+ * keys are sent as concurrent requests, one per key, and the result of every
+ * lookup is kept for the duration of the build. Uploads are made in the
+ * background and must be completed by calling flush() at the end of the
+ * build. A failed upload is logged and doesn't fail the build.
+ */
 public class ResourceCache {
 
 	private static Logger logger = Logger.getLogger(ResourceCache.class.getName());
 
+	private static final int REMOTE_THREADS = 8;
+
 	private String localCacheDir;
 
 	private String remoteCacheUrl;
@@ -35,6 +60,18 @@ public class ResourceCache {
 
 	private boolean enabled = false;
 
+	private long maxLocalCacheSize = 0;
+
+	private LocalCacheStore localStore;
+
+	private ExecutorService remoteExecutor;
+
+	// key -> download from the remote cache, true if the resource was downloaded
+	private Map<String, CompletableFuture<Boolean>> downloads = new ConcurrentHashMap<>();
+
+	// key -> upload to the remote cache
+	private Map<String, CompletableFuture<Void>> uploads = new ConcurrentHashMap<>();
+
 	public ResourceCache() {}
 
 	public void init(String localCacheDir, String remoteCacheUrl) {
@@ -42,64 +79,104 @@ public class ResourceCache {
 		this.localCacheDir = localCacheDir;
 		this.remoteCacheUrl = remoteCacheUrl;
 		this.enabled = localCacheDir != null;
+		this.downloads.clear();
+		this.uploads.clear();
+		this.localStore = null;
 		if (localCacheDir != null) {
 			File f = new File(localCacheDir);
 			if (!f.exists()) {
 				f.mkdirs();
 			}
+			this.localStore = new LocalCacheStore(localCacheDir);
 		}
 	}
 
-	private File fileFromKey(String key) {
-		return new File(localCacheDir, key);
+	// The executor is created on first use and shut down when the cache is flushed or closed
+	private synchronized ExecutorService getRemoteExecutor() {
+		if (remoteExecutor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			remoteExecutor = Executors.newFixedThreadPool(REMOTE_THREADS, r -> {
+				Thread thread = new Thread(r, "resource-cache-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return remoteExecutor;
 	}
 
-	private URL urlFromFile(File file) throws MalformedURLException {
-		return new URL(remoteCacheUrl + "/" + file.getName());
+	/**
+	 * Set the maximum size of the local cache. The least recently used
+	 * resources are removed from the local cache when the cache is flushed
+	 * at the end of the build.
+	 * @param maxSize maximum size in bytes, or 0 for no limit
+	 */
+	public void setMaxLocalCacheSize(long maxSize) {
+		this.maxLocalCacheSize = maxSize;
 	}
 
-	private void saveToLocalCache(File file, byte[] data) throws IOException {
-		logger.info("Resource '%s' saved to the local cache", file);
-		Files.write(file.toPath(), data);
+	private URL urlFromKey(String key) throws MalformedURLException {
+		return new URL(remoteCacheUrl + "/" + key);
 	}
 
-	private byte[] loadFromLocalCache(File file) throws IOException {
-		if (file.exists()) {
-			logger.info("Resource '%s' loaded from the local cache", file);
-			return Files.readAllBytes(file.toPath());
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the remote cache", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
 		}
-		return null;
 	}
 
-	private void uploadToRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
-			return;
-		}
-		if (!file.exists()) {
-			return;
-		}
-		URL url = urlFromFile(file);
-		if (!http.exists(url)) {
-			http.uploadFile(url, file);
-			logger.info("Resource '%s' uploaded to the remote cache", file);
-		}
-		else {
-			logger.info("Resource '%s' already exists in the remote cache", file);
-		}
+	private CompletableFuture<Boolean> downloadFromRemoteCache(final String key) throws MalformedURLException {
+		final URL url = urlFromKey(key);
+		return downloads.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+			if (localStore.contains(k)) {
+				return true;
+			}
+			try {
+				File tmp = localStore.createTempFile();
+				try {
+					if (!http.downloadToFileIfExists(url, tmp)) {
+						logger.info("Resource '%s' does not exist in the remote cache", k);
+						return false;
+					}
+					localStore.put(k, Files.readAllBytes(tmp.toPath()));
+				} finally {
+					tmp.delete();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(String.format("Unable to save '%s' to the local cache", k), e);
+			}
+			logger.info("Resource '%s' downloaded from the remote cache", k);
+			return true;
+		}, getRemoteExecutor()));
 	}
 
-	private void downloadFromRemoteCache(File file) throws MalformedURLException {
+	private void uploadToRemoteCache(final String key, final byte[] data) throws MalformedURLException {
 		if (remoteCacheUrl == null) {
 			return;
 		}
-		URL url = urlFromFile(file);
-		if (http.exists(url)) {
-			http.downloadToFile(url, file);
-			logger.info("Resource '%s' downloaded from the remote cache", file);
-		}
-		else {
-			logger.info("Resource '%s' does not exist in the remote cache", file);
-		}
+		final URL url = urlFromKey(key);
+		uploads.computeIfAbsent(key, k -> CompletableFuture.runAsync(() -> {
+			try {
+				if (!http.exists(url)) {
+					http.uploadData(url, data);
+					logger.info("Resource '%s' uploaded to the remote cache", k);
+				}
+				else {
+					logger.info("Resource '%s' already exists in the remote cache", k);
+				}
+			} catch (RuntimeException e) {
+				// The build doesn't depend on the upload, the resource is still in the local cache
+				logger.warning("Unable to upload resource '%s' to the remote cache: %s", k, e.getMessage());
+			}
+		}, getRemoteExecutor()));
 	}
 
 	/**
@@ -111,6 +188,14 @@ public class ResourceCache {
 		return localCacheDir != null;
 	}
 
+	/**
+	 * Check if a remote cache is used in addition to the local cache
+	 * @return true if the remote cache is enabled
+	 */
+	public boolean isRemoteCacheEnabled() {
+		return enabled && remoteCacheUrl != null;
+	}
+
 	/**
 	 * Set authentication information to use when communicating with the
 	 * remote cache.
@@ -124,7 +209,8 @@ public class ResourceCache {
 	}
 
 	/**
-	 * Put data in the resource cache
+	 * Put data in the resource cache. The data is saved to the local cache
+	 * immediately and uploaded to the remote cache in the background.
 	 * @param key Key to associate data with
 	 * @param data The data to store
 	 */
@@ -132,15 +218,14 @@ public class ResourceCache {
 		if (!enabled) {
 			return;
 		}
-		File file = fileFromKey(key);
-		if (file.exists()) {
-			// file is already in the local cache
+		if (localStore.contains(key)) {
+			// already in the local cache
 			return;
 		}
 
-		logger.info("Caching resource '%s'", file);
-		saveToLocalCache(file, data);
-		uploadToRemoteCache(file);
+		logger.info("Caching resource '%s'", key);
+		localStore.put(key, data);
+		uploadToRemoteCache(key, data);
 	}
 
 	/**
@@ -152,24 +237,134 @@ public class ResourceCache {
 		if (!enabled) {
 			return null;
 		}
-		File file = fileFromKey(key);
-		if (!file.exists()) {
-			downloadFromRemoteCache(file);
+		if (remoteCacheUrl != null && !localStore.contains(key)) {
+			await(downloadFromRemoteCache(key));
+		}
+
+		return localStore.get(key);
+	}
+
+	/**
+	 * Put data in the local cache only. Use for small entries that are
+	 * cheaper to recreate than to upload to and download from the remote cache.
+	 * @param key Key to associate data with
+	 * @param data The data to store
+	 */
+	public void putLocal(String key, byte[] data) throws IOException {
+		if (!enabled || localStore.contains(key)) {
+			return;
 		}
+		localStore.put(key, data);
+	}
 
-		return loadFromLocalCache(file);
+	/**
+	 * Get data from the local cache only, without looking in the remote cache
+	 * @param key Key associated with the data to get
+	 * @return The data or null if no data exists in the local cache
+	 */
+	public byte[] getLocal(String key) throws IOException {
+		if (!enabled) {
+			return null;
+		}
+		return localStore.get(key);
 	}
 
 	/**
-	 * Check if the cache contains a resource
+	 * Check if the cache contains a resource. A resource found in the remote
+	 * cache is downloaded to the local cache.
 	 * @param key The key to check for in the cache
 	 * @return true if a resource with the specified key exists
 	 */
 	public boolean contains(String key) throws IOException {
+		return containsAll(Arrays.asList(key));
+	}
+
+	/**
+	 * Check if the cache contains all of a set of resources. Resources missing
+	 * from the local cache are looked up in the remote cache concurrently, with
+	 * one request per key.
+	 * @param keys The keys to check for in the cache
+	 * @return true if resources with all of the specified keys exist
+	 */
+	public boolean containsAll(Collection<String> keys) throws IOException {
 		if (!enabled) {
 			return false;
 		}
-		File f = fileFromKey(key);
-		return f.exists() || (remoteCacheUrl != null && http.exists(urlFromFile(f)));
+		List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+		for (String key : keys) {
+			if (localStore.contains(key)) {
+				continue;
+			}
+			if (remoteCacheUrl == null) {
+				localStore.recordMiss();
+				return false;
+			}
+			pending.add(downloadFromRemoteCache(key));
+		}
+		boolean found = true;
+		for (CompletableFuture<Boolean> download : pending) {
+			found &= await(download);
+		}
+		if (!found) {
+			localStore.recordMiss();
+		}
+		return found;
+	}
+
+	/**
+	 * Start downloading resources from the remote cache in the background,
+	 * to be used by later calls to contains() and get()
+	 * @param keys The keys of the resources that will be needed
+	 */
+	public void prefetch(Collection<String> keys) throws IOException {
+		if (!isRemoteCacheEnabled()) {
+			return;
+		}
+		int count = 0;
+		for (String key : keys) {
+			if (!localStore.contains(key)) {
+				downloadFromRemoteCache(key);
+				count++;
+			}
+		}
+		logger.info("Prefetching %d resources from the remote cache", count);
+	}
+
+	/**
+	 * Wait for all uploads to the remote cache to complete, save the cache
+	 * stats and trim the local cache to its maximum size. Call at the end
+	 * of the build.
+	 */
+	public void flush() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		try {
+			for (CompletableFuture<Void> upload : uploads.values()) {
+				await(upload);
+			}
+		} finally {
+			uploads.clear();
+			downloads.clear();
+			close();
+			localStore.saveStats();
+			if (localStore.isOverMaxSize(maxLocalCacheSize)) {
+				LocalCacheStore.Stats stats = localStore.gc(maxLocalCacheSize);
+				if (stats.evictionCandidateCount > 0) {
+					logger.info("Removed %d resources from the local cache", stats.evictionCandidateCount);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads used to communicate with the remote cache. Downloads
+	 * and uploads that have been started are completed in the background.
+	 */
+	public synchronized void close() {
+		if (remoteExecutor != null) {
+			remoteExecutor.shutdown();
+			remoteExecutor = null;
+		}
 	}
 }
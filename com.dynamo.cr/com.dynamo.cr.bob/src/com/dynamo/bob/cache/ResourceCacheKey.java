@@ -31,6 +31,14 @@ import com.dynamo.bob.archive.EngineVersion;
 
 public class ResourceCacheKey {
 
+	/*
+	 * Version of the key calculation. Must be changed whenever keys are
+	 * calculated differently for the same resource, which invalidates all
+	 * existing entries in the local and remote resource caches.
+	 * 2: Keys are calculated from the task signature and are always 40 characters.
+	 */
+	private static final int KEY_VERSION = 2;
+
 	/*
 	 * A set of options which have an impact on the created resources
 	 * and must be included when calculating the resource key
@@ -48,15 +56,24 @@ public class ResourceCacheKey {
 
 	/**
 	 * Calculate the key to use when caching a resource.
-	 * The key is created from the task used which created the resource, the
-	 * bytes of the resource itself, as well as engine sha and project options.
+	 * The key is created from the key version, the signature of the task which
+	 * created the resource, the path of the resource itself, as well as engine
+	 * sha and project options. The task signature is only calculated once per task.
 	 * @param task The task which created the resource
 	 * @param projectOptions The project options
 	 * @param resource The resource to calculate cache key for
 	 * @return The cache key as a hex string
 	 */
 	public static String calculate(Task<?> task, Map<String, String> projectOptions, IResource resource) throws RuntimeException, IOException {
-		MessageDigest digest = task.calculateSignatureDigest();
+		byte[] signature = task.calculateSignature();
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		digest.update((byte) KEY_VERSION);
+		digest.update(signature);
 
 		digest.update(resource.getPath().getBytes());
 		digest.update(EngineVersion.sha1.getBytes());
@@ -76,7 +93,7 @@ public class ResourceCacheKey {
 		}
 
 		byte[] key = digest.digest();
-		// byte digest to hex string
-		return new BigInteger(1, key).toString(16);
+		// byte digest to fixed width hex string
+		return String.format("%040x", new BigInteger(1, key));
 	}
 }
@@ -14,9 +14,17 @@
 
 package com.dynamo.bob.font;
 
+import java.util.Arrays;
+
 public class DistanceFieldGenerator
 {
-    public double[] lineSegments = new double[32768];
+    // Squared distance returned when there are no line segments
+    private static final double MAX_DIST_SQR = 10000000;
+    // Size in pixels of the tiles that line segments are culled against when rendering
+    private static final int TILE_SIZE = 8;
+
+    // Line segments stored as [x0, y0, dx, dy, 1 / length^2]
+    public double[] lineSegments = new double[1024];
     public int lineSegmentsEnd = 0;
 
     public DistanceFieldGenerator()
@@ -26,6 +34,9 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length) {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
@@ -34,63 +45,144 @@ public class DistanceFieldGenerator
         lineSegmentsEnd += 5;
     }
 
+    // Compute the squared distance from [x, y] to the line segment starting at index i
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
     // Compute the minimal distance from [x, y] to any of the line segments
     public double distSqr(double x, double y)
     {
-        double distMin = 10000000;
+        double distMin = MAX_DIST_SQR;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
-            double x0 = lineSegments[i];
-            double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
-
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
-
-            if (t < 0)
-            {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
-            }
-            else if (t > 1)
-            {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
-            }
-            else
-            {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
-            }
+            double distSqr = segmentDistSqr(i, x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
         }
         return distMin;
     }
 
+    // Squared distance between two axis aligned rects, 0 if they overlap
+    private static double rectDistSqr(double ax0, double ay0, double ax1, double ay1, double bx0, double by0, double bx1, double by1)
+    {
+        double dx = Math.max(0, Math.max(ax0 - bx1, bx0 - ax1));
+        double dy = Math.max(0, Math.max(ay0 - by1, by0 - ay1));
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Render the distance to the closest line segment for each pixel. The output is
+     * split into tiles, and each tile is only tested against the line segments that
+     * can be closest to any of its pixels. The result is the same as testing every
+     * pixel against every line segment.
+     */
     public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
     {
-        int ofs = 0;
+        int segmentCount = lineSegmentsEnd / 5;
+
+        // Bounding boxes of the line segments
+        double[] bounds = new double[segmentCount * 4];
+        for (int s=0;s<segmentCount;s++)
+        {
+            int i = s * 5;
+            double ex = lineSegments[i] + lineSegments[i+2];
+            double ey = lineSegments[i+1] + lineSegments[i+3];
+            bounds[s*4+0] = Math.min(lineSegments[i], ex);
+            bounds[s*4+1] = Math.min(lineSegments[i+1], ey);
+            bounds[s*4+2] = Math.max(lineSegments[i], ex);
+            bounds[s*4+3] = Math.max(lineSegments[i+1], ey);
+        }
+
+        // Pixel coordinates, x is accumulated per pixel as it has always been
         double dx = (x1 - x0) / (double)width;
+        double[] pxs = new double[width];
+        double px = x0;
+        for (int x=0;x<width;x++)
+        {
+            pxs[x] = px;
+            px += dx;
+        }
+        double[] pys = new double[height];
         for (int y=0;y<height;y++)
         {
-            double py = y0 + y * (y1-y0) / (double)height;
-            double px = x0;
-            for (int x=0;x<width;x++)
+            pys[y] = y0 + y * (y1-y0) / (double)height;
+        }
+
+        int[] candidates = new int[segmentCount];
+        for (int ty=0;ty<height;ty+=TILE_SIZE)
+        {
+            int tyEnd = Math.min(height, ty + TILE_SIZE);
+            double tileY0 = Math.min(pys[ty], pys[tyEnd-1]);
+            double tileY1 = Math.max(pys[ty], pys[tyEnd-1]);
+            for (int tx=0;tx<width;tx+=TILE_SIZE)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
-                px += dx;
+                int txEnd = Math.min(width, tx + TILE_SIZE);
+                double tileX0 = Math.min(pxs[tx], pxs[txEnd-1]);
+                double tileX1 = Math.max(pxs[tx], pxs[txEnd-1]);
+
+                // No pixel in the tile is further from its closest segment than the
+                // distance from the tile center to the closest segment plus half the
+                // tile diagonal. Segments that are further away from the tile than
+                // that can be skipped. The limit is padded to cover rounding errors.
+                double cx = (tileX0 + tileX1) * 0.5;
+                double cy = (tileY0 + tileY1) * 0.5;
+                double halfDiagonal = 0.5 * Math.sqrt((tileX1-tileX0)*(tileX1-tileX0) + (tileY1-tileY0)*(tileY1-tileY0));
+                double limit = Math.sqrt(distSqr(cx, cy)) + halfDiagonal;
+                double limitSqr = limit * limit * (1 + 1e-9) + 1e-9;
+
+                int candidateCount = 0;
+                for (int s=0;s<segmentCount;s++)
+                {
+                    if (rectDistSqr(tileX0, tileY0, tileX1, tileY1, bounds[s*4+0], bounds[s*4+1], bounds[s*4+2], bounds[s*4+3]) <= limitSqr)
+                        candidates[candidateCount++] = s * 5;
+                }
+
+                for (int y=ty;y<tyEnd;y++)
+                {
+                    int ofs = y * width + tx;
+                    double py = pys[y];
+                    for (int x=tx;x<txEnd;x++)
+                    {
+                        double distMin = MAX_DIST_SQR;
+                        for (int c=0;c<candidateCount;c++)
+                        {
+                            double distSqr = segmentDistSqr(candidates[c], pxs[x], py);
+                            if (distSqr < distMin)
+                                distMin = distSqr;
+                        }
+                        output[ofs++] = Math.sqrt(distMin);
+                    }
+                }
             }
         }
     }
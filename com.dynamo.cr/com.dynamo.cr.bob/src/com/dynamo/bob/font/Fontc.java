@@ -52,6 +52,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
@@ -63,6 +64,7 @@ import com.dynamo.bob.TexcLibrary.PixelFormat;
 import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.WorkerPool;
 
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.IResource;
@@ -157,6 +159,8 @@ public class Fontc {
 
     private Font font;
     private BMFont bmfont;
+    private WorkerPool workerPool;
+    private GlyphCache glyphCache;
 
     public static long FontDescToHash(FontDesc fontDesc) {
         FontDesc.Builder fontDescbuilder = FontDesc.newBuilder();
@@ -181,6 +185,26 @@ public class Fontc {
         return MurmurHash.hash64(result);
     }
 
+    /**
+     * Hash of the parameters that affect the generated data of a single glyph. Unlike
+     * FontDescToHash it doesn't include the set of characters or the cache size, so
+     * that glyphs can be reused when only the characters of a font change.
+     */
+    public static long GlyphDescToHash(FontDesc fontDesc) {
+        String result = ""
+            + fontDesc.getFont()
+            + fontDesc.getSize()
+            + fontDesc.getAntialias()
+            + fontDesc.getOutlineWidth()
+            + fontDesc.getShadowBlur()
+            + fontDesc.getOutputFormat()
+            + fontDesc.getAlpha()
+            + fontDesc.getOutlineAlpha()
+            + fontDesc.getShadowAlpha();
+
+        return MurmurHash.hash64(result);
+    }
+
     // These values are the same as font_renderer.cpp
     static final int LAYER_FACE    = 0x1;
     static final int LAYER_OUTLINE = 0x2;
@@ -212,6 +236,24 @@ public class Fontc {
         return fontMapLayerMask;
     }
 
+    /**
+     * Cache of the generated data of single glyphs, keyed on the code point. The
+     * cache is expected to be specific to the font file and GlyphDescToHash.
+     */
+    public interface GlyphCache {
+        /**
+         * @param codePoint code point of the glyph
+         * @return the glyph data, or null if the glyph isn't cached
+         */
+        public byte[] get(int codePoint) throws IOException;
+
+        /**
+         * @param codePoint code point of the glyph
+         * @param data glyph data as stored in the glyph data bank
+         */
+        public void put(int codePoint, byte[] data) throws IOException;
+    }
+
     public interface FontResourceResolver {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
     }
@@ -220,6 +262,23 @@ public class Fontc {
 
     }
 
+    /**
+     * Set the pool used to render glyphs in parallel
+     * @param workerPool worker pool, or null to render glyphs on the calling thread
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Set the cache used to reuse the glyph data of glyphs that have been generated
+     * by a previous build with the same font file and GlyphDescToHash
+     * @param glyphCache glyph cache, or null to generate all glyphs
+     */
+    public void setGlyphCache(GlyphCache glyphCache) {
+        this.glyphCache = glyphCache;
+    }
+
     public ArrayList<Glyph> getGlyphs() {
         return glyphs;
     }
@@ -588,122 +647,80 @@ public class Fontc {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
 
-        for (int i = 0; i < include_glyph_count; i++) {
+        boolean drawTrueTypeGlyphs = fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP && inputFormat == InputFontFormat.FORMAT_TRUETYPE;
+        boolean drawBMFontGlyphs = fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP && inputFormat == InputFontFormat.FORMAT_BMFONT;
+        boolean drawDistanceFields = fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD && inputFormat == InputFontFormat.FORMAT_TRUETYPE;
+        if (!drawTrueTypeGlyphs && !drawBMFontGlyphs && !drawDistanceFields) {
+            throw new FontFormatException("Invalid font format combination!");
+        }
+
+        // Look up previously generated glyph data. The cache is only used for TrueType fonts,
+        // since the glyphs of a BMFont are copied from an image that isn't part of the key.
+        GlyphCache cache = (preview || inputFormat != InputFontFormat.FORMAT_TRUETYPE) ? null : glyphCache;
+        byte[][] glyphData = new byte[include_glyph_count][];
+        if (cache != null) {
+            try {
+                for (int i = 0; i < include_glyph_count; i++) {
+                    glyphData[i] = cache.get(glyphs.get(i).c);
+                }
+            } catch (IOException e) {
+                throw new TextureGeneratorException(String.format("Failed to read cached glyph data: %s", e.getMessage()));
+            }
+        }
 
+        // Glyphs are generated in parallel. The glyph data bank is written in glyph order below,
+        // so that the cache entry offsets don't depend on the order the glyphs were generated in.
+        final int glyphPadding = padding;
+        final int glyphCellPadding = cell_padding;
+        final float glyphSdfSpread = sdf_spread;
+        final float glyphSdfShadowSpread = sdf_shadow_spread;
+        final ConvolveOp glyphShadowConvolve = shadowConvolve;
+        final BufferedImage glyphImageBMFont = imageBMFont;
+        List<byte[]> generatedGlyphData = map(workerPool, include_glyph_count, i -> {
             Glyph glyph = glyphs.get(i);
-            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
-                continue;
+            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0 || glyphData[i] != null) {
+                return null;
             }
 
             // Generate bitmap for each glyph depending on format
             BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
+            if (drawTrueTypeGlyphs) {
+                glyphImage = drawGlyph(glyph, glyphPadding, font, blendComposite, faceColor, outlineColor, glyphShadowConvolve);
+            } else if (drawBMFontGlyphs) {
+                glyphImage = drawBMFontGlyph(glyph, glyphImageBMFont);
             } else {
-                throw new FontFormatException("Invalid font format combination!");
+                glyphImage = makeDistanceField(glyph, glyphPadding, glyphSdfSpread, glyphSdfShadowSpread, font, sdf_edge, glyphShadowConvolve);
             }
 
             if (preview) {
-
                 glyph.image = glyphImage;
-
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
-                    }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
-
-                    compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
-                    int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
-
-                    byte[] uncompressedBytes = new byte[paddedBuffer.limit()];
-                    paddedBuffer.get(uncompressedBytes);
-
-                    byte[] compressedBytes = new byte[compressedBuffer.limit()];
-                    compressedBuffer.get(compressedBytes);
-
-                    // If the uncompressed size is smaller we write uncompressed
-                    // bytes instead
-                    // Note that when writing the uncompressed bytes we need to
-                    // also write the initial byte/flag telling the consumer if
-                    // the glyph is compressed or not.
-                    // - In the case of an uncompressed glyph we write a 0.
-                    // - In the case of a compressed glyph this information is
-                    // included in the compressedBytes array so we don't need to
-                    // bother with specifically writing the compressed flag.
-                    if (uncompressedBytes.length <= compressedBytes.length) {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = 1 + uncompressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
-                        glyphDataBank.write(0); // uncompressed
-                        glyphDataBank.write(uncompressedBytes);
+                return null;
+            }
+            return encodeGlyphData(glyphImage, glyphCellPadding);
+        });
+
+        if (!preview) {
+            for (int i = 0; i < include_glyph_count; i++) {
+                Glyph glyph = glyphs.get(i);
+                byte[] data = glyphData[i];
+                if (data == null) {
+                    data = generatedGlyphData.get(i);
+                    if (data == null) {
+                        continue;
                     }
-                    else {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = compressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
-                        glyphDataBank.write(compressedBytes);
+                    if (cache != null) {
+                        try {
+                            cache.put(glyph.c, data);
+                        } catch (IOException e) {
+                            throw new TextureGeneratorException(String.format("Failed to cache glyph data: %s", e.getMessage()));
+                        }
                     }
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
                 }
+
+                glyph.cache_entry_offset = dataOffset;
+                glyph.cache_entry_size = data.length;
+                dataOffset += glyph.cache_entry_size;
+                glyphDataBank.write(data, 0, data.length);
             }
         }
 
@@ -758,6 +775,93 @@ public class Fontc {
 
     }
 
+    // Pad the glyph image with the cell padding and compress it to the data stored in the glyph data bank
+    private byte[] encodeGlyphData(BufferedImage glyphImage, int cell_padding) throws TextureGeneratorException {
+        BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
+                                                            glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
+
+        int clearData = 0;
+        int mask = 0xFFFFFFFF;
+        if (channelCount==1)
+            mask = 0xFF;
+        else if (channelCount==2)
+            mask = 0xFFFF;
+        else if (channelCount==3)
+            mask = 0xFFFFFF;
+
+        int py = 0;
+        // Get raster data from rendered glyph and store in glyph data bank
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
+            paddedGlyphImage.setRGB(x, py, clearData);
+        }
+        py++;
+        for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
+            int px = 0;
+            paddedGlyphImage.setRGB(px++, py, clearData);
+            for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
+                int color = glyphImage.getRGB(x, y);
+                int blue  = (color) & 0xff;
+                int green = (color >> 8) & 0xff;
+                int red   = (color >> 16) & 0xff;
+                int alpha = (color >> 24) & 0xff;
+                blue = (blue * alpha) / 255;
+                green = (green * alpha) / 255;
+                red = (red * alpha) / 255;
+                color = ((alpha << 24) |
+                        (blue << 16) |
+                        (green << 8) |
+                        (red << 0)) & mask;
+
+                paddedGlyphImage.setRGB(px, py, color);
+            }
+            paddedGlyphImage.setRGB(px++, py, clearData);
+        }
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
+            paddedGlyphImage.setRGB(x, py, clearData);
+        }
+
+        Pointer compressedTexture = null;
+        try {
+            int width = paddedGlyphImage.getWidth();
+            int height = paddedGlyphImage.getHeight();
+
+            ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+
+            compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
+            int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
+
+            byte[] uncompressedBytes = new byte[paddedBuffer.limit()];
+            paddedBuffer.get(uncompressedBytes);
+
+            byte[] compressedBytes = new byte[compressedBuffer.limit()];
+            compressedBuffer.get(compressedBytes);
+
+            // If the uncompressed size is smaller we write uncompressed
+            // bytes instead
+            // Note that when writing the uncompressed bytes we need to
+            // also write the initial byte/flag telling the consumer if
+            // the glyph is compressed or not.
+            // - In the case of an uncompressed glyph we write a 0.
+            // - In the case of a compressed glyph this information is
+            // included in the compressedBytes array so we don't need to
+            // bother with specifically writing the compressed flag.
+            if (uncompressedBytes.length <= compressedBytes.length) {
+                byte[] data = new byte[1 + uncompressedBytes.length];
+                data[0] = 0; // uncompressed
+                System.arraycopy(uncompressedBytes, 0, data, 1, uncompressedBytes.length);
+                return data;
+            }
+            return compressedBytes;
+
+        } catch(IOException e) {
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+        }
+    }
+
     private BufferedImage drawBMFontGlyph(Glyph glyph, BufferedImage imageBMFontInput) {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
@@ -773,8 +877,8 @@ public class Fontc {
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double [] c = new double[6];
         while (!pi.isDone()) {
-            double [] c = new double[100];
             int res = pi.currentSegment(c);
             switch (res) {
               case PathIterator.SEG_MOVETO:
@@ -816,6 +920,7 @@ public class Fontc {
         double heightInverse = 1 / (double)height;
 
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        float sdf_outline = glyphBankBuilder.getSdfOutline();
 
         // TODO: Split this work into a pre-pass and subsequent face/outline & shadow passes
         for (int v=0;v<height;v++) {
@@ -836,8 +941,6 @@ public class Fontc {
                 int outline_channel = (int)(255.0f * distance_to_edge_normalized);
                 outline_channel     = Math.max(0,Math.min(255,outline_channel));
 
-                float sdf_outline = glyphBankBuilder.getSdfOutline();
-
                 // This is needed to 'fill' the shadow body since
                 // we have no good way of knowing if the pixel is inside or outside
                 // of the shadow limit
@@ -933,6 +1036,17 @@ public class Fontc {
         return image;
     }
 
+    private static <T, E extends Exception> List<T> map(WorkerPool workerPool, int count, WorkerPool.Work<T, E> work) throws E {
+        if (workerPool != null) {
+            return workerPool.map(count, work);
+        }
+        List<T> results = new ArrayList<T>(count);
+        for (int i = 0; i < count; ++i) {
+            results.add(work.run(i));
+        }
+        return results;
+    }
+
     private void setHighQuality(Graphics2D g) {
         g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION,
             RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
@@ -29,6 +29,7 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     protected String buildDirectory;
     protected Map<String, R> resources = new HashMap<String, R>();
     protected Vector<IMountPoint> mountPoints;
+    protected ContentHashCache contentHashCache = new ContentHashCache();
 
     @SuppressWarnings("unchecked")
     public AbstractFileSystem() {
@@ -59,6 +60,11 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
         return buildDirectory;
     }
 
+    @Override
+    public ContentHashCache getContentHashCache() {
+        return contentHashCache;
+    }
+
     @Override
     public void addMountPoint(IMountPoint mountPoint) throws IOException {
         mountPoint.mount();
@@ -17,10 +17,13 @@ package com.dynamo.bob.fs;
 import static org.apache.commons.io.FilenameUtils.concat;
 
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 
 
 public abstract class AbstractResource<F extends IFileSystem> implements IResource {
@@ -48,18 +51,54 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
 
     @Override
     public byte[] sha1() throws IOException {
+        return fileSystem.getContentHashCache().get(this, () -> {
+            byte[] content = getContent();
+            if (content == null) {
+                throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
+            }
+            return ContentHashCache.sha1(content);
+        });
+    }
+
+    /**
+     * Must be called by subclasses when the content of the resource has changed
+     */
+    protected void contentChanged() {
+        fileSystem.getContentHashCache().invalidate(this);
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() throws IOException {
         byte[] content = getContent();
         if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
+            return null;
+        }
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void setContent(ByteBuffer content) throws IOException {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        setContent(bytes);
+    }
+
+    @Override
+    public void writeFrom(ReadableByteChannel channel) throws IOException {
+        setContent(IOUtils.toByteArray(Channels.newInputStream(channel)));
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer content = getContentBuffer();
+        if (content == null) {
+            throw new IOException(String.format("Resource '%s' is not created", path));
         }
-        MessageDigest sha1;
-        try {
-            sha1 = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        long written = 0;
+        while (content.hasRemaining()) {
+            written += channel.write(content);
         }
-        sha1.update(content);
-        return sha1.digest();
+        return written;
     }
 
     @Override
@@ -0,0 +1,108 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Build scoped cache of resource content hashes. Every resource is hashed at
+ * most once per build, no matter how many tasks use it as input or how many
+ * cache keys are calculated from it. Resources must invalidate their entry
+ * when their content changes.
+ */
+public class ContentHashCache {
+
+    /**
+     * Calculates the hash of a resource on a cache miss
+     */
+    public interface Hasher {
+        byte[] sha1() throws IOException;
+    }
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private final Map<String, byte[]> hashes = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the hash of a resource, calculating it with the hasher if it isn't cached
+     * @param resource resource to get the hash for
+     * @param hasher hasher used on a cache miss
+     * @return sha1 of the resource content. Must not be modified by the caller
+     */
+    public byte[] get(IResource resource, Hasher hasher) throws IOException {
+        String key = resource.getPath();
+        byte[] hash = hashes.get(key);
+        if (hash != null) {
+            hits.incrementAndGet();
+            return hash;
+        }
+        misses.incrementAndGet();
+        hash = hasher.sha1();
+        hashes.put(key, hash);
+        return hash;
+    }
+
+    /**
+     * Remove the cached hash of a resource
+     * @param resource resource which content has changed
+     */
+    public void invalidate(IResource resource) {
+        hashes.remove(resource.getPath());
+    }
+
+    /**
+     * Remove all cached hashes and reset the counters
+     */
+    public void clear() {
+        hashes.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Calculate the sha1 of a byte array using a per thread digest
+     * @param content content to hash
+     * @return sha1 of the content
+     */
+    public static byte[] sha1(byte[] content) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return digest.digest(content);
+    }
+}
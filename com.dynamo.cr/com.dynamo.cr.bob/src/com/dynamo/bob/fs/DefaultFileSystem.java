@@ -14,33 +14,78 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
-        long mTime;
-        byte[] sha1;
+    /*
+     * The digest cache is stored in the build directory as a header followed
+     * by one record per file:
+     *   int pathLength, utf-8 path, long size, long mtime (ns), long fileKey, 20 bytes sha1
+     * A file is only rehashed if its size, modification time or file key
+     * (inode on unix) has changed since the digest was calculated.
+     */
+    private static final byte[] CACHE_MAGIC = "BOBDIGST".getBytes(StandardCharsets.US_ASCII);
+    private static final int CACHE_VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    private static final String CACHE_NAME = "digest_cache";
+
+    // Files larger than this are hashed from a mapped region instead of a read buffer,
+    // where mapping is enabled (see DefaultResource.MAP_ENABLED)
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final long MAP_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    static class CacheEntry {
+        final long size;
+        final long mTime;
+        final long fileKey;
+        final byte[] sha1;
+
+        CacheEntry(long size, long mTime, long fileKey, byte[] sha1) {
+            this.size = size;
+            this.mTime = mTime;
+            this.fileKey = fileKey;
+            this.sha1 = sha1;
+        }
+
+        boolean matches(long size, long mTime, long fileKey) {
+            return this.size == size && this.mTime == mTime && this.fileKey == fileKey;
+        }
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    private static final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+    };
+
+    private volatile Map<String, CacheEntry> cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+    private volatile boolean cacheChanged = false;
 
     @Override
     public IResource get(String path) {
@@ -54,63 +99,165 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
-        }
+    private static long getFileKey(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        // not available on all platforms, in which case size and mtime have to do
+        return key != null ? key.hashCode() : 0;
+    }
+
+    private static byte[] calcSha1(Path path, long size) throws IOException {
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (DefaultResource.MAP_ENABLED && size >= MAP_THRESHOLD) {
+                long position = 0;
+                while (position < size) {
+                    long length = Math.min(MAP_CHUNK_SIZE, size - position);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    sha1.update(region);
+                    position += length;
+                }
+            } else {
+                ByteBuffer buffer = readBuffers.get();
+                buffer.clear();
+                while (channel.read(buffer) > 0 || buffer.position() > 0) {
+                    buffer.flip();
+                    sha1.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
         return sha1.digest();
     }
 
     byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
+        Path path = new File(resource.getAbsPath()).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
+        long size = attributes.size();
+        long mTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        long fileKey = getFileKey(attributes);
+
+        Map<String, CacheEntry> cache = this.cache;
         CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
-            return e.sha1;
-        } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
+        if (e != null && e.matches(size, mTime, fileKey)) {
             return e.sha1;
         }
+        e = new CacheEntry(size, mTime, fileKey, calcSha1(path, size));
+        cache.put(resource.getPath(), e);
+        cacheChanged = true;
+        return e.sha1;
+    }
+
+    private File getCacheFile() {
+        return new File(FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), CACHE_NAME));
+    }
+
+    private static Map<String, CacheEntry> decodeCache(ByteBuffer buffer) {
+        Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+        byte[] magic = new byte[CACHE_MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, CACHE_MAGIC) || buffer.getInt() != CACHE_VERSION) {
+            // old or unknown format, start over
+            return cache;
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; ++i) {
+            byte[] pathBytes = new byte[buffer.getInt()];
+            buffer.get(pathBytes);
+            long size = buffer.getLong();
+            long mTime = buffer.getLong();
+            long fileKey = buffer.getLong();
+            byte[] sha1 = new byte[SHA1_SIZE];
+            buffer.get(sha1);
+            cache.put(new String(pathBytes, StandardCharsets.UTF_8), new CacheEntry(size, mTime, fileKey, sha1));
+        }
+        return cache;
+    }
+
+    private static ByteBuffer encodeCache(Map<String, CacheEntry> cache) {
+        List<byte[]> paths = new ArrayList<byte[]>();
+        List<CacheEntry> entries = new ArrayList<CacheEntry>();
+        int capacity = CACHE_MAGIC.length + 4 + 4;
+        for (Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
+            byte[] pathBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            paths.add(pathBytes);
+            entries.add(entry.getValue());
+            capacity += 4 + pathBytes.length + 3 * 8 + SHA1_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.put(CACHE_MAGIC);
+        buffer.putInt(CACHE_VERSION);
+        buffer.putInt(entries.size());
+        for (int i = 0; i < entries.size(); ++i) {
+            CacheEntry e = entries.get(i);
+            buffer.putInt(paths.get(i).length);
+            buffer.put(paths.get(i));
+            buffer.putLong(e.size);
+            buffer.putLong(e.mTime);
+            buffer.putLong(e.fileKey);
+            buffer.put(e.sha1);
+        }
+        buffer.flip();
+        return buffer;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
-        try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
-        } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
-        } finally {
-            IOUtils.closeQuietly(is);
+        Map<String, CacheEntry> loaded = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+        File file = getCacheFile();
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("Unexpected end of digest cache");
+                    }
+                }
+                buffer.flip();
+                loaded = decodeCache(buffer);
+            } catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+                // a missing or truncated cache only means that files are rehashed
+                loaded = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+            }
         }
+        cache = loaded;
+        cacheChanged = false;
     }
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
+        if (!cacheChanged) {
+            return;
+        }
+        File file = getCacheFile();
+        File tmp = new File(file.getPath() + ".tmp");
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists()) {
+                parent.mkdirs();
+            }
+            ByteBuffer buffer = encodeCache(cache);
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cacheChanged = false;
         } catch (IOException e) {
-        } finally {
-            IOUtils.closeQuietly(os);
+            tmp.delete();
         }
     }
 
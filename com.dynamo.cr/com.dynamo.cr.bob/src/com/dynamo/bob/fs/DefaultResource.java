@@ -14,79 +14,217 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
+    // Files larger than this are memory mapped by getContentBuffer(). Not on
+    // Windows, where a mapped file can't be replaced until the mapping is collected.
+    private static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+    static final boolean MAP_ENABLED = !System.getProperty("os.name").toLowerCase().contains("win");
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final boolean POSIX_ENABLED = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
     public DefaultResource(DefaultFileSystem fileSystem, String path) {
         super(fileSystem, path);
     }
 
+    private Path getFilePath() {
+        return new File(getAbsPath()).toPath();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static FileChannel openForRead(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
     @Override
     public byte[] getContent() throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists())
+        Path path = getFilePath();
+        if (!Files.isRegularFile(path))
             return null;
 
-        byte[] buf = new byte[(int) f.length()];
-        BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
-        try {
-            is.read(buf);
+        try (FileChannel channel = openForRead(path)) {
+            if (channel == null) {
+                return null;
+            }
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException(String.format("Resource '%s' is too large (%d bytes)", this.path, size));
+            }
+            byte[] buf = new byte[(int) size];
+            readFully(channel, ByteBuffer.wrap(buf));
             return buf;
-        } finally {
-            is.close();
         }
     }
 
     @Override
-    public void setContent(byte[] content) throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
+    public ByteBuffer getContentBuffer() throws IOException {
+        Path path = getFilePath();
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (FileChannel channel = openForRead(path)) {
+            if (channel == null) {
+                return null;
             }
+            long size = channel.size();
+            if (MAP_ENABLED && size >= MAP_THRESHOLD) {
+                // the mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            readFully(channel, buffer);
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
         }
+    }
 
-        BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+    // Keep the permissions of a replaced file, eg executable bundled files
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (!POSIX_ENABLED) {
+            return;
+        }
         try {
-            os.write(content);
-        } finally {
-            os.close();
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (NoSuchFileException e) {
+            // a new file, keep the default permissions
+        } catch (UnsupportedOperationException e) {
+            // eg a file system without posix permissions mounted on a posix system
         }
     }
 
-    @Override
-    public void setContent(InputStream stream) throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
+    private interface ContentWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Write the content to a temporary file next to the resource and move it
+     * into place, so that readers never see a partially written file. The
+     * permissions of an existing file are kept.
+     */
+    private void writeAtomically(ContentWriter writer) throws IOException {
+        Path target = getFilePath();
+        Path dir = target.getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        // not Files.createTempFile() since it restricts the file permissions
+        String tmpName = target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp";
+        Path tmp = target.resolveSibling(tmpName);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                writer.write(channel);
             }
+            copyPermissions(target, tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AccessDeniedException e) {
+                // Eg the target is open by another process on Windows, write it in place instead
+                Files.copy(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+            contentChanged();
         }
+    }
 
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void setContent(byte[] content) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(content);
+        writeAtomically(channel -> writeFully(channel, buffer));
+    }
+
+    @Override
+    public void setContent(ByteBuffer content) throws IOException {
+        final ByteBuffer buffer = content.duplicate();
+        writeAtomically(channel -> writeFully(channel, buffer));
+    }
+
+    @Override
+    public void setContent(InputStream stream) throws IOException {
         try {
-            FileUtils.copyInputStreamToFile(stream, f);
+            writeFrom(Channels.newChannel(stream));
         } finally {
             stream.close();
         }
     }
 
+    @Override
+    public void writeFrom(final ReadableByteChannel source) throws IOException {
+        writeAtomically(channel -> {
+            if (source instanceof FileChannel) {
+                FileChannel sourceFile = (FileChannel) source;
+                long position = sourceFile.position();
+                long size = sourceFile.size();
+                while (position < size) {
+                    position += sourceFile.transferTo(position, size - position, channel);
+                }
+                sourceFile.position(position);
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+            }
+        });
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        try (FileChannel channel = openForRead(getFilePath())) {
+            if (channel == null) {
+                throw new IOException(String.format("Resource '%s' is not created", path));
+            }
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
     @Override
     public byte[] sha1() throws IOException {
-        return this.fileSystem.sha1(this);
+        return this.fileSystem.getContentHashCache().get(this, () -> this.fileSystem.sha1(this));
     }
 
     @Override
@@ -98,6 +236,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
     @Override
     public void remove() {
         new File(getAbsPath()).delete();
+        contentChanged();
     }
 
     @Override
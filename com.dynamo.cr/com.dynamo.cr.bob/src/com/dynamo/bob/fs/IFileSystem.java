@@ -89,6 +89,12 @@ public interface IFileSystem {
      */
     public void saveCache();
 
+    /**
+     * Get the build scoped cache of resource content hashes
+     * @return content hash cache
+     */
+    public ContentHashCache getContentHashCache();
+
     /**
      * Add a mount point to the file system, e.g. a zip archive or Java class loader.
      * @param mountPoint mount point to add
@@ -16,6 +16,9 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -110,6 +113,40 @@ public interface IResource {
      */
     void setContent(InputStream stream) throws IOException;
 
+    /**
+     * Get content for resource as a read-only buffer. Large files may be
+     * memory mapped, so the buffer should not be kept around longer than needed.
+     * @return content. <code>null</code> if the resource doesn't exists
+     * @throws IOException
+     */
+    ByteBuffer getContentBuffer() throws IOException;
+
+    /**
+     * Set content from the remaining bytes of a buffer. The position of the
+     * buffer is not changed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @param content content to set
+     * @throws IOException
+     */
+    void setContent(ByteBuffer content) throws IOException;
+
+    /**
+     * Set content from a channel, reading until the end of the channel.
+     * The channel is not closed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @param channel channel to read from
+     * @throws IOException
+     */
+    void writeFrom(ReadableByteChannel channel) throws IOException;
+
+    /**
+     * Write the content of the resource to a channel. The channel is not closed.
+     * @param channel channel to write to
+     * @return number of bytes written
+     * @throws IOException
+     */
+    long transferTo(WritableByteChannel channel) throws IOException;
+
     /**
      * Get the time when the resource was modified
      * @return long representing Unix time when the resource was modified
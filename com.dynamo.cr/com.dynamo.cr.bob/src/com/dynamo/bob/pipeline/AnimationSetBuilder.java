@@ -26,6 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -86,6 +87,15 @@ public class AnimationSetBuilder extends Builder<Void>  {
         animFiles.add(path);
     }
 
+    private void loadModelAnimations(AnimationSet.Builder animBuilder, IResource animFile, ModelImporter.DataResolver dataResolver, String animId) throws CompileExceptionError, IOException {
+        // The scene is imported once and shared with the mesh set and other animation set builders using the same file
+        ModelImporter.Scene scene = ModelUtil.loadScene(animFile, new ModelImporter.Options(), dataResolver, this.project.getModelSceneCache());
+        if (scene == null) {
+            throw new CompileExceptionError(animFile, -1, "Error loading model");
+        }
+        loadModelAnimations(animBuilder, scene, animId);
+    }
+
     private void buildAnimations(Task<Void> task, ModelImporter.DataResolver dataResolver, AnimationSetDesc.Builder animSetDescBuilder, AnimationSet.Builder animationSetBuilder,
                                             String parentId, ArrayList<String> animFiles) throws CompileExceptionError, IOException {
         ArrayList<String> idList = new ArrayList<>(animSetDescBuilder.getAnimationsCount());
@@ -110,18 +120,16 @@ public class AnimationSetBuilder extends Builder<Void>  {
             }
             idList.add(animId);
 
-            ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
             AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
-            ArrayList<String> animationIds = new ArrayList<String>();
 
             String suffix = BuilderUtil.getSuffix(animFile.getPath());
             boolean isCollada = suffix.equals("dae");
 
             try {
                 if (isCollada)
-                    loadColladaAnimations(animBuilder, animFileIS, animId, parentId);
+                    loadColladaAnimations(animBuilder, ColladaUtil.loadDAE(animFile, this.project.getColladaSceneCache()), animId, parentId);
                 else
-                    loadModelAnimations(animBuilder, animFileIS, dataResolver, animId, parentId, animFile.getPath(), animationIds);
+                    loadModelAnimations(animBuilder, animFile, dataResolver, animId);
 
             } catch (XMLStreamException e) {
                 throw new CompileExceptionError(animFile, e.getLocation().getLineNumber(), "Failed to load animation: " + e.getLocalizedMessage(), e);
@@ -156,10 +164,15 @@ public class AnimationSetBuilder extends Builder<Void>  {
     }
 
     static void loadColladaAnimations(AnimationSet.Builder animationSetBuilder, InputStream is, String animId, String parentId)
+    throws IOException, XMLStreamException, LoaderException {
+        loadColladaAnimations(animationSetBuilder, ColladaUtil.loadDAE(is), animId, parentId);
+    }
+
+    static void loadColladaAnimations(AnimationSet.Builder animationSetBuilder, XMLCOLLADA collada, String animId, String parentId)
     throws IOException, XMLStreamException, LoaderException {
         ArrayList<String> localAnimationIds = new ArrayList<String>();
         AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
-        ColladaUtil.loadAnimations(is, animBuilder, animId, localAnimationIds);
+        ColladaUtil.loadAnimations(collada, animBuilder, animId, localAnimationIds);
 
         animationSetBuilder.addAllAnimations(animBuilder.getAnimationsList());
     }
@@ -169,7 +182,11 @@ public class AnimationSetBuilder extends Builder<Void>  {
                                     String path, ArrayList<String> animationIds) throws IOException {
 
         ModelImporter.Scene scene = ModelUtil.loadScene(is, path, new ModelImporter.Options(), dataResolver);
+        loadModelAnimations(animationSetBuilder, scene, animId);
+        ModelUtil.unloadScene(scene);
+    }
 
+    static void loadModelAnimations(AnimationSet.Builder animationSetBuilder, ModelImporter.Scene scene, String animId) {
         ArrayList<String> localAnimationIds = new ArrayList<String>();
         AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
 
@@ -178,8 +195,6 @@ public class AnimationSetBuilder extends Builder<Void>  {
         ModelUtil.loadAnimations(scene, animBuilder, animId, localAnimationIds);
 
         animationSetBuilder.addAllAnimations(animBuilder.getAnimationsList());
-
-        ModelUtil.unloadScene(scene);
     }
 
     public static class ResourceDataResolver implements ModelImporter.DataResolver
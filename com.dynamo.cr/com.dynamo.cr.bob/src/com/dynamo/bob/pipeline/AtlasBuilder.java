@@ -15,8 +15,10 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.ByteArrayOutputStream;
 import java.awt.image.BufferedImage;
+import java.util.List;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -69,6 +71,7 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
         String textureProfilesPath = this.project.getProjectProperties().getStringValue("graphics", "texture_profiles");
         if (textureProfilesPath != null) {
             taskBuilder.addInput(this.project.getResource(textureProfilesPath));
+            taskBuilder.addExtraCacheKey(TextureUtil.getTextureProfilePlatformsCacheKey(this.project));
         }
 
         return taskBuilder.build();
@@ -93,19 +96,24 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
 
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
         logger.info("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
-        TextureImage textureImages[] = new TextureImage[numImages];
-
-        for (int i = 0; i < numImages; i++)
-        {
-            TextureImage texture;
-            try {
-                boolean compress = project.option("texture-compression", "false").equals("true");
-                texture = TextureGenerator.generate(result.images.get(i), texProfile, compress);
-            } catch (TextureGeneratorException e) {
-                throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
-            }
-            textureImages[i] = texture;
+        boolean compress = project.option("texture-compression", "false").equals("true");
+
+        // The pages are generated in parallel
+        List<TextureImage> textures;
+        try {
+            textures = project.getWorkerPool().map(numImages, i -> {
+                try {
+                    return TextureGenerator.generate(result.images.get(i), texProfile, compress, project.getWorkerPool());
+                } catch (TextureGeneratorException e) {
+                    throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        TextureImage textureImages[] = textures.toArray(new TextureImage[numImages]);
 
         TextureImage texture = TextureUtil.createCombinedTextureImage(textureImages, textureType);
         task.output(0).setContent(textureSet.toByteArray());
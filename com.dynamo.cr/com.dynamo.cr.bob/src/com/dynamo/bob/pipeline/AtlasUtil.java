@@ -17,6 +17,10 @@ package com.dynamo.bob.pipeline;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -29,8 +33,12 @@ import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.WorkerPool;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.TimeProfiler;
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
@@ -38,11 +46,56 @@ import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.gamesys.proto.AtlasProto.Atlas;
 import com.dynamo.gamesys.proto.AtlasProto.AtlasAnimation;
 import com.dynamo.gamesys.proto.AtlasProto.AtlasImage;
+import com.dynamo.gamesys.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.gamesys.proto.Tile.Playback;
 import com.dynamo.gamesys.proto.Tile.SpriteTrimmingMode;
 import com.dynamo.proto.DdfMath.Point3;
 
 public class AtlasUtil {
+    /**
+     * Layout cache backed by the local resource cache of the project, so atlases
+     * rebuilt with unchanged image sizes skip packing. Layouts are keyed on the
+     * packing input and the engine version. They are small, so they are never
+     * sent to the remote cache.
+     */
+    static class ResourceLayoutCache implements MaxRectsLayoutStrategy.LayoutCache {
+        private final ResourceCache resourceCache;
+
+        ResourceLayoutCache(ResourceCache resourceCache) {
+            this.resourceCache = resourceCache;
+        }
+
+        String key(String layoutKey) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            digest.update((layoutKey + ":" + EngineVersion.sha1).getBytes());
+            return String.format("%040x", new BigInteger(1, digest.digest()));
+        }
+
+        @Override
+        public byte[] get(String layoutKey) {
+            try {
+                return resourceCache.getLocal(key(layoutKey));
+            } catch (IOException e) {
+                // The layout is packed instead
+                return null;
+            }
+        }
+
+        @Override
+        public void put(String layoutKey, byte[] data) {
+            try {
+                resourceCache.putLocal(key(layoutKey), data);
+            } catch (IOException e) {
+                // The layout is packed again next time
+            }
+        }
+    }
+
     public static class MappedAnimDesc extends AnimDesc {
         List<String> ids;
 
@@ -65,12 +118,18 @@ public class AtlasUtil {
     public static class MappedAnimIterator implements AnimIterator {
         final List<MappedAnimDesc> anims;
         final List<String> imageIds;
+        // Index of the first occurrence of each image id
+        final Map<String, Integer> imageIndices;
         int nextAnimIndex;
         int nextFrameIndex;
 
         public MappedAnimIterator(List<MappedAnimDesc> anims, List<String> imageIds) {
             this.anims = anims;
             this.imageIds = imageIds;
+            this.imageIndices = new HashMap<String, Integer>(imageIds.size() * 2);
+            for (int i = 0; i < imageIds.size(); ++i) {
+                imageIndices.putIfAbsent(imageIds.get(i), i);
+            }
         }
 
         @Override
@@ -86,7 +145,7 @@ public class AtlasUtil {
         public Integer nextFrameIndex() {
             MappedAnimDesc anim = anims.get(nextAnimIndex - 1);
             if (nextFrameIndex < anim.getIds().size()) {
-                return imageIds.indexOf(anim.getIds().get(nextFrameIndex++));
+                return imageIndices.getOrDefault(anim.getIds().get(nextFrameIndex++), -1);
             }
             return null;
         }
@@ -156,15 +215,43 @@ public class AtlasUtil {
         List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
 
         for (IResource resource : resources) {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
-            if (image == null) {
-                throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
-            }
-            images.add(image);
+            images.add(loadImage(resource));
         }
         return images;
     }
 
+    /**
+     * Load images through the decoded image cache, decoding the images that
+     * aren't cached in parallel using the worker pool
+     */
+    public static List<DecodedImage> loadImages(List<IResource> resources, BuildCache<String, DecodedImage> imageCache, WorkerPool workerPool) throws IOException, CompileExceptionError {
+        try {
+            return workerPool.map(resources.size(), i -> {
+                IResource resource = resources.get(i);
+                DecodedImage image;
+                try {
+                    image = DecodedImage.get(imageCache, resource);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (image == null) {
+                    throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+                }
+                return image;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static BufferedImage loadImage(IResource resource) throws IOException, CompileExceptionError {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
+        if (image == null) {
+            throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+        }
+        return image;
+    }
+
     private interface PathTransformer {
         String transform(String path);
     }
@@ -214,7 +301,13 @@ public class AtlasUtil {
             imageHullSizes.add(spriteTrimModeToInt(image.getSpriteTrimMode()));
         }
         List<IResource> imageResources = toResources(atlasResource, imagePaths);
-        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
+        WorkerPool workerPool = project.getWorkerPool();
+        List<DecodedImage> decodedImages = AtlasUtil.loadImages(imageResources, project.getDecodedImageCache(), workerPool);
+        List<BufferedImage> images = new ArrayList<BufferedImage>(decodedImages.size());
+        for (DecodedImage image : decodedImages) {
+            images.add(image.getImage());
+        }
+        List<SpriteGeometry> imageHulls = workerPool.map(decodedImages.size(), i -> decodedImages.get(i).getConvexHull(imageHullSizes.get(i)));
         PathTransformer transformer = new PathTransformer() {
             @Override
             public String transform(String path) {
@@ -228,13 +321,15 @@ public class AtlasUtil {
         }
 
         MappedAnimIterator iterator = new MappedAnimIterator(animDescs, imagePaths);
+        ResourceCache resourceCache = project.getResourceCache();
+        ResourceLayoutCache layoutCache = resourceCache.isCacheEnabled() ? new ResourceLayoutCache(resourceCache) : null;
         try {
-            TextureSetResult result = TextureSetGenerator.generate(images, imageHullSizes, imagePaths, iterator,
+            TextureSetResult result = TextureSetGenerator.generate(images, imageHullSizes, imageHulls, imagePaths, iterator,
                 Math.max(0, atlas.getMargin()),
                 Math.max(0, atlas.getInnerPadding()),
                 Math.max(0, atlas.getExtrudeBorders()),
                 true, false, null,
-                atlas.getMaxPageWidth(), atlas.getMaxPageHeight());
+                atlas.getMaxPageWidth(), atlas.getMaxPageHeight(), workerPool, layoutCache);
 
             TimeProfiler.stop();
             return result;
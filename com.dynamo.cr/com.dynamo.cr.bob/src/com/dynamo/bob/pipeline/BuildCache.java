@@ -0,0 +1,224 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Build scoped cache of values that are expensive to create and are used by
+ * several builders, such as decoded images and parsed scenes. Each value is
+ * created only once per build, no matter how many builders and threads use
+ * it. Values are usually keyed on the SHA1 of the resource content, see
+ * getContentKey().
+ *
+ * The cache holds the most recently used values up to a maximum size, where
+ * the size of a value is estimated by the Sizer of the cache. Cached values
+ * are shared between builders and threads and must not be modified.
+ */
+public class BuildCache<K, V> {
+
+    /**
+     * Creates a value that isn't cached
+     */
+    public interface Loader<V, E extends Exception> {
+        /**
+         * @return the value, or null if there is none. null is not cached
+         */
+        V load() throws E;
+    }
+
+    /**
+     * Estimates the memory used by a value
+     */
+    public interface Sizer<V> {
+        /**
+         * @return size of the value in bytes
+         */
+        long getSize(V value);
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long size;
+
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private final String name;
+    private final Sizer<V> sizer;
+    // Values by key, in least recently used order
+    private final LinkedHashMap<K, Entry<V>> values = new LinkedHashMap<>(64, 0.75f, true);
+    // Values currently being loaded, so that each value is only loaded once
+    private final Map<K, FutureTask<Entry<V>>> pending = new HashMap<>();
+    private long size = 0;
+    private long maxSize;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param name name of the cache, used when logging
+     * @param maxSize maximum size in bytes of the cached values, 0 to not keep any values
+     * @param sizer estimates the size of the values
+     */
+    public BuildCache(String name, long maxSize, Sizer<V> sizer) {
+        this.name = name;
+        this.maxSize = Math.max(0, maxSize);
+        this.sizer = sizer;
+    }
+
+    /**
+     * Get a key for a value created from the content of a resource
+     * @param resource the resource
+     * @return SHA1 of the resource content as a hex string
+     */
+    public static String getContentKey(IResource resource) throws IOException {
+        return String.format("%040x", new BigInteger(1, resource.sha1()));
+    }
+
+    /**
+     * Get a value, loading it if it isn't cached. If another thread is
+     * loading the same value the call waits for it to finish. Values that
+     * fail to load are not cached.
+     * @param key key of the value
+     * @param loader creates the value if it isn't cached
+     * @return the value, or null if the loader returned null
+     */
+    public <E extends Exception> V get(K key, Loader<V, E> loader) throws E, IOException {
+        FutureTask<Entry<V>> task;
+        boolean load = false;
+        synchronized (this) {
+            Entry<V> entry = values.get(key);
+            if (entry != null) {
+                ++hits;
+                return entry.value;
+            }
+            ++misses;
+            task = pending.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> load(key, loader));
+                pending.put(key, task);
+                load = true;
+            }
+        }
+
+        if (load) {
+            task.run();
+        }
+        try {
+            Entry<V> entry = task.get();
+            return entry != null ? entry.value : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + key, e);
+        } catch (ExecutionException e) {
+            throw BuildCache.<E>rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Set the maximum size of the cached values. Values are evicted in least
+     * recently used order.
+     * @param maxSize maximum size in bytes, 0 to not keep any values
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        evict();
+    }
+
+    /**
+     * Remove all values from the cache
+     */
+    public synchronized void clear() {
+        values.clear();
+        size = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private <E extends Exception> Entry<V> load(K key, Loader<V, E> loader) throws E {
+        Entry<V> entry = null;
+        try {
+            V value = loader.load();
+            if (value != null) {
+                entry = new Entry<>(value, sizer.getSize(value));
+            }
+            return entry;
+        } finally {
+            synchronized (this) {
+                pending.remove(key);
+                if (entry != null) {
+                    put(key, entry);
+                }
+            }
+        }
+    }
+
+    private void put(K key, Entry<V> entry) {
+        if (maxSize == 0 || entry.size > maxSize) {
+            return;
+        }
+        Entry<V> previous = values.put(key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry<V>> it = values.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().size;
+            it.remove();
+        }
+    }
+
+    // Loaders only throw E or unchecked exceptions
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E rethrow(Throwable cause) throws E {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw (E) cause;
+    }
+}
@@ -64,9 +64,11 @@ import org.jagatoo.loaders.models.collada.stax.XMLController;
 import org.jagatoo.loaders.models.collada.stax.XMLGeometry;
 import org.jagatoo.loaders.models.collada.stax.XMLInput;
 import org.jagatoo.loaders.models.collada.stax.XMLInstanceGeometry;
+import org.jagatoo.loaders.models.collada.stax.XMLIntArray;
 import org.jagatoo.loaders.models.collada.stax.XMLLibraryAnimationClips;
 import org.jagatoo.loaders.models.collada.stax.XMLLibraryAnimations;
 import org.jagatoo.loaders.models.collada.stax.XMLLibraryControllers;
+import org.jagatoo.loaders.models.collada.stax.XMLLibraryGeometries;
 import org.jagatoo.loaders.models.collada.stax.XMLMesh;
 import org.jagatoo.loaders.models.collada.stax.XMLSampler;
 import org.jagatoo.loaders.models.collada.stax.XMLNode;
@@ -77,6 +79,7 @@ import org.jagatoo.loaders.models.collada.stax.XMLAsset.UpAxis;
 import org.jagatoo.loaders.models.collada.stax.XMLVisualSceneExtra;
 import org.jagatoo.loaders.models.collada.datastructs.animation.Bone;
 
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.MurmurHash;
@@ -185,13 +188,93 @@ public class ColladaUtil {
 
     public static XMLCOLLADA loadDAE(InputStream is) throws IOException, XMLStreamException, LoaderException {
         XMLInputFactory factory = XMLInputFactory.newInstance();
-        factory.setProperty("javax.xml.stream.isCoalescing", true);
+        // Not coalescing, so that large arrays are read in chunks instead of as one string
+        factory.setProperty("javax.xml.stream.isCoalescing", false);
         XMLStreamReader stream_reader = factory.createXMLStreamReader(is);
         XMLCOLLADA collada = new XMLCOLLADA();
         collada.parse(stream_reader);
         return collada;
     }
 
+    /**
+     * Get a parsed scene through a cache, parsing it if it isn't cached.
+     * Scenes are keyed on the resource content and must not be modified.
+     * @param resource .dae resource
+     * @param cache the cache
+     * @return the parsed scene
+     */
+    public static XMLCOLLADA loadDAE(IResource resource, BuildCache<String, XMLCOLLADA> cache) throws IOException, XMLStreamException, LoaderException {
+        try {
+            return cache.get(BuildCache.getContentKey(resource), () -> loadDAE(new ByteArrayInputStream(resource.getContent())));
+        } catch (IOException | XMLStreamException | LoaderException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Not thrown by loadDAE
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Estimate the memory used by a parsed scene, from the arrays of the
+     * geometries, controllers and animations
+     * @param collada the scene
+     * @return size in bytes
+     */
+    public static long getSize(XMLCOLLADA collada) {
+        long size = 0;
+        for (XMLLibraryGeometries library : collada.libraryGeometries) {
+            for (XMLGeometry geometry : library.geometries.values()) {
+                if (geometry.mesh != null) {
+                    size += getSize(geometry.mesh.sources);
+                    if (geometry.mesh.triangles != null && geometry.mesh.triangles.p != null) {
+                        size += geometry.mesh.triangles.p.length * 4L;
+                    }
+                }
+            }
+        }
+        for (XMLLibraryControllers library : collada.libraryControllers) {
+            for (XMLController controller : library.controllers.values()) {
+                if (controller.skin != null) {
+                    size += getSize(controller.skin.sources);
+                    if (controller.skin.vertexWeights != null) {
+                        size += getSize(controller.skin.vertexWeights.vcount);
+                        size += getSize(controller.skin.vertexWeights.v);
+                    }
+                }
+            }
+        }
+        for (XMLLibraryAnimations library : collada.libraryAnimations) {
+            for (XMLAnimation animation : library.animations.values()) {
+                size += getSize(animation.sources);
+            }
+        }
+        return size;
+    }
+
+    private static long getSize(List<XMLSource> sources) {
+        long size = 0;
+        for (XMLSource source : sources) {
+            if (source.floatArray != null && source.floatArray.floats != null) {
+                size += source.floatArray.floats.length * 4L;
+            }
+            size += getSize(source.intArray);
+            if (source.nameArray != null && source.nameArray.names != null) {
+                for (String name : source.nameArray.names) {
+                    // Estimated object overhead of a string
+                    size += 40 + name.length() * 2L;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long getSize(XMLIntArray array) {
+        if (array == null || array.ints == null) {
+            return 0;
+        }
+        return array.ints.length * 4L;
+    }
+
     public static boolean load(InputStream is, Rig.MeshSet.Builder meshSetBuilder, Rig.AnimationSet.Builder animationSetBuilder, Rig.Skeleton.Builder skeletonBuilder) throws IOException, XMLStreamException, LoaderException {
         XMLCOLLADA collada = loadDAE(is);
         loadMesh(collada, meshSetBuilder, true, false);
@@ -603,18 +686,6 @@ public class ColladaUtil {
         return null;
     }
 
-    private static float[] toFloatArray(List<Float> a) {
-        float[] floatArray = new float[a.size()];
-        for (int i = 0 ; i < a.size(); i++) {
-            floatArray[i] = (float) a.get(i);
-        }
-        return floatArray;
-    }
-
-    private static int[] toIntArray(List<Integer> a) {
-        return a.stream().mapToInt(x -> x).toArray();
-    }
-
     private static ModelImporter.Aabb calcAabb(float[] positions) {
         ModelImporter.Aabb aabb = new ModelImporter.Aabb();
         for (int i = 0; i < positions.length; i += 3) {
@@ -623,46 +694,58 @@ public class ColladaUtil {
         return aabb;
     }
 
-    private static ModelImporter.Mesh createModelImporterMesh(List<Float> position_list,
-                                                              List<Float> normal_list,
-                                                              List<Float> texcoord_list,
-                                                              List<Float> bone_weights_list,
-                                                              List<Integer> bone_indices_list,
-                                                              List<Integer> mesh_index_list,
+    private static ModelImporter.Mesh createModelImporterMesh(float[] positions,
+                                                              float[] normals,
+                                                              float[] texcoords,
+                                                              float[] bone_weights,
+                                                              int[] bone_indices,
+                                                              int[] mesh_indices,
                                                               ModelImporter.Material material) {
         ModelImporter.Mesh mesh = new ModelImporter.Mesh();
         mesh.name = "";
         mesh.material = material;
 
-        mesh.positions = toFloatArray(position_list);
-        if (normal_list.size() > 0)
-            mesh.normals = toFloatArray(normal_list);
+        mesh.positions = positions;
+        if (normals.length > 0)
+            mesh.normals = normals;
 
         mesh.aabb = calcAabb(mesh.positions);
 
         mesh.tangents = null;
         mesh.colors = null;
 
-        if (bone_weights_list.size() > 0)
-            mesh.weights = toFloatArray(bone_weights_list);
-        if (bone_indices_list.size() > 0)
-            mesh.bones = toIntArray(bone_indices_list);
+        if (bone_weights.length > 0)
+            mesh.weights = bone_weights;
+        if (bone_indices.length > 0)
+            mesh.bones = bone_indices;
 
         mesh.texCoords0NumComponents = 2;
-        if (texcoord_list.size() > 0)
-            mesh.texCoords0 = toFloatArray(texcoord_list);
+        if (texcoords.length > 0)
+            mesh.texCoords0 = texcoords;
         mesh.texCoords1NumComponents = 0; // 2 or 3
         mesh.texCoords1 = null;
 
-        if (mesh_index_list.size() > 0)
-            mesh.indices = toIntArray(mesh_index_list);
+        if (mesh_indices.length > 0)
+            mesh.indices = mesh_indices;
 
-        mesh.vertexCount = position_list.size() / 3;
-        mesh.indexCount = mesh_index_list.size();
+        mesh.vertexCount = positions.length / 3;
+        mesh.indexCount = mesh_indices.length;
 
         return mesh;
     }
 
+    // fnv 32 bit hash of the attribute indices of a vertex
+    private static int vertexHash(int position, int texcoord0, int normal) {
+        int result = 0x811c9dc5;
+        result ^= position;
+        result *= 0x01000193;
+        result ^= texcoord0;
+        result *= 0x01000193;
+        result ^= normal;
+        result *= 0x01000193;
+        return result;
+    }
+
     public static void loadMesh(XMLCOLLADA collada, Rig.MeshSet.Builder meshSetBuilder, boolean optimize, boolean splitMeshes) throws IOException, XMLStreamException, LoaderException {
         if (collada.libraryGeometries.size() != 1) {
             if (collada.libraryGeometries.isEmpty()) {
@@ -768,13 +851,14 @@ public class ColladaUtil {
         assetSpaceMtx.mul(assetSpace.rotation, assetScaleMtx);
         bindShapeMatrix.mul(assetSpaceMtx, bindShapeMatrix);
 
-        List<Float> position_list = new ArrayList<Float>(positions.floatArray.count);
-        for (int i = 0; i < positions.floatArray.count / 3; ++i) {
+        int position_count = positions.floatArray.count / 3;
+        float[] position_list = new float[position_count * 3];
+        for (int i = 0; i < position_count; ++i) {
             Point3f p = new Point3f(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
             bindShapeMatrix.transform(p);
-            position_list.add(p.getX());
-            position_list.add(p.getY());
-            position_list.add(p.getZ());
+            position_list[i*3+0] = p.getX();
+            position_list[i*3+1] = p.getY();
+            position_list[i*3+2] = p.getZ();
         }
 
         // Create a normal matrix which is the transposed inverse of
@@ -783,35 +867,38 @@ public class ColladaUtil {
         normalMatrix.invert();
         normalMatrix.transpose();
 
-        List<Float> normal_list = new ArrayList<Float>();
+        float[] normal_list = new float[0];
         if(normals != null) {
-            normal_list = new ArrayList<Float>(normals.floatArray.count);
-            for (int i = 0; i < normals.floatArray.count / 3; ++i) {
+            int normal_count = normals.floatArray.count / 3;
+            normal_list = new float[normal_count * 3];
+            for (int i = 0; i < normal_count; ++i) {
                 Vector3f n = new Vector3f(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
                 normalMatrix.transform(n);
                 if (n.lengthSquared() > 0.0) {
                     n.normalize();
                 }
-                normal_list.add(n.getX());
-                normal_list.add(n.getY());
-                normal_list.add(n.getZ());
+                normal_list[i*3+0] = n.getX();
+                normal_list[i*3+1] = n.getY();
+                normal_list[i*3+2] = n.getZ();
             }
         }
 
-        List<Float> texcoord_list;
+        float[] texcoord_list;
         if(texcoords == null) {
-            texcoord_list = new ArrayList<Float>(Arrays.asList(0f, 0f));
+            texcoord_list = new float[] {0f, 0f};
         } else {
-            texcoord_list = new ArrayList<Float>(texcoords.floatArray.count);
-            for (int i = 0; i < texcoords.floatArray.count; i += 2 ) {
-                texcoord_list.add(texcoords.floatArray.floats[i]);
-                texcoord_list.add(texcoords.floatArray.floats[i+1]);
+            int texcoord_count = (texcoords.floatArray.count + 1) / 2;
+            texcoord_list = new float[texcoord_count * 2];
+            for (int i = 0; i < texcoord_count; ++i) {
+                texcoord_list[i*2+0] = texcoords.floatArray.floats[i*2];
+                texcoord_list[i*2+1] = texcoords.floatArray.floats[i*2+1];
             }
         }
 
-        List<Integer> position_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> normal_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> texcoord_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        int index_count = mesh.triangles.count*3;
+        int[] position_indices_list = new int[index_count];
+        int[] normal_indices_list = new int[normals != null ? index_count : 0];
+        int[] texcoord_indices_list = new int[index_count];
 
         // Sometimes the <p> values can be -1 from Maya exports, we clamp it below to 0 instead.
         // Similar solution as AssImp; https://github.com/assimp/assimp/blob/master/code/ColladaParser.cpp#L2336
@@ -820,124 +907,100 @@ public class ColladaUtil {
             for (int j = 0; j < 3; ++j) {
                 int idx = i * stride * 3 + vertex_input.offset;
                 int vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                position_indices_list.add(vert_idx);
+                position_indices_list[i*3+j] = vert_idx;
 
                 if (normals != null) {
                     idx = i * stride * 3 + normalOffset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    normal_indices_list.add(vert_idx);
+                    normal_indices_list[i*3+j] = vert_idx;
                 }
 
                 if (texcoords == null) {
-                    texcoord_indices_list.add(0);
+                    texcoord_indices_list[i*3+j] = 0;
                 } else {
                     idx = i * stride * 3 + texcoord_input.offset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    texcoord_indices_list.add(vert_idx);
+                    texcoord_indices_list[i*3+j] = vert_idx;
                 }
 
             }
 
         }
 
-        class MeshVertexIndex {
-            public int position, texcoord0, normal;
-
-            @Override
-            public final int hashCode() { // fnv 32 bit hash
-                int result = 0x811c9dc5;
-                result ^= position;
-                result *= 0x01000193;
-                result ^= texcoord0;
-                result *= 0x01000193;
-                result ^= normal;
-                result *= 0x01000193;
-                return result;
-            }
-        }
-
         long tstart = System.currentTimeMillis();
         TimeProfiler.start();
         TimeProfiler.addData("optimizeVertices", "Colladautil");
 
         // Build an optimized list of triangles from indices and instance (make unique) any vertices common attributes (position, normal etc.).
         // We can then use this to quickly build am optimized indexed vertex buffer of any selected vertex elements in run-time without any sorting.
-        boolean mesh_has_normals = normal_indices_list.size() > 0;
-        List<MeshVertexIndex> shared_vertex_indices = new ArrayList<MeshVertexIndex>(mesh.triangles.count*3);
+        // The attribute indices of the unique vertices are stored in shared_vertex_indices as [position, texcoord0, normal].
+        boolean mesh_has_normals = normal_indices_list.length > 0;
+        int[] shared_vertex_indices = new int[index_count * 3];
+        int vertex_count = 0;
         Map<Integer, Integer> shared_vertex_index_map = new HashMap<>();
 
-        List<Integer> mesh_index_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        for (int i = 0; i < mesh.triangles.count*3; ++i) {
-            MeshVertexIndex ci = new MeshVertexIndex();
-            ci.position = position_indices_list.get(i);
-            ci.texcoord0 = texcoord_indices_list.get(i);
-            ci.normal = mesh_has_normals ? normal_indices_list.get(i) : 0;
-            int index = optimize ? (int)shared_vertex_index_map.getOrDefault(ci.hashCode(), -1) : -1;
+        int[] mesh_index_list = new int[index_count];
+        for (int i = 0; i < index_count; ++i) {
+            int position = position_indices_list[i];
+            int texcoord0 = texcoord_indices_list[i];
+            int normal = mesh_has_normals ? normal_indices_list[i] : 0;
+            int hash = vertexHash(position, texcoord0, normal);
+            int index = optimize ? (int)shared_vertex_index_map.getOrDefault(hash, -1) : -1;
             if(index == -1) {
                 // create new vertex as this is not equal to any existing in generated list
-                index = shared_vertex_indices.size();
-                mesh_index_list.add(index);
-                shared_vertex_indices.add(ci);
-                shared_vertex_index_map.put(ci.hashCode(), index);
-            } else {
-                // shared vertex, add index to existing vertex in generating list instead of adding new
-                mesh_index_list.add(index);
+                index = vertex_count++;
+                shared_vertex_indices[index*3+0] = position;
+                shared_vertex_indices[index*3+1] = texcoord0;
+                shared_vertex_indices[index*3+2] = normal;
+                shared_vertex_index_map.put(hash, index);
             }
+            // shared vertex, add index to existing vertex in generating list instead of adding new
+            mesh_index_list[i] = index;
         }
 
         TimeProfiler.stop();
         long tend = System.currentTimeMillis();
-        logger.fine("ColladaUtil: Creating %d vertices (optimize: %s) took %f s", shared_vertex_indices.size(), optimize?"on":"off", (tend-tstart)/1000.0);
-
-        int vertex_count = shared_vertex_indices.size();
+        logger.fine("ColladaUtil: Creating %d vertices (optimize: %s) took %f s", vertex_count, optimize?"on":"off", (tend-tstart)/1000.0);
 
-        ArrayList<Integer> bone_indices_list = new ArrayList<Integer>(vertex_count*4);
-        ArrayList<Float> bone_weights_list = new ArrayList<Float>(vertex_count*4);
-        int max_bone_count = loadVertexWeights(collada, bone_weights_list, bone_indices_list);
+        VertexWeights vertexWeights = loadVertexWeights(collada);
+        int max_bone_count = vertexWeights.maxBoneCount;
+        int[] bone_indices_list = vertexWeights.boneIndices;
+        float[] bone_weights_list = vertexWeights.boneWeights;
 
         // Bake the values again into our format
-        Float baked_position_list[] = new Float[vertex_count*3];
-        Float baked_normal_list[] = new Float[0];
-        Float baked_texcoord_list[] = new Float[0];
-        Integer baked_bone_indices_list[] = new Integer[0];
-        Float baked_bone_weights_list[] = new Float[0];
-
-        if (normal_list.size() > 0) {
-            baked_normal_list = new Float[vertex_count*3];
-        }
-        if (texcoord_list.size() > 0) {
-            baked_texcoord_list = new Float[vertex_count*2];
-        }
-        if (bone_indices_list.size() > 0) {
-            baked_bone_indices_list = new Integer[vertex_count*4];
-            baked_bone_weights_list = new Float[vertex_count*4];
-        }
+        float[] baked_position_list = new float[vertex_count*3];
+        float[] baked_normal_list = new float[normal_list.length > 0 ? vertex_count*3 : 0];
+        float[] baked_texcoord_list = new float[texcoord_list.length > 0 ? vertex_count*2 : 0];
+        int[] baked_bone_indices_list = new int[bone_indices_list.length > 0 ? vertex_count*4 : 0];
+        float[] baked_bone_weights_list = new float[bone_indices_list.length > 0 ? vertex_count*4 : 0];
 
-        for (int index : mesh_index_list) {
-            MeshVertexIndex ci = shared_vertex_indices.get(index);
+        for (int index = 0; index < vertex_count; ++index) {
+            int position = shared_vertex_indices[index*3+0];
+            int texcoord0 = shared_vertex_indices[index*3+1];
+            int normal = shared_vertex_indices[index*3+2];
 
             for (int c = 0; c < 3; ++c)
             {
-                baked_position_list[index*3+c] = position_list.get(ci.position*3+c);
-                if (normal_list.size() > 0)
-                    baked_normal_list[index*3+c] = normal_list.get(ci.normal*3+c);
+                baked_position_list[index*3+c] = position_list[position*3+c];
+                if (normal_list.length > 0)
+                    baked_normal_list[index*3+c] = normal_list[normal*3+c];
             }
 
-            if (texcoord_list.size() > 0)
+            if (texcoord_list.length > 0)
             {
                 for (int c = 0; c < 2; ++c)
                 {
-                    baked_texcoord_list[index*2+c] = texcoord_list.get(ci.texcoord0*2+c);
+                    baked_texcoord_list[index*2+c] = texcoord_list[texcoord0*2+c];
                 }
             }
 
-            if (bone_indices_list.size() > 0)
+            if (bone_indices_list.length > 0)
             {
                 // For the bones we use the index of the position
                 for (int c = 0; c < 4; ++c)
                 {
-                    baked_bone_indices_list[index*4+c] = bone_indices_list.get(ci.position*4+c);
-                    baked_bone_weights_list[index*4+c] = bone_weights_list.get(ci.position*4+c);
+                    baked_bone_indices_list[index*4+c] = bone_indices_list[position*4+c];
+                    baked_bone_weights_list[index*4+c] = bone_weights_list[position*4+c];
                 }
             }
         }
@@ -947,11 +1010,11 @@ public class ColladaUtil {
         ModelImporter.Material material = new ModelImporter.Material();
 
         List<ModelImporter.Mesh> allMeshes = new ArrayList<>();
-        ModelImporter.Mesh miMesh = createModelImporterMesh(new ArrayList<>(Arrays.asList(baked_position_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_normal_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_texcoord_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_bone_weights_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_bone_indices_list)),
+        ModelImporter.Mesh miMesh = createModelImporterMesh(baked_position_list,
+                                                            baked_normal_list,
+                                                            baked_texcoord_list,
+                                                            baked_bone_weights_list,
+                                                            baked_bone_indices_list,
                                                             mesh_index_list,
                                                             material);
 
@@ -1367,14 +1430,23 @@ public class ColladaUtil {
         return null;
     }
 
-    private static int loadVertexWeights(XMLCOLLADA collada, List<Float> boneWeightsList, List<Integer> boneIndicesList) throws IOException, XMLStreamException, LoaderException {
+    // Bone influences of the vertices, 4 per vertex
+    private static class VertexWeights {
+        float[] boneWeights = new float[0];
+        int[] boneIndices = new int[0];
+        int maxBoneCount = 0;
+    }
+
+    private static VertexWeights loadVertexWeights(XMLCOLLADA collada) throws IOException, XMLStreamException, LoaderException {
+
+        VertexWeights vertexWeights = new VertexWeights();
 
         XMLSkin skin = null;
         if (!collada.libraryControllers.isEmpty()) {
             skin = findFirstSkin(collada.libraryControllers.get(0));
         }
         if(skin == null) {
-            return 0;
+            return vertexWeights;
         }
 
         List<XMLSource> sources = skin.sources;
@@ -1384,6 +1456,9 @@ public class ColladaUtil {
         XMLSource weightsSource = sourcesMap.get(weights_input.source);
         Vector<Weight> weights = new Vector<Weight>(10);
         int maxBoneCount = 0;
+        float[] boneWeights = new float[skin.vertexWeights.vcount.ints.length * 4];
+        int[] boneIndices = new int[skin.vertexWeights.vcount.ints.length * 4];
+        int boneCount = 0;
 
         int vIndex = 0;
         for ( int i = 0; i < skin.vertexWeights.vcount.ints.length; i++ )
@@ -1417,9 +1492,10 @@ public class ColladaUtil {
             influenceCount = weights.size();
 
             for (Weight w : weights) {
-                boneIndicesList.add(w.boneIndex);
+                boneIndices[boneCount] = w.boneIndex;
                 maxBoneCount = Math.max(maxBoneCount, w.boneIndex + 1);
-                boneWeightsList.add(w.weight);
+                boneWeights[boneCount] = w.weight;
+                ++boneCount;
             }
         }
 
@@ -1451,14 +1527,17 @@ public class ColladaUtil {
         }
 
         // Convert to bone indices
-        for (int i = 0; i < boneIndicesList.size(); ++i)
+        for (int i = 0; i < boneIndices.length; ++i)
         {
-            int oldIndex = boneIndicesList.get(i);
+            int oldIndex = boneIndices[i];
             int newIndex = toBoneIndex.get(oldIndex);
-            boneIndicesList.set(i, newIndex);
+            boneIndices[i] = newIndex;
         }
 
-        return maxBoneCount;
+        vertexWeights.boneWeights = boneWeights;
+        vertexWeights.boneIndices = boneIndices;
+        vertexWeights.maxBoneCount = maxBoneCount;
+        return vertexWeights;
     }
 
     // ************************************************************
@@ -15,7 +15,6 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.EnumSet;
 
@@ -62,6 +61,7 @@ public class CubemapBuilder extends Builder<Void> {
         String textureProfilesPath = this.project.getProjectProperties().getStringValue("graphics", "texture_profiles");
         if (textureProfilesPath != null) {
             taskBuilder.addInput(this.project.getResource(textureProfilesPath));
+            taskBuilder.addExtraCacheKey(TextureUtil.getTextureProfilePlatformsCacheKey(this.project));
         }
 
         return taskBuilder.build();
@@ -93,7 +93,7 @@ public class CubemapBuilder extends Builder<Void> {
 
 
                 // NOTE: Setting the same input for more than one side will cause a NPE when generating!
-                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class));
+                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class), project.getWorkerPool());
                 textures[i] = texture;
             }
             validate(task, textures);
@@ -102,10 +102,8 @@ public class CubemapBuilder extends Builder<Void> {
         }
 
         TextureImage texture = TextureUtil.createCombinedTextureImage(textures, Type.TYPE_CUBEMAP);
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
-        texture.writeTo(out);
-        out.close();
-        task.output(0).setContent(out.toByteArray());
+        // serialized straight into an array of the exact size
+        task.output(0).setContent(texture.toByteArray());
     }
 
     private void validate(Task<Void> task, TextureImage[] textures) throws CompileExceptionError {
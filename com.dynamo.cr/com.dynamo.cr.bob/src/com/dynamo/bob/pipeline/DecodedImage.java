@@ -0,0 +1,129 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.textureset.TextureSetGenerator;
+import com.dynamo.gamesys.proto.TextureSetProto.SpriteGeometry;
+
+/**
+ * An image decoded to TYPE_4BYTE_ABGR, together with the properties of the
+ * original image that the builders depend on. The same image is often used by
+ * several atlases, tile sources and textures, and is decoded only once per
+ * build through the project's decoded image cache.
+ */
+public class DecodedImage {
+    private final BufferedImage image;
+    private final int componentCount;
+    private final Raster alphaRaster;
+    private final long size;
+    private final Map<Integer, SpriteGeometry> convexHulls = new ConcurrentHashMap<>();
+
+    DecodedImage(BufferedImage origImage) {
+        ColorModel colorModel = origImage.getColorModel();
+        this.componentCount = colorModel.getNumComponents();
+        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+            this.image = TextureGenerator.convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
+        } else {
+            this.image = origImage;
+        }
+        long size = (long) image.getWidth() * image.getHeight() * 4;
+
+        // The convex hull is calculated from the alpha of the original image.
+        // Images without an alpha raster (e.g. indexed images) get a rect, and
+        // alpha with more than 8 bits can't be reduced to 8 bits without
+        // changing which pixels are transparent
+        Raster origAlphaRaster = origImage.getAlphaRaster();
+        if (origAlphaRaster == null) {
+            this.alphaRaster = null;
+        } else if (image == origImage || colorModel.getComponentSize(componentCount - 1) <= 8) {
+            this.alphaRaster = image.getAlphaRaster();
+        } else {
+            this.alphaRaster = origAlphaRaster;
+            size += origAlphaRaster.getDataBuffer().getSize() * 2L;
+        }
+        this.size = size;
+    }
+
+    /**
+     * Get a decoded image through a cache, decoding it if it isn't cached.
+     * Images are keyed on the resource content.
+     * @param cache the cache
+     * @param resource image resource
+     * @return the decoded image, or null if the resource doesn't exist or isn't a supported image
+     */
+    public static DecodedImage get(BuildCache<String, DecodedImage> cache, IResource resource) throws IOException {
+        if (!resource.exists()) {
+            return null;
+        }
+        return cache.get(BuildCache.getContentKey(resource), () -> decode(resource));
+    }
+
+    /**
+     * Decode an image without caching it
+     * @param resource image resource
+     * @return the decoded image, or null if the resource isn't a supported image
+     */
+    public static DecodedImage decode(IResource resource) throws IOException {
+        BufferedImage origImage = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
+        if (origImage == null) {
+            return null;
+        }
+        return new DecodedImage(origImage);
+    }
+
+    /**
+     * @return the image as TYPE_4BYTE_ABGR. Must not be modified
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return number of color components of the original image
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Get the convex hull of the image. Hulls are calculated once per
+     * hull vertex count.
+     * @param hullVertexCount maximum number of vertices of the hull
+     * @return the hull geometry
+     * @see TextureSetGenerator#buildConvexHull(BufferedImage, int)
+     */
+    public SpriteGeometry getConvexHull(int hullVertexCount) {
+        return convexHulls.computeIfAbsent(hullVertexCount,
+                count -> TextureSetGenerator.buildConvexHull(image.getWidth(), image.getHeight(), alphaRaster, count));
+    }
+
+    /**
+     * @return size in bytes of the pixel data
+     */
+    public long getSize() {
+        return size;
+    }
+}
@@ -27,6 +27,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -257,6 +260,24 @@ public class ExtenderUtil {
 		public void setContent(InputStream stream) throws IOException {
 		}
 
+		@Override
+		public ByteBuffer getContentBuffer() throws IOException {
+			return ByteBuffer.allocate(0);
+		}
+
+		@Override
+		public void setContent(ByteBuffer content) throws IOException {
+		}
+
+		@Override
+		public void writeFrom(ReadableByteChannel channel) throws IOException {
+		}
+
+		@Override
+		public long transferTo(WritableByteChannel channel) throws IOException {
+			return 0;
+		}
+
 		@Override
 		public long getLastModified() {
 	        return new File(rootDir).lastModified();
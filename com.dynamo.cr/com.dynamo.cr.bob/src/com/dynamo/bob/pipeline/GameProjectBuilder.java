@@ -32,7 +32,6 @@ import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -46,7 +45,6 @@ import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.CopyCustomResourcesBuilder;
-import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.ProtoBuilder;
 import com.dynamo.bob.Task;
@@ -61,9 +59,8 @@ import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.util.ComponentsCounter;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.util.TimeProfiler;
-import com.dynamo.graphics.proto.Graphics.PlatformProfile;
-import com.dynamo.graphics.proto.Graphics.TextureProfile;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
@@ -159,36 +156,11 @@ public class GameProjectBuilder extends Builder<Void> {
             // If Bob is building for a specific platform, we need to
             // filter out any platform entries not relevant to the target platform.
             // (i.e. we don't want win32 specific profiles lingering in android bundles)
-            String targetPlatform = project.option("platform", "");
-
-            List<TextureProfile> newProfiles = new LinkedList<TextureProfile>();
-            for (int i = 0; i < texProfilesBuilder.getProfilesCount(); i++) {
-
-                TextureProfile profile = texProfilesBuilder.getProfiles(i);
-                TextureProfile.Builder profileBuilder = TextureProfile.newBuilder();
-                profileBuilder.mergeFrom(profile);
-                profileBuilder.clearPlatforms();
-
-                // Take only the platforms that matches the target platform
-                for (PlatformProfile platformProfile : profile.getPlatformsList()) {
-                    if (Platform.matchPlatformAgainstOS(targetPlatform, platformProfile.getOs())) {
-                        profileBuilder.addPlatforms(platformProfile);
-                    }
-                }
-
-                newProfiles.add(profileBuilder.build());
-            }
-
-            // Update profiles list with new filtered one
-            // Now it should only contain profiles with platform entries
-            // relevant for the target platform...
-            texProfilesBuilder.clearProfiles();
-            texProfilesBuilder.addAllProfiles(newProfiles);
-
+            List<String> targetPlatforms = TextureUtil.getTextureProfilePlatforms(project);
+            TextureProfiles textureProfiles = TextureUtil.filterTextureProfiles(texProfilesBuilder.build(), targetPlatforms);
 
             // Add the current texture profiles to the project, since this
             // needs to be reachedable by the TextureGenerator.
-            TextureProfiles textureProfiles = texProfilesBuilder.build();
             project.setTextureProfiles(textureProfiles);
         }
 
@@ -201,7 +173,7 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, IResource archiveDataOutput, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
         TimeProfiler.start("createArchive");
         logger.info("GameProjectBuilder.createArchive");
         long tstart = System.currentTimeMillis();
@@ -220,6 +192,12 @@ public class GameProjectBuilder extends Builder<Void> {
         }
 
         ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, resourcePadding);
+        archiveBuilder.setMaxThreads(project.getMaxCpuThreads());
+        if (project.option("archive-incremental", "false").equals("true")) {
+            // reuse the payloads from the archive data of the previous build
+            File previousArchiveData = new File(archiveDataOutput.getAbsPath());
+            archiveBuilder.setPayloadCache(new File(previousArchiveData.getPath() + ".payloadcache"), previousArchiveData);
+        }
 
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
@@ -235,6 +213,9 @@ public class GameProjectBuilder extends Builder<Void> {
 
         archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
         manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
+        TimeProfiler.addData("deduplicatedResources", archiveBuilder.getDeduplicatedEntryCount());
+        TimeProfiler.addData("deduplicatedSize", (float) archiveBuilder.getDeduplicatedSize());
+        TimeProfiler.addData("reusedResources", archiveBuilder.getReusedEntryCount());
         archiveIndex.close();
         archiveData.close();
 
@@ -577,7 +558,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
                 RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                createArchive(resources, archiveIndex, archiveData, task.getOutputs().get(2), manifestBuilder, excludedResources, resourcePackDirectory);
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
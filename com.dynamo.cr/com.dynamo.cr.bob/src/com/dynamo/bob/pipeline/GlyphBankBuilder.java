@@ -20,23 +20,64 @@ import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
-
-import java.util.ArrayList;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Task;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.fs.IResource;
 
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
+import com.dynamo.bob.font.Fontc.GlyphCache;
 import com.dynamo.render.proto.Font.GlyphBank;
 import com.dynamo.render.proto.Font.FontDesc;
 
 @BuilderParams(name = "Glyph Bank", inExts = ".glyph_bank", outExt = ".glyph_bankc")
 public class GlyphBankBuilder extends Builder<Void> {
 
+    /**
+     * Glyph cache backed by the local resource cache of the project. Glyphs are keyed
+     * on the content of the font file, the glyph parameters of the font and the code
+     * point, so glyphs are reused when only the characters of a font change. Glyphs
+     * are small and quick to generate, so they are never sent to the remote cache.
+     */
+    static class ResourceGlyphCache implements GlyphCache {
+        private final ResourceCache resourceCache;
+        private final String prefix;
+
+        ResourceGlyphCache(ResourceCache resourceCache, byte[] fontSha1, FontDesc fontDesc) {
+            this.resourceCache = resourceCache;
+            this.prefix = String.format("%040x:%d:%s:", new BigInteger(1, fontSha1), Fontc.GlyphDescToHash(fontDesc), EngineVersion.sha1);
+        }
+
+        String key(int codePoint) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            digest.update((prefix + codePoint).getBytes());
+            return String.format("%040x", new BigInteger(1, digest.digest()));
+        }
+
+        @Override
+        public byte[] get(int codePoint) throws IOException {
+            return resourceCache.getLocal(key(codePoint));
+        }
+
+        @Override
+        public void put(int codePoint, byte[] data) throws IOException {
+            resourceCache.putLocal(key(codePoint), data);
+        }
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
 
@@ -63,6 +104,11 @@ public class GlyphBankBuilder extends Builder<Void> {
         final IResource inputFontFile = BuilderUtil.checkResource(this.project, task.input(0), "font", fontDesc.getFont());
         BufferedInputStream fontStream = new BufferedInputStream(new ByteArrayInputStream(inputFontFile.getContent()));
         Fontc fontc = new Fontc();
+        fontc.setWorkerPool(this.project.getWorkerPool());
+        ResourceCache resourceCache = this.project.getResourceCache();
+        if (resourceCache.isCacheEnabled()) {
+            fontc.setGlyphCache(new ResourceGlyphCache(resourceCache, inputFontFile.sha1(), fontDesc));
+        }
 
         try {
             fontc.compile(fontStream, fontDesc, false, new FontResourceResolver() {
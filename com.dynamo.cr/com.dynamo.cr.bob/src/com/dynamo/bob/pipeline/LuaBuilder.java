@@ -79,10 +79,35 @@ public abstract class LuaBuilder extends Builder<Void> {
 
     private Map<String, LuaScanner> luaScanners = new HashMap();
 
+    // Lua builders may run concurrently, make sure plugins are only scanned once
+    private static synchronized List<ILuaPreprocessor> getLuaPreprocessors() throws CompileExceptionError {
+        if (luaPreprocessors == null) {
+            luaPreprocessors = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
+
+            if (luaPreprocessors == null) {
+                luaPreprocessors = new ArrayList<ILuaPreprocessor>(0);
+            }
+        }
+        return luaPreprocessors;
+    }
+
+    private static synchronized List<ILuaObfuscator> getLuaObfuscators() throws CompileExceptionError {
+        if (luaObfuscators == null) {
+            luaObfuscators = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
+
+            if (luaObfuscators == null) {
+                luaObfuscators = new ArrayList<ILuaObfuscator>(0);
+            }
+        }
+        return luaObfuscators;
+    }
+
     /**
      * Get a LuaScanner instance for a resource
      * This will cache the LuaScanner instance per resource to avoid parsing the
-     * resource more than once
+     * resource more than once. Results are also cached between builds in the
+     * project LuaScannerCache, keyed on the resource content, and on the
+     * path and preprocessor versions when there are preprocessors
      * @param resource The resource to get a LuaScanner for
      * @return A LuaScanner instance
      */
@@ -91,19 +116,20 @@ public abstract class LuaBuilder extends Builder<Void> {
         final String variant = project.option("variant", Bob.VARIANT_RELEASE);
         LuaScanner scanner = luaScanners.get(path);
         if (scanner == null) {
+            final List<ILuaPreprocessor> preprocessors = getLuaPreprocessors();
+            final LuaScannerCache scannerCache = project.getLuaScannerCache();
+            final String cacheKey = LuaScannerCache.createKey(resource.sha1(), path, variant, preprocessors);
+            scanner = scannerCache.get(cacheKey);
+            if (scanner != null) {
+                luaScanners.put(path, scanner);
+                return scanner;
+            }
+
             final byte[] scriptBytes = resource.getContent();
             String script = new String(scriptBytes, "UTF-8");
 
             // Create and run preprocessors if some exists.
-            if (luaPreprocessors == null) {
-                luaPreprocessors = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
-
-                if (luaPreprocessors == null) {
-                    luaPreprocessors = new ArrayList<ILuaPreprocessor>(0);
-                }
-            }
-
-            for (ILuaPreprocessor luaPreprocessor : luaPreprocessors) {
+            for (ILuaPreprocessor luaPreprocessor : preprocessors) {
                 try {
                     script = luaPreprocessor.preprocess(script, path, variant);
                 }
@@ -115,6 +141,7 @@ public abstract class LuaBuilder extends Builder<Void> {
             scanner = new LuaScanner();
             scanner.parse(script);
             luaScanners.put(path, scanner);
+            scannerCache.put(cacheKey, scanner);
         }
         return scanner;
     }
@@ -183,29 +210,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:" or "luac:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    else {
-                        System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit/luac said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throwBytecodeError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 logger.severe("Unexpected interruption", e);
@@ -228,6 +234,31 @@ public abstract class LuaBuilder extends Builder<Void> {
         }
     }
 
+    private void throwBytecodeError(Task<Void> task, String cmdOutput) throws CompileExceptionError {
+        // first delimiter is the executable name "luajit:" or "luac:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    throw new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        else {
+            System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit/luac said.
+        throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     // we use the same chunk name across the board
     // we always use @ + full path
     // if the path is shorter than 60 characters the runtime will show the full path
@@ -297,6 +328,17 @@ public abstract class LuaBuilder extends Builder<Void> {
 
         Bob.initLua(); // unpack the lua resources
 
+        // Prefer the persistent compile server processes, shared by all Lua builders
+        LuaJITCompilerPool compilerPool = project.getLuaJITCompilerPool();
+        LuaJITCompilerPool.Result result = compilerPool.compile(luajitExe, task.input(0).getPath(), source.getBytes());
+        if (result != null) {
+            if (result.getError() != null) {
+                // same format as the errors from the luajit executable
+                throwBytecodeError(task, "luajit: " + result.getError());
+            }
+            return result.getBytecode();
+        }
+
         File outputFile = File.createTempFile("script", ".raw");
         File inputFile = File.createTempFile("script", ".lua");
 
@@ -424,19 +466,11 @@ public abstract class LuaBuilder extends Builder<Void> {
         builder.addAllPropertyResources(propertyResources);
 
         // Create and run obfuscators if some exists.
-        if (luaObfuscators == null) {
-            luaObfuscators = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
-
-            if (luaObfuscators == null) {
-                luaObfuscators = new ArrayList<ILuaObfuscator>(0);
-            }
-        }
-
         final IResource sourceResource = task.input(0);
         final String sourcePath = sourceResource.getAbsPath();
         final String variant = project.option("variant", Bob.VARIANT_RELEASE);
 
-        for (ILuaObfuscator luaObfuscator : luaObfuscators) {
+        for (ILuaObfuscator luaObfuscator : getLuaObfuscators()) {
             try {
                 script = luaObfuscator.obfuscate(script, sourcePath, variant);
             }
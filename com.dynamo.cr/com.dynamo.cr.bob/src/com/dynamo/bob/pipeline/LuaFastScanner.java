@@ -0,0 +1,1255 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+import javax.vecmath.Vector4d;
+
+import com.dynamo.bob.pipeline.LuaScanner.Property;
+import com.dynamo.bob.pipeline.LuaScanner.Property.Status;
+import com.dynamo.gameobject.proto.GameObject.PropertyType;
+
+/**
+ * Fast path for the LuaScanner. Tokenizes the Lua code with a hand-written
+ * lexer and validates it with a recursive descent parser following the rules
+ * of LuaLexer.g4 and LuaParser.g4, without building a parse tree. The
+ * require() and go.property() calls found while parsing are then processed
+ * the same way as in the LuaScanner parse tree listener.
+ *
+ * The scanner only handles code which is valid according to the grammar. Any
+ * lexer or syntax error, or any construct where the ANTLR based scanner would
+ * fail or behave in a way which is hard to mimic, makes scan() return false
+ * and the caller should use the ANTLR based scanner instead.
+ */
+class LuaFastScanner {
+
+    // token types
+    private static final int EOF = 0;
+    private static final int NAME = 1;
+    private static final int NUMBER = 2;
+    private static final int HEX_NUMBER = 3;
+    private static final int NORMALSTRING = 4;
+    private static final int CHARSTRING = 5;
+    private static final int LONGSTRING = 6;
+    private static final int SEMICOLON = 7;
+    private static final int COLON = 8;
+    private static final int DCOLON = 9;
+    private static final int DOT = 10;
+    private static final int DOTS = 11;
+    private static final int COMMA = 12;
+    private static final int LPAREN = 13;
+    private static final int RPAREN = 14;
+    private static final int LBRACK = 15;
+    private static final int RBRACK = 16;
+    private static final int LBRACE = 17;
+    private static final int RBRACE = 18;
+    private static final int EQUALS = 19;
+    private static final int LT = 20;
+    private static final int GT = 21;
+    private static final int MINUS = 22;
+    private static final int BITNOT = 23;
+    private static final int LEN = 24;
+    private static final int BINOP = 25; // any other binary operator
+    private static final int AND = 26;
+    private static final int BREAK = 27;
+    private static final int DO = 28;
+    private static final int ELSE = 29;
+    private static final int ELSEIF = 30;
+    private static final int END = 31;
+    private static final int FALSE = 32;
+    private static final int FOR = 33;
+    private static final int FUNCTION = 34;
+    private static final int GOTO = 35;
+    private static final int IF = 36;
+    private static final int IN = 37;
+    private static final int LOCAL = 38;
+    private static final int NIL = 39;
+    private static final int NOT = 40;
+    private static final int OR = 41;
+    private static final int REPEAT = 42;
+    private static final int RETURN = 43;
+    private static final int THEN = 44;
+    private static final int TRUE = 45;
+    private static final int UNTIL = 46;
+    private static final int WHILE = 47;
+
+    private static final String[] KEYWORDS = {
+        "and", "break", "do", "else", "elseif", "end", "false", "for", "function", "goto", "if",
+        "in", "local", "nil", "not", "or", "repeat", "return", "then", "true", "until", "while"
+    };
+    private static final int[] KEYWORD_TYPES = {
+        AND, BREAK, DO, ELSE, ELSEIF, END, FALSE, FOR, FUNCTION, GOTO, IF,
+        IN, LOCAL, NIL, NOT, OR, REPEAT, RETURN, THEN, TRUE, UNTIL, WHILE
+    };
+
+    // kinds of variables, used to mimic LuaScanner.FunctionDescriptor
+    private static final int VAR_NAMED = 0;  // NAME
+    private static final int VAR_INDEX = 1;  // variable . NAME
+    private static final int VAR_OTHER = 2;  // anything else, no function name
+
+    // kinds of function calls
+    private static final int CALL_REQUIRE = 0;
+    private static final int CALL_PROPERTY = 1;
+
+    /**
+     * Thrown when the fast path can't be used
+     */
+    private static class FallbackException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FallbackException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final FallbackException FALLBACK = new FallbackException();
+
+    private final String source;
+    private final int length;
+
+    private int tokenCount = 0;
+    private int[] tokenTypes;
+    private int[] tokenStarts;
+    private int[] tokenEnds;
+    private int[] tokenLines;
+
+    private int line = 1;
+    private int pos = 0;
+    private boolean collect = true;
+
+    // require() and go.property() calls, four ints per call:
+    // kind, first token, first token of the arguments, last token of the arguments
+    private int[] calls = new int[16];
+    private int callCount = 0;
+
+    // stand-alone semicolon statements
+    private int[] semicolons = new int[8];
+    private int semicolonCount = 0;
+
+    // the last function call of the most recently parsed variable
+    private boolean lastVarIsCall;
+    private int lastCallKind;
+    private int lastCallName;
+    private int lastCallObjectStart;
+    private int lastCallObjectEnd;
+    private int lastCallArgsStart;
+    private int lastCallArgsEnd;
+
+    private String parsedLua;
+    private List<String> modules = new ArrayList<String>();
+    private List<Property> properties = new ArrayList<Property>();
+
+    LuaFastScanner(String source) {
+        this.source = source;
+        this.length = source.length();
+        int capacity = Math.max(16, length / 4);
+        tokenTypes = new int[capacity];
+        tokenStarts = new int[capacity];
+        tokenEnds = new int[capacity];
+        tokenLines = new int[capacity];
+    }
+
+    /**
+     * Scan the Lua code
+     * @return true if the code was scanned, false if the ANTLR based scanner must be used,
+     * also when the fast path fails unexpectedly
+     */
+    boolean scan() {
+        try {
+            if (!tokenize()) {
+                return false;
+            }
+            parseBlock();
+            expect(EOF);
+            processCalls();
+            return true;
+        } catch (FallbackException e) {
+            return false;
+        } catch (RuntimeException | StackOverflowError e) {
+            // a bug in the fast path must not fail the build, the ANTLR based scanner handles all code
+            return false;
+        }
+    }
+
+    String getParsedLua() {
+        return parsedLua;
+    }
+
+    List<String> getModules() {
+        return modules;
+    }
+
+    List<Property> getProperties() {
+        return properties;
+    }
+
+    // ---------------------------------------------------------------------
+    // Lexer
+    // ---------------------------------------------------------------------
+
+    private char charAt(int i) {
+        return i < length ? source.charAt(i) : '\0';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || isDigit(c);
+    }
+
+    private void addToken(int type, int start, int end) {
+        if (tokenCount == tokenTypes.length) {
+            int capacity = tokenCount * 2;
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+            tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+            tokenLines = Arrays.copyOf(tokenLines, capacity);
+        }
+        tokenTypes[tokenCount] = type;
+        tokenStarts[tokenCount] = start;
+        tokenEnds[tokenCount] = end;
+        tokenLines[tokenCount] = line;
+        tokenCount++;
+    }
+
+    // index of the end of a long bracket starting at i ("[", "[=[" etc), -1 if not a closed long bracket
+    private int skipLongBracket(int i) {
+        int level = 0;
+        int j = i + 1;
+        while (charAt(j) == '=') {
+            level++;
+            j++;
+        }
+        if (charAt(j) != '[') {
+            return -1;
+        }
+        j++;
+        while (true) {
+            int close = source.indexOf(']', j);
+            if (close == -1) {
+                return -1;
+            }
+            int k = close + 1;
+            int l = 0;
+            while (l < level && charAt(k) == '=') {
+                l++;
+                k++;
+            }
+            if (l == level && charAt(k) == ']') {
+                return k + 1;
+            }
+            j = close + 1;
+        }
+    }
+
+    // index of the end of a quoted string starting at i, -1 if the string is invalid
+    private int skipQuotedString(int i) {
+        char quote = source.charAt(i);
+        int j = i + 1;
+        while (j < length) {
+            char c = source.charAt(j);
+            if (c == quote) {
+                return j + 1;
+            }
+            if (c != '\\') {
+                j++;
+                continue;
+            }
+            char e = charAt(j + 1);
+            if ("abfnrtvz\"'\\\n".indexOf(e) != -1) {
+                j += 2;
+            } else if (e == '\r') {
+                j += charAt(j + 2) == '\n' ? 3 : 2;
+                if (source.charAt(j - 1) != '\n') {
+                    return -1;
+                }
+            } else if (isDigit(e)) {
+                j += 2;
+            } else if (e == 'x' && isHexDigit(charAt(j + 2)) && isHexDigit(charAt(j + 3))) {
+                j += 4;
+            } else if (e == 'u' && charAt(j + 2) == '{' && isHexDigit(charAt(j + 3))) {
+                j += 4;
+                while (isHexDigit(charAt(j))) {
+                    j++;
+                }
+                if (charAt(j) != '}') {
+                    return -1;
+                }
+                j++;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // index of the end of an exponent starting at i, or i if there is no complete exponent
+    private int skipExponent(int i, char e1, char e2) {
+        char c = charAt(i);
+        if (c != e1 && c != e2) {
+            return i;
+        }
+        int j = i + 1;
+        if (charAt(j) == '+' || charAt(j) == '-') {
+            j++;
+        }
+        if (!isDigit(charAt(j))) {
+            return i;
+        }
+        while (isDigit(charAt(j))) {
+            j++;
+        }
+        return j;
+    }
+
+    // lex a number starting at i, mimicking the longest match of INT, HEX, FLOAT and HEX_FLOAT
+    private int lexNumber(int i) {
+        if (source.charAt(i) == '0' && (charAt(i + 1) == 'x' || charAt(i + 1) == 'X')) {
+            int j = i + 2;
+            int digits = 0;
+            while (isHexDigit(charAt(j))) {
+                j++;
+                digits++;
+            }
+            int end = -1;
+            if (charAt(j) == '.') {
+                int k = j + 1;
+                int fraction = 0;
+                while (isHexDigit(charAt(k))) {
+                    k++;
+                    fraction++;
+                }
+                if (digits > 0 || fraction > 0) {
+                    end = skipExponent(k, 'p', 'P');
+                }
+            }
+            if (end == -1 && digits > 0) {
+                end = skipExponent(j, 'p', 'P');
+            }
+            if (end != -1) {
+                addToken(HEX_NUMBER, i, end);
+                return end;
+            }
+            // "0x" without digits is an INT followed by a NAME
+        }
+        int j = i;
+        while (isDigit(charAt(j))) {
+            j++;
+        }
+        if (charAt(j) == '.') {
+            j++;
+            while (isDigit(charAt(j))) {
+                j++;
+            }
+        }
+        j = skipExponent(j, 'e', 'E');
+        addToken(NUMBER, i, j);
+        return j;
+    }
+
+    private boolean tokenize() {
+        int i = 0;
+        int lineCountedTo = 0;
+        for (int k = 0; k < length; ++k) {
+            if (Character.isSurrogate(source.charAt(k))) {
+                // ANTLR token indices are code point indices
+                return false;
+            }
+        }
+        while (true) {
+            // skip whitespace, comments and shebang lines
+            while (i < length) {
+                char c = source.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n') {
+                    i++;
+                } else if (c == '-' && charAt(i + 1) == '-') {
+                    int end = -1;
+                    if (charAt(i + 2) == '[') {
+                        end = skipLongBracket(i + 2);
+                        if (end == -1) {
+                            int j = i + 3;
+                            while (charAt(j) == '=') {
+                                j++;
+                            }
+                            if (charAt(j) == '[') {
+                                // unterminated long comment
+                                return false;
+                            }
+                        }
+                    }
+                    if (end == -1) {
+                        end = i + 2;
+                        while (end < length && source.charAt(end) != '\n' && source.charAt(end) != '\r') {
+                            end++;
+                        }
+                    }
+                    i = end;
+                } else if (c == '#' && charAt(i + 1) == '!') {
+                    while (i < length && source.charAt(i) != '\n' && source.charAt(i) != '\r') {
+                        i++;
+                    }
+                } else {
+                    break;
+                }
+            }
+
+            int start = i;
+            for (; lineCountedTo < start; ++lineCountedTo) {
+                if (source.charAt(lineCountedTo) == '\n') {
+                    line++;
+                }
+            }
+            if (i >= length) {
+                addToken(EOF, length, length);
+                return true;
+            }
+
+            char c = source.charAt(i);
+            char next = charAt(i + 1);
+            if (isNameStart(c)) {
+                int j = i + 1;
+                while (isNamePart(charAt(j))) {
+                    j++;
+                }
+                addToken(keywordType(i, j - i), i, j);
+                i = j;
+            } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+                if (c == '.') {
+                    int j = i + 1;
+                    while (isDigit(charAt(j))) {
+                        j++;
+                    }
+                    j = skipExponent(j, 'e', 'E');
+                    addToken(NUMBER, i, j);
+                    i = j;
+                } else {
+                    i = lexNumber(i);
+                }
+            } else if (c == '"' || c == '\'') {
+                int end = skipQuotedString(i);
+                if (end == -1) {
+                    return false;
+                }
+                addToken(c == '"' ? NORMALSTRING : CHARSTRING, i, end);
+                i = end;
+            } else if (c == '[') {
+                int end = skipLongBracket(i);
+                if (end != -1) {
+                    addToken(LONGSTRING, i, end);
+                    i = end;
+                } else {
+                    addToken(LBRACK, i, ++i);
+                }
+            } else {
+                int type;
+                int len = 1;
+                switch (c) {
+                    case ';': type = SEMICOLON; break;
+                    case ',': type = COMMA; break;
+                    case '(': type = LPAREN; break;
+                    case ')': type = RPAREN; break;
+                    case ']': type = RBRACK; break;
+                    case '{': type = LBRACE; break;
+                    case '}': type = RBRACE; break;
+                    case '-': type = MINUS; break;
+                    case '#': type = LEN; break;
+                    case '+':
+                    case '*':
+                    case '%':
+                    case '^':
+                    case '&':
+                    case '|':
+                        type = BINOP;
+                        break;
+                    case ':':
+                        type = next == ':' ? DCOLON : COLON;
+                        len = next == ':' ? 2 : 1;
+                        break;
+                    case '.':
+                        if (next == '.') {
+                            boolean dots = charAt(i + 2) == '.';
+                            type = dots ? DOTS : BINOP;
+                            len = dots ? 3 : 2;
+                        } else {
+                            type = DOT;
+                        }
+                        break;
+                    case '=':
+                        type = next == '=' ? BINOP : EQUALS;
+                        len = next == '=' ? 2 : 1;
+                        break;
+                    case '<':
+                        type = (next == '=' || next == '<') ? BINOP : LT;
+                        len = type == LT ? 1 : 2;
+                        break;
+                    case '>':
+                        type = (next == '=' || next == '>') ? BINOP : GT;
+                        len = type == GT ? 1 : 2;
+                        break;
+                    case '~':
+                        type = next == '=' ? BINOP : BITNOT;
+                        len = next == '=' ? 2 : 1;
+                        break;
+                    case '/':
+                        type = BINOP;
+                        len = next == '/' ? 2 : 1;
+                        break;
+                    default:
+                        // token recognition error
+                        return false;
+                }
+                addToken(type, i, i + len);
+                i += len;
+            }
+        }
+    }
+
+    private int keywordType(int start, int len) {
+        for (int i = 0; i < KEYWORDS.length; ++i) {
+            String keyword = KEYWORDS[i];
+            if (keyword.length() == len && source.regionMatches(start, keyword, 0, len)) {
+                return KEYWORD_TYPES[i];
+            }
+        }
+        return NAME;
+    }
+
+    // ---------------------------------------------------------------------
+    // Parser, see LuaParser.g4
+    // ---------------------------------------------------------------------
+
+    private int type() {
+        return tokenTypes[pos];
+    }
+
+    private void expect(int type) {
+        if (tokenTypes[pos] != type) {
+            throw FALLBACK;
+        }
+        pos++;
+    }
+
+    private static boolean isString(int type) {
+        return type == NORMALSTRING || type == CHARSTRING || type == LONGSTRING;
+    }
+
+    private static boolean isNumber(int type) {
+        return type == NUMBER || type == HEX_NUMBER;
+    }
+
+    private static boolean isUnaryOperator(int type) {
+        return type == NOT || type == LEN || type == MINUS || type == BITNOT;
+    }
+
+    private static boolean isBinaryOperator(int type) {
+        return type == BINOP || type == MINUS || type == BITNOT || type == LT || type == GT || type == AND || type == OR;
+    }
+
+    private static boolean isExpStart(int type) {
+        switch (type) {
+            case NIL:
+            case FALSE:
+            case TRUE:
+            case NUMBER:
+            case HEX_NUMBER:
+            case NORMALSTRING:
+            case CHARSTRING:
+            case LONGSTRING:
+            case DOTS:
+            case FUNCTION:
+            case NAME:
+            case LPAREN:
+            case LBRACE:
+                return true;
+            default:
+                return isUnaryOperator(type);
+        }
+    }
+
+    // block: stat* retstat?
+    private void parseBlock() {
+        while (true) {
+            if (type() == RETURN) {
+                pos++;
+                if (isExpStart(type())) {
+                    parseExpList();
+                }
+                if (type() == SEMICOLON) {
+                    pos++;
+                }
+                return;
+            }
+            if (!parseStatement()) {
+                return;
+            }
+        }
+    }
+
+    private boolean parseStatement() {
+        switch (type()) {
+            case SEMICOLON:
+                if (collect) {
+                    if (semicolonCount == semicolons.length) {
+                        semicolons = Arrays.copyOf(semicolons, semicolonCount * 2);
+                    }
+                    semicolons[semicolonCount++] = pos;
+                }
+                pos++;
+                break;
+            case DCOLON:
+                pos++;
+                expect(NAME);
+                expect(DCOLON);
+                break;
+            case BREAK:
+                pos++;
+                break;
+            case GOTO:
+                pos++;
+                expect(NAME);
+                break;
+            case DO:
+                pos++;
+                parseBlock();
+                expect(END);
+                break;
+            case WHILE:
+                pos++;
+                parseExp();
+                expect(DO);
+                parseBlock();
+                expect(END);
+                break;
+            case REPEAT:
+                pos++;
+                parseBlock();
+                expect(UNTIL);
+                parseExp();
+                break;
+            case IF:
+                pos++;
+                parseExp();
+                expect(THEN);
+                parseBlock();
+                while (type() == ELSEIF) {
+                    pos++;
+                    parseExp();
+                    expect(THEN);
+                    parseBlock();
+                }
+                if (type() == ELSE) {
+                    pos++;
+                    parseBlock();
+                }
+                expect(END);
+                break;
+            case FOR:
+                pos++;
+                expect(NAME);
+                if (type() == EQUALS) {
+                    pos++;
+                    parseExp();
+                    expect(COMMA);
+                    parseExp();
+                    if (type() == COMMA) {
+                        pos++;
+                        parseExp();
+                    }
+                } else {
+                    while (type() == COMMA) {
+                        pos++;
+                        expect(NAME);
+                    }
+                    expect(IN);
+                    parseExpList();
+                }
+                expect(DO);
+                parseBlock();
+                expect(END);
+                break;
+            case FUNCTION:
+                pos++;
+                expect(NAME);
+                while (type() == DOT) {
+                    pos++;
+                    expect(NAME);
+                }
+                if (type() == COLON) {
+                    pos++;
+                    expect(NAME);
+                }
+                parseFunctionBody();
+                break;
+            case LOCAL:
+                pos++;
+                if (type() == FUNCTION) {
+                    pos++;
+                    expect(NAME);
+                    parseFunctionBody();
+                    break;
+                }
+                parseAttributeName();
+                while (type() == COMMA) {
+                    pos++;
+                    parseAttributeName();
+                }
+                if (type() == EQUALS) {
+                    pos++;
+                    parseExpList();
+                }
+                break;
+            case NAME:
+            case LPAREN:
+                parseVariable();
+                if (type() == COMMA || type() == EQUALS) {
+                    while (type() == COMMA) {
+                        pos++;
+                        parseVariable();
+                    }
+                    expect(EQUALS);
+                    parseExpList();
+                }
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    // NAME attrib
+    private void parseAttributeName() {
+        expect(NAME);
+        if (type() == LT) {
+            pos++;
+            expect(NAME);
+            expect(GT);
+        }
+    }
+
+    // funcbody: LPAREN parlist? RPAREN block END
+    private void parseFunctionBody() {
+        expect(LPAREN);
+        if (type() == NAME) {
+            pos++;
+            while (type() == COMMA) {
+                pos++;
+                if (type() == DOTS) {
+                    pos++;
+                    break;
+                }
+                expect(NAME);
+            }
+        } else if (type() == DOTS) {
+            pos++;
+        }
+        expect(RPAREN);
+        parseBlock();
+        expect(END);
+    }
+
+    private void parseExpList() {
+        parseExp();
+        while (type() == COMMA) {
+            pos++;
+            parseExp();
+        }
+    }
+
+    // the precedence of the operators doesn't matter when validating the code
+    private void parseExp() {
+        while (true) {
+            while (isUnaryOperator(type())) {
+                pos++;
+            }
+            switch (type()) {
+                case NIL:
+                case FALSE:
+                case TRUE:
+                case NUMBER:
+                case HEX_NUMBER:
+                case NORMALSTRING:
+                case CHARSTRING:
+                case LONGSTRING:
+                case DOTS:
+                    pos++;
+                    break;
+                case FUNCTION:
+                    pos++;
+                    parseFunctionBody();
+                    break;
+                case LBRACE:
+                    parseTable();
+                    break;
+                case NAME:
+                case LPAREN:
+                    parseVariable();
+                    break;
+                default:
+                    throw FALLBACK;
+            }
+            if (!isBinaryOperator(type())) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    // tableconstructor: LBRACE fieldlist? RBRACE
+    private void parseTable() {
+        expect(LBRACE);
+        while (type() != RBRACE) {
+            if (type() == LBRACK) {
+                pos++;
+                parseExp();
+                expect(RBRACK);
+                expect(EQUALS);
+                parseExp();
+            } else if (type() == NAME && tokenTypes[pos + 1] == EQUALS) {
+                pos += 2;
+                parseExp();
+            } else {
+                parseExp();
+            }
+            if (type() != COMMA && type() != SEMICOLON) {
+                break;
+            }
+            pos++;
+        }
+        expect(RBRACE);
+    }
+
+    private void parseArgs() {
+        switch (type()) {
+            case LPAREN:
+                pos++;
+                if (type() != RPAREN) {
+                    parseExpList();
+                }
+                expect(RPAREN);
+                break;
+            case LBRACE:
+                parseTable();
+                break;
+            case NORMALSTRING:
+            case CHARSTRING:
+            case LONGSTRING:
+                pos++;
+                break;
+            default:
+                throw FALLBACK;
+        }
+    }
+
+    /**
+     * Parse a variable (NAME or parenthesized expression followed by any
+     * number of index operations and function calls). Records require()
+     * and go.property() calls and updates the lastCall fields with the last
+     * function call of the variable.
+     */
+    private void parseVariable() {
+        int start = pos;
+        int kind;
+        int name = -1;
+        int objectStart = -1;
+        int objectEnd = -1;
+        if (type() == NAME) {
+            kind = VAR_NAMED;
+            name = pos++;
+        } else {
+            expect(LPAREN);
+            parseExp();
+            expect(RPAREN);
+            kind = VAR_OTHER;
+        }
+
+        boolean isCall = false;
+        int callKind = 0, callName = 0, callObjectStart = 0, callObjectEnd = 0, callArgsStart = 0, callArgsEnd = 0;
+        while (true) {
+            int type = type();
+            if (type == LBRACK) {
+                pos++;
+                parseExp();
+                expect(RBRACK);
+                kind = VAR_OTHER;
+                isCall = false;
+            } else if (type == DOT) {
+                objectStart = start;
+                objectEnd = pos - 1;
+                pos++;
+                name = pos;
+                expect(NAME);
+                kind = VAR_INDEX;
+                isCall = false;
+            } else if (type == COLON || type == LPAREN || type == LBRACE || isString(type)) {
+                // the function is described by the variable before the (:NAME)? args
+                if (type == COLON) {
+                    pos++;
+                    expect(NAME);
+                }
+                int argsStart = pos;
+                parseArgs();
+                int argsEnd = pos - 1;
+                if (collect) {
+                    if (isRequire(kind, name, objectStart, objectEnd)) {
+                        addCall(CALL_REQUIRE, start, argsStart, argsEnd);
+                    } else if (isGoProperty(kind, name, objectStart, objectEnd)) {
+                        addCall(CALL_PROPERTY, start, argsStart, argsEnd);
+                    }
+                }
+                isCall = true;
+                callKind = kind;
+                callName = name;
+                callObjectStart = objectStart;
+                callObjectEnd = objectEnd;
+                callArgsStart = argsStart;
+                callArgsEnd = argsEnd;
+                kind = VAR_OTHER;
+            } else {
+                break;
+            }
+        }
+
+        lastVarIsCall = isCall;
+        lastCallKind = callKind;
+        lastCallName = callName;
+        lastCallObjectStart = callObjectStart;
+        lastCallObjectEnd = callObjectEnd;
+        lastCallArgsStart = callArgsStart;
+        lastCallArgsEnd = callArgsEnd;
+    }
+
+    private void addCall(int kind, int start, int argsStart, int argsEnd) {
+        if (callCount * 4 == calls.length) {
+            calls = Arrays.copyOf(calls, calls.length * 2);
+        }
+        int i = callCount * 4;
+        calls[i] = kind;
+        calls[i + 1] = start;
+        calls[i + 2] = argsStart;
+        calls[i + 3] = argsEnd;
+        callCount++;
+    }
+
+    // ---------------------------------------------------------------------
+    // Processing of require() and go.property() calls, see LuaScanner
+    // ---------------------------------------------------------------------
+
+    private boolean tokenIs(int token, int type, String text) {
+        int start = tokenStarts[token];
+        return tokenTypes[token] == type && tokenEnds[token] - start == text.length() && source.regionMatches(start, text, 0, text.length());
+    }
+
+    private String tokenText(int token) {
+        return source.substring(tokenStarts[token], tokenEnds[token]);
+    }
+
+    // FunctionDescriptor.isObject()
+    private boolean isObject(int kind, int objectStart, int objectEnd, String objectName) {
+        // the text of an object spanning several tokens is never a plain name
+        return kind == VAR_INDEX && objectStart == objectEnd && tokenIs(objectStart, NAME, objectName);
+    }
+
+    // FunctionDescriptor.isName()
+    private boolean isName(int kind, int name, String functionName) {
+        return kind != VAR_OTHER && tokenIs(name, NAME, functionName);
+    }
+
+    private boolean isRequire(int kind, int name, int objectStart, int objectEnd) {
+        return isName(kind, name, "require") && (kind == VAR_NAMED || isObject(kind, objectStart, objectEnd, "_G"));
+    }
+
+    private boolean isGoProperty(int kind, int name, int objectStart, int objectEnd) {
+        return isName(kind, name, "property") && isObject(kind, objectStart, objectEnd, "go");
+    }
+
+    // index of the first token after the expression starting at token i (COMMA or the closing token of the list)
+    private int skipExp(int i) {
+        int depth = 0;
+        while (true) {
+            switch (tokenTypes[i]) {
+                case LPAREN:
+                case LBRACK:
+                case LBRACE:
+                case FUNCTION:
+                case DO:
+                case IF:
+                case REPEAT:
+                    depth++;
+                    break;
+                case RPAREN:
+                case RBRACK:
+                case RBRACE:
+                case END:
+                case UNTIL:
+                    if (depth == 0) {
+                        return i;
+                    }
+                    depth--;
+                    break;
+                case COMMA:
+                    if (depth == 0) {
+                        return i;
+                    }
+                    break;
+                case EOF:
+                    throw FALLBACK;
+                default:
+                    break;
+            }
+            i++;
+        }
+    }
+
+    // LuaScanner.getFirstStringArg()
+    private String getFirstStringArg(int argsStart, int argsEnd) {
+        int type = tokenTypes[argsStart];
+        int token;
+        if (isString(type)) {
+            token = argsStart;
+        } else if (type == LPAREN && argsEnd > argsStart + 1) {
+            token = argsStart + 1;
+            int next = tokenTypes[token + 1];
+            if (next != COMMA && next != RPAREN) {
+                return null;
+            }
+            type = tokenTypes[token];
+            if (type == NIL || type == FALSE || type == TRUE || type == DOTS) {
+                // the expression has no rule context and LuaScanner fails
+                throw FALLBACK;
+            }
+            if (!isString(type)) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        String text = tokenText(token);
+        switch (tokenTypes[token]) {
+            case NORMALSTRING:
+                return text.replace("\"", "");
+            case CHARSTRING:
+                return text.replace("'", "");
+            default:
+                return text;
+        }
+    }
+
+    // a number or a negated number
+    private boolean isNumberExp(int start, int end) {
+        if (end - start == 1 && isNumber(tokenTypes[start])) {
+            return true;
+        }
+        return end - start == 2 && tokenTypes[start] == MINUS && isNumber(tokenTypes[start + 1]);
+    }
+
+    private double parseNumberExp(int start, int end) {
+        if (tokenTypes[end - 1] == HEX_NUMBER) {
+            // Double.parseDouble() doesn't accept all hexadecimal numbers
+            throw FALLBACK;
+        }
+        String text = tokenText(end - 1);
+        return Double.parseDouble(end - start == 2 ? "-" + text : text);
+    }
+
+    // LuaScanner.getNumArgs()
+    private boolean getNumArgs(int argsStart, int argsEnd, double[] resultArgs) {
+        if (tokenTypes[argsStart] != LPAREN || argsEnd == argsStart + 1) {
+            return true;
+        }
+        int count = 0;
+        int start = argsStart + 1;
+        while (start < argsEnd) {
+            int end = skipExp(start);
+            if (!isNumberExp(start, end)) {
+                return false;
+            }
+            if (count == resultArgs.length) {
+                throw FALLBACK;
+            }
+            resultArgs[count++] = parseNumberExp(start, end);
+            start = end + 1;
+        }
+        if (count == 1) {
+            for (int i = count; i < resultArgs.length; i++) {
+                resultArgs[i] = resultArgs[0];
+            }
+        } else if (count != resultArgs.length) {
+            return false;
+        }
+        return true;
+    }
+
+    // LuaScanner.parsePropertyValue()
+    private boolean parsePropertyValue(int argsStart, int argsEnd, Property property) {
+        if (tokenTypes[argsStart] != LPAREN) {
+            throw FALLBACK;
+        }
+        int valueStart = skipExp(argsStart + 1) + 1;
+        if (valueStart > argsEnd) {
+            return false;
+        }
+        int valueEnd = skipExp(valueStart);
+        if (valueEnd != argsEnd) {
+            return false;
+        }
+
+        int initialToken = valueStart;
+        if (tokenTypes[initialToken] == MINUS) {
+            initialToken++;
+        }
+        int type = tokenTypes[initialToken];
+        if (isNumber(type)) {
+            if (!isNumberExp(valueStart, valueEnd)) {
+                throw FALLBACK;
+            }
+            property.type = PropertyType.PROPERTY_TYPE_NUMBER;
+            property.value = parseNumberExp(valueStart, valueEnd);
+            return true;
+        } else if (type == FALSE || type == TRUE) {
+            property.type = PropertyType.PROPERTY_TYPE_BOOLEAN;
+            property.value = Boolean.parseBoolean(tokenText(initialToken));
+            return true;
+        } else if (type != NAME || initialToken != valueStart) {
+            return false;
+        }
+
+        // the value must be a function call and nothing more
+        pos = valueStart;
+        collect = false;
+        parseVariable();
+        collect = true;
+        if (pos != valueEnd || !lastVarIsCall || lastCallKind == VAR_OTHER) {
+            return false;
+        }
+        int kind = lastCallKind;
+        int name = lastCallName;
+        int objectStart = lastCallObjectStart;
+        int objectEnd = lastCallObjectEnd;
+        int callArgsStart = lastCallArgsStart;
+        int callArgsEnd = lastCallArgsEnd;
+
+        boolean result = false;
+        if (isObject(kind, objectStart, objectEnd, "vmath")) {
+            if (isName(kind, name, "vector3")) {
+                Vector3d v = new Vector3d();
+                double[] resultArgs = new double[3];
+                result = getNumArgs(callArgsStart, callArgsEnd, resultArgs);
+                v.set(resultArgs);
+                property.value = v;
+                property.type = PropertyType.PROPERTY_TYPE_VECTOR3;
+            } else if (isName(kind, name, "vector4")) {
+                Vector4d v = new Vector4d();
+                double[] resultArgs = new double[4];
+                result = getNumArgs(callArgsStart, callArgsEnd, resultArgs);
+                v.set(resultArgs);
+                property.value = v;
+                property.type = PropertyType.PROPERTY_TYPE_VECTOR4;
+            } else if (isName(kind, name, "quat")) {
+                Quat4d q = new Quat4d();
+                double[] resultArgs = new double[4];
+                result = getNumArgs(callArgsStart, callArgsEnd, resultArgs);
+                q.set(resultArgs);
+                property.value = q;
+                property.type = PropertyType.PROPERTY_TYPE_QUAT;
+            }
+        } else {
+            String firstStrArg = getFirstStringArg(callArgsStart, callArgsEnd);
+            if (isObject(kind, objectStart, objectEnd, "resource")) {
+                property.type = PropertyType.PROPERTY_TYPE_HASH;
+                property.isResource = true;
+                result = true;
+            } else if (isName(kind, name, "hash") && (kind == VAR_NAMED || isObject(kind, objectStart, objectEnd, "_G"))) {
+                property.type = PropertyType.PROPERTY_TYPE_HASH;
+                // hash(arg) requires an argument
+                if (firstStrArg != null) {
+                    result = true;
+                }
+            } else if (isName(kind, name, "url") && isObject(kind, objectStart, objectEnd, "msg")) {
+                property.type = PropertyType.PROPERTY_TYPE_URL;
+                result = true;
+            }
+            property.value = firstStrArg == null ? "" : firstStrArg;
+        }
+        return result;
+    }
+
+    // replace the tokens with whitespace, leaving any whitespace and comments between them
+    private void removeTokens(char[] buffer, int first, int last) {
+        for (int i = first; i <= last; ++i) {
+            Arrays.fill(buffer, tokenStarts[i], tokenEnds[i], ' ');
+        }
+    }
+
+    private void processCalls() {
+        // the ANTLR parse tree is walked in pre-order, which for the calls
+        // we are interested in is the order of their first tokens
+        Integer[] order = new Integer[callCount];
+        for (int i = 0; i < callCount; ++i) {
+            order[i] = i * 4;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(calls[a + 1], calls[b + 1]));
+
+        char[] buffer = source.toCharArray();
+        for (int i : order) {
+            int start = calls[i + 1];
+            int argsStart = calls[i + 2];
+            int argsEnd = calls[i + 3];
+            if (calls[i] == CALL_REQUIRE) {
+                String module = getFirstStringArg(argsStart, argsEnd);
+                // ignore Lua+LuaJIT standard libraries + Defold additions such as LuaSocket
+                // and also don't add the same module twice
+                if (module != null && !LuaScanner.LUA_LIBRARIES.contains(module) && !modules.contains(module)) {
+                    modules.add(module);
+                }
+            } else {
+                Property property = new Property(tokenLines[start] - 1);
+                String firstArg = getFirstStringArg(argsStart, argsEnd);
+                property.name = firstArg;
+                if (firstArg == null) {
+                    property.status = Status.INVALID_ARGS;
+                } else if (parsePropertyValue(argsStart, argsEnd, property)) {
+                    property.status = Status.OK;
+                } else {
+                    property.status = Status.INVALID_VALUE;
+                }
+                properties.add(property);
+
+                // strip property from code
+                removeTokens(buffer, start, argsEnd);
+            }
+        }
+
+        for (int i = 0; i < semicolonCount; ++i) {
+            removeTokens(buffer, semicolons[i], semicolons[i]);
+        }
+        parsedLua = new String(buffer);
+    }
+}
@@ -0,0 +1,288 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Pool of persistent LuaJIT processes used to compile scripts to bytecode.
+ *
+ * Each process runs luajit_compile_server.lua and compiles one script at a
+ * time, so scripts can be compiled without starting a process and writing
+ * temporary files per script. Processes are started on demand, up to the
+ * maximum number of workers per LuaJIT executable, and are reused until the
+ * pool is shut down.
+ *
+ * If a process can't be started or stops responding the pool is disabled and
+ * compile() returns null, in which case the caller should fall back to
+ * running one LuaJIT process per script.
+ */
+public class LuaJITCompilerPool {
+
+    private static Logger logger = Logger.getLogger(LuaJITCompilerPool.class.getName());
+
+    private static final String SERVER_SCRIPT = "luajit_compile_server.lua";
+
+    /**
+     * Result of compiling a script. Either the bytecode or the error
+     * message reported by LuaJIT is set.
+     */
+    public static class Result {
+        private final byte[] bytecode;
+        private final String error;
+
+        private Result(byte[] bytecode, String error) {
+            this.bytecode = bytecode;
+            this.error = error;
+        }
+
+        public byte[] getBytecode() {
+            return bytecode;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private static class Worker {
+        private final Process process;
+        private final OutputStream in;
+        private final InputStream out;
+
+        Worker(Process process) {
+            this.process = process;
+            this.in = new BufferedOutputStream(process.getOutputStream(), 64 * 1024);
+            this.out = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+        }
+
+        Result compile(String chunkName, byte[] source) throws IOException {
+            byte[] name = chunkName.getBytes(StandardCharsets.UTF_8);
+            in.write(String.format("%d %d\n", name.length, source.length).getBytes(StandardCharsets.US_ASCII));
+            in.write(name);
+            in.write(source);
+            in.flush();
+
+            String header = readLine();
+            int separator = header.indexOf(' ');
+            if (separator < 0) {
+                throw new IOException("Unexpected response from LuaJIT compile server: " + header);
+            }
+            String status = header.substring(0, separator);
+            byte[] data = readFully(Integer.parseInt(header.substring(separator + 1)));
+            if (status.equals("OK")) {
+                return new Result(data, null);
+            } else if (status.equals("ERR")) {
+                return new Result(null, new String(data, StandardCharsets.UTF_8));
+            }
+            throw new IOException("Unexpected response from LuaJIT compile server: " + header);
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+            int c;
+            while ((c = out.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException("LuaJIT compile server exited unexpectedly");
+                }
+                line.write(c);
+            }
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+        private byte[] readFully(int length) throws IOException {
+            byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int n = out.read(data, offset, length - offset);
+                if (n < 0) {
+                    throw new EOFException("LuaJIT compile server exited unexpectedly");
+                }
+                offset += n;
+            }
+            return data;
+        }
+
+        void shutdown() {
+            try {
+                // the server exits when stdin is closed
+                in.close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final int maxWorkersPerExecutable;
+    private final Map<String, LinkedBlockingDeque<Worker>> idleWorkers = new HashMap<>();
+    private final Map<String, Integer> workerCounts = new HashMap<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private File serverScript = null;
+    private volatile boolean disabled = false;
+
+    /**
+     * @param maxWorkersPerExecutable maximum number of processes per LuaJIT executable
+     */
+    public LuaJITCompilerPool(int maxWorkersPerExecutable) {
+        this.maxWorkersPerExecutable = Math.max(1, maxWorkersPerExecutable);
+    }
+
+    /**
+     * Compile a script to bytecode, keeping debug info. Safe to call from
+     * several threads at once.
+     * @param luajitExe name of the LuaJIT executable, "luajit-32" or "luajit-64"
+     * @param chunkName name of the chunk, without the '@' prefix
+     * @param source script source
+     * @return the result, or null if the pool is disabled
+     */
+    public Result compile(String luajitExe, String chunkName, byte[] source) {
+        if (disabled) {
+            return null;
+        }
+
+        Worker worker = null;
+        try {
+            worker = acquire(luajitExe);
+            if (worker == null) {
+                return null;
+            }
+            Result result = worker.compile(chunkName, source);
+            release(luajitExe, worker);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            disable(String.format("LuaJIT compile server failed, compiling one script per process instead: %s", e.getMessage()));
+            if (worker != null) {
+                worker.process.destroyForcibly();
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Worker acquire(String luajitExe) throws IOException, InterruptedException {
+        LinkedBlockingDeque<Worker> idle;
+        synchronized (this) {
+            if (disabled) {
+                return null;
+            }
+            idle = idleWorkers.computeIfAbsent(luajitExe, k -> new LinkedBlockingDeque<>());
+            Worker worker = idle.poll();
+            if (worker != null) {
+                return worker;
+            }
+            int count = workerCounts.getOrDefault(luajitExe, 0);
+            if (count < maxWorkersPerExecutable) {
+                worker = startWorker(luajitExe);
+                workerCounts.put(luajitExe, count + 1);
+                workers.add(worker);
+                return worker;
+            }
+        }
+        // all workers are busy, wait for one to become available
+        while (!disabled) {
+            Worker worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker != null) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(String luajitExe, Worker worker) {
+        LinkedBlockingDeque<Worker> idle = idleWorkers.get(luajitExe);
+        if (idle != null) {
+            idle.offerFirst(worker);
+        }
+        // else the pool was shut down while compiling, and the worker already stopped
+    }
+
+    private Worker startWorker(String luajitExe) throws IOException {
+        Bob.initLua(); // unpack the lua resources
+
+        if (serverScript == null) {
+            serverScript = File.createTempFile("luajit_compile_server", ".lua");
+            serverScript.deleteOnExit();
+            try (InputStream is = LuaJITCompilerPool.class.getResourceAsStream(SERVER_SCRIPT)) {
+                if (is == null) {
+                    throw new IOException("Unable to find " + SERVER_SCRIPT);
+                }
+                Files.copy(is, serverScript.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(Bob.getExe(Platform.getHostPlatform(), luajitExe), serverScript.getAbsolutePath());
+        pb.environment().put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        logger.info("Starting LuaJIT compile server %s", luajitExe);
+        return new Worker(pb.start());
+    }
+
+    private synchronized void disable(String reason) {
+        if (!disabled) {
+            disabled = true;
+            logger.warning(reason);
+        }
+    }
+
+    /**
+     * Stop all processes. The pool can't be used after it has been shut down.
+     */
+    public void shutdown() {
+        List<Worker> stopped;
+        synchronized (this) {
+            disabled = true;
+            stopped = new ArrayList<>(workers);
+            workers.clear();
+            idleWorkers.clear();
+            workerCounts.clear();
+        }
+        for (Worker worker : stopped) {
+            worker.shutdown();
+        }
+        if (serverScript != null) {
+            serverScript.delete();
+            serverScript = null;
+        }
+    }
+}
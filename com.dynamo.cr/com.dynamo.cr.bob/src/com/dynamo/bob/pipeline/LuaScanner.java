@@ -62,7 +62,7 @@ public class LuaScanner extends LuaParserBaseListener {
      * calls the build will fail since bob will be looking for a corresponding
      * .lua module file
      */
-    private static final Set<String> LUA_LIBRARIES = new HashSet<String>(Arrays.asList(
+    static final Set<String> LUA_LIBRARIES = new HashSet<String>(Arrays.asList(
          new String[] {
             "coroutine",
             "package",
@@ -157,6 +157,18 @@ public class LuaScanner extends LuaParserBaseListener {
 
     public LuaScanner() {}
 
+    /**
+     * Create a scanner holding the result of a previous call to parse()
+     * @param parsedLua The parsed Lua code
+     * @param modules Lua modules found in the code
+     * @param properties Script properties found in the code
+     */
+    public LuaScanner(String parsedLua, List<String> modules, List<Property> properties) {
+        this.parsedBuffer = new StringBuffer(parsedLua);
+        this.modules.addAll(modules);
+        this.properties.addAll(properties);
+    }
+
     /**
      * Parse a string containing Lua code. This will detect and strip
      * require() and go.property() calls
@@ -165,6 +177,39 @@ public class LuaScanner extends LuaParserBaseListener {
      */
     public String parse(String str) {
         TimeProfiler.start("Parse");
+        // most scripts can be handled by the fast scanner, use the full
+        // parser for anything the fast scanner doesn't handle
+        if (!parseFast(str)) {
+            parseFull(str);
+        }
+        TimeProfiler.stop();
+        // return the parsed string
+        return parsedBuffer.toString();
+    }
+
+    /**
+     * Parse a string containing Lua code using the LuaFastScanner
+     * @param str Lua code to parse
+     * @return true if the code was parsed, false if the full parser must be used
+     */
+    boolean parseFast(String str) {
+        LuaFastScanner scanner = new LuaFastScanner(str);
+        if (!scanner.scan()) {
+            return false;
+        }
+        modules.clear();
+        properties.clear();
+        modules.addAll(scanner.getModules());
+        properties.addAll(scanner.getProperties());
+        parsedBuffer = new StringBuffer(scanner.getParsedLua());
+        return true;
+    }
+
+    /**
+     * Parse a string containing Lua code using the ANTLR Lua parser
+     * @param str Lua code to parse
+     */
+    void parseFull(String str) {
         modules.clear();
         properties.clear();
 
@@ -179,9 +224,6 @@ public class LuaScanner extends LuaParserBaseListener {
         LuaParser parser = new LuaParser(tokenStream);
         ParseTreeWalker walker = new ParseTreeWalker();
         walker.walk(this, parser.chunk());
-        TimeProfiler.stop();
-        // return the parsed string
-        return parsedBuffer.toString();
     }
 
     /**
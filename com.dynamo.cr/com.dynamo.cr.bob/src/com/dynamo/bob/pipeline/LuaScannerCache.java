@@ -0,0 +1,456 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Tuple4d;
+import javax.vecmath.Vector3d;
+import javax.vecmath.Vector4d;
+
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.logging.Logger;
+import com.dynamo.gameobject.proto.GameObject.PropertyType;
+
+/**
+ * Cache of LuaScanner results, so that unchanged scripts don't need to be
+ * parsed again. Results are keyed on the script content, the build variant,
+ * the engine version (which covers changes to the scanner itself) and the Lua
+ * preprocessors in use, including the script path and the version of the
+ * preprocessors when there are any.
+ *
+ * Results are kept in serialized form both in memory and on disk in the
+ * build directory. The memory cache belongs to the project and holds the
+ * most recently used results up to a maximum size, while the disk cache is
+ * not bounded and survives between builds.
+ */
+public class LuaScannerCache {
+
+    private static Logger logger = Logger.getLogger(LuaScannerCache.class.getName());
+
+    private static final int MAGIC = 0x4C534331; // LSC1
+    private static final int VERSION = 1;
+
+    public static final long DEFAULT_MAX_MEMORY_SIZE = 32 * 1024 * 1024;
+
+    // Value tags for property values
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_NUMBER = 1;
+    private static final int VALUE_BOOLEAN = 2;
+    private static final int VALUE_STRING = 3;
+    private static final int VALUE_VECTOR3 = 4;
+    private static final int VALUE_VECTOR4 = 5;
+    private static final int VALUE_QUAT = 6;
+
+    // Preprocessor class -> digest of the jar or class file it was loaded from
+    private static final Map<Class<?>, byte[]> preprocessorDigests = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Serialized results by key, in least recently used order
+    private final LinkedHashMap<String, byte[]> memoryCache = new LinkedHashMap<>(256, 0.75f, true);
+    private long memorySize = 0;
+    private long maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory directory of the disk cache, or null to only cache in memory
+     */
+    public LuaScannerCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Set the maximum size of the results kept in memory. Results are
+     * evicted in least recently used order.
+     * @param size maximum size in bytes, 0 to not keep any results in memory
+     */
+    public synchronized void setMaxMemorySize(long size) {
+        maxMemorySize = Math.max(0, size);
+        evict();
+    }
+
+    /**
+     * Remove all results from the memory cache
+     */
+    public synchronized void clearMemory() {
+        memoryCache.clear();
+        memorySize = 0;
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Reads the jar a class was loaded from, or the class file if it wasn't loaded from a jar
+    private static byte[] readCodeSource(Class<?> cls) throws IOException {
+        CodeSource source = cls.getProtectionDomain().getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                File file = new File(source.getLocation().toURI());
+                if (file.isFile()) {
+                    return Files.readAllBytes(file.toPath());
+                }
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // not a local file
+            }
+        }
+        try (InputStream is = cls.getResourceAsStream("/" + cls.getName().replace('.', '/') + ".class")) {
+            return is != null ? IOUtils.toByteArray(is) : new byte[0];
+        }
+    }
+
+    /**
+     * Get a digest identifying the version of a preprocessor, so that results
+     * are not reused when a preprocessor is updated
+     * @param cls preprocessor class
+     * @return digest of the jar or class file the preprocessor was loaded from
+     */
+    static byte[] getPreprocessorDigest(Class<?> cls) {
+        byte[] digest = preprocessorDigests.get(cls);
+        if (digest == null) {
+            MessageDigest md = createDigest();
+            md.update(cls.getName().getBytes(StandardCharsets.UTF_8));
+            try {
+                md.update(readCodeSource(cls));
+            } catch (IOException e) {
+                logger.warning("Unable to read Lua preprocessor %s: %s", cls.getName(), e.getMessage());
+            }
+            digest = md.digest();
+            preprocessorDigests.put(cls, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Create a cache key. Preprocessors are passed the script path, so the
+     * path is part of the key when there are preprocessors, while scripts
+     * with the same content share results when there are none. Results of
+     * other versions of bob are not used, since the scanner may have changed.
+     * @param sourceDigest SHA1 of the script content
+     * @param path path of the script
+     * @param variant build variant
+     * @param preprocessors Lua preprocessors in use
+     * @return the key
+     */
+    public static String createKey(byte[] sourceDigest, String path, String variant, List<?> preprocessors) {
+        MessageDigest digest = createDigest();
+        digest.update(sourceDigest);
+        digest.update(variant.getBytes(StandardCharsets.UTF_8));
+        digest.update(EngineVersion.sha1.getBytes(StandardCharsets.UTF_8));
+        if (!preprocessors.isEmpty()) {
+            digest.update((byte) 0);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+        }
+        for (Object preprocessor : preprocessors) {
+            digest.update((byte) 0);
+            digest.update(getPreprocessorDigest(preprocessor.getClass()));
+        }
+        return String.format("%040x", new java.math.BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * Get a cached result
+     * @param key cache key
+     * @return a new scanner holding the result, or null if not cached
+     */
+    public LuaScanner get(String key) {
+        byte[] data;
+        synchronized (this) {
+            data = memoryCache.get(key);
+        }
+        if (data == null && directory != null) {
+            File file = getFile(key);
+            if (file.isFile()) {
+                try {
+                    data = Files.readAllBytes(file.toPath());
+                    file.setLastModified(System.currentTimeMillis());
+                    putInMemory(key, data);
+                } catch (IOException e) {
+                    logger.warning("Unable to read Lua scanner cache entry %s: %s", file, e.getMessage());
+                }
+            }
+        }
+        if (data != null) {
+            try {
+                LuaScanner scanner = deserialize(data);
+                hits.incrementAndGet();
+                return scanner;
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Discarding corrupt Lua scanner cache entry %s", key);
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add a result to the cache
+     * @param key cache key
+     * @param scanner scanner to store the result of
+     */
+    public void put(String key, LuaScanner scanner) throws IOException {
+        byte[] data = serialize(scanner);
+        putInMemory(key, data);
+        if (directory != null) {
+            File file = getFile(key);
+            File parent = file.getParentFile();
+            parent.mkdirs();
+            File tmp = File.createTempFile(key, ".tmp", parent);
+            try {
+                Files.write(tmp.toPath(), data);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove results from the disk cache that haven't been used for a while
+     * @param maxAge maximum time since an entry was last used, in milliseconds
+     */
+    public void prune(long maxAge) {
+        if (directory == null) {
+            return;
+        }
+        File[] dirs = directory.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - maxAge;
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.lastModified() < oldest) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            byte[] data = memoryCache.remove(key);
+            if (data != null) {
+                memorySize -= data.length;
+            }
+        }
+        if (directory != null) {
+            getFile(key).delete();
+        }
+    }
+
+    private synchronized void putInMemory(String key, byte[] data) {
+        byte[] previous = memoryCache.put(key, data);
+        if (previous != null) {
+            memorySize -= previous.length;
+        }
+        memorySize += data.length;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, byte[]>> it = memoryCache.entrySet().iterator();
+        while (memorySize > maxMemorySize && it.hasNext()) {
+            memorySize -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    static byte[] serialize(LuaScanner scanner) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, scanner.getParsedLua());
+
+            List<String> modules = scanner.getModules();
+            out.writeInt(modules.size());
+            for (String module : modules) {
+                writeString(out, module);
+            }
+
+            List<LuaScanner.Property> properties = scanner.getProperties();
+            out.writeInt(properties.size());
+            for (LuaScanner.Property property : properties) {
+                out.writeInt(property.line);
+                out.writeByte(property.status.ordinal());
+                writeString(out, property.name);
+                out.writeInt(property.type == null ? -1 : property.type.getNumber());
+                out.writeBoolean(property.isResource);
+                writeValue(out, property.value);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static LuaScanner deserialize(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported Lua scanner cache entry");
+        }
+        String parsedLua = readString(in);
+
+        int moduleCount = in.readInt();
+        List<String> modules = new ArrayList<>(moduleCount);
+        for (int i = 0; i < moduleCount; ++i) {
+            modules.add(readString(in));
+        }
+
+        int propertyCount = in.readInt();
+        List<LuaScanner.Property> properties = new ArrayList<>(propertyCount);
+        for (int i = 0; i < propertyCount; ++i) {
+            LuaScanner.Property property = new LuaScanner.Property(in.readInt());
+            property.status = LuaScanner.Property.Status.values()[in.readByte()];
+            property.name = readString(in);
+            int type = in.readInt();
+            property.type = type < 0 ? null : PropertyType.forNumber(type);
+            property.isResource = in.readBoolean();
+            property.value = readValue(in);
+            properties.add(property);
+        }
+        return new LuaScanner(parsedLua, modules, properties);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof Double) {
+            out.writeByte(VALUE_NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Vector3d) {
+            Vector3d v = (Vector3d) value;
+            out.writeByte(VALUE_VECTOR3);
+            out.writeDouble(v.x);
+            out.writeDouble(v.y);
+            out.writeDouble(v.z);
+        } else if (value instanceof Vector4d || value instanceof Quat4d) {
+            Tuple4d v = (Tuple4d) value;
+            out.writeByte(value instanceof Quat4d ? VALUE_QUAT : VALUE_VECTOR4);
+            out.writeDouble(v.x);
+            out.writeDouble(v.y);
+            out.writeDouble(v.z);
+            out.writeDouble(v.w);
+        } else {
+            throw new IOException("Unsupported property value " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER:
+                return in.readDouble();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_VECTOR3:
+                return new Vector3d(in.readDouble(), in.readDouble(), in.readDouble());
+            case VALUE_VECTOR4:
+                return new Vector4d(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            case VALUE_QUAT: {
+                // set the components directly, the Quat4d constructor normalizes
+                Quat4d q = new Quat4d();
+                q.x = in.readDouble();
+                q.y = in.readDouble();
+                q.z = in.readDouble();
+                q.w = in.readDouble();
+                return q;
+            }
+            default:
+                throw new IOException("Unsupported property value tag " + tag);
+        }
+    }
+}
@@ -14,7 +14,6 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -23,6 +22,7 @@ import java.util.ArrayList;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 
 import java.util.Objects;
 
@@ -85,7 +85,15 @@ public class MeshsetBuilder extends Builder<Void>  {
 
     public void buildCollada(Task<Void> task) throws CompileExceptionError, IOException {
         // Previously ColladaModelBuilder.java
-        ByteArrayInputStream collada_is = new ByteArrayInputStream(task.input(0).getContent());
+        // The scene is parsed once and shared with the animation set builders using the same file
+        XMLCOLLADA collada;
+        try {
+            collada = ColladaUtil.loadDAE(task.input(0), this.project.getColladaSceneCache());
+        } catch (XMLStreamException e) {
+            throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile mesh: " + e.getLocalizedMessage(), e);
+        } catch (LoaderException e) {
+            throw new CompileExceptionError(task.input(0), -1, "Failed to compile mesh: " + e.getLocalizedMessage(), e);
+        }
 
         // MeshSet
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
@@ -93,7 +101,7 @@ public class MeshsetBuilder extends Builder<Void>  {
 
         boolean split_meshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0) != 0;
         try {
-            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true, split_meshes);
+            ColladaUtil.loadMesh(collada, meshSetBuilder, true, split_meshes);
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile mesh: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -105,10 +113,9 @@ public class MeshsetBuilder extends Builder<Void>  {
 
         // Skeleton
         out = new ByteArrayOutputStream(64 * 1024);
-        collada_is.reset();
         Skeleton.Builder skeletonBuilder = Skeleton.newBuilder();
         try {
-            ColladaUtil.loadSkeleton(collada_is, skeletonBuilder, new ArrayList<String>());
+            ColladaUtil.loadSkeleton(collada, skeletonBuilder, new ArrayList<String>());
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile skeleton: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -120,10 +127,9 @@ public class MeshsetBuilder extends Builder<Void>  {
 
         // Animationset
         out = new ByteArrayOutputStream(64 * 1024);
-        collada_is.reset();
         AnimationSet.Builder animationSetBuilder = AnimationSet.newBuilder();
         try {
-            ColladaUtil.loadAnimations(collada_is, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>());
+            ColladaUtil.loadAnimations(collada, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>());
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile animation: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -144,9 +150,10 @@ public class MeshsetBuilder extends Builder<Void>  {
             return;
         }
 
+        // The scene is imported once and shared with the animation set builders using the same file
         ModelImporter.Options options = new ModelImporter.Options();
         ResourceDataResolver dataResolver = new ResourceDataResolver(this.project);
-        ModelImporter.Scene scene = ModelUtil.loadScene(task.input(0).getContent(), task.input(0).getPath(), options, dataResolver);
+        ModelImporter.Scene scene = ModelUtil.loadScene(task.input(0), options, dataResolver, this.project.getModelSceneCache());
         if (scene == null) {
             throw new CompileExceptionError(task.input(0), -1, "Error loading model");
         }
@@ -156,11 +163,8 @@ public class MeshsetBuilder extends Builder<Void>  {
             MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
 
             int split_meshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0);
-            if (split_meshes != 0) {
-                ModelUtil.splitMeshes(scene);
-            }
-
-            ModelUtil.loadModels(scene, meshSetBuilder);
+            // The shared scene is not modified when splitting
+            ModelUtil.loadModels(scene, meshSetBuilder, split_meshes != 0);
 
             ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
             meshSetBuilder.build().writeTo(out);
@@ -197,7 +201,5 @@ public class MeshsetBuilder extends Builder<Void>  {
             out.close();
             task.output(2).setContent(out.toByteArray());
         }
-
-        ModelUtil.unloadScene(scene);
     }
 }
@@ -35,12 +35,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 
@@ -55,6 +57,7 @@ import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4d;
 
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.MathUtil;
 
 import com.dynamo.bob.util.MurmurHash;
@@ -110,6 +113,68 @@ public class ModelUtil {
         return loadScene(bytes, path, options, dataResolver);
     }
 
+    /**
+     * Get a loaded scene through a cache, loading it if it isn't cached.
+     * Scenes are keyed on the resource content, the import options and the
+     * directory of the resource, which external buffers are resolved from.
+     * Cached scenes are shared between builders and must not be modified.
+     * @param resource model resource
+     * @param options import options
+     * @param dataResolver resolver of external buffers
+     * @param cache the cache
+     * @return the scene, or null if the model couldn't be loaded
+     */
+    public static Scene loadScene(IResource resource, Options options, ModelImporter.DataResolver dataResolver, BuildCache<List<Object>, Scene> cache) throws IOException {
+        final Options importOptions = options != null ? options : new Options();
+        List<Object> key = Arrays.asList(BuildCache.getContentKey(resource), FilenameUtils.getFullPath(resource.getPath()), importOptions);
+        return cache.get(key, () -> loadScene(resource.getContent(), resource.getPath(), importOptions, dataResolver));
+    }
+
+    private static long getSize(float[] array) {
+        return array != null ? array.length * 4L : 0;
+    }
+
+    private static long getSize(int[] array) {
+        return array != null ? array.length * 4L : 0;
+    }
+
+    private static long getSize(ModelImporter.KeyFrame[] keys) {
+        // The key frame objects, with the time and a float4 value
+        return keys != null ? keys.length * 48L : 0;
+    }
+
+    /**
+     * Estimate the memory used by a loaded scene, from its vertex, index,
+     * buffer and key frame data
+     * @param scene the scene
+     * @return size in bytes
+     */
+    public static long getSize(Scene scene) {
+        long size = 0;
+        if (scene.models != null) {
+            for (Model model : scene.models) {
+                for (Mesh mesh : model.meshes) {
+                    size += getSize(mesh.positions) + getSize(mesh.normals) + getSize(mesh.tangents) + getSize(mesh.colors);
+                    size += getSize(mesh.weights) + getSize(mesh.bones) + getSize(mesh.texCoords0) + getSize(mesh.texCoords1);
+                    size += getSize(mesh.indices);
+                }
+            }
+        }
+        if (scene.buffers != null) {
+            for (ModelImporter.Buffer buffer : scene.buffers) {
+                size += buffer.buffer != null ? buffer.buffer.length : 0;
+            }
+        }
+        if (scene.animations != null) {
+            for (ModelImporter.Animation animation : scene.animations) {
+                for (ModelImporter.NodeAnimation nodeAnimation : animation.nodeAnimations) {
+                    size += getSize(nodeAnimation.translationKeys) + getSize(nodeAnimation.rotationKeys) + getSize(nodeAnimation.scaleKeys);
+                }
+            }
+        }
+        return size;
+    }
+
     public static void unloadScene(Scene scene) {
     }
 
@@ -280,10 +345,12 @@ public class ModelUtil {
     public static void loadAnimations(Scene scene, Rig.AnimationSet.Builder animationSetBuilder,
                                       String parentAnimationId, ArrayList<String> animationIds) {
 
-        Arrays.sort(scene.animations, new SortAnimations());
+        // Sort a copy, the scene may be shared with other builders
+        ModelImporter.Animation[] animations = scene.animations.clone();
+        Arrays.sort(animations, new SortAnimations());
 
-        if (scene.animations.length > 1) {
-            System.out.printf("Scene contains more than one animation. Picking the the longest one ('%s')\n", scene.animations[0].name);
+        if (animations.length > 1) {
+            System.out.printf("Scene contains more than one animation. Picking the the longest one ('%s')\n", animations[0].name);
         }
 
         ArrayList<ModelImporter.Bone> bones = loadSkeleton(scene);
@@ -292,7 +359,7 @@ public class ModelUtil {
             prevRootName = bones.get(0).node.name;
         }
 
-        for (ModelImporter.Animation animation : scene.animations) {
+        for (ModelImporter.Animation animation : animations) {
 
             Rig.RigAnimation.Builder animBuilder = Rig.RigAnimation.newBuilder();
 
@@ -522,7 +589,8 @@ public class ModelUtil {
         }
     }
 
-    private static void splitMeshes(Model model) {
+    // Get the meshes of a model with the meshes that have more than 65K+ vertices split, without modifying the model
+    private static Mesh[] getSplitMeshes(Model model) {
         List<Mesh> outMeshes = new ArrayList<>();
         for (Mesh mesh : model.meshes) {
             if ((mesh.positions.length / 3) < MAX_SPLIT_VCOUNT) {
@@ -536,14 +604,15 @@ public class ModelUtil {
         }
 
         if (outMeshes.size() != model.meshes.length) {
-            model.meshes = outMeshes.toArray(new ModelImporter.Mesh[0]);
+            return outMeshes.toArray(new ModelImporter.Mesh[0]);
         }
+        return model.meshes;
     }
 
     // Splits meshes that are have more than 65K+ vertices
     public static void splitMeshes(Scene scene) {
         for (Model model : scene.models) {
-            splitMeshes(model);
+            model.meshes = getSplitMeshes(model);
         }
     }
 
@@ -619,11 +688,15 @@ public class ModelUtil {
         return meshBuilder.build();
     }
 
-    private static Rig.Model loadModel(Node node, Model model, ArrayList<ModelImporter.Bone> skeleton) {
+    private static Rig.Model loadModel(Node node, Model model, ArrayList<ModelImporter.Bone> skeleton, Map<Model, Mesh[]> splitMeshes) {
 
         Rig.Model.Builder modelBuilder = Rig.Model.newBuilder();
 
-        for (Mesh mesh : model.meshes) {
+        Mesh[] meshes = model.meshes;
+        if (splitMeshes != null) {
+            meshes = splitMeshes.computeIfAbsent(model, ModelUtil::getSplitMeshes);
+        }
+        for (Mesh mesh : meshes) {
             modelBuilder.addMeshes(loadMesh(mesh));
         }
 
@@ -633,15 +706,15 @@ public class ModelUtil {
         return modelBuilder.build();
     }
 
-    private static void loadModelInstances(Node node, ArrayList<ModelImporter.Bone> skeleton, ArrayList<Rig.Model> models) {
+    private static void loadModelInstances(Node node, ArrayList<ModelImporter.Bone> skeleton, ArrayList<Rig.Model> models, Map<Model, Mesh[]> splitMeshes) {
 
         if (node.model != null)
         {
-            models.add(loadModel(node, node.model, skeleton));
+            models.add(loadModel(node, node.model, skeleton, splitMeshes));
         }
 
         for (Node child : node.children) {
-            loadModelInstances(child, skeleton, models);
+            loadModelInstances(child, skeleton, models, splitMeshes);
         }
     }
 
@@ -701,7 +774,19 @@ public class ModelUtil {
     }
 
     public static void loadModels(Scene scene, Rig.MeshSet.Builder meshSetBuilder) {
+        loadModels(scene, meshSetBuilder, false);
+    }
+
+    /**
+     * Load the models of a scene. The scene isn't modified, so it can be shared between builders.
+     * @param scene the scene
+     * @param meshSetBuilder the mesh set to add the models to
+     * @param splitMeshes true to split meshes that have more than 65K+ vertices
+     */
+    public static void loadModels(Scene scene, Rig.MeshSet.Builder meshSetBuilder, boolean splitMeshes) {
         ArrayList<ModelImporter.Bone> skeleton = loadSkeleton(scene);
+        // Models can be instanced by several nodes, but are only split once
+        Map<Model, Mesh[]> splitModelMeshes = splitMeshes ? new IdentityHashMap<>() : null;
 
         meshSetBuilder.addAllMaterials(loadMaterialNames(scene));
 
@@ -712,7 +797,7 @@ public class ModelUtil {
                 continue;
             }
 
-            loadModelInstances(modelNode, skeleton, models);
+            loadModelInstances(modelNode, skeleton, models, splitModelMeshes);
             break; // TODO: Support more than one root node
         }
         meshSetBuilder.addAllModels(models);
@@ -755,13 +840,13 @@ public class ModelUtil {
 
     // Generate skeleton DDF data of bones.
     // It will extract the position, rotation and scale from the bone transform as needed by the runtime.
-    private static void boneToDDF(ModelImporter.Bone bone, ArrayList<Rig.Bone> ddfBones) {
+    private static void boneToDDF(ModelImporter.Bone bone, String name, ArrayList<Rig.Bone> ddfBones) {
         Rig.Bone.Builder b = com.dynamo.rig.proto.Rig.Bone.newBuilder();
 
         int parentIndex = (bone.parent != null) ? bone.parent.index : -1;
         b.setParent(parentIndex);
-        b.setId(MurmurHash.hash64(bone.name));
-        b.setName(bone.name);
+        b.setId(MurmurHash.hash64(name));
+        b.setName(name);
 
         b.setLength(0.0f);
 
@@ -789,11 +874,9 @@ public class ModelUtil {
         // Generate DDF representation of bones.
         ArrayList<Rig.Bone> ddfBones = new ArrayList<Rig.Bone>();
         for (Bone bone : boneList) {
-            if (bone.index == 0) {
-                bone.name = "root";
-            }
-
-            boneToDDF(bone, ddfBones);
+            // The bone itself isn't renamed, the scene may be shared with other builders
+            String name = bone.index == 0 ? "root" : bone.name;
+            boneToDDF(bone, name, ddfBones);
         }
         skeletonBuilder.addAllBones(ddfBones);
         return ddfBones.size() > 0;
@@ -803,7 +886,7 @@ public class ModelUtil {
         // Generate DDF representation of bones.
         ArrayList<Rig.Bone> ddfBones = new ArrayList<>();
         for (ModelImporter.Bone bone : bones) {
-            boneToDDF(bone, ddfBones);
+            boneToDDF(bone, bone.name, ddfBones);
         }
         skeletonBuilder.addAllBones(ddfBones);
     }
@@ -17,9 +17,9 @@ package com.dynamo.bob.pipeline;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Quat4d;
@@ -118,7 +118,7 @@ public class ProtoBuilders {
     }
 
     // TODO: Should we move this to a build resource?
-    static Set<String> materialAtlasCompatabilityCache = new HashSet<String>();
+    static Set<String> materialAtlasCompatabilityCache = ConcurrentHashMap.newKeySet();
 
     private static void validateMaterialAtlasCompatability(Project project, IResource resource, String materialProjectPath, MaterialDesc.Builder materialBuilder, String textureSet) throws IOException, CompileExceptionError {
         if (materialProjectPath.isEmpty())
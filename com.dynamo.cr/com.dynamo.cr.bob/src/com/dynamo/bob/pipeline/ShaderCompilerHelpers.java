@@ -18,11 +18,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.File;
 import java.io.PrintWriter;
 
 import java.nio.CharBuffer;
-import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -33,9 +31,6 @@ import java.util.Locale;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
-
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
@@ -47,6 +42,7 @@ import com.dynamo.bob.pipeline.ShaderUtil.SPIRVReflector;
 import com.dynamo.bob.pipeline.ShaderUtil.Common;
 import com.dynamo.bob.pipeline.ShaderProgramBuilder;
 import com.dynamo.bob.util.Exec;
+import com.dynamo.bob.util.Exec.PipeResult;
 import com.dynamo.bob.util.Exec.Result;
 import com.dynamo.bob.util.MurmurHash;
 
@@ -152,16 +148,29 @@ public class ShaderCompilerHelpers {
     static public String getResultString(Result r)
     {
         if (r.ret != 0 ) {
-            String[] tokenizedResult = new String(r.stdOutErr).split(":", 2);
-            String message = tokenizedResult[0];
-            if(tokenizedResult.length != 1) {
-                message = tokenizedResult[1];
-            }
-            return message;
+            return getResultMessage(r.stdOutErr);
+        }
+        return null;
+    }
+
+    static public String getResultString(PipeResult r)
+    {
+        if (r.ret != 0 ) {
+            return getResultMessage(r.stdErr);
         }
         return null;
     }
 
+    static private String getResultMessage(byte[] output)
+    {
+        String[] tokenizedResult = new String(output).split(":", 2);
+        String message = tokenizedResult[0];
+        if(tokenizedResult.length != 1) {
+            message = tokenizedResult[1];
+        }
+        return message;
+    }
+
     static public void checkResult(String result_string, IResource resource, String resourceOutput) throws CompileExceptionError {
         if (result_string != null ) {
             if(resource != null) {
@@ -214,22 +223,17 @@ public class ShaderCompilerHelpers {
         }
 
         // compile GLSL (ES3 or Desktop 140) to SPIR-V
-        File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-        file_in_glsl.deleteOnExit();
-        FileUtils.writeByteArrayToFile(file_in_glsl, es3Result.output.getBytes());
-
-        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        file_out_spv.deleteOnExit();
-
+        // The shader tools read from stdin and write to stdout, so no temporary files are needed
         String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+        PipeResult result = Exec.execPipe(es3Result.output.getBytes(),
+                Bob.getExe(Platform.getHostPlatform(), "glslc"),
                 "-w",
                 "-fauto-bind-uniforms",
                 "-fauto-map-locations",
                 "-std=" + es3Result.shaderVersion + es3Result.shaderProfile,
                 "-fshader-stage=" + spirvShaderStage,
-                "-o", file_out_spv.getAbsolutePath(),
-                file_in_glsl.getAbsolutePath()
+                "-o", "-",
+                "-"
                 );
 
         String result_string = getResultString(result);
@@ -239,15 +243,14 @@ public class ShaderCompilerHelpers {
         } else {
             checkResult(result_string, null, resourceOutput);
         }
-
-        File file_out_spv_opt = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        file_out_spv_opt.deleteOnExit();
+        byte[] spirv = result.stdOut;
 
         // Run optimization pass
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
+        result = Exec.execPipe(spirv,
+            Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
             "-O",
-            file_out_spv.getAbsolutePath(),
-            "-o", file_out_spv_opt.getAbsolutePath());
+            "-",
+            "-o", "-");
 
         result_string = getResultString(result);
         if (soft_fail && result_string != null) {
@@ -257,25 +260,18 @@ public class ShaderCompilerHelpers {
             checkResult(result_string, null, resourceOutput);
         }
 
-        // Generate reflection data
-        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        file_out_refl.deleteOnExit();
-
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            file_out_spv_opt.getAbsolutePath(),
-            "--output",file_out_refl.getAbsolutePath(),
-            "--reflect");
-
-        result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
-            return res;
-        } else {
-            checkResult(result_string, null, resourceOutput);
+        // Generate reflection data from the optimized binary
+        SPIRVReflector reflector;
+        try {
+            reflector = new SPIRVReflector(result.stdOut);
+        } catch (IOException e) {
+            result_string = e.getMessage();
+            if (soft_fail) {
+                res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
+                return res;
+            }
+            throw new CompileExceptionError(resourceOutput + ":" + result_string, e);
         }
-
-        String result_json             = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
-        SPIRVReflector reflector       = new SPIRVReflector(result_json);
         ArrayList<String> shaderIssues = new ArrayList<String>();
 
         // Put all shader resources on a separate list that will be sorted by binding number later
@@ -345,7 +341,7 @@ public class ShaderCompilerHelpers {
         res.inputs    = reflector.getInputs();
         res.outputs   = reflector.getOutputs();
         res.resources = resources;
-        res.source    = FileUtils.readFileToByteArray(file_out_spv);
+        res.source    = spirv;
 
         Collections.sort(res.inputs, new SortBindingsComparator());
         Collections.sort(res.outputs, new SortBindingsComparator());
@@ -17,15 +17,18 @@ package com.dynamo.bob.pipeline;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.node.ArrayNode;
-import org.codehaus.jackson.map.ObjectMapper;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
@@ -202,13 +205,44 @@ public class ShaderUtil {
         }
     }
 
+    /**
+     * Reflection of the resources of a SPIR-V module, read directly from the binary.
+     * Resources are reported the same way as spirv-cross --reflect does it, in
+     * declaration order.
+     */
     public static class SPIRVReflector {
-        private static JsonNode root;
-
-        public SPIRVReflector(String json) throws IOException
-        {
-            this.root = (new ObjectMapper()).readTree(json);
-        }
+        private static final int MAGIC_NUMBER          = 0x07230203;
+
+        private static final int OP_NAME               = 5;
+        private static final int OP_MEMBER_NAME        = 6;
+        private static final int OP_ENTRY_POINT        = 15;
+        private static final int OP_TYPE_BOOL          = 20;
+        private static final int OP_TYPE_INT           = 21;
+        private static final int OP_TYPE_FLOAT         = 22;
+        private static final int OP_TYPE_VECTOR        = 23;
+        private static final int OP_TYPE_MATRIX        = 24;
+        private static final int OP_TYPE_IMAGE         = 25;
+        private static final int OP_TYPE_SAMPLED_IMAGE = 27;
+        private static final int OP_TYPE_ARRAY         = 28;
+        private static final int OP_TYPE_STRUCT        = 30;
+        private static final int OP_TYPE_POINTER       = 32;
+        private static final int OP_CONSTANT           = 43;
+        private static final int OP_VARIABLE           = 59;
+        private static final int OP_DECORATE           = 71;
+        private static final int OP_MEMBER_DECORATE    = 72;
+
+        private static final int DECORATION_BLOCK          = 2;
+        private static final int DECORATION_BUILTIN        = 11;
+        private static final int DECORATION_LOCATION       = 30;
+        private static final int DECORATION_BINDING        = 33;
+        private static final int DECORATION_DESCRIPTOR_SET = 34;
+
+        private static final int STORAGE_CLASS_UNIFORM_CONSTANT = 0;
+        private static final int STORAGE_CLASS_INPUT            = 1;
+        private static final int STORAGE_CLASS_UNIFORM          = 2;
+        private static final int STORAGE_CLASS_OUTPUT           = 3;
+
+        private static final String[] IMAGE_DIMS = { "1D", "2D", "3D", "Cube", "2DRect", "Buffer", "SubpassInput" };
 
         public static class Resource
         {
@@ -224,46 +258,267 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms;
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        private static class Type {
+            int   op;
+            int[] operands;
+        }
+
+        private static class Variable {
+            int id;
+            int typeId;
+            int storageClass;
+        }
+
+        private final Map<Integer, Type>                  types        = new HashMap<Integer, Type>();
+        private final Map<Integer, String>                names        = new HashMap<Integer, String>();
+        private final Map<Integer, Map<Integer, String>>  memberNames  = new HashMap<Integer, Map<Integer, String>>();
+        private final Map<Integer, Map<Integer, Integer>> decorations  = new HashMap<Integer, Map<Integer, Integer>>();
+        private final Set<Integer>                        builtinTypes = new HashSet<Integer>();
+        private final Map<Integer, Integer>               constants    = new HashMap<Integer, Integer>();
+        private final List<Variable>                      variables    = new ArrayList<Variable>();
+        private final Set<Integer>                        interfaceIds = new HashSet<Integer>();
+
+        public SPIRVReflector(byte[] spirv) throws IOException
         {
-            ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
+            if (spirv.length < 20 || spirv.length % 4 != 0) {
+                throw new IOException("Invalid SPIR-V module size: " + spirv.length);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(spirv).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC_NUMBER) {
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                if (buffer.getInt(0) != MAGIC_NUMBER) {
+                    throw new IOException("Invalid SPIR-V magic number");
+                }
+            }
+            int[] words = new int[spirv.length / 4];
+            buffer.asIntBuffer().get(words);
+
+            boolean hasEntryPoint = false;
+            int offset = 5;
+            while (offset < words.length) {
+                int wordCount = words[offset] >>> 16;
+                int op        = words[offset] & 0xffff;
+                if (wordCount == 0 || offset + wordCount > words.length) {
+                    throw new IOException("Invalid SPIR-V instruction at word " + offset);
+                }
+                int first = offset + 1;
+                int end   = offset + wordCount;
+
+                switch (op) {
+                    case OP_NAME:
+                        names.put(words[first], readString(words, first + 1, end));
+                        break;
+                    case OP_MEMBER_NAME:
+                        getOrCreate(memberNames, words[first]).put(words[first + 1], readString(words, first + 2, end));
+                        break;
+                    case OP_ENTRY_POINT:
+                        // Resources are reflected for the first entry point only
+                        if (!hasEntryPoint) {
+                            hasEntryPoint = true;
+                            int interfaceStart = first + 2 + (readString(words, first + 2, end).getBytes(StandardCharsets.UTF_8).length + 4) / 4;
+                            for (int i = interfaceStart; i < end; ++i) {
+                                interfaceIds.add(words[i]);
+                            }
+                        }
+                        break;
+                    case OP_DECORATE:
+                        if (first + 2 < end) {
+                            getOrCreate(decorations, words[first]).put(words[first + 1], words[first + 2]);
+                        } else {
+                            getOrCreate(decorations, words[first]).put(words[first + 1], 0);
+                        }
+                        break;
+                    case OP_MEMBER_DECORATE:
+                        if (words[first + 2] == DECORATION_BUILTIN) {
+                            builtinTypes.add(words[first]);
+                        }
+                        break;
+                    case OP_TYPE_BOOL:
+                    case OP_TYPE_INT:
+                    case OP_TYPE_FLOAT:
+                    case OP_TYPE_VECTOR:
+                    case OP_TYPE_MATRIX:
+                    case OP_TYPE_IMAGE:
+                    case OP_TYPE_SAMPLED_IMAGE:
+                    case OP_TYPE_ARRAY:
+                    case OP_TYPE_STRUCT:
+                    case OP_TYPE_POINTER:
+                        Type type = new Type();
+                        type.op = op;
+                        type.operands = Arrays.copyOfRange(words, first + 1, end);
+                        types.put(words[first], type);
+                        break;
+                    case OP_CONSTANT:
+                        constants.put(words[first + 1], words[first + 2]);
+                        break;
+                    case OP_VARIABLE:
+                        Variable variable = new Variable();
+                        variable.typeId = words[first];
+                        variable.id = words[first + 1];
+                        variable.storageClass = words[first + 2];
+                        variables.add(variable);
+                        break;
+                    default:
+                        break;
+                }
+                offset = end;
+            }
+        }
 
-            JsonNode uboNode   = root.get("ubos");
-            JsonNode typesNode = root.get("types");
+        private static <T> Map<Integer, T> getOrCreate(Map<Integer, Map<Integer, T>> map, int id) {
+            Map<Integer, T> result = map.get(id);
+            if (result == null) {
+                result = new HashMap<Integer, T>();
+                map.put(id, result);
+            }
+            return result;
+        }
 
-            if (uboNode == null || typesNode == null) {
-                return uniformBlocks;
+        private static String readString(int[] words, int start, int end) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = start; i < end; ++i) {
+                for (int b = 0; b < 4; ++b) {
+                    int c = (words[i] >>> (b * 8)) & 0xff;
+                    if (c == 0) {
+                        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    bytes.write(c);
+                }
             }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
 
-            Iterator<JsonNode> uniformBlockNodeIt = uboNode.getElements();
-            while (uniformBlockNodeIt.hasNext()) {
-                JsonNode uniformBlockNode = uniformBlockNodeIt.next();
+        private Integer getDecoration(int id, int decoration) {
+            Map<Integer, Integer> idDecorations = decorations.get(id);
+            return idDecorations != null ? idDecorations.get(decoration) : null;
+        }
 
-                UniformBlock ubo = new UniformBlock();
-                ubo.name         = uniformBlockNode.get("name").asText();
-                ubo.set          = uniformBlockNode.get("set").asInt();
-                ubo.binding      = uniformBlockNode.get("binding").asInt();
-                ubo.uniforms     = new ArrayList<Resource>();
+        private int getDecorationValue(int id, int decoration) {
+            Integer value = getDecoration(id, decoration);
+            return value != null ? value : 0;
+        }
 
-                JsonNode typeNode    = typesNode.get(uniformBlockNode.get("type").asText());
-                JsonNode membersNode = typeNode.get("members");
-
-                for (Iterator<JsonNode> membersNodeIt = membersNode.getElements(); membersNodeIt.hasNext();) {
-                    JsonNode uniformNode = membersNodeIt.next();
-                    Resource res         = new Resource();
-                    res.name             = uniformNode.get("name").asText();
-                    res.type             = uniformNode.get("type").asText();
-                    res.elementCount     = 1;
-                    res.binding          = 0;
-                    res.set              = 0;
-
-                    JsonNode arrayNode = uniformNode.get("array");
-                    if (arrayNode != null && arrayNode.isArray())
-                    {
-                        ArrayNode array = (ArrayNode) arrayNode;
-                        res.elementCount = arrayNode.get(0).asInt();
+        private String getName(int id) {
+            String name = names.get(id);
+            return name != null && !name.isEmpty() ? name : "_" + id;
+        }
+
+        // Get the type a variable points to, without any array dimensions
+        private int getBaseTypeId(Variable variable) {
+            int typeId = types.get(variable.typeId).operands[1];
+            Type type = types.get(typeId);
+            while (type != null && type.op == OP_TYPE_ARRAY) {
+                typeId = type.operands[0];
+                type = types.get(typeId);
+            }
+            return typeId;
+        }
+
+        // Size of the innermost array dimension of a type, or 1 if it isn't an array
+        private int getElementCount(int typeId) {
+            Type type = types.get(typeId);
+            int elementCount = 1;
+            while (type != null && type.op == OP_TYPE_ARRAY) {
+                Integer length = constants.get(type.operands[1]);
+                elementCount = length != null ? length : 0;
+                type = types.get(type.operands[0]);
+            }
+            return elementCount;
+        }
+
+        private String getTypeName(int typeId) {
+            Type type = types.get(typeId);
+            if (type == null) {
+                return "_" + typeId;
+            }
+            switch (type.op) {
+                case OP_TYPE_ARRAY:
+                    return getTypeName(type.operands[0]);
+                case OP_TYPE_STRUCT:
+                    return "_" + typeId;
+                case OP_TYPE_MATRIX: {
+                    int columns = type.operands[1];
+                    Type columnType = types.get(type.operands[0]);
+                    int rows = columnType.operands[1];
+                    String prefix = getVectorPrefix(types.get(columnType.operands[0]));
+                    return columns == rows ? prefix + "mat" + columns : prefix + "mat" + columns + "x" + rows;
+                }
+                case OP_TYPE_VECTOR:
+                    return getVectorPrefix(types.get(type.operands[0])) + "vec" + type.operands[1];
+                case OP_TYPE_SAMPLED_IMAGE: {
+                    Type image = types.get(type.operands[0]);
+                    int dim = image.operands[1];
+                    StringBuilder name = new StringBuilder(getVectorPrefix(types.get(image.operands[0])));
+                    name.append("sampler");
+                    name.append(dim < IMAGE_DIMS.length ? IMAGE_DIMS[dim] : "");
+                    if (image.operands[4] != 0) {
+                        name.append("MS");
                     }
+                    if (image.operands[3] != 0) {
+                        name.append("Array");
+                    }
+                    if (image.operands[2] == 1) {
+                        name.append("Shadow");
+                    }
+                    return name.toString();
+                }
+                case OP_TYPE_BOOL:
+                    return "bool";
+                case OP_TYPE_INT:
+                    return type.operands[1] != 0 ? "int" : "uint";
+                case OP_TYPE_FLOAT:
+                    return type.operands[0] == 64 ? "double" : "float";
+                default:
+                    return "_" + typeId;
+            }
+        }
+
+        private static String getVectorPrefix(Type componentType) {
+            if (componentType == null) {
+                return "";
+            }
+            switch (componentType.op) {
+                case OP_TYPE_BOOL:  return "b";
+                case OP_TYPE_INT:   return componentType.operands[1] != 0 ? "i" : "u";
+                case OP_TYPE_FLOAT: return componentType.operands[0] == 64 ? "d" : "";
+                default:            return "";
+            }
+        }
+
+        private boolean isBuiltin(Variable variable) {
+            return getDecoration(variable.id, DECORATION_BUILTIN) != null || builtinTypes.contains(getBaseTypeId(variable));
+        }
 
+        public ArrayList<UniformBlock> getUniformBlocks()
+        {
+            ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
+
+            for (Variable variable : variables) {
+                if (variable.storageClass != STORAGE_CLASS_UNIFORM) {
+                    continue;
+                }
+                int blockTypeId = getBaseTypeId(variable);
+                Type blockType = types.get(blockTypeId);
+                if (blockType == null || blockType.op != OP_TYPE_STRUCT || getDecoration(blockTypeId, DECORATION_BLOCK) == null) {
+                    continue;
+                }
+
+                UniformBlock ubo = new UniformBlock();
+                String blockName = names.get(blockTypeId);
+                ubo.name         = blockName != null && !blockName.isEmpty() ? blockName : "_" + variable.id;
+                ubo.set          = getDecorationValue(variable.id, DECORATION_DESCRIPTOR_SET);
+                ubo.binding      = getDecorationValue(variable.id, DECORATION_BINDING);
+                ubo.uniforms     = new ArrayList<Resource>();
+
+                Map<Integer, String> blockMemberNames = memberNames.get(blockTypeId);
+                for (int i = 0; i < blockType.operands.length; ++i) {
+                    String memberName = blockMemberNames != null ? blockMemberNames.get(i) : null;
+                    Resource res     = new Resource();
+                    res.name         = memberName != null && !memberName.isEmpty() ? memberName : "_m" + i;
+                    res.type         = getTypeName(blockType.operands[i]);
+                    res.elementCount = getElementCount(blockType.operands[i]);
+                    res.binding      = 0;
+                    res.set          = 0;
                     ubo.uniforms.add(res);
                 }
 
@@ -273,22 +528,23 @@ public class ShaderUtil {
             return uniformBlocks;
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
 
-            JsonNode texturesNode = root.get("textures");
-
-            if (texturesNode == null) {
-                return textures;
-            }
-
-            for (Iterator<JsonNode> iter = texturesNode.getElements(); iter.hasNext();) {
-                JsonNode textureNode = iter.next();
+            for (Variable variable : variables) {
+                if (variable.storageClass != STORAGE_CLASS_UNIFORM_CONSTANT) {
+                    continue;
+                }
+                int typeId = getBaseTypeId(variable);
+                Type type = types.get(typeId);
+                if (type == null || type.op != OP_TYPE_SAMPLED_IMAGE) {
+                    continue;
+                }
                 Resource res     = new Resource();
-                res.name         = textureNode.get("name").asText();
-                res.type         = textureNode.get("type").asText();
-                res.binding      = textureNode.get("binding").asInt();
-                res.set          = textureNode.get("set").asInt();
+                res.name         = getName(variable.id);
+                res.type         = getTypeName(typeId);
+                res.binding      = getDecorationValue(variable.id, DECORATION_BINDING);
+                res.set          = getDecorationValue(variable.id, DECORATION_DESCRIPTOR_SET);
                 res.elementCount = 1;
                 textures.add(res);
             }
@@ -296,46 +552,29 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
-            ArrayList<Resource> inputs = new ArrayList<Resource>();
-
-            JsonNode inputsNode = root.get("inputs");
-
-            if (inputsNode == null) {
-                return inputs;
-            }
+        private ArrayList<Resource> getStageResources(int storageClass) {
+            ArrayList<Resource> resources = new ArrayList<Resource>();
 
-            for (Iterator<JsonNode> iter = inputsNode.getElements(); iter.hasNext();) {
-                JsonNode inputNode = iter.next();
+            for (Variable variable : variables) {
+                if (variable.storageClass != storageClass || !interfaceIds.contains(variable.id) || isBuiltin(variable)) {
+                    continue;
+                }
                 Resource res = new Resource();
-                res.name     = inputNode.get("name").asText();
-                res.type     = inputNode.get("type").asText();
-                res.binding  = inputNode.get("location").asInt();
-                inputs.add(res);
+                res.name     = getName(variable.id);
+                res.type     = getTypeName(getBaseTypeId(variable));
+                res.binding  = getDecorationValue(variable.id, DECORATION_LOCATION);
+                resources.add(res);
             }
 
-            return inputs;
+            return resources;
         }
 
-        public static ArrayList<Resource> getOutputs() {
-            ArrayList<Resource> outputs = new ArrayList<Resource>();
-
-            JsonNode outputsNode = root.get("outputs");
-
-            if (outputsNode == null) {
-                return outputs;
-            }
-
-            for (Iterator<JsonNode> iter = outputsNode.getElements(); iter.hasNext();) {
-                JsonNode outputNode = iter.next();
-                Resource res = new Resource();
-                res.name     = outputNode.get("name").asText();
-                res.type     = outputNode.get("type").asText();
-                res.binding  = outputNode.get("location").asInt();
-                outputs.add(res);
-            }
+        public ArrayList<Resource> getInputs() {
+            return getStageResources(STORAGE_CLASS_INPUT);
+        }
 
-            return outputs;
+        public ArrayList<Resource> getOutputs() {
+            return getStageResources(STORAGE_CLASS_OUTPUT);
         }
     }
 
@@ -14,8 +14,6 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import com.dynamo.bob.Bob;
@@ -49,6 +47,7 @@ public class TextureBuilder extends Builder<Void> {
         String textureProfilesPath = this.project.getProjectProperties().getStringValue("graphics", "texture_profiles");
         if (textureProfilesPath != null) {
             taskBuilder.addInput(this.project.getResource(textureProfilesPath));
+            taskBuilder.addExtraCacheKey(TextureUtil.getTextureProfilePlatformsCacheKey(this.project));
         }
 
         return taskBuilder.build();
@@ -61,19 +60,20 @@ public class TextureBuilder extends Builder<Void> {
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
         logger.info("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
 
-        ByteArrayInputStream is = new ByteArrayInputStream(task.input(0).getContent());
+        DecodedImage image = DecodedImage.get(project.getDecodedImageCache(), task.input(0));
         TextureImage texture;
         try {
+            if (image == null) {
+                throw new TextureGeneratorException("Unknown texture format.");
+            }
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(is, texProfile, compress);
+            texture = TextureGenerator.generate(image, texProfile, compress, project.getWorkerPool());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
-        texture.writeTo(out);
-        out.close();
-        task.output(0).setContent(out.toByteArray());
+        // serialized straight into an array of the exact size
+        task.output(0).setContent(texture.toByteArray());
     }
 
 }
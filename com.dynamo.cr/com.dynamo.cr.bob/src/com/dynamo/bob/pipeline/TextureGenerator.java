@@ -34,8 +34,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import javax.imageio.ImageIO;
 
@@ -48,6 +54,7 @@ import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.WorkerPool;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
@@ -65,6 +72,8 @@ public class TextureGenerator {
     // specify what is maximum of threads TextureGenerator may use
     public static int maxThreads = Project.getDefaultMaxCpuThreads();
 
+    private static final Object texcCreateLock = new Object();
+
     private static HashMap<TextureFormatAlternative.CompressionLevel, Integer> compressionLevelLUT = new HashMap<TextureFormatAlternative.CompressionLevel, Integer>();
     static {
         compressionLevelLUT.put(TextureFormatAlternative.CompressionLevel.FAST, CompressionLevel.CL_FAST);
@@ -107,7 +116,7 @@ public class TextureGenerator {
         pixelFormatLUT.put(TextureFormat.TEXTURE_FORMAT_RGBA_BC7, PixelFormat.RGBA_BC7);
     }
 
-    private static BufferedImage convertImage(BufferedImage origImage, int type) {
+    static BufferedImage convertImage(BufferedImage origImage, int type) {
         BufferedImage image = new BufferedImage(origImage.getWidth(), origImage.getHeight(), type);
         Graphics2D g2d = image.createGraphics();
         g2d.drawImage(origImage, 0, 0, null);
@@ -224,20 +233,62 @@ public class TextureGenerator {
         return byteBuffer;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(String name, BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
-        Integer pixelFormat = PixelFormat.R8G8B8A8;
-        int texcCompressionLevel;
-        int texcCompressionType;
+    // Settings of a single texture format alternative, after format and compression remapping
+    private static class AlternativeSettings {
+        final TextureFormat textureFormat;
+        final TextureImage.CompressionType compressionType;
+        final int pixelFormat;
+        final int texcCompressionLevel;
+        final int texcCompressionType;
+        final boolean generateMipMaps;
+        final boolean premulAlpha;
+        final int width;
+        final int height;
+
+        AlternativeSettings(TextureFormat textureFormat, TextureImage.CompressionType compressionType, int pixelFormat, int texcCompressionLevel, int texcCompressionType, boolean generateMipMaps, boolean premulAlpha, int width, int height) {
+            this.textureFormat = textureFormat;
+            this.compressionType = compressionType;
+            this.pixelFormat = pixelFormat;
+            this.texcCompressionLevel = texcCompressionLevel;
+            this.texcCompressionType = texcCompressionType;
+            this.generateMipMaps = generateMipMaps;
+            this.premulAlpha = premulAlpha;
+            this.width = width;
+            this.height = height;
+        }
 
-        int dataSize = width * height * 4;
+        // Alternatives with the same base level key start from identical pixels before mipmap generation
+        String getBaseLevelKey() {
+            return width + "x" + height + (premulAlpha ? ":premul" : "");
+        }
 
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AlternativeSettings)) {
+                return false;
+            }
+            AlternativeSettings other = (AlternativeSettings) o;
+            return textureFormat == other.textureFormat &&
+                compressionType == other.compressionType &&
+                pixelFormat == other.pixelFormat &&
+                texcCompressionLevel == other.texcCompressionLevel &&
+                texcCompressionType == other.texcCompressionType &&
+                generateMipMaps == other.generateMipMaps &&
+                premulAlpha == other.premulAlpha &&
+                width == other.width &&
+                height == other.height;
+        }
 
-        ByteBuffer buffer_input = getByteBuffer(image);
+        @Override
+        public int hashCode() {
+            return Objects.hash(textureFormat, compressionType, pixelFormat, texcCompressionLevel, texcCompressionType, generateMipMaps, premulAlpha, width, height);
+        }
+    }
 
+    private static AlternativeSettings resolveSettings(int width, int height, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha) throws TextureGeneratorException {
+        Integer pixelFormat = PixelFormat.R8G8B8A8;
+        int texcCompressionLevel;
+        int texcCompressionType;
 
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
@@ -282,53 +333,72 @@ public class TextureGenerator {
             throw new TextureGeneratorException("Invalid texture format.");
         }
 
-        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, buffer_input);
-        if (texture == null) {
-            throw new TextureGeneratorException("Failed to create texture");
+        int newWidth  = width;
+        int newHeight = height;
+
+        // For pvrtc textures
+        newWidth = TextureUtil.closestPOT(newWidth);
+        newHeight = TextureUtil.closestPOT(newHeight);
+
+        // Shrink sides until width & height fit max texture size specified in tex profile
+        if (maxTextureSize > 0) {
+            while (newWidth > maxTextureSize || newHeight > maxTextureSize) {
+                newWidth = Math.max(newWidth / 2, 1);
+                newHeight = Math.max(newHeight / 2, 1);
+            }
+
+            assert(newWidth <= maxTextureSize && newHeight <= maxTextureSize);
         }
 
-        try {
+        // PVR textures need to be square on iOS
+        if ((newHeight != newWidth) &&
+            (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 ||
+            textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1 ||
+            textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 ||
+            textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1)) {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            Logger logger = Logger.getLogger(TextureGenerator.class.getName());
+            logger.warning("PVR compressed texture is not square and will be resized.");
 
-            // For pvrtc textures
-            newWidth = TextureUtil.closestPOT(newWidth);
-            newHeight = TextureUtil.closestPOT(newHeight);
+            newWidth = Math.max(newWidth, newHeight);
+            newHeight = newWidth;
+        }
 
-            // Shrink sides until width & height fit max texture size specified in tex profile
-            if (maxTextureSize > 0) {
-                while (newWidth > maxTextureSize || newHeight > maxTextureSize) {
-                    newWidth = Math.max(newWidth / 2, 1);
-                    newHeight = Math.max(newHeight / 2, 1);
-                }
+        premulAlpha = premulAlpha && !ColorModel.getRGBdefault().isAlphaPremultiplied();
 
-                assert(newWidth <= maxTextureSize && newHeight <= maxTextureSize);
-            }
+        return new AlternativeSettings(textureFormat, compressionType, pixelFormat, texcCompressionLevel, texcCompressionType, generateMipMaps, premulAlpha, newWidth, newHeight);
+    }
 
-            // PVR textures need to be square on iOS
-            if ((newHeight != newWidth) &&
-                (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 ||
-                textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1 ||
-                textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 ||
-                textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1)) {
+    // The static state in texc (encoder initialisation and texture naming) is not thread safe
+    private static Pointer createTexture(int width, int height, int pixelFormat, int compressionType, ByteBuffer data) {
+        synchronized (texcCreateLock) {
+            return TexcLibrary.TEXC_Create(null, width, height, pixelFormat, ColorSpace.SRGB, compressionType, data);
+        }
+    }
 
-                Logger logger = Logger.getLogger(TextureGenerator.class.getName());
-                logger.warning("PVR compressed texture is not square and will be resized.");
+    // Creates a texture from the image and premultiplies, resizes and flips it into the base level of the alternative
+    private static Pointer prepareTexture(BufferedImage image, AlternativeSettings settings, int texcCompressionType, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException {
+        int width = image.getWidth();
+        int height = image.getHeight();
 
-                newWidth = Math.max(newWidth, newHeight);
-                newHeight = newWidth;
-            }
+        ByteBuffer buffer_input = getByteBuffer(image);
+
+        Pointer texture = createTexture(width, height, PixelFormat.A8B8G8R8, texcCompressionType, buffer_input);
+        if (texture == null) {
+            throw new TextureGeneratorException("Failed to create texture");
+        }
 
+        boolean prepared = false;
+        try {
             // Premultiply before scale so filtering cannot introduce colour artefacts.
-            if (premulAlpha && !ColorModel.getRGBdefault().isAlphaPremultiplied()) {
+            if (settings.premulAlpha) {
                 if (!TexcLibrary.TEXC_PreMultiplyAlpha(texture)) {
                     throw new TextureGeneratorException("could not premultiply alpha");
                 }
             }
 
-            if (width != newWidth || height != newHeight) {
-                if (!TexcLibrary.TEXC_Resize(texture, newWidth, newHeight)) {
+            if (width != settings.width || height != settings.height) {
+                if (!TexcLibrary.TEXC_Resize(texture, settings.width, settings.height)) {
                     throw new TextureGeneratorException("could not resize texture to POT");
                 }
             }
@@ -340,22 +410,69 @@ public class TextureGenerator {
                 }
             }
 
+            prepared = true;
+            return texture;
+
+        } finally {
+            if (!prepared) {
+                TexcLibrary.TEXC_Destroy(texture);
+            }
+        }
+    }
+
+    // Generates the RGBA base level shared by all alternatives with the same size
+    private static ByteBuffer generateBaseLevel(BufferedImage image, AlternativeSettings settings, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException {
+        Pointer texture = prepareTexture(image, settings, CompressionType.CT_DEFAULT, flipAxis);
+        try {
+            // Not encoded yet, so this is the single RGBA8888 level
+            int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
+            ByteBuffer baseLevel = ByteBuffer.allocateDirect(bufferSize);
+            int dataSize = TexcLibrary.TEXC_GetData(texture, baseLevel, bufferSize);
+            baseLevel.limit(dataSize);
+            return baseLevel;
+
+        } finally {
+            TexcLibrary.TEXC_Destroy(texture);
+        }
+    }
+
+    // Generates mipmaps and encodes the alternative from a shared base level, or from the image if the base level isn't shared
+    private static TextureImage.Image encodeAlternative(BufferedImage image, ByteBuffer baseLevel, AlternativeSettings settings, EnumSet<FlipAxis> flipAxis, int numThreads) throws TextureGeneratorException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int newWidth = settings.width;
+        int newHeight = settings.height;
+        int texcCompressionType = settings.texcCompressionType;
+        boolean generateMipMaps = settings.generateMipMaps;
+
+        Pointer texture;
+        if (baseLevel != null) {
+            texture = createTexture(newWidth, newHeight, PixelFormat.R8G8B8A8, texcCompressionType, baseLevel);
+            if (texture == null) {
+                throw new TextureGeneratorException("Failed to create texture");
+            }
+        } else {
+            texture = prepareTexture(image, settings, texcCompressionType, flipAxis);
+        }
+
+        try {
+
             if (generateMipMaps) {
                 if (!TexcLibrary.TEXC_GenMipMaps(texture)) {
                     throw new TextureGeneratorException("could not generate mip-maps");
                 }
             }
-            if (!TexcLibrary.TEXC_Encode(texture, pixelFormat, ColorSpace.SRGB, texcCompressionLevel, texcCompressionType, generateMipMaps, maxThreads)) {
+            if (!TexcLibrary.TEXC_Encode(texture, settings.pixelFormat, ColorSpace.SRGB, settings.texcCompressionLevel, texcCompressionType, generateMipMaps, numThreads)) {
                 throw new TextureGeneratorException("could not encode");
             }
 
             int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
             ByteBuffer buffer_output = ByteBuffer.allocateDirect(bufferSize);
-            dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
+            int dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
             buffer_output.limit(dataSize);
 
             TextureImage.Image.Builder raw = TextureImage.Image.newBuilder().setWidth(newWidth).setHeight(newHeight)
-                    .setOriginalWidth(width).setOriginalHeight(height).setFormat(textureFormat);
+                    .setOriginalWidth(width).setOriginalHeight(height).setFormat(settings.textureFormat);
 
             boolean texcBasisCompression = false;
 
@@ -405,8 +522,8 @@ public class TextureGenerator {
             }
 
             raw.setData(ByteString.copyFrom(buffer_output));
-            raw.setFormat(textureFormat);
-            raw.setCompressionType(compressionType);
+            raw.setFormat(settings.textureFormat);
+            raw.setCompressionType(settings.compressionType);
             raw.setCompressionFlags(TexcLibrary.TEXC_GetCompressionFlags(texture));
 
             return raw.build();
@@ -416,6 +533,49 @@ public class TextureGenerator {
         }
     }
 
+    // Generates one image per alternative, in the same order as the settings.
+    // Identical alternatives are only encoded once, the base level is prepared
+    // once for alternatives of the same size and the alternatives are encoded
+    // in parallel on the worker pool, if any.
+    private static List<TextureImage.Image> generateAlternatives(BufferedImage image, List<AlternativeSettings> alternatives, EnumSet<FlipAxis> flipAxis, WorkerPool workerPool) throws TextureGeneratorException {
+        List<AlternativeSettings> unique = new ArrayList<>(new LinkedHashSet<>(alternatives));
+
+        Map<String, Integer> baseLevelUsers = new HashMap<>();
+        for (AlternativeSettings settings : unique) {
+            baseLevelUsers.merge(settings.getBaseLevelKey(), 1, Integer::sum);
+        }
+        Map<String, ByteBuffer> baseLevels = new HashMap<>();
+        for (AlternativeSettings settings : unique) {
+            String key = settings.getBaseLevelKey();
+            if (baseLevelUsers.get(key) > 1 && !baseLevels.containsKey(key)) {
+                baseLevels.put(key, generateBaseLevel(image, settings, flipAxis));
+            }
+        }
+
+        int parallelism = workerPool != null ? Math.max(1, Math.min(unique.size(), maxThreads)) : 1;
+        final int encodeThreads = Math.max(1, maxThreads / parallelism);
+
+        WorkerPool.Work<TextureImage.Image, TextureGeneratorException> work = i -> {
+            AlternativeSettings settings = unique.get(i);
+            return encodeAlternative(image, baseLevels.get(settings.getBaseLevelKey()), settings, flipAxis, encodeThreads);
+        };
+        List<TextureImage.Image> encoded;
+        if (parallelism > 1) {
+            encoded = workerPool.map(unique.size(), work);
+        } else {
+            encoded = new ArrayList<>(unique.size());
+            for (int i = 0; i < unique.size(); ++i) {
+                encoded.add(work.run(i));
+            }
+        }
+
+        List<TextureImage.Image> images = new ArrayList<>(alternatives.size());
+        for (AlternativeSettings settings : alternatives) {
+            images.add(encoded.get(unique.indexOf(settings)));
+        }
+        return images;
+    }
+
     // For convenience, some methods without the flipAxis and/or compress argument.
     // It will always try to flip on Y axis since this is the byte order that OpenGL expects for regular/most textures,
     // for those methods without this argument.
@@ -447,20 +607,50 @@ public class TextureGenerator {
     }
 
     public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(inputStream, texProfile, compress, flipAxis, null);
+    }
+
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, WorkerPool workerPool) throws TextureGeneratorException, IOException {
         TimeProfiler.start("Read Input Stream");
         BufferedImage origImage = ImageIO.read(inputStream);
         inputStream.close();
         TimeProfiler.stop();
-        return generate(origImage, texProfile, compress, flipAxis);
+        return generate(origImage, texProfile, compress, flipAxis, workerPool);
     }
 
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
+    // Alternatives are encoded in parallel on the worker pool
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, WorkerPool workerPool) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), workerPool);
+    }
+
+    public static TextureImage generate(DecodedImage image, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
+        return generate(image, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null);
+    }
+
+    // Alternatives are encoded in parallel on the worker pool
+    public static TextureImage generate(DecodedImage image, TextureProfile texProfile, boolean compress, WorkerPool workerPool) throws TextureGeneratorException, IOException {
+        return generate(image, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), workerPool);
+    }
+
+    // Generate a texture from an image that already is decoded to ABGR, encoding the alternatives in parallel on the worker pool, if any
+    public static TextureImage generate(DecodedImage image, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, WorkerPool workerPool) throws TextureGeneratorException, IOException {
+        TimeProfiler.start("generateTexture");
+        TextureImage textureImage = generate(image.getImage(), image.getComponentCount(), texProfile, compress, flipAxis, workerPool);
+        TimeProfiler.stop();
+        return textureImage;
+    }
+
     // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
     // Used by the editor
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, flipAxis, null);
+    }
+
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, WorkerPool workerPool) throws TextureGeneratorException, IOException {
         // Convert image into readable format
         // Always convert to ABGR since the texc lib demands that for resizing etc
         TimeProfiler.start("generateTexture");
@@ -471,14 +661,21 @@ public class TextureGenerator {
             image = origImage;
         }
 
-        // Setup texture format and settings
         ColorModel colorModel = origImage.getColorModel();
-        int componentCount = colorModel.getNumComponents();
+        TextureImage textureImage = generate(image, colorModel.getNumComponents(), texProfile, compress, flipAxis, workerPool);
+        TimeProfiler.stop();
+        return textureImage;
+    }
+
+    // The image must be TYPE_4BYTE_ABGR, componentCount is the number of components of the original image
+    private static TextureImage generate(BufferedImage image, int componentCount, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, WorkerPool workerPool) throws TextureGeneratorException, IOException {
+        // Setup texture format and settings
         TextureImage.Builder textureBuilder = TextureImage.newBuilder();
 
         if (texProfile != null) {
 
-            // Generate an image for each format specified in the profile
+            // Resolve the settings of each format specified in the profile
+            List<AlternativeSettings> alternatives = new ArrayList<>();
             for (PlatformProfile platformProfile : texProfile.getPlatformsList()) {
                 for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
                     TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
@@ -490,16 +687,15 @@ public class TextureGenerator {
                     // image has 3 channels, even if the texture profile specified a format with 4 channels.
                     textureFormat = pickOptimalFormat(componentCount, textureFormat);
 
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
-                    }
-
+                    alternatives.add(resolveSettings(image.getWidth(), image.getHeight(), textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha()));
                 }
             }
 
+            // Generate an image for each format, in profile order
+            for (TextureImage.Image raw : generateAlternatives(image, alternatives, flipAxis, workerPool)) {
+                textureBuilder.addAlternatives(raw);
+            }
+
             textureBuilder.setCount(1);
             if (textureBuilder.getAlternativesCount() == 0) {
                 texProfile = null;
@@ -511,16 +707,15 @@ public class TextureGenerator {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            AlternativeSettings settings = resolveSettings(image.getWidth(), image.getHeight(), textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true);
+            TextureImage.Image raw = generateAlternatives(image, Arrays.asList(settings), flipAxis, null).get(0);
             textureBuilder.addAlternatives(raw);
             textureBuilder.setCount(1);
 
         }
 
         textureBuilder.setType(Type.TYPE_2D);
-        TextureImage textureImage = textureBuilder.build();
-        TimeProfiler.stop();
-        return textureImage;
+        return textureBuilder.build();
 
     }
 
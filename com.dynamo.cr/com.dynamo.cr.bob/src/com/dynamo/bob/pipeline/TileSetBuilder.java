@@ -14,14 +14,11 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.io.FilenameUtils;
 
 import com.dynamo.bob.Bob;
@@ -77,6 +74,7 @@ public class TileSetBuilder extends Builder<Void>  {
             String textureProfilesPath = this.project.getProjectProperties().getStringValue("graphics", "texture_profiles");
             if (textureProfilesPath != null) {
                 taskBuilder.addInput(this.project.getResource(textureProfilesPath));
+                taskBuilder.addExtraCacheKey(TextureUtil.getTextureProfilePlatformsCacheKey(this.project));
             }
 
             return taskBuilder.build();
@@ -110,9 +108,11 @@ public class TileSetBuilder extends Builder<Void>  {
         IResource imageRes = this.project.getResource(imgPath);
         IResource collisionRes = this.project.getResource(collisionPath);
 
+        BuildCache<String, DecodedImage> imageCache = this.project.getDecodedImageCache();
         BufferedImage image = null;
-        if (imageRes.exists()) {
-            image = ImageIO.read(new ByteArrayInputStream(imageRes.getContent()));
+        DecodedImage decodedImage = DecodedImage.get(imageCache, imageRes);
+        if (decodedImage != null) {
+            image = decodedImage.getImage();
         }
         if (image != null && (image.getWidth() < tileSet.getTileWidth() || image.getHeight() < tileSet.getTileHeight())) {
             throw new CompileExceptionError(task.input(0), -1, String.format(
@@ -122,12 +122,11 @@ public class TileSetBuilder extends Builder<Void>  {
 
         BufferedImage collisionImage = null;
         if (collisionRes.exists()) {
-            BufferedImage origImage = ImageIO.read(new ByteArrayInputStream(collisionRes.getContent()));
-            collisionImage = new BufferedImage(origImage.getWidth(), origImage.getHeight(),
-                    BufferedImage.TYPE_4BYTE_ABGR);
-            Graphics2D g2d = collisionImage.createGraphics();
-            g2d.drawImage(origImage, 0, 0, null);
-            g2d.dispose();
+            DecodedImage decodedCollisionImage = DecodedImage.get(imageCache, collisionRes);
+            if (decodedCollisionImage == null) {
+                throw new CompileExceptionError(task.input(0), -1, "Unable to load collision image " + collisionRes.getPath());
+            }
+            collisionImage = decodedCollisionImage.getImage();
         }
 
         if (image != null && collisionImage != null
@@ -149,7 +148,7 @@ public class TileSetBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.images.get(0), texProfile, compress);
+            texture = TextureGenerator.generate(result.images.get(0), texProfile, compress, project.getWorkerPool());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
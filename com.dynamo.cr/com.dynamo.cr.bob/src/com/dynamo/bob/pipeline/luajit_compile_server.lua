@@ -0,0 +1,76 @@
+-- Copyright 2020-2023 The Defold Foundation
+-- Copyright 2014-2020 King
+-- Copyright 2009-2014 Ragnar Svensson, Christian Murray
+-- Licensed under the Defold License version 1.0 (the "License"); you may not use
+-- this file except in compliance with the License.
+-- 
+-- You may obtain a copy of the License, together with FAQs at
+-- https://www.defold.com/license
+-- 
+-- Unless required by applicable law or agreed to in writing, software distributed
+-- under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+-- CONDITIONS OF ANY KIND, either express or implied. See the License for the
+-- specific language governing permissions and limitations under the License.
+
+-- Bytecode compile server used by bob (see LuaJITCompilerPool.java)
+--
+-- Compiles scripts to bytecode, keeping debug info, the same way as
+-- "luajit -b -g -F <chunkname>" but without starting a process per script.
+--
+-- Reads requests from stdin until it is closed:
+--   "<chunkname length> <source length>\n" <chunkname> <source>
+-- and writes a response to stdout for each request:
+--   "OK <bytecode length>\n" <bytecode>
+--   "ERR <message length>\n" <error message>
+
+local stdin = io.stdin
+local stdout = io.stdout
+
+if jit.os == "Windows" then
+    -- text mode would translate line endings in the source and bytecode
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    local O_BINARY = 0x8000
+    ffi.C._setmode(0, O_BINARY)
+    ffi.C._setmode(1, O_BINARY)
+end
+
+local function read_exactly(n)
+    if n == 0 then
+        return ""
+    end
+    local data = stdin:read(n)
+    if data == nil or #data ~= n then
+        return nil
+    end
+    return data
+end
+
+local function respond(status, data)
+    stdout:write(status, " ", #data, "\n", data)
+    stdout:flush()
+end
+
+while true do
+    local header = stdin:read("*l")
+    if header == nil then
+        break
+    end
+    local name_length, source_length = header:match("^(%d+) (%d+)$")
+    if name_length == nil then
+        break
+    end
+    local name = read_exactly(tonumber(name_length))
+    local source = name and read_exactly(tonumber(source_length))
+    if source == nil then
+        break
+    end
+
+    -- the '@' prefix makes the runtime show the end of long paths
+    local fn, err = loadstring(source, "@" .. name)
+    if fn then
+        respond("OK", string.dump(fn))
+    else
+        respond("ERR", err)
+    end
+end
@@ -76,7 +76,7 @@ public class PluginScanner {
 	 * @param pluginBaseClass
 	 * @return List with class instances or null if no class was found
 	 */
-	public static <T> List<T> getOrCreatePlugins(String packageName, Class<T> pluginBaseClass) throws CompileExceptionError {
+	public static synchronized <T> List<T> getOrCreatePlugins(String packageName, Class<T> pluginBaseClass) throws CompileExceptionError {
 
 		// check if we've already searched for and cached a plugin for this package path and base class
 		// and if that is the case return the cached instance
@@ -14,9 +14,17 @@
 
 package com.dynamo.bob.textureset;
 
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.dynamo.bob.WorkerPool;
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 
@@ -37,10 +45,35 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public int paddingY;
         public boolean rotation;
         public boolean square;
+        // Pool used to try the heuristics in parallel, or null to pack on the calling thread
+        public WorkerPool workerPool;
+        // Cache of finished layouts, or null to always pack
+        public LayoutCache layoutCache;
     }
 
+    /**
+     * Cache of finished layouts. Layouts only depend on the settings and the sizes
+     * of the rects, so the result of packing the same rects again (e.g. when only
+     * the image content of an atlas has changed) can be reused.
+     */
+    public interface LayoutCache {
+        /**
+         * @param key digest of the packing settings and the rect sizes
+         * @return the data stored with put(), or null if not cached
+         */
+        byte[] get(String key);
+
+        /**
+         * @param key digest of the packing settings and the rect sizes
+         * @param data the packed layout
+         */
+        void put(String key, byte[] data);
+    }
+
+    // Changes whenever the packing result or the cached data changes for the same input
+    private static final int LAYOUT_CACHE_VERSION = 1;
+
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
 
     public MaxRectsLayoutStrategy(Settings settings) {
@@ -49,9 +82,46 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
 
     @Override
     public List<Layout> createLayout(List<Rect> srcRects) {
+        int[][] pages = null;
+        String key = null;
+        if (settings.layoutCache != null) {
+            key = getLayoutKey(srcRects);
+            pages = decodePages(settings.layoutCache.get(key), srcRects.size());
+        }
+        if (pages == null) {
+            pages = packPages(srcRects);
+            if (key != null) {
+                settings.layoutCache.put(key, encodePages(pages));
+            }
+        }
+
+        // Repackage into layouts.
+        ArrayList<Layout> result = new ArrayList<Layout>(pages.length);
+        for (int[] page : pages) {
+            int count = (page.length - 2) / 6;
+            ArrayList<Rect> rects = new ArrayList<Rect>(count);
+            for (int i = 0; i < count; ++i) {
+                int offset = 2 + i * 6;
+                Rect srcRect = srcRects.get(page[offset]);
+                Rect finalRect = new Rect(srcRect.id, srcRect.index, page[offset + 1], page[offset + 2], page[offset + 3], page[offset + 4]);
+                finalRect.rotated = page[offset + 5] != 0;
+                rects.add(finalRect);
+            }
+            result.add(new Layout(page[0], page[1], rects));
+        }
+        return result;
+    }
+
+    /**
+     * Pack the rects into pages. Each page is stored as the layout width and height
+     * followed by the source index, x, y, width, height and rotation of each rect.
+     */
+    private int[][] packPages(List<Rect> srcRects) {
         ArrayList<RectNode> srcNodes = new ArrayList<RectNode>(srcRects.size());
-        for(Rect r : srcRects) {
-            RectNode n = new RectNode(r);
+        for (int i = 0; i < srcRects.size(); ++i) {
+            RectNode n = new RectNode(srcRects.get(i));
+            // The index is only carried through the packing, use it to find the source rect
+            n.rect.index = i;
             n.rect.width += settings.paddingX;
             n.rect.height += settings.paddingY;
             srcNodes.add(n);
@@ -64,21 +134,23 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             srcNodes = result.remainingRects;
         }
 
-        // Repackage into layouts.
-        ArrayList<Layout> result = new ArrayList<Layout>(pages.size());
-        for(Page page : pages) {
-            ArrayList<Rect> rects = new ArrayList<Rect>(page.outputRects.size());
-            for(RectNode node : page.outputRects) {
-                Rect finalRect = new Rect(node.rect.id, node.rect.index, node.rect.x, node.rect.y, node.rect.width - settings.paddingX, node.rect.height - settings.paddingY);
-                finalRect.rotated = node.rect.rotated;
-                rects.add(finalRect);
+        int[][] result = new int[pages.size()][];
+        for (int p = 0; p < pages.size(); ++p) {
+            Page page = pages.get(p);
+            int[] packed = new int[2 + page.outputRects.size() * 6];
+            packed[0] = 1 << getExponentNextOrMatchingPowerOfTwo(page.width);
+            packed[1] = 1 << getExponentNextOrMatchingPowerOfTwo(page.height);
+            int offset = 2;
+            for (RectNode node : page.outputRects) {
+                packed[offset++] = node.rect.index;
+                packed[offset++] = node.rect.x;
+                packed[offset++] = node.rect.y;
+                packed[offset++] = node.rect.width - settings.paddingX;
+                packed[offset++] = node.rect.height - settings.paddingY;
+                packed[offset++] = node.rect.rotated ? 1 : 0;
             }
-            int layoutWidth = 1 << getExponentNextOrMatchingPowerOfTwo(page.width);
-            int layoutHeight = 1 << getExponentNextOrMatchingPowerOfTwo(page.height);
-            Layout layout = new Layout(layoutWidth, layoutHeight, rects);
-            result.add(layout);
+            result[p] = packed;
         }
-
         return result;
     }
 
@@ -161,23 +233,19 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
      *           rects may be packed.
      **/
     private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
-        Page bestResult = null;
-        for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
-                    }
-                }
+        // The heuristics are independent of each other, try them all before picking the best
+        List<Page> results;
+        if (settings.workerPool != null) {
+            results = settings.workerPool.map(methods.length, i -> packWithHeuristic(fully, width, height, inputRects, methods[i]));
+        } else {
+            results = new ArrayList<Page>(methods.length);
+            for (FreeRectChoiceHeuristic method : methods) {
+                results.add(packWithHeuristic(fully, width, height, inputRects, method));
             }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+        }
 
+        Page bestResult = null;
+        for (Page result : results) {
             if (fully && result.remainingRects.size() > 0) {
                 continue;
             }
@@ -189,6 +257,24 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         return bestResult;
     }
 
+    private Page packWithHeuristic(boolean fully, int width, int height, ArrayList<RectNode> inputRects, FreeRectChoiceHeuristic method) {
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height);
+
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            RectNode rect = inputRects.get(ii);
+            if (maxRects.insert(rect, method) == null) {
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
+                }
+            }
+        }
+        Page result = maxRects.getResult();
+        result.remainingRects = remaining;
+        return result;
+    }
+
     private Page getBest (Page result1, Page result2) {
         if (result1 == null) return result2;
         if (result2 == null) return result1;
@@ -270,6 +356,81 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public int width, height;
     }
 
+    private String getLayoutKey(List<Rect> rects) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (9 + rects.size() * 2));
+        buffer.putInt(LAYOUT_CACHE_VERSION);
+        buffer.putInt(settings.maxPageWidth);
+        buffer.putInt(settings.maxPageHeight);
+        buffer.putInt(settings.minPageWidth);
+        buffer.putInt(settings.minPageHeight);
+        buffer.putInt(settings.paddingX);
+        buffer.putInt(settings.paddingY);
+        buffer.putInt(settings.rotation ? 1 : 0);
+        buffer.putInt(settings.square ? 1 : 0);
+        for (Rect rect : rects) {
+            buffer.putInt(rect.width);
+            buffer.putInt(rect.height);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(buffer.array());
+        return String.format("%040x", new BigInteger(1, digest.digest()));
+    }
+
+    private static byte[] encodePages(int[][] pages) {
+        int size = 4;
+        for (int[] page : pages) {
+            size += 4 + page.length * 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(pages.length);
+        for (int[] page : pages) {
+            buffer.putInt(page.length);
+            for (int value : page) {
+                buffer.putInt(value);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decode pages stored by encodePages()
+     * @return the pages, or null if there is no data or it doesn't match the rects
+     */
+    private static int[][] decodePages(byte[] data, int rectCount) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            int[][] pages = new int[buffer.getInt()][];
+            int count = 0;
+            for (int p = 0; p < pages.length; ++p) {
+                int[] page = new int[buffer.getInt()];
+                for (int i = 0; i < page.length; ++i) {
+                    page[i] = buffer.getInt();
+                }
+                if (page.length < 2 || (page.length - 2) % 6 != 0) {
+                    return null;
+                }
+                for (int offset = 2; offset < page.length; offset += 6) {
+                    if (page[offset] < 0 || page[offset] >= rectCount) {
+                        return null;
+                    }
+                    ++count;
+                }
+                pages[p] = page;
+            }
+            return count == rectCount && !buffer.hasRemaining() ? pages : null;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
     /** Maximal rectangles bin packing algorithm. Adapted from this C++ public domain source:
      * http://clb.demon.fi/projects/even-more-rectangle-bin-packing
      * @author Jukka Jyl�nki
@@ -281,6 +442,20 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         private final ArrayList<RectNode> usedRectangles = new ArrayList<RectNode>();
         private final ArrayList<RectNode> freeRectangles = new ArrayList<RectNode>();
         private final ArrayList<RectNode> newFreeRectangles = new ArrayList<RectNode>();
+        // Used rectangles by the coordinate of each of their edges, to find the
+        // rectangles touching a position without testing all of them
+        private final Map<Integer, List<Rect>> usedByLeft = new HashMap<Integer, List<Rect>>();
+        private final Map<Integer, List<Rect>> usedByRight = new HashMap<Integer, List<Rect>>();
+        private final Map<Integer, List<Rect>> usedByTop = new HashMap<Integer, List<Rect>>();
+        private final Map<Integer, List<Rect>> usedByBottom = new HashMap<Integer, List<Rect>>();
+        // Free rectangles by the grid cells they overlap. A free rectangle containing
+        // another rectangle overlaps the cell of its top left corner, so only the
+        // free rectangles in that cell need to be tested when pruning
+        private static final int MAX_GRID_CELLS_PER_SIDE = 32;
+        private int cellShift;
+        private int gridColumns;
+        private int gridRows;
+        private final ArrayList<ArrayList<RectNode>> freeRectangleCells = new ArrayList<ArrayList<RectNode>>();
 
         public void init (int width, int height) {
             binWidth = width;
@@ -289,8 +464,73 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             usedRectangles.clear();
             freeRectangles.clear();
             newFreeRectangles.clear();
+            usedByLeft.clear();
+            usedByRight.clear();
+            usedByTop.clear();
+            usedByBottom.clear();
+
+            cellShift = Math.max(0, getExponentNextOrMatchingPowerOfTwo(Math.max(width, height)) - getExponentNextOrMatchingPowerOfTwo(MAX_GRID_CELLS_PER_SIDE));
+            gridColumns = ((width - 1) >> cellShift) + 1;
+            gridRows = ((height - 1) >> cellShift) + 1;
+            freeRectangleCells.clear();
+            for (int i = 0; i < gridColumns * gridRows; ++i) {
+                freeRectangleCells.add(new ArrayList<RectNode>());
+            }
             RectNode n = new RectNode(new Rect(null, 0, 0, 0, width, height));
             freeRectangles.add(n);
+            addToGrid(n);
+        }
+
+        private void addToGrid (RectNode node) {
+            Rect rect = node.rect;
+            int x1 = (rect.x + rect.width - 1) >> cellShift;
+            int y1 = (rect.y + rect.height - 1) >> cellShift;
+            for (int y = rect.y >> cellShift; y <= y1; ++y) {
+                for (int x = rect.x >> cellShift; x <= x1; ++x) {
+                    freeRectangleCells.get(x + y * gridColumns).add(node);
+                }
+            }
+        }
+
+        private void removeFromGrid (RectNode node) {
+            Rect rect = node.rect;
+            int x1 = (rect.x + rect.width - 1) >> cellShift;
+            int y1 = (rect.y + rect.height - 1) >> cellShift;
+            for (int y = rect.y >> cellShift; y <= y1; ++y) {
+                for (int x = rect.x >> cellShift; x <= x1; ++x) {
+                    ArrayList<RectNode> cell = freeRectangleCells.get(x + y * gridColumns);
+                    for (int i = cell.size() - 1; i >= 0; --i) {
+                        if (cell.get(i) == node) {
+                            cell.remove(i);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private RectNode removeFreeRectangle (int index) {
+            RectNode node = freeRectangles.remove(index);
+            removeFromGrid(node);
+            return node;
+        }
+
+        /** True if the rect is contained in any of the free rectangles */
+        private boolean isContainedInFreeRectangle (Rect rect) {
+            if (rect.width <= 0 || rect.height <= 0) {
+                // An empty rect on the edge of a free rectangle isn't in any of its cells
+                for (int i = 0; i < freeRectangles.size(); ++i) {
+                    if (isContainedIn(rect, freeRectangles.get(i).rect))
+                        return true;
+                }
+                return false;
+            }
+            ArrayList<RectNode> cell = freeRectangleCells.get((rect.x >> cellShift) + (rect.y >> cellShift) * gridColumns);
+            for (int i = 0; i < cell.size(); ++i) {
+                if (isContainedIn(rect, cell.get(i).rect))
+                    return true;
+            }
+            return false;
         }
 
         /** Packs a single image. Order is defined externally. */
@@ -301,7 +541,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             int numRectanglesToProcess = freeRectangles.size();
             for (int i = 0; i < numRectanglesToProcess; ++i) {
                 if (splitFreeNode(freeRectangles.get(i), newNode)) {
-                    freeRectangles.remove(i);
+                    removeFreeRectangle(i);
                     --i;
                     --numRectanglesToProcess;
                 }
@@ -316,10 +556,28 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             bestNode.rect.id = rect.rect.id;
             bestNode.rect.index = rect.rect.index;
 
-            usedRectangles.add(bestNode);
+            addUsedRectangle(bestNode);
             return bestNode;
         }
 
+        private void addUsedRectangle (RectNode node) {
+            usedRectangles.add(node);
+            Rect rect = node.rect;
+            addEdge(usedByLeft, rect.x, rect);
+            addEdge(usedByRight, rect.x + rect.width, rect);
+            addEdge(usedByTop, rect.y, rect);
+            addEdge(usedByBottom, rect.y + rect.height, rect);
+        }
+
+        private void addEdge (Map<Integer, List<Rect>> edges, int coordinate, Rect rect) {
+            List<Rect> rects = edges.get(coordinate);
+            if (rects == null) {
+                rects = new ArrayList<Rect>();
+                edges.put(coordinate, rects);
+            }
+            rects.add(rect);
+        }
+
         /** For each rectangle, packs each one then chooses the best and packs that. Slow! */
         public Page pack (ArrayList<RectNode> rects, FreeRectChoiceHeuristic method) {
             rects = new ArrayList<RectNode>(rects);
@@ -375,7 +633,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             int numRectanglesToProcess = freeRectangles.size();
             for (int i = 0; i < numRectanglesToProcess;) {
                 if (splitFreeNode(freeRectangles.get(i), node)) {
-                    freeRectangles.remove(i);
+                    removeFreeRectangle(i);
                     --numRectanglesToProcess;
                 }
                 else
@@ -386,7 +644,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
 
             pruneFreeList();
 
-            usedRectangles.add(node);
+            addUsedRectangle(node);
         }
 
         private RectNode scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
@@ -593,14 +851,34 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (x == 0 || x + width == binWidth) score += height;
             if (y == 0 || y + height == binHeight) score += width;
 
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode currentNode = usedRectangles.get(i);
-                if (currentNode.rect.x == x + width || currentNode.rect.x + currentNode.rect.width == x)
-                    score += commonIntervalLength(currentNode.rect.y, currentNode.rect.y + currentNode.rect.height, y,
-                        y + height);
-                if (currentNode.rect.y == y + height || currentNode.rect.y + currentNode.rect.height == y)
-                    score += commonIntervalLength(currentNode.rect.x, currentNode.rect.x + currentNode.rect.width, x, x
-                        + width);
+            // Used rectangles touching the left or right side
+            List<Rect> rects = usedByLeft.get(x + width);
+            if (rects != null) {
+                for (Rect rect : rects) {
+                    score += commonIntervalLength(rect.y, rect.y + rect.height, y, y + height);
+                }
+            }
+            rects = usedByRight.get(x);
+            if (rects != null) {
+                for (Rect rect : rects) {
+                    if (rect.x != x + width) // already counted
+                        score += commonIntervalLength(rect.y, rect.y + rect.height, y, y + height);
+                }
+            }
+
+            // Used rectangles touching the top or bottom side
+            rects = usedByTop.get(y + height);
+            if (rects != null) {
+                for (Rect rect : rects) {
+                    score += commonIntervalLength(rect.x, rect.x + rect.width, x, x + width);
+                }
+            }
+            rects = usedByBottom.get(y);
+            if (rects != null) {
+                for (Rect rect : rects) {
+                    if (rect.y != y + height) // already counted
+                        score += commonIntervalLength(rect.x, rect.x + rect.width, x, x + width);
+                }
             }
             return score;
         }
@@ -710,22 +988,22 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
 
         private void pruneFreeList () {
             // Test all newly introduced free rectangles against old free rectangles.
-            for(int i = 0; i < freeRectangles.size(); ++i)
+            for(int j = 0; j < newFreeRectangles.size();)
             {
-                for(int j = 0; j < newFreeRectangles.size();)
+                if (isContainedInFreeRectangle(newFreeRectangles.get(j).rect))
                 {
-                    if (isContainedIn(newFreeRectangles.get(j).rect, freeRectangles.get(i).rect))
-                    {
-                        newFreeRectangles.remove(j);
-                    }
-                    else
-                    {
-                        ++j;
-                    }
+                    newFreeRectangles.remove(j);
                 }
-            }  
+                else
+                {
+                    ++j;
+                }
+            }
 
             // Merge new and old free rectangles to the group of old free rectangles.
+            for (RectNode node : newFreeRectangles) {
+                addToGrid(node);
+            }
             freeRectangles.addAll(newFreeRectangles);
             newFreeRectangles.clear();
         }
@@ -14,6 +14,7 @@
 
 package com.dynamo.bob.textureset;
 
+import com.dynamo.bob.WorkerPool;
 import com.dynamo.bob.pipeline.GraphicsUtil;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Grid;
@@ -175,9 +176,12 @@ public class TextureSetGenerator {
 
     // Pass in the original image (no padding or extrude borders)
     public static SpriteGeometry buildConvexHull(BufferedImage image, int hullVertexCount) {
+        return buildConvexHull(image.getWidth(), image.getHeight(), image.getAlphaRaster(), hullVertexCount);
+    }
+
+    // Pass in the alpha raster of the original image, or null if the image has no alpha
+    public static SpriteGeometry buildConvexHull(int width, int height, Raster raster, int hullVertexCount) {
         SpriteGeometry.Builder geometryBuilder = TextureSetProto.SpriteGeometry.newBuilder();
-        int width = image.getWidth();
-        int height = image.getHeight();
 
         geometryBuilder.setWidth(width);
         geometryBuilder.setHeight(height);
@@ -189,7 +193,6 @@ public class TextureSetGenerator {
 
         ConvexHull2D.PointF[] points = null;
 
-        Raster raster = image.getAlphaRaster();
         if (raster != null && hullVertexCount != 0) {
             int dilateCount = 2; // a pixel boundary to avoid filtering issues
 
@@ -297,6 +300,14 @@ public class TextureSetGenerator {
     public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
                 AnimIterator iterator, int margin, int innerPadding, int extrudeBorders,
                boolean rotate, boolean useTileGrid, Grid gridSize, float maxPageSizeW, float maxPageSizeH) {
+        return calculateLayout(images, imageHulls, use_geometries, iterator, margin, innerPadding, extrudeBorders,
+                rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH, null, null);
+    }
+
+    public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
+                AnimIterator iterator, int margin, int innerPadding, int extrudeBorders,
+               boolean rotate, boolean useTileGrid, Grid gridSize, float maxPageSizeW, float maxPageSizeH,
+               WorkerPool workerPool, MaxRectsLayoutStrategy.LayoutCache layoutCache) {
 
         int totalSizeIncrease = 2 * (innerPadding + extrudeBorders);
 
@@ -323,7 +334,7 @@ public class TextureSetGenerator {
             layouts = new ArrayList<Layout>();
             layouts.add(layout);
         } else {
-            List<Layout> packedLayouts = TextureSetLayout.packedLayout(margin, resizedImages, rotate, maxPageSizeW, maxPageSizeH);
+            List<Layout> packedLayouts = TextureSetLayout.packedLayout(margin, resizedImages, rotate, maxPageSizeW, maxPageSizeH, workerPool, layoutCache);
             layoutRects = new ArrayList<Rect>();
 
             int page_index = 0;
@@ -385,6 +396,40 @@ public class TextureSetGenerator {
 
     // static int debugImageCount = 0;
 
+    private static <T> List<T> map(WorkerPool workerPool, int count, WorkerPool.Work<T, RuntimeException> work) {
+        if (workerPool != null) {
+            return workerPool.map(count, work);
+        }
+        List<T> results = new ArrayList<T>(count);
+        for (int i = 0; i < count; ++i) {
+            results.add(work.run(i));
+        }
+        return results;
+    }
+
+    private static BufferedImage compositeLayout(Layout layout, List<BufferedImage> images, int innerPadding, int extrudeBorders) {
+        List<BufferedImage> layoutImages = new ArrayList<>();
+        List<Rect> layoutRects           = layout.getRectangles();
+
+        for (Rect rect : layoutRects) {
+            BufferedImage image = images.get(rect.index);
+
+            if (innerPadding > 0) {
+                image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
+            }
+            if (extrudeBorders > 0) {
+                image = TextureUtil.extrudeBorders(image, extrudeBorders);
+            }
+            if (rect.rotated) {
+                image = rotateImage(image);
+            }
+
+            layoutImages.add(image);
+        }
+
+        return composite(layoutImages, layout.getWidth(), layout.getHeight(), layoutRects);
+    }
+
     /**
      * Generate an atlas for individual images and animations. The basic steps of the algorithm are:
      *
@@ -403,44 +448,53 @@ public class TextureSetGenerator {
     public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
             float maxPageSizeW, float maxPageSizeH) {
+        return generate(images, imageHullSizes, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize,
+            maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * Generate an atlas, building the image hulls and compositing the pages in parallel.
+     *
+     * @param workerPool pool used for the parallel work, or null to do all work on the calling thread
+     * @see #generate(List, List, List, AnimIterator, int, int, int, boolean, boolean, Grid, float, float)
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
+            float maxPageSizeW, float maxPageSizeH, WorkerPool workerPool) {
+        List<SpriteGeometry> imageHulls = map(workerPool, images.size(), i -> buildConvexHull(images.get(i), imageHullSizes.get(i)));
+        return generate(images, imageHullSizes, imageHulls, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize,
+            maxPageSizeW, maxPageSizeH, workerPool, null);
+    }
+
+    /**
+     * Generate an atlas from images with already built hulls, compositing the pages in parallel.
+     *
+     * @param imageHulls hull of each image, as built by {@link #buildConvexHull(BufferedImage, int)}
+     * @param workerPool pool used for the parallel work, or null to do all work on the calling thread
+     * @param layoutCache cache of packed layouts, or null to always pack
+     * @see #generate(List, List, List, AnimIterator, int, int, int, boolean, boolean, Grid, float, float)
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<SpriteGeometry> imageHulls,
+            List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
+            float maxPageSizeW, float maxPageSizeH, WorkerPool workerPool, MaxRectsLayoutStrategy.LayoutCache layoutCache) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
         // if all sizes are 0, we still need to generate hull (or rect) data
         // since it will still be part of the new code path if there is another atlas with trimming enabled
-        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>();
         int use_geometries = 0;
         for (int i = 0; i < images.size(); ++i) {
-            BufferedImage image = images.get(i);
             use_geometries |= imageHullSizes.get(i) > 0 ? 1 : 0;
-            imageHulls.add(buildConvexHull(image, imageHullSizes.get(i)));
         }
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, use_geometries, iterator,
-            margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH);
-
-        for (Layout layout : result.layoutResult.layouts) {
-            List<BufferedImage> layoutImages = new ArrayList<>();
-            List<Rect> layoutRects           = layout.getRectangles();
-
-            for (Rect rect : layoutRects) {
-                BufferedImage image = images.get(rect.index);
+            margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH, workerPool, layoutCache);
 
-                if (innerPadding > 0) {
-                    image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
-                }
-                if (extrudeBorders > 0) {
-                    image = TextureUtil.extrudeBorders(image, extrudeBorders);
-                }
-                if (rect.rotated) {
-                    image = rotateImage(image);
-                }
-
-                layoutImages.add(image);
-            }
-
-            BufferedImage imgOut = composite(layoutImages, layout.getWidth(), layout.getHeight(), layoutRects);
+        List<Layout> layouts = result.layoutResult.layouts;
+        List<BufferedImage> pages = map(workerPool, layouts.size(), i -> compositeLayout(layouts.get(i), images, innerPadding, extrudeBorders));
+        for (BufferedImage imgOut : pages) {
             result.images.add(imgOut);
             /*
             // For debugging page generation
@@ -540,18 +594,28 @@ public class TextureSetGenerator {
         int tileCount = rects.size();
         textureSet.setTileCount(tileCount);
 
-        int quadCount = tileCount;
-        while (iterator.nextAnim() != null) {
-            while (iterator.nextFrameIndex() != null) {
-                ++quadCount;
+        // Walk the animations only once, since the iterator might be expensive to step
+        List<AnimDesc> animDescs = new ArrayList<>();
+        List<Integer> animFrameCounts = new ArrayList<>();
+        List<Integer> frameIndices = new ArrayList<>();
+        AnimDesc animDesc = null;
+        while ((animDesc = iterator.nextAnim()) != null) {
+            int frameCount = 0;
+            Integer index = null;
+            while ((index = iterator.nextFrameIndex()) != null) {
+                frameIndices.add(index);
+                ++frameCount;
             }
+            animDescs.add(animDesc);
+            animFrameCounts.add(frameCount);
         }
-        iterator.rewind();
+        int quadCount = tileCount + frameIndices.size();
 
         final int numTexCoordsPerQuad = 8;
         ByteBuffer texCoordsBuffer = GraphicsUtil.newByteBuffer(numTexCoordsPerQuad * 4 * quadCount);
         final int numTexDimsPerQuad = 2;
         ByteBuffer texDimsBuffer = GraphicsUtil.newByteBuffer(numTexDimsPerQuad * 4 * quadCount);
+        uvTransforms.ensureCapacity(quadCount);
 
         float oneOverWidth = 1.0f / width;
         float oneOverHeight = 1.0f / height;
@@ -568,12 +632,14 @@ public class TextureSetGenerator {
             ++quadIndex;
         }
 
-        AnimDesc animDesc = null;
-        while ((animDesc = iterator.nextAnim()) != null) {
+        int frame = 0;
+        for (int a = 0; a < animDescs.size(); ++a) {
+            animDesc = animDescs.get(a);
             Rect ref = null;
-            Integer index = null;
             int startIndex = quadIndex;
-            while ((index = iterator.nextFrameIndex()) != null) {
+            int frameEnd = frame + animFrameCounts.get(a);
+            for (; frame < frameEnd; ++frame) {
+                int index = frameIndices.get(frame);
                 textureSet.addFrameIndices(index);
 
                 Rect r = rects.get(index);
@@ -20,6 +20,8 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Arrays;
 
+import com.dynamo.bob.WorkerPool;
+
 /**
  * Atlas layout algorithm(s)
  * @author chmu
@@ -112,11 +114,16 @@ public class TextureSetLayout {
     }
 
     public static List<Layout> packedLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH) {
+        return packedLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, null, null);
+    }
+
+    public static List<Layout> packedLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH,
+            WorkerPool workerPool, MaxRectsLayoutStrategy.LayoutCache layoutCache) {
         if (rectangles.size() == 0) {
             return Arrays.asList(new Layout(1, 1, new ArrayList<TextureSetLayout.Rect>()));
         }
 
-        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH);
+        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, workerPool, layoutCache);
     }
 
     private static int getExponentNextOrMatchingPowerOfTwo(int value) {
@@ -169,6 +176,19 @@ public class TextureSetLayout {
      * @return
      */
     public static List<Layout> createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH) {
+        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, null, null);
+    }
+
+    /**
+     * @param margin
+     * @param rectangles
+     * @param rotate
+     * @param workerPool pool used to pack with several heuristics in parallel, or null
+     * @param layoutCache cache of finished layouts, or null
+     * @return
+     */
+    public static List<Layout> createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH,
+            WorkerPool workerPool, MaxRectsLayoutStrategy.LayoutCache layoutCache) {
         // Sort by area first, then longest side
         Collections.sort(rectangles, new Comparator<Rect>() {
             @Override
@@ -197,6 +217,8 @@ public class TextureSetLayout {
             settings.paddingY      = margin;
             settings.rotation      = rotate;
             settings.square        = false;
+            settings.workerPool    = workerPool;
+            settings.layoutCache   = layoutCache;
 
             MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
             List<Layout> layouts = strategy.createLayout(rectangles);
@@ -249,6 +271,8 @@ public class TextureSetLayout {
             settings.paddingY = margin;
             settings.rotation = rotate;
             settings.square = false;
+            settings.workerPool = workerPool;
+            settings.layoutCache = layoutCache;
 
             MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
             List<Layout> layouts = strategy.createLayout(rectangles);
@@ -18,6 +18,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -98,6 +99,74 @@ public class Exec {
         return new Result(ret, out.toByteArray());
     }
 
+    public static class PipeResult {
+        public PipeResult(int ret, byte[] stdOut, byte[] stdErr) {
+            this.ret = ret;
+            this.stdOut = stdOut;
+            this.stdErr = stdErr;
+        }
+        public int ret;
+        public byte[] stdOut;
+        public byte[] stdErr;
+    }
+
+    /**
+     * Exec command, writing input to its stdin. Tools that support reading from
+     * stdin and writing to stdout can be run this way without temporary files.
+     * @param input data to write to stdin
+     * @param args arguments
+     * @return instance with return code, stdout and stderr
+     * @throws IOException
+     */
+    public static PipeResult execPipe(byte[] input, String... args) throws IOException {
+        if (getVerbosity() >= 2) {
+            logger.info("CMD: " + String.join(" ", args));
+        }
+        Process p = new ProcessBuilder(args).start();
+
+        // stdin and stderr are handled on separate threads so that the
+        // process can't block on a full pipe while we read stdout
+        Thread writer = new Thread(() -> {
+            try (OutputStream os = p.getOutputStream()) {
+                os.write(input);
+            } catch (IOException e) {
+                // The process exited before reading all input, which is reported through its return code
+            }
+        });
+        ByteArrayOutputStream err = new ByteArrayOutputStream(1024);
+        Thread errReader = new Thread(() -> {
+            try {
+                readAll(p.getErrorStream(), err);
+            } catch (IOException e) {
+                // The stream is closed when the process exits
+            }
+        });
+        writer.start();
+        errReader.start();
+
+        int ret = 127;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        try {
+            readAll(p.getInputStream(), out);
+            ret = p.waitFor();
+            writer.join();
+            errReader.join();
+        } catch (InterruptedException e) {
+            logger.severe("Unexpected interruption", e);
+        }
+
+        return new PipeResult(ret, out.toByteArray(), err.toByteArray());
+    }
+
+    private static void readAll(InputStream is, ByteArrayOutputStream out) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        int n = is.read(buf);
+        while (n > 0) {
+            out.write(buf, 0, n);
+            n = is.read(buf);
+        }
+    }
+
     private static ProcessBuilder processBuilderWithArgs(Map<String, String> env, String[] args) {
         if (getVerbosity() >= 2) {
             logger.info("CMD: " + String.join(" ", args));
@@ -14,6 +14,7 @@
 
 package com.dynamo.bob.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.io.FileInputStream;
@@ -99,7 +100,59 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Download a file if it exists on the server. Saves a round trip
+	 * compared to checking with exists() before downloading.
+	 * @param url URL to download
+	 * @param file file to write to
+	 * @return true if the file was downloaded, false if it doesn't exist on the server
+	 */
+	public boolean downloadToFileIfExists(URL url, File file) {
+		try {
+			HttpURLConnection connection = openConnection(url, "GET");
+			connection.connect();
+			int code = connection.getResponseCode();
+
+			if (code == 404) {
+				connection.disconnect();
+				return false;
+			}
+			else if (code >= 400) {
+				logWarning("Status %d: Failed to download %s", code, url);
+				throw new RuntimeException(String.format("Status %d: Failed to download %s", code, url), new Exception());
+			}
+			InputStream input = new BufferedInputStream(connection.getInputStream());
+			try {
+				FileUtils.copyInputStreamToFile(input, file);
+			}
+			finally {
+				IOUtils.closeQuietly(input);
+			}
+			connection.disconnect();
+			return true;
+		}
+		catch (ConnectException e) {
+			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
+		}
+	}
+
 	public void uploadFile(URL url, File file) {
+		try {
+			upload(url, new FileInputStream(file));
+		}
+		catch (FileNotFoundException e) {
+			throw new RuntimeException(String.format("Error while uploading file %s to %s", file.toString(), url.toString()), e);
+		}
+	}
+
+	public void uploadData(URL url, byte[] data) {
+		upload(url, new ByteArrayInputStream(data));
+	}
+
+	private void upload(URL url, InputStream input) {
 		try {
 			HttpURLConnection connection = openConnection(url, "PUT");
 			connection.setRequestProperty("Content-type", "application/octet-stream");
@@ -107,7 +160,7 @@ public class HttpUtil {
 			connection.connect();
 
 			BufferedOutputStream bos = new BufferedOutputStream(connection.getOutputStream());
-			BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
+			BufferedInputStream bis = new BufferedInputStream(input);
 			byte[] buffer = new byte[4096];
 			int i;
 			while ((i = bis.read(buffer)) > 0) {
@@ -126,7 +179,10 @@ public class HttpUtil {
 			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
 		}
 		catch (IOException e) {
-			throw new RuntimeException(String.format("Error while uploading file %s to %s", file.toString(), url.toString()), e);
+			throw new RuntimeException(String.format("Error while uploading to %s", url.toString()), e);
+		}
+		finally {
+			IOUtils.closeQuietly(input);
 		}
 	}
 
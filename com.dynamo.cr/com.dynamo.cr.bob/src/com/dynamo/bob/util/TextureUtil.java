@@ -24,7 +24,11 @@ import java.util.List;
 
 import com.google.protobuf.ByteString;
 
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.Project;
 import com.dynamo.graphics.proto.Graphics.PathSettings;
+import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Image;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Type;
@@ -207,6 +211,71 @@ public class TextureUtil {
         return null;
     }
 
+    /**
+     * Get the platforms that the platform entries of the texture profiles are matched against
+     * when building. These are the architectures of the target platform. If no target platform
+     * was specified the list is empty, and only the generic platform entries are used.
+     */
+    public static List<String> getTextureProfilePlatforms(Project project) throws CompileExceptionError {
+        List<String> platforms = new ArrayList<String>();
+        if (project.option("platform", null) != null) {
+            for (Platform platform : project.getArchitectures()) {
+                if (platform != null && !platforms.contains(platform.getPair())) {
+                    platforms.add(platform.getPair());
+                }
+            }
+        }
+        return platforms;
+    }
+
+    /**
+     * Util method to get a cache key for the platform entries of the texture profiles used
+     * when building. Tasks generating textures must add it, since which platform entries are
+     * encoded depends on the target platform rather than on any of the task inputs.
+     */
+    public static String getTextureProfilePlatformsCacheKey(Project project) {
+        return "texture_profile_platforms=" + project.option("platform", "") + ";" + project.option("architectures", "");
+    }
+
+    /**
+     * Util method to filter out the platform entries of the texture profiles that don't
+     * match any of the target platforms, so that no texture formats are generated for
+     * other platforms (i.e. we don't want win32 specific profiles lingering in android bundles).
+     * Generic platform entries are always kept.
+     */
+    public static TextureProfiles filterTextureProfiles(TextureProfiles textureProfiles, List<String> targetPlatforms) {
+        TextureProfiles.Builder texProfilesBuilder = TextureProfiles.newBuilder(textureProfiles);
+        texProfilesBuilder.clearProfiles();
+
+        for (TextureProfile profile : textureProfiles.getProfilesList()) {
+            TextureProfile.Builder profileBuilder = TextureProfile.newBuilder(profile);
+            profileBuilder.clearPlatforms();
+
+            // Take only the platforms that matches the target platforms
+            for (PlatformProfile platformProfile : profile.getPlatformsList()) {
+                if (matchPlatformProfile(platformProfile, targetPlatforms)) {
+                    profileBuilder.addPlatforms(platformProfile);
+                }
+            }
+
+            texProfilesBuilder.addProfiles(profileBuilder.build());
+        }
+
+        return texProfilesBuilder.build();
+    }
+
+    private static boolean matchPlatformProfile(PlatformProfile platformProfile, List<String> targetPlatforms) {
+        if (targetPlatforms.isEmpty()) {
+            return Platform.matchPlatformAgainstOS("", platformProfile.getOs());
+        }
+        for (String targetPlatform : targetPlatforms) {
+            if (Platform.matchPlatformAgainstOS(targetPlatform, platformProfile.getOs())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static TextureImage createCombinedTextureImage(TextureImage[] textures, Type type) throws IOException {
         int numTextures = textures.length;
         if (numTextures == 0) {
@@ -60,6 +60,8 @@ public class TimeProfiler {
 
         public ProfilingScope parent;
         public ArrayList<ProfilingScope> children;
+        // true for the scope holding all scopes of a thread other than the main thread
+        public boolean threadScope;
     }
 
     /**
@@ -75,11 +77,20 @@ public class TimeProfiler {
     private static ArrayList<ProfilingMark> marks;
     private static long buildTime;
 
-    private static ProfilingScope rootScope;
-    private static ProfilingScope currentScope;
+    private static volatile ProfilingScope rootScope;
     private static List<File> reportFiles;
     private static Boolean fromEditor;
 
+    // The thread which called init() keeps its scope stack in mainScope. Other threads
+    // (e.g. build task workers) keep their own scope stacks, each under a thread scope
+    // added to sharedScope
+    private static Thread mainThread;
+    private static volatile ProfilingScope mainScope;
+    private static volatile ProfilingScope sharedScope;
+    private static final ThreadLocal<ProfilingScope> threadScopes = new ThreadLocal<ProfilingScope>();
+    // Guards the children of scopes shared between threads
+    private static final Object lock = new Object();
+
     private static long time() {
         return System.currentTimeMillis();
     }
@@ -108,10 +119,16 @@ public class TimeProfiler {
                 generator.writeBoolean(entry.getValue());
             }
         }
-        if (scope.children != null) {
+        List<ProfilingScope> children = null;
+        synchronized (lock) {
+            if (scope.children != null) {
+                children = new ArrayList<ProfilingScope>(scope.children);
+            }
+        }
+        if (children != null) {
             generator.writeFieldName("children");
             generator.writeStartArray();
-            for(ProfilingScope childScope : scope.children) {
+            for(ProfilingScope childScope : children) {
                 generateJsonRecursively(generator, childScope);
             }
             generator.writeEndArray();
@@ -204,12 +221,13 @@ public class TimeProfiler {
         long reportStartTime = time();
 
         //Close all unclosed scopes
-        while(currentScope != _rootScope) {
-            unsafeAddData("forceFinishedScope", true);
-            unsafeAddData("color", "#FF0000");
-            unsafeStop();
+        ProfilingScope scope = mainScope;
+        while(scope != _rootScope) {
+            unsafeAddData(scope, "forceFinishedScope", true);
+            unsafeAddData(scope, "color", "#FF0000");
+            scope = unsafeStop(scope);
         };
-        unsafeStop();
+        unsafeStop(scope);
 
         try {
             String jsonReport = generateJSON(_rootScope);
@@ -252,10 +270,13 @@ public class TimeProfiler {
             startTime = bean.getStartTime(); //Returns the start time of the Java virtual machine in milliseconds.
         }
         buildTime = startTime;
-        rootScope = new ProfilingScope();
-        rootScope.startTime = startTime;
-        currentScope = rootScope;
-        unsafeAddData("name", "Total time");
+        ProfilingScope scope = new ProfilingScope();
+        scope.startTime = startTime;
+        mainThread = Thread.currentThread();
+        mainScope = scope;
+        sharedScope = scope;
+        rootScope = scope;
+        unsafeAddData(scope, "name", "Total time");
 
         if (!fromEditor) {
             ProfilingScope initScope = new ProfilingScope();
@@ -276,22 +297,86 @@ public class TimeProfiler {
         }));
     }
 
-    public static void start() {
-        if (rootScope == null) {
+    /**
+     * Make the current scope of the main thread the parent of the scopes started
+     * on other threads, until the scope is stopped. Scopes started on other threads
+     * at other times are added to the root scope.
+     */
+    public static void shareCurrentScope() {
+        if (isDisabled() || Thread.currentThread() != mainThread) {
             return;
         }
-        if (currentScope.children == null) {
-            currentScope.children = new ArrayList<ProfilingScope>();
+        sharedScope = mainScope;
+    }
+
+    private static boolean isDisabled() {
+        return rootScope == null;
+    }
+
+    private static ProfilingScope getCurrentScope() {
+        if (Thread.currentThread() == mainThread) {
+            return mainScope;
+        }
+        return threadScopes.get();
+    }
+
+    private static void setCurrentScope(ProfilingScope scope) {
+        if (Thread.currentThread() == mainThread) {
+            mainScope = scope;
+        }
+        else {
+            threadScopes.set(scope);
+        }
+    }
+
+    private static void addChild(ProfilingScope parent, ProfilingScope scope) {
+        scope.parent = parent;
+        synchronized (lock) {
+            if (parent.children == null) {
+                parent.children = new ArrayList<ProfilingScope>();
+            }
+            parent.children.add(scope);
+        }
+    }
+
+    // Get the scope of the current thread other than the main thread, under the shared scope
+    private static ProfilingScope getThreadScope(long startTime) {
+        ProfilingScope shared = sharedScope;
+        if (shared == null) {
+            return null;
+        }
+        ProfilingScope scope = threadScopes.get();
+        if (scope == null || (scope.threadScope && scope.parent != shared)) {
+            scope = new ProfilingScope();
+            scope.threadScope = true;
+            scope.startTime = startTime;
+            scope.endTime = startTime;
+            addChild(shared, scope);
+            threadScopes.set(scope);
+            unsafeAddData(scope, "name", Thread.currentThread().getName());
+        }
+        return scope;
+    }
+
+    public static void start() {
+        if (isDisabled()) {
+            return;
         }
         ProfilingScope scope = new ProfilingScope();
         scope.startTime = time();
-        scope.parent = currentScope;
-        currentScope.children.add(scope);
-        currentScope = scope;
+        ProfilingScope parent = getCurrentScope();
+        if (parent == null || parent.threadScope) {
+            parent = getThreadScope(scope.startTime);
+            if (parent == null) {
+                return;
+            }
+        }
+        addChild(parent, scope);
+        setCurrentScope(scope);
     }
 
     public static void start(String scopeName) {
-        if (rootScope == null) {
+        if (isDisabled()) {
             return;
         }
         start();
@@ -302,20 +387,40 @@ public class TimeProfiler {
         start(String.format(fmt, args));
     }
 
-    private static void unsafeStop() {
-        currentScope.endTime = time();
-        currentScope = currentScope.parent;
+    private static ProfilingScope unsafeStop(ProfilingScope scope) {
+        scope.endTime = time();
+        if (scope == sharedScope) {
+            sharedScope = rootScope;
+        }
+        ProfilingScope parent = scope.parent;
+        if (parent != null && parent.threadScope) {
+            parent.endTime = scope.endTime;
+        }
+        return parent;
+    }
+
+    // Get the innermost started scope of the current thread, or null if there is none
+    private static ProfilingScope getStartedScope() {
+        if (isDisabled()) {
+            return null;
+        }
+        ProfilingScope scope = getCurrentScope();
+        if (scope == null || scope.threadScope) {
+            return null;
+        }
+        return scope;
     }
 
     public static void stop() {
-        if (rootScope == null) {
+        ProfilingScope scope = getStartedScope();
+        if (scope == null) {
             return;
         }
-        unsafeStop();
+        setCurrentScope(unsafeStop(scope));
     }
 
     public static void addMark(String shortName, String fullName, String color) {
-        if (rootScope == null) {
+        if (isDisabled()) {
             return;
         }
         ProfilingMark mark = new ProfilingMark();
@@ -323,7 +428,9 @@ public class TimeProfiler {
         mark.shortName = shortName;
         mark.fullName = fullName;
         mark.color = color;
-        marks.add(mark);
+        synchronized (lock) {
+            marks.add(mark);
+        }
     }
 
     public static void addMark(String shortName) {
@@ -334,46 +441,49 @@ public class TimeProfiler {
         addMark(shortName, shortName, "#EADDCA");
     }
 
-    private static void unsafeAddData(String fieldName, String data) {
-        if (currentScope.additionalStringData == null) {
-            currentScope.additionalStringData = new HashMap<String, String>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, String data) {
+        if (scope.additionalStringData == null) {
+            scope.additionalStringData = new HashMap<String, String>();
         }
-        currentScope.additionalStringData.put(fieldName, data);
+        scope.additionalStringData.put(fieldName, data);
     }
 
-    private static void unsafeAddData(String fieldName, Float data) {
-        if (currentScope.additionalNumberData == null) {
-            currentScope.additionalNumberData = new HashMap<String, Float>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, Float data) {
+        if (scope.additionalNumberData == null) {
+            scope.additionalNumberData = new HashMap<String, Float>();
         }
-        currentScope.additionalNumberData.put(fieldName, data);
+        scope.additionalNumberData.put(fieldName, data);
     }
 
-    private static void unsafeAddData(String fieldName, Boolean data) {
-        if (currentScope.additionalBooleanData == null) {
-            currentScope.additionalBooleanData = new HashMap<String, Boolean>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, Boolean data) {
+        if (scope.additionalBooleanData == null) {
+            scope.additionalBooleanData = new HashMap<String, Boolean>();
         }
-        currentScope.additionalBooleanData.put(fieldName, data);
+        scope.additionalBooleanData.put(fieldName, data);
     }
 
     public static void addData(String fieldName, String data) {
-        if (rootScope == null) {
+        ProfilingScope scope = getStartedScope();
+        if (scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Float data) {
-        if (rootScope == null) {
+        ProfilingScope scope = getStartedScope();
+        if (scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Boolean data) {
-        if (rootScope == null) {
+        ProfilingScope scope = getStartedScope();
+        if (scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Integer data) {
@@ -32,6 +32,8 @@
  */
 package org.jagatoo.loaders.models.collada.stax;
 
+import java.util.Arrays;
+
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -43,14 +45,315 @@ import javax.xml.stream.XMLStreamReader;
  */
 public class StAXHelper
 {
+    // DYNAMO: Powers of ten that are exact as doubles
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Reads the text of the current element. The text may be reported as
+     * several character events, which are all appended.
+     * 
+     * @return the text, or null if the element has no text
+     */
     public static String parseText( XMLStreamReader parser ) throws XMLStreamException
     {
+        StringBuilder text = null;
         for ( int event = parser.next(); event != XMLStreamConstants.END_ELEMENT; event = parser.next() )
         {
-            if ( event == XMLStreamConstants.CHARACTERS )
-                return parser.getText();
+            if ( isText( event ) )
+            {
+                if ( text == null )
+                    text = new StringBuilder();
+                text.append( parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength() );
+            }
+        }
+        
+        return text == null ? null : text.toString();
+    }
+    
+    /**
+     * @return true if the event carries element text
+     */
+    public static boolean isText( int event )
+    {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE;
+    }
+    
+    private static int initialCapacity( int capacity )
+    {
+        // Don't trust the count attribute with more than 64M values up front
+        return Math.max( Math.min( capacity, 1 << 26 ), 16 );
+    }
+    
+    private static boolean isWhitespace( char c )
+    {
+        // Same delimiters as StringTokenizer
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+    
+    /**
+     * DYNAMO: Reads whitespace separated values directly from the character
+     * events of the parser, without building strings of the element text.
+     * The parser must not be coalescing for this to save any memory, and a
+     * value may then be split between two events.
+     */
+    private static abstract class ArrayReader
+    {
+        // Start of a value that was split between two events
+        private char[] token = new char[ 64 ];
+        private int tokenLength = 0;
+        
+        protected abstract void add( char[] chars, int start, int length );
+        
+        /**
+         * Reads the values of the current text event
+         */
+        public void read( XMLStreamReader parser )
+        {
+            char[] chars = parser.getTextCharacters();
+            int i = parser.getTextStart();
+            int end = i + parser.getTextLength();
+            if ( tokenLength > 0 )
+            {
+                int tokenEnd = i;
+                while ( tokenEnd < end && !isWhitespace( chars[ tokenEnd ] ) )
+                    tokenEnd++;
+                appendToken( chars, i, tokenEnd - i );
+                if ( tokenEnd == end )
+                    return;
+                flush();
+                i = tokenEnd;
+            }
+            
+            while ( i < end )
+            {
+                while ( i < end && isWhitespace( chars[ i ] ) )
+                    i++;
+                int start = i;
+                while ( i < end && !isWhitespace( chars[ i ] ) )
+                    i++;
+                if ( i == end )
+                {
+                    // The value might continue in the next event
+                    appendToken( chars, start, i - start );
+                }
+                else
+                {
+                    add( chars, start, i - start );
+                }
+            }
+        }
+        
+        /**
+         * Ends the current value, e.g. at the end of an element
+         */
+        public void flush()
+        {
+            if ( tokenLength > 0 )
+            {
+                add( token, 0, tokenLength );
+                tokenLength = 0;
+            }
+        }
+        
+        private void appendToken( char[] chars, int start, int length )
+        {
+            if ( tokenLength + length > token.length )
+                token = Arrays.copyOf( token, Math.max( token.length * 2, tokenLength + length ) );
+            System.arraycopy( chars, start, token, tokenLength, length );
+            tokenLength += length;
+        }
+    }
+    
+    /**
+     * DYNAMO: Reads a float array from character events
+     */
+    public static class FloatArrayReader extends ArrayReader
+    {
+        private float[] values;
+        private int count = 0;
+        
+        /**
+         * @param capacity expected number of values, or -1 if unknown
+         */
+        public FloatArrayReader( int capacity )
+        {
+            values = new float[ initialCapacity( capacity ) ];
+        }
+        
+        @Override
+        protected void add( char[] chars, int start, int length )
+        {
+            if ( count == values.length )
+                values = Arrays.copyOf( values, count * 2 );
+            values[ count++ ] = parseFloat( chars, start, length );
+        }
+        
+        public float[] toArray()
+        {
+            flush();
+            return count == values.length ? values : Arrays.copyOf( values, count );
+        }
+    }
+    
+    /**
+     * DYNAMO: Reads an int array from character events
+     */
+    public static class IntArrayReader extends ArrayReader
+    {
+        private int[] values;
+        private int count = 0;
+        
+        /**
+         * @param capacity expected number of values, or -1 if unknown
+         */
+        public IntArrayReader( int capacity )
+        {
+            values = new int[ initialCapacity( capacity ) ];
+        }
+        
+        @Override
+        protected void add( char[] chars, int start, int length )
+        {
+            if ( count == values.length )
+                values = Arrays.copyOf( values, count * 2 );
+            values[ count++ ] = parseInt( chars, start, length );
+        }
+        
+        public int[] toArray()
+        {
+            flush();
+            return count == values.length ? values : Arrays.copyOf( values, count );
+        }
+    }
+    
+    /**
+     * DYNAMO: Parses a float with the same result as Float.parseFloat, except
+     * that malformed values are parsed as zero (see XMLFloatArray.toArray).
+     * Plain decimal values with up to 15 significant digits are parsed without
+     * creating a string.
+     */
+    public static float parseFloat( char[] chars, int start, int length )
+    {
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if ( i < end && ( chars[ i ] == '-' || chars[ i ] == '+' ) )
+        {
+            negative = chars[ i ] == '-';
+            i++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for ( ; i < end && chars[ i ] >= '0' && chars[ i ] <= '9'; i++ )
+        {
+            hasDigits = true;
+            if ( mantissa != 0 || chars[ i ] != '0' )
+            {
+                if ( ++digits > 15 )
+                    return parseFloatSlow( chars, start, length );
+                mantissa = mantissa * 10 + ( chars[ i ] - '0' );
+            }
+        }
+        if ( i < end && chars[ i ] == '.' )
+        {
+            for ( i++; i < end && chars[ i ] >= '0' && chars[ i ] <= '9'; i++ )
+            {
+                hasDigits = true;
+                if ( mantissa != 0 || chars[ i ] != '0' )
+                {
+                    if ( ++digits > 15 )
+                        return parseFloatSlow( chars, start, length );
+                    mantissa = mantissa * 10 + ( chars[ i ] - '0' );
+                }
+                exponent--;
+            }
+        }
+        if ( !hasDigits )
+            return parseFloatSlow( chars, start, length );
+        if ( i < end && ( chars[ i ] == 'e' || chars[ i ] == 'E' ) )
+        {
+            i++;
+            boolean negativeExponent = false;
+            if ( i < end && ( chars[ i ] == '-' || chars[ i ] == '+' ) )
+            {
+                negativeExponent = chars[ i ] == '-';
+                i++;
+            }
+            int e = 0;
+            boolean hasExponentDigits = false;
+            for ( ; i < end && chars[ i ] >= '0' && chars[ i ] <= '9'; i++ )
+            {
+                hasExponentDigits = true;
+                if ( e < 1000 )
+                    e = e * 10 + ( chars[ i ] - '0' );
+            }
+            if ( !hasExponentDigits )
+                return parseFloatSlow( chars, start, length );
+            exponent += negativeExponent ? -e : e;
         }
+        if ( i != end )
+            return parseFloatSlow( chars, start, length );
         
-        return null;
+        if ( mantissa == 0 )
+            return negative ? -0.0f : 0.0f;
+        if ( exponent < -22 || exponent > 22 )
+            return parseFloatSlow( chars, start, length );
+        
+        // The mantissa and the power of ten are exact, so this is the correctly
+        // rounded double. Rounding it to float gives the correctly rounded float,
+        // unless the double lies exactly halfway between two floats.
+        double value = exponent < 0 ? mantissa / POW10[ -exponent ] : mantissa * POW10[ exponent ];
+        if ( ( Double.doubleToRawLongBits( value ) & 0x1fffffffL ) == 0x10000000L )
+            return parseFloatSlow( chars, start, length );
+        float f = (float)value;
+        return negative ? -f : f;
+    }
+    
+    private static float parseFloatSlow( char[] chars, int start, int length )
+    {
+        try
+        {
+            return Float.parseFloat( new String( chars, start, length ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            // Defold-fix:
+            // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+            // We need to catch the format exception and simply "parse" it as a zero.
+            return 0.0f;
+        }
+    }
+    
+    /**
+     * DYNAMO: Parses an int with the same result as Integer.parseInt
+     */
+    public static int parseInt( char[] chars, int start, int length )
+    {
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if ( i < end && ( chars[ i ] == '-' || chars[ i ] == '+' ) )
+        {
+            negative = chars[ i ] == '-';
+            i++;
+        }
+        if ( i == end || end - i > 9 )
+            return Integer.parseInt( new String( chars, start, length ) );
+        
+        int value = 0;
+        for ( ; i < end; i++ )
+        {
+            char c = chars[ i ];
+            if ( c < '0' || c > '9' )
+                return Integer.parseInt( new String( chars, start, length ) );
+            value = value * 10 + ( c - '0' );
+        }
+        return negative ? -value : value;
     }
 }
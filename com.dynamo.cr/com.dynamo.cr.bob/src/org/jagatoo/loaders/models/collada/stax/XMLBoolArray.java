@@ -82,6 +82,7 @@ public class XMLBoolArray {
             }
         }
         
+        StringBuilder text = null;
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -92,13 +93,20 @@ public class XMLBoolArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    bools = toArray( parser.getText() );
+                    // DYNAMO: The text may be split in several events
+                    if ( text == null )
+                        text = new StringBuilder();
+                    text.append( parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength() );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( "bool_array" ) )
+                    {
+                        if ( text != null )
+                            bools = toArray( text.toString() );
                         return;
+                    }
                     break;
                 }
             }
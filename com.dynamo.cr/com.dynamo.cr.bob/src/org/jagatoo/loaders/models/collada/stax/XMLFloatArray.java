@@ -92,8 +92,8 @@ public class XMLFloatArray {
             }
         }
 
-        // DYNAMO: Buffering fix
-        StringBuffer floats_buffer = new StringBuffer();
+        // DYNAMO: Read the values as they are parsed, the text can be very large
+        StAXHelper.FloatArrayReader reader = new StAXHelper.FloatArrayReader( count );
 
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
@@ -105,15 +105,17 @@ public class XMLFloatArray {
                     break;
                 }
                 case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
                 {
-                    floats_buffer.append(parser.getText());
+                    reader.read( parser );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( "float_array" ) )
                     {
-                        floats = toArray( floats_buffer.toString() );
+                        floats = reader.toArray();
                         return;
                     }
                     break;
@@ -82,6 +82,7 @@ public class XMLIDREFArray {
             }
         }
         
+        StringBuilder text = null;
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -93,13 +94,20 @@ public class XMLIDREFArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    idrefs = toArray( parser.getText() );
+                    // DYNAMO: The text may be split in several events
+                    if ( text == null )
+                        text = new StringBuilder();
+                    text.append( parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength() );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( "IDREF_array" ) )
+                    {
+                        if ( text != null )
+                            idrefs = toArray( text.toString() );
                         return;
+                    }
                     break;
                 }
             }
@@ -81,8 +81,8 @@ public class XMLIntArray {
             }
         }
 
-        // DYNAMO: Buffering fix
-        StringBuffer ints_buffer = new StringBuffer();
+        // DYNAMO: Read the values as they are parsed, the text can be very large
+        StAXHelper.IntArrayReader reader = new StAXHelper.IntArrayReader( count );
 
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
@@ -94,15 +94,17 @@ public class XMLIntArray {
                     break;
                 }
                 case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
                 {
-                    ints_buffer.append(parser.getText());
+                    reader.read( parser );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( endTag ) )
                     {
-                        ints = toArray( ints_buffer.toString() );
+                        ints = reader.toArray();
                         return;
                     }
                     break;
@@ -81,6 +81,7 @@ public class XMLNameArray {
             }
         }
         
+        StringBuilder text = null;
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -92,13 +93,20 @@ public class XMLNameArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    names = toArray( parser.getText() );
+                    // DYNAMO: The text may be split in several events
+                    if ( text == null )
+                        text = new StringBuilder();
+                    text.append( parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength() );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( "Name_array" ) )
+                    {
+                        if ( text != null )
+                            names = toArray( text.toString() );
                         return;
+                    }
                     break;
                 }
             }
@@ -30,7 +30,6 @@
 package org.jagatoo.loaders.models.collada.stax;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
@@ -95,11 +94,11 @@ public class XMLTriangles
             }
         }
 
-        // DYNAMO: Buffering fix
+        // DYNAMO: Read the indices as they are parsed, the text can be very large
         boolean parsing_triangles = false;
         boolean parsing_vcount = false;
-        StringBuffer triangles_buffer = new StringBuffer();
-        StringBuffer vcount_buffer = new StringBuffer();
+        StAXHelper.IntArrayReader triangles_reader = null;
+        StAXHelper.IntArrayReader vcount_reader = new StAXHelper.IntArrayReader( polyList ? count : -1 );
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -116,7 +115,14 @@ public class XMLTriangles
                     }
                     else if ( parser.getLocalName().equals( "p" ) )
                     {
-                        //triangles_buffer.append(StAXHelper.parseText( parser ));
+                        if ( triangles_reader == null )
+                        {
+                            // The inputs come before the indices, so the size is known for triangles
+                            int stride = 0;
+                            for ( XMLInput input : inputs )
+                                stride = Math.max( stride, input.offset + 1 );
+                            triangles_reader = new StAXHelper.IntArrayReader( polyList || count < 0 ? -1 : count * 3 * stride );
+                        }
                         parsing_triangles = true;
                     }
                     else if ( parser.getLocalName().equals( "vcount" ) )
@@ -132,54 +138,62 @@ public class XMLTriangles
                     break;
                 }
                 case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
                 {
                     if (parsing_triangles)
-                        triangles_buffer.append(parser.getText());
+                        triangles_reader.read( parser );
                     else if (parsing_vcount)
-                        vcount_buffer.append(parser.getText());
+                        vcount_reader.read( parser );
                     break;
                 }
 
                 case XMLStreamConstants.END_ELEMENT:
                 {
-                    if ( parser.getLocalName().equals( "triangles" ) )
+                    if ( parser.getLocalName().equals( "p" ) )
+                    {
+                        triangles_reader.flush();
+                    }
+                    else if ( parser.getLocalName().equals( "vcount" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
+                        vcount_reader.flush();
+                    }
+                    else if ( parser.getLocalName().equals( "triangles" ) )
+                    {
+                        p = triangles_reader == null ? new int[ 0 ] : triangles_reader.toArray();
                         return;
                     }
                     else if ( parser.getLocalName().equals( "polylist" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
-                        int[] vcount = XMLIntArray.toArray(vcount_buffer.toString());
+                        p = triangles_reader == null ? new int[ 0 ] : triangles_reader.toArray();
+                        int[] vcount = vcount_reader.toArray();
                         int totalVertexCount = 0;
+                        int triangleCount = 0;
                         for (int vc : vcount) {
                             totalVertexCount += vc;
+                            triangleCount += Math.max(vc - 2, 0);
                         }
                         int elementsPerVertex = p.length / totalVertexCount;
 
-                        List<Integer> trianglesP = new ArrayList<Integer>(1024);
+                        int[] pPrim = new int[triangleCount * 3 * elementsPerVertex];
+                        int n = 0;
 
                         int base = 0;
                         for (int vc : vcount) {
                             for (int j = 0; j < vc - 2; ++j) {
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + 0 * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + 0 * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 1) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 1) * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 2) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 2) * elementsPerVertex + i];
                                 }
                             }
                             base += vc * elementsPerVertex;
                         }
 
-                        int[] pPrim = new int[trianglesP.size()];
-                        for (int i = 0; i < pPrim.length; i++) {
-                            pPrim[i] = trianglesP.get(i);
-                        }
-
                         count = pPrim.length / (3 * elementsPerVertex);
 
                         p = pPrim;
@@ -77,6 +77,22 @@ public class ModelImporter {
         public Options() {
             this.dummy = 0;
         }
+
+        // Options are part of the key when caching loaded scenes
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Options))
+                return false;
+            Options other = (Options)o;
+            return this.dummy == other.dummy;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.dummy;
+        }
     }
 
     public static class Vec4 { // simd Vector3/Vector4/Quat